@@ -41,6 +41,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -137,6 +139,12 @@ import org.apache.hadoop.hbase.shaded.protobuf.generated.ReplicationProtos.Updat
 @InterfaceAudience.Private
 class ConnectionImplementation implements ClusterConnection, Closeable {
   public static final String RETRIES_BY_SERVER_KEY = "hbase.client.retries.by.server";
+  /**
+   * Run the tasks of the shared batch pool, e.g. the multi actions AsyncProcess sends per region
+   * server, on virtual threads when the JVM has them.
+   */
+  public static final String VIRTUAL_THREADS_CONF_KEY = "hbase.client.virtual.threads";
+  public static final boolean DEFAULT_VIRTUAL_THREADS = false;
   private static final Logger LOG = LoggerFactory.getLogger(ConnectionImplementation.class);
 
   private static final String RESOLVE_HOSTNAME_ON_FAIL_KEY = "hbase.resolve.hostnames.on.failure";
@@ -513,8 +521,19 @@ class ConnectionImplementation implements ClusterConnection, Closeable {
     if (batchPool == null) {
       synchronized (this) {
         if (batchPool == null) {
-          int threads = conf.getInt("hbase.hconnection.threads.max", 256);
-          this.batchPool = getThreadPool(threads, threads, "-shared", null);
+          ThreadFactory virtual = null;
+          if (conf.getBoolean(VIRTUAL_THREADS_CONF_KEY, DEFAULT_VIRTUAL_THREADS)) {
+            virtual = Threads.newVirtualThreadFactory(toString() + "-shared");
+          }
+          if (virtual != null) {
+            // a virtual thread per task, AsyncProcess already bounds the tasks in progress
+            this.batchPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                conf.getLong("hbase.hconnection.threads.keepalivetime", 60), TimeUnit.SECONDS,
+                new SynchronousQueue<>(), virtual);
+          } else {
+            int threads = conf.getInt("hbase.hconnection.threads.max", 256);
+            this.batchPool = getThreadPool(threads, threads, "-shared", null);
+          }
           this.cleanupPool = true;
         }
       }
@@ -281,6 +281,10 @@ public class MetricsConnection implements StatisticTrackable {
   @VisibleForTesting protected final Counter hedgedReadOps;
   @VisibleForTesting protected final Counter hedgedReadWin;
   @VisibleForTesting protected final Histogram concurrentCallsPerServerHist;
+  @VisibleForTesting protected final Timer rdmaPoolAcquireTimer;
+  @VisibleForTesting protected final Counter rdmaPoolHits;
+  @VisibleForTesting protected final Counter rdmaPoolMisses;
+  @VisibleForTesting protected final Counter rdmaPoolConnections;
 
   // dynamic metrics
 
@@ -339,6 +343,19 @@ public class MetricsConnection implements StatisticTrackable {
     this.runnerStats = new RunnerStats(this.registry);
     this.concurrentCallsPerServerHist = registry.histogram(name(MetricsConnection.class, 
       "concurrentCallsPerServer", scope));
+    this.rdmaPoolAcquireTimer = registry.timer(name(this.getClass(), "rdmaPoolAcquire", scope));
+    this.rdmaPoolHits = registry.counter(name(this.getClass(), "rdmaPoolHits", scope));
+    this.rdmaPoolMisses = registry.counter(name(this.getClass(), "rdmaPoolMisses", scope));
+    this.rdmaPoolConnections =
+        registry.counter(name(this.getClass(), "rdmaPoolConnections", scope));
+    this.registry.register(getRdmaPoolReuseRatioName(),
+        new RatioGauge() {
+          @Override
+          protected Ratio getRatio() {
+            long hits = rdmaPoolHits.getCount();
+            return Ratio.of(hits, hits + rdmaPoolMisses.getCount());
+          }
+        });
 
     this.reporter = JmxReporter.forRegistry(this.registry).build();
     this.reporter.start();
@@ -354,6 +371,11 @@ public class MetricsConnection implements StatisticTrackable {
     return name(getClass(), "metaPoolActiveThreads", scope);
   }
 
+  @VisibleForTesting
+  final String getRdmaPoolReuseRatioName() {
+    return name(getClass(), "rdmaPoolReuseRatio", scope);
+  }
+
   @VisibleForTesting
   MetricRegistry getMetricRegistry() {
     return registry;
@@ -399,6 +421,29 @@ public class MetricsConnection implements StatisticTrackable {
     hedgedReadWin.inc();
   }
 
+  /**
+   * Update the time spent to acquire a connection from the RDMA connection pool.
+   * @param reused whether an open connection was handed out rather than a new one connected
+   */
+  public void updateRdmaPoolAcquire(long nanos, boolean reused) {
+    rdmaPoolAcquireTimer.update(nanos, TimeUnit.NANOSECONDS);
+    if (reused) {
+      rdmaPoolHits.inc();
+    } else {
+      rdmaPoolMisses.inc();
+    }
+  }
+
+  /** Increment the number of open RDMA pool connections. */
+  public void incrRdmaPoolConnections() {
+    rdmaPoolConnections.inc();
+  }
+
+  /** Decrement the number of open RDMA pool connections. */
+  public void decrRdmaPoolConnections() {
+    rdmaPoolConnections.dec();
+  }
+
   /** Increment the number of normal runner counts. */
   public void incrNormalRunners() {
     this.runnerStats.incrNormalRunners();
@@ -40,6 +40,10 @@ public class BlockingRDMARpcClient extends AbstractRpcClient<BlockingRDMARpcConn
 
   protected final SocketFactory socketFactory; // how to create sockets
 
+  final RdmaTransport rdmaTransport;
+
+  final RdmaConnectionPool rdmaPool;
+
   /**
    * Used in test only. Construct an IPC client for the cluster {@code clusterId} with the default
    * SocketFactory
@@ -61,6 +65,8 @@ public class BlockingRDMARpcClient extends AbstractRpcClient<BlockingRDMARpcConn
       MetricsConnection metrics) {
     super(conf, clusterId, localAddr, metrics);
     this.socketFactory = NetUtils.getDefaultSocketFactory(conf);
+    this.rdmaTransport = RdmaTransportFactory.createTransport(conf);
+    this.rdmaPool = new RdmaConnectionPool(rdmaTransport, conf, metrics);
   }
 
   /**
@@ -74,5 +80,11 @@ public class BlockingRDMARpcClient extends AbstractRpcClient<BlockingRDMARpcConn
 
   @Override
   protected void closeInternal() {
+    rdmaPool.close();
+    try {
+      rdmaTransport.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close rdma transport", e);
+    }
   }
 }
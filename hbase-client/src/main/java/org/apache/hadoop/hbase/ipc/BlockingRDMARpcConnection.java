@@ -25,7 +25,6 @@ import static org.apache.hadoop.hbase.ipc.IPCUtil.setCancelled;
 import static org.apache.hadoop.hbase.ipc.IPCUtil.write;
 
 import java.nio.charset.StandardCharsets;
-import java.io.ByteArrayInputStream; 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
@@ -53,6 +52,7 @@ import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
 import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.io.ByteBufferInputStream;
 import org.apache.hadoop.hbase.ipc.HBaseRpcController.CancellationCallback;
 import org.apache.hadoop.hbase.log.HBaseMarkers;
 import org.apache.hadoop.hbase.security.HBaseSaslRpcClient;
@@ -105,6 +105,8 @@ class BlockingRDMARpcConnection extends RpcConnection implements Runnable {
 
 
   public final int rdmaPort;
+  // the RDMA port of the servers which listen for RDMA
+  private final int rdmaListenerPort;
   private HBaseSaslRpcClient saslRpcClient;
 
   // currently active calls
@@ -120,6 +122,8 @@ class BlockingRDMARpcConnection extends RpcConnection implements Runnable {
 
   private boolean waitingConnectionHeaderResponse = false;
 
+  private final RdmaResponseHandler rdmaResponseHandler = new RdmaResponseHandler();
+
   /**
    * If the client wants to interrupt its calls easily (i.e. call Thread#interrupt), it gets into a
    * java issue: an interruption during a write closes the socket/channel. A way to avoid this is to
@@ -186,183 +190,49 @@ class BlockingRDMARpcConnection extends RpcConnection implements Runnable {
   }
   private class CallSender extends Thread {
 
-    private DataInputStream rdma_in = null;
-    private DataOutputStream rdma_out = null ;
-    private ByteArrayOutputStream rdma_out_stream = null;
-    private  RdmaNative rdma = new RdmaNative();
-    //private RdmaConnectionPool rdmaPool=new RdmaConnectionPool(rdma);
-    //private RdmaNative.RdmaMuxedClientConnection rdmaconn;//init this at L723 
-     private RdmaNative.RdmaClientConnection rdmaconn;
-
-     private void setupRdmaIOstreams() throws IOException {
-
-      if(this.rdmaconn!=null){
-      //if(this.rdmaconn.ifInit()){//this is already set
-
-        //LOG.error("RDMA setupRdmaIOstreams conn reuse, clean the old stream");
-          ////this.rdma_out.close();
-        this.rdma_out_stream.reset();//clear the underlying one.
-        return ;
-      //}
-      //LOG.error("get a rdmaconn, not inited!!!");
-
-     }
-  //LOG.debug("RDMA rdmaConnect  with addr and port and name"+remoteId.address+this.rdmaPort+threadName);
-
-    do this.rdmaconn=rdma.rdmaConnect(remoteId.address.toString(),rdmaPort);
-    while (this.rdmaconn==null);  
-
-
-  this.rdma_out_stream = new ByteArrayOutputStream();
-  this.rdma_out = new DataOutputStream(this.rdma_out_stream);
-
-
-  try {
-      // Now write out the connection header//
-      // this will init the servie and usr ugi
-    rdma_out.write(connectionHeaderWithLength);// essential connectionHeaderRead
-    this.rdmaconn.init();
-
-  } catch (Throwable t) {
-    LOG.warn("Error in RDMA setupRDMAIOstream");
-  }
-
-  // start the receiver thread after the socket connection has been set up
-  thread = new Thread(this, threadName);
-  thread.setDaemon(true);
-  thread.start();
-}
-private void writeRdmaRequest(Call call) throws IOException {
-  //LOG.debug("RDMA writeRdmaRequest hooked what should go to "+remoteId.getAddress());
-  ByteBuffer cellBlock = rpcClient.cellBlockBuilder.buildCellBlock(codec,
-    compressor, call.cells);
-  CellBlockMeta cellBlockMeta;
-  if (cellBlock != null) {
-    cellBlockMeta = CellBlockMeta.newBuilder().setLength(cellBlock.limit()).build();
-  } else {
-    cellBlockMeta = null;
-  }
-  RequestHeader requestHeader = buildRequestHeader(call, cellBlockMeta);
-  
-
-
-  setupRdmaIOstreams();
+    /**
+     * Write the call as one query on the shared RDMA connection. Does not wait for the response,
+     * the reader thread of the connection completes the call, see {@link RdmaResponseHandler}.
+     */
+    private void writeRdmaRequest(Call call) throws IOException {
+      ByteBuffer cellBlock = rpcClient.cellBlockBuilder.buildCellBlock(codec,
+        compressor, call.cells);
+      CellBlockMeta cellBlockMeta;
+      if (cellBlock != null) {
+        cellBlockMeta = CellBlockMeta.newBuilder().setLength(cellBlock.limit()).build();
+      } else {
+        cellBlockMeta = null;
+      }
+      RequestHeader requestHeader = buildRequestHeader(call, cellBlockMeta);
 
-  // Now we're going to write the call. We take the lock, then check that the connection
-  // is still valid, and, if so we do the write to the socket. If the write fails, we don't
-  // know where we stand, we have to close the connection.
-  if (Thread.interrupted()) {
-    throw new InterruptedIOException();
-  }
+      // stripe by call id, so the calls of this connection spread over the pooled connections
+      RdmaConnectionPool.PooledConnection pooled = acquireRdmaConnection(call.id);
 
-  calls.put(call.id, call); // We put first as we don't want the connection to become idle.
-  // from here, we do not throw any exception to upper layer as the call has been tracked in the
-  // pending calls map.  
-  try {
-    call.callStats.setRequestSizeBytes(write(this.rdma_out, requestHeader, call.param, cellBlock));
-    
-    byte[] sbuf=this.rdma_out_stream.toByteArray();
-    //LOG.trace("RDMA rdmaWrite with length and content "+rdma_out_stream.size()+" "+
-    //StandardCharsets.UTF_8.decode(ByteBuffer.wrap(sbuf)).toString());
-    //allocate direct buf
-    ByteBuffer directbuf=ByteBuffer.allocateDirect(sbuf.length);
-    ByteBuffer tmp = ByteBuffer.wrap(sbuf);
-    directbuf.put(tmp);
-    if(!rdmaconn.writeQuery(directbuf))
-    LOG.error("RDMA writeQuery failed");
-
-    //LOG.trace("RDMA rdmaWrite with length and content "+rdma_out_stream.size()+" "+
-    //StandardCharsets.UTF_8.decode(directbuf).toString());
-    //rdmaconn.close();//close the one have problem, get a new
-    //return;
-  } catch (Throwable t) {
-    LOG.warn("Error while writing RDMA call, call_id:" + call.id, t);
-    return;
-  }
-  //
-  readRdmaResponse();//waiting for the response
-  //LOG.error("RDMA readRdmaResponse done");
-}
-private void readRdmaResponse() {
-  Call call = null;
-  boolean expectedCall = false;
-  try {
-    //LOG.error("RDMA readRdmaResponse waiting");
-    ByteBuffer rbuf=this.rdmaconn.readResponse();
-    if (rbuf==null) {
-      LOG.info("RDMA readRdmaResponse lbs' bug");
-    }
-    int length = rbuf.remaining();
-    LOG.info("RDMA get rbuf readResponse! with length and content "+length+" "+StandardCharsets.UTF_8.decode(rbuf).toString());
-    rbuf.rewind();
-    byte[] arr = new byte[length];
-    rbuf.get(arr);
-    rdma_in=new DataInputStream(new ByteArrayInputStream(arr));
-    int totalSize;
-    do {
-       // See HBaseServer.Call.setResponse for where we write out the response.
-    // Total size of the response. Unused. But have to read it in anyways.
-    totalSize = rdma_in.readInt();
-    //LOG.trace("RDMA get rbuf totalSize "+totalSize);
-    // Read the header
-    ResponseHeader responseHeader = ResponseHeader.parseDelimitedFrom(rdma_in);
-    int id = responseHeader.getCallId();
-    call = calls.remove(id); // call.done have to be set before leaving this method
-    //LOG.trace("RDMA remove call");
-    expectedCall = (call != null && !call.isDone());
-    if (!expectedCall) {
-      //LOG.trace("RDMA !expectedCall");
-      // So we got a response for which we have no corresponding 'call' here on the client-side.
-      // We probably timed out waiting, cleaned up all references, and now the server decides
-      // to return a response. There is nothing we can do w/ the response at this stage. Clean
-      // out the wire of the response so its out of the way and we can get other responses on
-      // this connection.
-      int readSoFar = getTotalSizeWhenWrittenDelimited(responseHeader);
-      int whatIsLeftToRead = totalSize - readSoFar;
-      IOUtils.skipFully(rdma_in, whatIsLeftToRead);
-      if (call != null) {
-        call.callStats.setResponseSizeBytes(totalSize);
+      // Now we're going to write the call. We take the lock, then check that the connection
+      // is still valid, and, if so we do the write to the socket. If the write fails, we don't
+      // know where we stand, we have to close the connection.
+      if (Thread.interrupted()) {
+        throw new InterruptedIOException();
       }
-      return;
-    }
-    if (responseHeader.hasException()) {
-      //LOG.trace("RDMA hasException! ");
-      ExceptionResponse exceptionResponse = responseHeader.getException();
-      RemoteException re = createRemoteException(exceptionResponse);
-      call.setException(re);
-      call.callStats.setResponseSizeBytes(totalSize);
-    } else {
-      //LOG.trace("RDMA noException! ");
-      Message value = null;
-      if (call.responseDefaultType != null) {
-        Builder builder = call.responseDefaultType.newBuilderForType();
-        ProtobufUtil.mergeDelimitedFrom(builder, rdma_in);
-        value = builder.build();
-      }
-      CellScanner cellBlockScanner = null;
-      if (responseHeader.hasCellBlockMeta()) {
-        int size = responseHeader.getCellBlockMeta().getLength();
-        byte[] cellBlock = new byte[size];
-
-          IOUtils.readFully(this.rdma_in, cellBlock, 0, cellBlock.length);
-        
-        cellBlockScanner = rpcClient.cellBlockBuilder.createCellScanner(codec,
-          compressor, cellBlock);
+
+      calls.put(call.id, call); // We put first as we don't want the connection to become idle.
+      // from here, we do not throw any exception to upper layer as the call has been tracked in the
+      // pending calls map.
+      try {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        call.callStats.setRequestSizeBytes(
+          write(new DataOutputStream(bos), requestHeader, call.param, cellBlock));
+        pooled.getConnection().writeQuery(call.id,
+          ByteBuffer.wrap(bos.getBuffer(), 0, bos.size()), rdmaResponseHandler);
+      } catch (Throwable t) {
+        LOG.warn("Error while writing RDMA call, call_id:" + call.id, t);
+        calls.remove(call.id);
+        call.setException(IPCUtil.toIOE(t));
+      } finally {
+        pooled.close();
       }
-      call.setResponse(value, cellBlockScanner);
-      call.callStats.setResponseSizeBytes(totalSize);
     }
-      
-    } while (length > totalSize );
-   
-    //LOG.trace("RDMA  readRdmaResponse! done");
-    
-  } catch (IOException e){
-    if (expectedCall) {
-      call.setException(e);
-    }
-  }
-}
+
     private final Queue<Call> callsToWrite;
 
     private final int maxQueueSize;
@@ -418,7 +288,7 @@ private void readRdmaResponse() {
           }
           try {
             
-            if((!useSasl)&&(rdmaPort==16021))
+            if((!useSasl)&&(rdmaPort==rdmaListenerPort))
             {  writeRdmaRequest(call);
               BlockingRDMARpcConnection.this.notifyAll();
               continue;
@@ -453,6 +323,114 @@ private void readRdmaResponse() {
     }
   }
 
+  /**
+   * Completes the calls written by {@link CallSender#writeRdmaRequest(Call)}. Runs in the reader
+   * thread of the {@link RdmaMuxedClientConnection}, so it must not take the connection lock.
+   */
+  private class RdmaResponseHandler implements RdmaMuxedClientConnection.ResponseHandler {
+
+    @Override
+    public void onResponse(int callId, ByteBuffer response) {
+      readRdmaResponse(response);
+    }
+
+    @Override
+    public void onError(int callId, IOException e) {
+      Call call = calls.remove(callId);
+      if (call != null) {
+        call.setException(e);
+      }
+    }
+  }
+
+  /**
+   * Lease a pipelined RDMA connection from the pool of the client, connecting if the stripe has
+   * none or the previous one failed. The connection header goes in front of the first query.
+   */
+  private RdmaConnectionPool.PooledConnection acquireRdmaConnection(int stripeHint)
+      throws IOException {
+    for (int failures = 0;; failures++) {
+      try {
+        return rpcClient.rdmaPool.acquire(remoteId.address.toString(), rdmaPort,
+          connectionHeaderWithLength, stripeHint);
+      } catch (IOException e) {
+        // back off the same way as the socket connection instead of spinning on connect
+        if (failures >= rpcClient.maxRetries || ExceptionUtil.isInterrupt(e)) {
+          throw e;
+        }
+        LOG.info("Retrying RDMA connect to " + remoteId.address + " after sleeping "
+            + rpcClient.failureSleep + "ms. Already tried " + failures + " time(s).", e);
+        try {
+          Thread.sleep(rpcClient.failureSleep);
+        } catch (InterruptedException ie) {
+          ExceptionUtil.rethrowIfInterrupt(ie);
+        }
+      }
+    }
+  }
+
+  /*
+   * Receive a response over RDMA. Responses come in the order the server completes the calls.
+   */
+  private void readRdmaResponse(ByteBuffer rbuf) {
+    Call call = null;
+    boolean expectedCall = false;
+    try {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("RDMA readResponse with length and content " + rbuf.remaining() + " "
+            + StandardCharsets.UTF_8.decode(rbuf.duplicate()).toString());
+      }
+      DataInputStream rdmaIn = new DataInputStream(new ByteBufferInputStream(rbuf));
+      // See HBaseServer.Call.setResponse for where we write out the response.
+      // Total size of the response. Unused. But have to read it in anyways.
+      int totalSize = rdmaIn.readInt();
+      // Read the header
+      ResponseHeader responseHeader = ResponseHeader.parseDelimitedFrom(rdmaIn);
+      int id = responseHeader.getCallId();
+      call = calls.remove(id); // call.done have to be set before leaving this method
+      expectedCall = (call != null && !call.isDone());
+      if (!expectedCall) {
+        // So we got a response for which we have no corresponding 'call' here on the client-side.
+        // We probably timed out waiting, cleaned up all references, and now the server decides
+        // to return a response. The response is a message of its own, nothing to skip.
+        if (call != null) {
+          call.callStats.setResponseSizeBytes(totalSize);
+          call.callStats
+              .setCallTimeMs(EnvironmentEdgeManager.currentTime() - call.callStats.getStartTime());
+        }
+        return;
+      }
+      if (responseHeader.hasException()) {
+        ExceptionResponse exceptionResponse = responseHeader.getException();
+        RemoteException re = createRemoteException(exceptionResponse);
+        call.setException(re);
+      } else {
+        Message value = null;
+        if (call.responseDefaultType != null) {
+          Builder builder = call.responseDefaultType.newBuilderForType();
+          ProtobufUtil.mergeDelimitedFrom(builder, rdmaIn);
+          value = builder.build();
+        }
+        CellScanner cellBlockScanner = null;
+        if (responseHeader.hasCellBlockMeta()) {
+          int size = responseHeader.getCellBlockMeta().getLength();
+          byte[] cellBlock = new byte[size];
+          IOUtils.readFully(rdmaIn, cellBlock, 0, cellBlock.length);
+          cellBlockScanner = rpcClient.cellBlockBuilder.createCellScanner(codec,
+            compressor, cellBlock);
+        }
+        call.setResponse(value, cellBlockScanner);
+      }
+      call.callStats.setResponseSizeBytes(totalSize);
+      call.callStats
+          .setCallTimeMs(EnvironmentEdgeManager.currentTime() - call.callStats.getStartTime());
+    } catch (IOException e) {
+      if (expectedCall) {
+        call.setException(e);
+      }
+    }
+  }
+
   BlockingRDMARpcConnection(BlockingRDMARpcClient rpcClient, ConnectionId remoteId) throws IOException {
     super(rpcClient.conf, AbstractRpcClient.WHEEL_TIMER, remoteId, rpcClient.clusterId,
         rpcClient.userProvider.isHBaseSecurityEnabled(), rpcClient.codec, rpcClient.compressor);
@@ -470,6 +448,7 @@ private void readRdmaResponse() {
     assert baos.size() == 4 + header.getSerializedSize();
     this.connectionHeaderWithLength = baos.getBuffer();
     this.rdmaPort=remoteId.getAddress().getPort()+1;//plus one
+    this.rdmaListenerPort = RdmaTransportFactory.getRdmaRpcPort(conf) + 1;
 
 
     UserGroupInformation ticket = remoteId.ticket.getUGI();
@@ -484,6 +463,16 @@ private void readRdmaResponse() {
     //   RobinCallSender = null;
     // }
     setupIOstreams();
+    if (!useSasl && rdmaPort == rdmaListenerPort
+        && conf.getBoolean(RdmaConnectionPool.WARMUP_CONF_KEY, RdmaConnectionPool.DEFAULT_WARMUP)) {
+      try {
+        rpcClient.rdmaPool.warmup(remoteId.address.toString(), rdmaPort,
+          connectionHeaderWithLength);
+      } catch (IOException e) {
+        // not fatal, the calls connect on demand
+        LOG.debug("Failed to warm up RDMA connections to " + remoteId.address, e);
+      }
+    }
   }
 
   // protected for write UT.
@@ -843,7 +832,7 @@ private void readRdmaResponse() {
       //if ((!useSasl) && (remoteId.getAddress().toString().equals("inode112/10.10.0.112:16020"))&&
       //((callMd.equals("Scan"))|callMd.equals("Get")|callMd.equals("Mutate")|callMd.equals("Multi")))//this go to the regionserver
       //for these belongs to regionserver, so we get it to that same conn
-      if((!useSasl)&&(rdmaPort==16021))
+      if((!useSasl)&&(rdmaPort==rdmaListenerPort))
         {
           //LOG.debug("RDMA get a call with callMd "+ callMd);
         //writeRdmaRequest(call);}
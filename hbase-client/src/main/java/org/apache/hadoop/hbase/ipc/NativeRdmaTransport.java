@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * {@link RdmaTransport} backed by the verbs based JNI library, see {@link RdmaNative}. The
+ * native library is loaded when the first instance is created.
+ */
+@InterfaceAudience.Private
+public class NativeRdmaTransport implements RdmaTransport {
+
+  private final RdmaNative rdma;
+  private final RdmaBufferPool bufferPool;
+
+  public NativeRdmaTransport(Configuration conf, RdmaBufferPool bufferPool) {
+    this.rdma = new RdmaNative();
+    this.bufferPool = bufferPool;
+  }
+
+  @Override
+  public void bind(int port) throws IOException {
+    if (!rdma.rdmaBind(port)) {
+      throw new IOException("Failed to bind rdma port " + port);
+    }
+  }
+
+  @Override
+  public ClientConnection connect(String addr, int port) throws IOException {
+    RdmaNative.RdmaClientConnection conn = rdma.rdmaConnect(addr, port);
+    if (conn == null) {
+      throw new IOException("Rdma connect to " + addr + ":" + port + " failed");
+    }
+    return new NativeClientConnection(conn);
+  }
+
+  @Override
+  public ServerConnection accept() throws IOException {
+    RdmaNative.RdmaServerConnection conn = rdma.rdmaBlockedAccept();
+    if (conn == null) {
+      throw new IOException("Rdma accept failed");
+    }
+    return new NativeServerConnection(conn);
+  }
+
+  @Override
+  public int getMaxInflightQueries() {
+    // the native side exchanges exactly one query and one response per registered buffer
+    return 1;
+  }
+
+  @Override
+  public void close() {
+    // The native global context lives as long as the process, the kernel cleans it up on exit.
+  }
+
+  /**
+   * Writes one message through the given native call, which returns false on failure.
+   */
+  private interface NativeWrite {
+    boolean write(ByteBuffer buf);
+  }
+
+  /**
+   * The native side takes the whole capacity of a direct buffer as the message and is done with
+   * it when the call returns. A single direct buffer is passed down as a slice from the position
+   * to the limit, everything else is gathered into a pooled buffer.
+   */
+  private void write(ByteBuffer[] data, NativeWrite nativeWrite, String op) throws IOException {
+    if (data.length == 1 && data[0].isDirect()) {
+      if (!nativeWrite.write(data[0].slice())) {
+        throw new IOException("Rdma " + op + " failed");
+      }
+      return;
+    }
+    int len = 0;
+    for (ByteBuffer b : data) {
+      len += b.remaining();
+    }
+    ByteBuffer buf = bufferPool.acquire(len);
+    try {
+      for (ByteBuffer b : data) {
+        buf.put(b.duplicate());
+      }
+      buf.flip();
+      if (!nativeWrite.write(buf.slice())) {
+        throw new IOException("Rdma " + op + " failed");
+      }
+    } finally {
+      bufferPool.release(buf);
+    }
+  }
+
+  private final class NativeClientConnection implements ClientConnection {
+
+    private final RdmaNative.RdmaClientConnection conn;
+
+    NativeClientConnection(RdmaNative.RdmaClientConnection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return conn.isClosed();
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+      write(new ByteBuffer[] { data });
+    }
+
+    @Override
+    public void write(ByteBuffer[] data) throws IOException {
+      NativeRdmaTransport.this.write(data, conn::writeQuery, "writeQuery");
+    }
+
+    @Override
+    public ByteBuffer read() throws IOException {
+      ByteBuffer buf = conn.readResponse();
+      if (buf == null) {
+        throw new ConnectionClosingException("Rdma readResponse failed");
+      }
+      return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!conn.close()) {
+        throw new IOException("Rdma close failed");
+      }
+    }
+  }
+
+  private final class NativeServerConnection implements ServerConnection {
+
+    private final RdmaNative.RdmaServerConnection conn;
+
+    NativeServerConnection(RdmaNative.RdmaServerConnection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return conn.isClosed();
+    }
+
+    @Override
+    public boolean isReadable() {
+      return conn.isQueryReadable();
+    }
+
+    @Override
+    public ByteBuffer read() throws IOException {
+      ByteBuffer buf = conn.readQuery();
+      if (buf == null) {
+        throw new ConnectionClosingException("Rdma readQuery failed");
+      }
+      return buf;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+      write(new ByteBuffer[] { data });
+    }
+
+    @Override
+    public void write(ByteBuffer[] data) throws IOException {
+      NativeRdmaTransport.this.write(data, conn::writeResponse, "writeResponse");
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+      try {
+        return InetAddress.getByAddress(conn.getClientIp());
+      } catch (UnknownHostException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!conn.close()) {
+        throw new IOException("Rdma close failed");
+      }
+    }
+  }
+}
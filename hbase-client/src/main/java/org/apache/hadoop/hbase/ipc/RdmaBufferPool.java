@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.ByteBufferPool;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Pool of direct buffers the RDMA transports stage messages in, so the memory handed to the
+ * native side stays the same from message to message instead of being allocated, registered and
+ * released per message.
+ * <p>
+ * A message needs one contiguous buffer, so buffers come in power of two size classes. The
+ * smallest class is the buffer size of the rpc server's {@link ByteBufferPool} when one is
+ * passed, and buffers of that class are shared with it. Larger classes, up to
+ * {@code hbase.ipc.rdma.buffer.pool.max.buffer.size}, keep at most
+ * {@code hbase.ipc.rdma.buffer.pool.max.per.class} free buffers each. Messages larger than that
+ * get a buffer of their own which is not pooled.
+ * <p>
+ * This class is thread safe.
+ */
+@InterfaceAudience.Private
+public class RdmaBufferPool {
+
+  public static final String MAX_BUFFER_SIZE_CONF_KEY =
+      "hbase.ipc.rdma.buffer.pool.max.buffer.size";
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+  public static final String MAX_PER_CLASS_CONF_KEY = "hbase.ipc.rdma.buffer.pool.max.per.class";
+  public static final int DEFAULT_MAX_PER_CLASS = 8;
+
+  // shared with the rpc server for the smallest class, may be null
+  private final ByteBufferPool shared;
+  private final int minBufferSize;
+  private final int maxBufferSize;
+  private final int maxPerClass;
+  private final Queue<ByteBuffer>[] classes;
+  private final AtomicInteger[] freeCounts;
+
+  /**
+   * @param shared the ByteBufferPool of the rpc server, may be null. Only used if it creates
+   *          direct buffers.
+   */
+  @SuppressWarnings("unchecked")
+  public RdmaBufferPool(ByteBufferPool shared, Configuration conf) {
+    this.shared = shared != null && shared.isDirectByteBuffer() ? shared : null;
+    this.minBufferSize = Integer.highestOneBit(Math.max(1024,
+      this.shared != null ? this.shared.getBufferSize() : ByteBufferPool.DEFAULT_BUFFER_SIZE));
+    // round up to the size of the largest class
+    this.maxBufferSize = Integer.highestOneBit(Math.max(minBufferSize,
+      conf.getInt(MAX_BUFFER_SIZE_CONF_KEY, DEFAULT_MAX_BUFFER_SIZE)) - 1) << 1;
+    this.maxPerClass = conf.getInt(MAX_PER_CLASS_CONF_KEY, DEFAULT_MAX_PER_CLASS);
+    int numClasses = classIndex(maxBufferSize) + 1;
+    this.classes = new Queue[numClasses];
+    this.freeCounts = new AtomicInteger[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      classes[i] = new ConcurrentLinkedQueue<>();
+      freeCounts[i] = new AtomicInteger();
+    }
+  }
+
+  private int classIndex(int size) {
+    if (size <= minBufferSize) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(
+      minBufferSize);
+  }
+
+  /**
+   * @return a direct buffer with position 0 and limit {@code size}. Its capacity may be larger,
+   *         slice it before handing it to code which uses the whole capacity. Return it with
+   *         {@link #release(ByteBuffer)}.
+   */
+  public ByteBuffer acquire(int size) {
+    ByteBuffer buf = null;
+    if (size <= maxBufferSize) {
+      int idx = classIndex(size);
+      if (idx == 0 && shared != null) {
+        buf = shared.getBuffer();
+      }
+      if (buf == null) {
+        buf = classes[idx].poll();
+        if (buf != null) {
+          freeCounts[idx].decrementAndGet();
+        } else {
+          buf = ByteBuffer.allocateDirect(minBufferSize << idx);
+        }
+      }
+    } else {
+      buf = ByteBuffer.allocateDirect(size);
+    }
+    buf.clear();
+    buf.limit(size);
+    return buf;
+  }
+
+  /**
+   * Return a buffer obtained by {@link #acquire(int)}.
+   */
+  public void release(ByteBuffer buf) {
+    int capacity = buf.capacity();
+    if (shared != null && capacity == shared.getBufferSize()) {
+      shared.putbackBuffer(buf);
+      return;
+    }
+    if (capacity > maxBufferSize || Integer.bitCount(capacity) != 1 || capacity < minBufferSize) {
+      return;
+    }
+    int idx = classIndex(capacity);
+    if (freeCounts[idx].incrementAndGet() > maxPerClass) {
+      freeCounts[idx].decrementAndGet();
+      return;
+    }
+    classes[idx].offer(buf);
+  }
+}
@@ -1,112 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package org.apache.hadoop.hbase.ipc;
 
-import org.apache.hadoop.hbase.util.Pair;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import java.util.HashMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.MetricsConnection;
+import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-@InterfaceAudience.Public
-public class RdmaConnectionPool {
-    private RdmaNative rn;
-    
-    public RdmaConnectionPool(RdmaNative rni) {
-        rn = rni;
-        pool = new HashMap<>();
+/**
+ * Pool of pipelined RDMA connections, keyed by server address, port and connection header.
+ * <p>
+ * Every server gets {@code hbase.ipc.client.rdma.pool.size} stripes and each stripe holds at most
+ * one {@link RdmaMuxedClientConnection}. Callers pass a stripe hint, e.g. the call id or a thread
+ * hash, so concurrent callers spread over several connections instead of contending for the slots
+ * of a single one. Stripes are connected lazily, or all at once by {@link #warmup}.
+ * <p>
+ * A connection is leased by {@link #acquire} and returned by closing the {@link PooledConnection}
+ * once the query is written; the response does not need the lease. A background sweeper closes
+ * connections which are neither leased nor have queries in flight and were not used for
+ * {@code hbase.ipc.client.rdma.pool.idle.timeout} milliseconds. Failed connections are replaced on
+ * the next acquire of their stripe.
+ */
+@InterfaceAudience.Private
+public class RdmaConnectionPool implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RdmaConnectionPool.class);
+
+  public static final String POOL_SIZE_CONF_KEY = "hbase.ipc.client.rdma.pool.size";
+  public static final int DEFAULT_POOL_SIZE = 4;
+  public static final String IDLE_TIMEOUT_CONF_KEY = "hbase.ipc.client.rdma.pool.idle.timeout";
+  public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+  public static final String WARMUP_CONF_KEY = "hbase.ipc.client.rdma.pool.warmup";
+  public static final boolean DEFAULT_WARMUP = false;
+
+  private static final ScheduledExecutorService IDLE_CONN_SWEEPER = Executors
+      .newScheduledThreadPool(1, Threads.newDaemonThreadFactory("Idle-Rdma-Conn-Sweeper"));
+
+  private final RdmaTransport transport;
+  private final int poolSize;
+  private final int maxInflight;
+  private final long idleTimeout;
+  private final MetricsConnection metrics;
+
+  private final ConcurrentMap<Key, Stripe[]> servers = new ConcurrentHashMap<>();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final ScheduledFuture<?> sweeper;
+  private volatile boolean closed = false;
+
+  /**
+   * @param metrics may be null
+   */
+  public RdmaConnectionPool(RdmaTransport transport, Configuration conf,
+      MetricsConnection metrics) {
+    this.transport = transport;
+    this.poolSize = Math.max(1, conf.getInt(POOL_SIZE_CONF_KEY, DEFAULT_POOL_SIZE));
+    this.maxInflight = conf.getInt(RdmaMuxedClientConnection.MAX_INFLIGHT_CONF_KEY,
+      RdmaMuxedClientConnection.DEFAULT_MAX_INFLIGHT);
+    this.idleTimeout = conf.getLong(IDLE_TIMEOUT_CONF_KEY, DEFAULT_IDLE_TIMEOUT);
+    this.metrics = metrics;
+    long sweepInterval = Math.max(1, idleTimeout / 2);
+    this.sweeper = IDLE_CONN_SWEEPER.scheduleAtFixedRate(this::evictIdle, sweepInterval,
+      sweepInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A leased connection. Close it exactly once, after the query has been written.
+   */
+  public static final class PooledConnection implements Closeable {
+
+    private final RdmaMuxedClientConnection conn;
+    private final AtomicInteger leases = new AtomicInteger();
+    private volatile long lastUsed = EnvironmentEdgeManager.currentTime();
+
+    PooledConnection(RdmaMuxedClientConnection conn) {
+      this.conn = conn;
     }
-    private HashMap<Pair<String, Integer>, Pair<RdmaNative.RdmaMuxedClientConnection, Integer>> pool;
-    // Acquire a connection to addr:port
-    public RdmaNative.RdmaMuxedClientConnection acquire(String addr, int port) throws RdmaConnectException{
-        Pair<String, Integer> pr = new Pair<>(addr, port);
-        if(pool.containsKey(pr)){
-            Pair<RdmaNative.RdmaMuxedClientConnection, Integer> rconn = pool.get(pr);
-            rconn.setSecond(rconn.getSecond() + 1);
-            return rconn.getFirst();
-        }
-        // we need to allocate new connection
-        RdmaNative.RdmaMuxedClientConnection rmcc = rn.muxedConnect(addr, port);
-        if(rmcc == null) throw new RdmaConnectException(addr, port);
-        Pair <RdmaNative.RdmaMuxedClientConnection, Integer> connref = new Pair<>(rmcc, 1);
-        pool.put(pr, connref);
-        return rmcc;
+
+    public RdmaMuxedClientConnection getConnection() {
+      return conn;
     }
-    // release the connection acquired by acquire()
-    public void release(RdmaNative.RdmaMuxedClientConnection rmcc) throws IllegalArgumentException, RdmaReleaseException {
-        Pair<String, Integer> pr = new Pair<>(rmcc.addr, rmcc.port);
-        if(!(pool.containsKey(pr))) throw new IllegalArgumentException();
-        Pair <RdmaNative.RdmaMuxedClientConnection, Integer> connref = pool.get(pr);
-        if(connref.getSecond() <= 0) throw new RdmaReleaseException(rmcc.addr, rmcc.port);
-        connref.setSecond(connref.getSecond() - 1);
+
+    @Override
+    public void close() {
+      lastUsed = EnvironmentEdgeManager.currentTime();
+      leases.decrementAndGet();
     }
-    // release the connection acquired by acquire(), and if nobody continues reference it, close the connection
-    public void releaseAndClose(RdmaNative.RdmaMuxedClientConnection rmcc) throws IllegalArgumentException, RdmaReleaseException {
-        Pair<String, Integer> pr = new Pair<>(rmcc.addr, rmcc.port);
-        if(!(pool.containsKey(pr))) throw new IllegalArgumentException();
-        Pair <RdmaNative.RdmaMuxedClientConnection, Integer> connref = pool.get(pr);
-        if(connref.getSecond() <= 0) throw new RdmaReleaseException(rmcc.addr, rmcc.port);
-        if(connref.getSecond() == 1) {
-            rmcc.close();
-            pool.remove(pr);
-            return;
-        }
-        connref.setSecond(connref.getSecond() - 1);
+  }
+
+  private static final class Key {
+
+    final String addr;
+    final int port;
+    final byte[] preamble;
 
+    Key(String addr, int port, byte[] preamble) {
+      this.addr = addr;
+      this.port = port;
+      this.preamble = preamble;
     }
-    // close every 0 reference connections in the pool, return how much connection closed
-    public int shrink() {
-        int relcount = 0;
-        for(HashMap.Entry<Pair<String, Integer>, Pair<RdmaNative.RdmaMuxedClientConnection, Integer>>
-                entry: pool.entrySet()){
-            if(entry.getValue().getSecond() == 0){
-                entry.getValue().getFirst().close();
-                pool.remove(entry.getKey());
-                relcount ++;
-            }
-        }
-        return relcount;
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return port == other.port && addr.equals(other.addr)
+          && Arrays.equals(preamble, other.preamble);
     }
-    // enforcing the close of certain connection, regardless its reference counts
-    public void shutdown(String addr, int port) throws IllegalArgumentException {
-        Pair<String, Integer> pr = new Pair<>(addr, port);
-        if(!(pool.containsKey(pr))) throw new IllegalArgumentException();
-        Pair <RdmaNative.RdmaMuxedClientConnection, Integer> connref = pool.get(pr);
-        connref.getFirst().close();
-        pool.remove(pr);
+
+    @Override
+    public int hashCode() {
+      return (addr.hashCode() * 31 + port) * 31 + Arrays.hashCode(preamble);
     }
-    public void shutdown(RdmaNative.RdmaMuxedClientConnection rmcc) throws IllegalArgumentException {
-        shutdown(rmcc.addr, rmcc.port);
+  }
+
+  /**
+   * Holds the connection of one stripe. All access to {@code current} is under the stripe lock.
+   */
+  private final class Stripe {
+
+    private final Key key;
+    private PooledConnection current;
+
+    Stripe(Key key) {
+      this.key = key;
     }
-    // close every connection in the pool, and clean all entries from pool
-    public void finalize(){
-        for(HashMap.Entry<Pair<String, Integer>, Pair<RdmaNative.RdmaMuxedClientConnection, Integer>>
-                entry: pool.entrySet()){
-            entry.getValue().getFirst().close();
+
+    /**
+     * @return the open connection of this stripe, connecting a new one if needed.
+     */
+    PooledConnection getOrConnect() throws IOException {
+      if (current != null) {
+        if (!current.conn.isClosed()) {
+          return current;
         }
-        pool = new HashMap<>();
+        drop();
+      }
+      RdmaMuxedClientConnection conn =
+          new RdmaMuxedClientConnection(transport, key.addr, key.port, maxInflight, key.preamble);
+      current = new PooledConnection(conn);
+      connectionCount.incrementAndGet();
+      if (metrics != null) {
+        metrics.incrRdmaPoolConnections();
+      }
+      if (closed) {
+        // raced with close(), which may have passed this stripe already
+        drop();
+        throw new ConnectionClosingException("RDMA connection pool is closed");
+      }
+      return current;
     }
-    public class RdmaConnectException extends Exception{
-        private String addr;
-        private int port;
-        public RdmaConnectException(String iaddr, int iport){
-            addr = iaddr;
-            port = iport;
-        }
-        @Override
-        public String toString() {
-            return String.format("Rdma Connect to %s:%d failed.", addr, port);
-        }
+
+    void drop() {
+      PooledConnection c = current;
+      current = null;
+      try {
+        c.conn.close();
+      } catch (IOException e) {
+        LOG.debug("Failed to close RDMA connection to {}:{}", key.addr, key.port, e);
+      }
+      connectionCount.decrementAndGet();
+      if (metrics != null) {
+        metrics.decrRdmaPoolConnections();
+      }
     }
-    public class RdmaReleaseException extends Exception {
-        private String addr;
-        private int port;
-        public RdmaReleaseException(String iaddr, int iport){
-            addr = iaddr;
-            port = iport;
-        }
+  }
 
-        @Override
-        public String toString() {
-            return String.format("Over-release on RDMA Connection -> %s:%d", addr, port);
+  private Stripe[] getStripes(String addr, int port, byte[] preamble) {
+    return servers.computeIfAbsent(new Key(addr, port, preamble), key -> {
+      Stripe[] stripes = new Stripe[poolSize];
+      for (int i = 0; i < poolSize; i++) {
+        stripes[i] = new Stripe(key);
+      }
+      return stripes;
+    });
+  }
+
+  /**
+   * Lease a connection to {@code addr:port}.
+   * @param preamble connection header sent in front of the first query, part of the pool key
+   * @param stripeHint selects the stripe, e.g. a call id or a thread hash
+   */
+  public PooledConnection acquire(String addr, int port, byte[] preamble, int stripeHint)
+      throws IOException {
+    if (closed) {
+      throw new ConnectionClosingException("RDMA connection pool is closed");
+    }
+    long start = System.nanoTime();
+    Stripe[] stripes = getStripes(addr, port, preamble);
+    Stripe stripe = stripes[(stripeHint & Integer.MAX_VALUE) % stripes.length];
+    PooledConnection pooled;
+    boolean reused;
+    synchronized (stripe) {
+      reused = stripe.current != null && !stripe.current.conn.isClosed();
+      pooled = stripe.getOrConnect();
+      pooled.leases.incrementAndGet();
+    }
+    if (metrics != null) {
+      metrics.updateRdmaPoolAcquire(System.nanoTime() - start, reused);
+    }
+    return pooled;
+  }
+
+  /**
+   * Connect all stripes of {@code addr:port} up front, so the first calls do not pay for the
+   * connection setup.
+   */
+  public void warmup(String addr, int port, byte[] preamble) throws IOException {
+    for (Stripe stripe : getStripes(addr, port, preamble)) {
+      synchronized (stripe) {
+        stripe.getOrConnect();
+      }
+    }
+  }
+
+  /**
+   * Close the connections that failed, and the idle ones: not leased, no queries in flight and
+   * not used for the idle timeout.
+   * @return the number of connections closed
+   */
+  public int evictIdle() {
+    long closeBeforeTime = EnvironmentEdgeManager.currentTime() - idleTimeout;
+    int evicted = 0;
+    // the stripe arrays are never removed, a concurrent acquire may be using them
+    for (Stripe[] stripes : servers.values()) {
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          PooledConnection c = stripe.current;
+          if (c == null) {
+            continue;
+          }
+          if (c.conn.isClosed() || (c.leases.get() == 0 && c.conn.getInflight() == 0
+              && c.lastUsed < closeBeforeTime)) {
+            if (LOG.isTraceEnabled()) {
+              LOG.trace("Cleanup idle RDMA connection to " + stripe.key.addr + ":"
+                  + stripe.key.port);
+            }
+            stripe.drop();
+            evicted++;
+          }
         }
+      }
     }
+    return evicted;
+  }
+
+  /**
+   * @return the number of open connections in the pool
+   */
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
 
+  @Override
+  public void close() {
+    closed = true;
+    sweeper.cancel(false);
+    for (Stripe[] stripes : servers.values()) {
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          if (stripe.current != null) {
+            stripe.drop();
+          }
+        }
+      }
+    }
+  }
 }
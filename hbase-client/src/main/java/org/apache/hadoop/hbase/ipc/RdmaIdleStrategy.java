@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Adaptive spin-then-park waiting for threads polling RDMA or shared memory connections, which
+ * can not block in the kernel the way a NIO selector does.
+ * <p>
+ * A polling thread calls {@link #idle()} every time a pass found no work and {@link #reset()}
+ * every time it did. The first idle calls busy spin, the following ones yield, and after that the
+ * thread parks for an exponentially growing period capped by the max park time. Any other thread
+ * can cut a park short with {@link #wakeup()}, e.g. when it hands over a new connection, so only
+ * events the transport can not signal are subject to the park latency.
+ * <p>
+ * {@link #idle()} and {@link #reset()} must only be called by the polling thread.
+ */
+@InterfaceAudience.Private
+public class RdmaIdleStrategy {
+
+  public static final String SPIN_TRIES_CONF_KEY = "hbase.ipc.rdma.idle.spin.tries";
+  public static final int DEFAULT_SPIN_TRIES = 100;
+  public static final String YIELD_TRIES_CONF_KEY = "hbase.ipc.rdma.idle.yield.tries";
+  public static final int DEFAULT_YIELD_TRIES = 100;
+  public static final String MIN_PARK_NANOS_CONF_KEY = "hbase.ipc.rdma.idle.park.min.nanos";
+  public static final long DEFAULT_MIN_PARK_NANOS = 1000;
+  public static final String MAX_PARK_NANOS_CONF_KEY = "hbase.ipc.rdma.idle.park.max.nanos";
+  public static final long DEFAULT_MAX_PARK_NANOS = 100000;
+
+  private final int spinTries;
+  private final int yieldTries;
+  private final long minParkNanos;
+  private final long maxParkNanos;
+
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+  private volatile Thread waiter;
+
+  private int tries;
+  private long parkNanos;
+
+  public RdmaIdleStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+    this.spinTries = spinTries;
+    this.yieldTries = yieldTries;
+    this.minParkNanos = Math.max(1, minParkNanos);
+    this.maxParkNanos = Math.max(this.minParkNanos, maxParkNanos);
+    reset();
+  }
+
+  public RdmaIdleStrategy(Configuration conf) {
+    this(conf.getInt(SPIN_TRIES_CONF_KEY, DEFAULT_SPIN_TRIES),
+        conf.getInt(YIELD_TRIES_CONF_KEY, DEFAULT_YIELD_TRIES),
+        conf.getLong(MIN_PARK_NANOS_CONF_KEY, DEFAULT_MIN_PARK_NANOS),
+        conf.getLong(MAX_PARK_NANOS_CONF_KEY, DEFAULT_MAX_PARK_NANOS));
+  }
+
+  /**
+   * Called by the polling thread when a pass found nothing to do.
+   * @return true if the thread parked, false if it only spun or yielded.
+   */
+  public boolean idle() {
+    if (tries < spinTries) {
+      tries++;
+      return false;
+    }
+    if (tries < spinTries + yieldTries) {
+      tries++;
+      Thread.yield();
+      return false;
+    }
+    waiter = Thread.currentThread();
+    boolean woken = wakeupPending.getAndSet(false);
+    if (!woken) {
+      LockSupport.parkNanos(this, parkNanos);
+      woken = wakeupPending.getAndSet(false);
+    }
+    waiter = null;
+    if (woken) {
+      reset();
+    } else {
+      parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+    }
+    return true;
+  }
+
+  /**
+   * Called by the polling thread when a pass did some work.
+   */
+  public void reset() {
+    tries = 0;
+    parkNanos = minParkNanos;
+  }
+
+  /**
+   * Wake up the polling thread if it is parked, or make its next park return immediately.
+   */
+  public void wakeup() {
+    wakeupPending.set(true);
+    Thread t = waiter;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+}
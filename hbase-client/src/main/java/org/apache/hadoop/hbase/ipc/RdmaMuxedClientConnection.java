@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.protobuf.CodedInputStream;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.RPCProtos.ResponseHeader;
+
+/**
+ * A client connection to {@code addr:port} which pipelines the queries of many calls, see
+ * {@link RdmaConnectionPool}.
+ * <p>
+ * Writers do not wait for the response of their query. Up to {@code maxInflight} queries, capped
+ * by {@link RdmaTransport#getMaxInflightQueries()}, may be outstanding at once; further writers
+ * block until a response frees a slot. A dedicated reader thread takes the responses off the
+ * transport, in whatever order the server completes the calls, and hands each one to the
+ * {@link ResponseHandler} registered for the call id in its {@link ResponseHeader}.
+ * <p>
+ * The reader only reads when at least one query is outstanding, as the native transport busy
+ * polls on a read with nothing to wait for.
+ */
+@InterfaceAudience.Private
+public class RdmaMuxedClientConnection {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RdmaMuxedClientConnection.class);
+
+  public static final String MAX_INFLIGHT_CONF_KEY = "hbase.ipc.client.rdma.max.inflight";
+  public static final int DEFAULT_MAX_INFLIGHT = 64;
+
+  /**
+   * Receives the responses of the queries written through
+   * {@link RdmaMuxedClientConnection#writeQuery(int, ByteBuffer, ResponseHandler)}. Called from
+   * the reader thread of the connection, so implementations should not block.
+   */
+  public interface ResponseHandler {
+
+    /**
+     * @param response the whole response message, only valid until the method returns.
+     */
+    void onResponse(int callId, ByteBuffer response);
+
+    /**
+     * The connection failed before the response of the call arrived.
+     */
+    void onError(int callId, IOException e);
+  }
+
+  public final String addr;
+  public final int port;
+  private final RdmaTransport.ClientConnection conn;
+  // sent in front of the first query, e.g. the rpc connection header, may be null
+  private final byte[] preamble;
+  private final int maxInflight;
+
+  private final Semaphore slots;
+  // one permit per query written and not yet read back
+  private final Semaphore responsesDue = new Semaphore(0);
+  private final ConcurrentMap<Integer, ResponseHandler> pending = new ConcurrentHashMap<>();
+
+  private final Object writeLock = new Object();
+  private boolean preambleSent = false; // guarded by writeLock
+
+  private final Thread reader;
+  private volatile IOException closeCause;
+
+  public RdmaMuxedClientConnection(RdmaTransport transport, String addr, int port,
+      int maxInflight, byte[] preamble) throws IOException {
+    this.addr = addr;
+    this.port = port;
+    this.preamble = preamble;
+    this.maxInflight = Math.max(1, Math.min(maxInflight, transport.getMaxInflightQueries()));
+    this.slots = new Semaphore(this.maxInflight);
+    this.conn = transport.connect(addr, port);
+    this.reader = new Thread(this::readResponses, "RDMA response reader to " + addr + ":" + port);
+    this.reader.setDaemon(true);
+    this.reader.start();
+  }
+
+  public boolean isClosed() {
+    return closeCause != null || conn.isClosed();
+  }
+
+  /**
+   * @return the number of queries which may be outstanding at once on this connection.
+   */
+  public int getMaxInflight() {
+    return maxInflight;
+  }
+
+  /**
+   * @return the number of queries written whose response has not been read yet.
+   */
+  public int getInflight() {
+    return pending.size();
+  }
+
+  /**
+   * Send a query without waiting for its response. Blocks while all slots are in use.
+   * @param callId the call id the server will put in the header of the response
+   * @param handler notified once with the response or the failure of the connection
+   * @throws IOException if the query could not be written, the handler is not notified then
+   */
+  public void writeQuery(int callId, ByteBuffer query, ResponseHandler handler)
+      throws IOException {
+    try {
+      slots.acquire();
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException().initCause(e);
+    }
+    IOException cause = closeCause;
+    if (cause != null) {
+      slots.release();
+      throw (IOException) new ConnectionClosingException(
+          "Connection to " + addr + ":" + port + " is closed").initCause(cause);
+    }
+    pending.put(callId, handler);
+    try {
+      synchronized (writeLock) {
+        if (!preambleSent && preamble != null) {
+          conn.write(new ByteBuffer[] { ByteBuffer.wrap(preamble), query });
+        } else {
+          conn.write(query);
+        }
+        preambleSent = true;
+      }
+    } catch (IOException e) {
+      if (pending.remove(callId) != null) {
+        slots.release();
+      }
+      // we do not know how much of the query made it, the stream is unusable
+      shutdown(e);
+      throw e;
+    }
+    responsesDue.release();
+  }
+
+  private void readResponses() {
+    try {
+      for (;;) {
+        responsesDue.acquire();
+        if (closeCause != null) {
+          return;
+        }
+        ByteBuffer response = conn.read();
+        int callId = peekCallId(response);
+        ResponseHandler handler = pending.remove(callId);
+        slots.release();
+        if (handler == null) {
+          LOG.debug("Dropping response of unknown call id {} from {}:{}", callId, addr, port);
+          continue;
+        }
+        handler.onResponse(callId, response);
+      }
+    } catch (InterruptedException e) {
+      shutdown((IOException) new InterruptedIOException().initCause(e));
+    } catch (IOException e) {
+      shutdown(e);
+    } catch (RuntimeException e) {
+      LOG.warn("Unexpected exception while reading responses from {}:{}", addr, port, e);
+      shutdown(new IOException(e));
+    }
+  }
+
+  /**
+   * Read the call id from the response header without parsing the whole response. The response
+   * is {@code <int totalSize> <varint headerSize> <ResponseHeader> ...}.
+   */
+  static int peekCallId(ByteBuffer response) throws IOException {
+    ByteBuffer buf = response.duplicate();
+    if (buf.remaining() < 4) {
+      throw new IOException("Truncated response of " + buf.remaining() + " bytes");
+    }
+    buf.position(buf.position() + 4);
+    CodedInputStream cis = CodedInputStream.newInstance(buf);
+    cis.pushLimit(cis.readRawVarint32());
+    for (int tag; (tag = cis.readTag()) != 0;) {
+      if (tag >>> 3 == ResponseHeader.CALL_ID_FIELD_NUMBER) {
+        return cis.readUInt32();
+      }
+      cis.skipField(tag);
+    }
+    throw new IOException("Response header without call id");
+  }
+
+  private void shutdown(IOException cause) {
+    synchronized (this) {
+      if (closeCause != null) {
+        return;
+      }
+      closeCause = cause;
+    }
+    try {
+      conn.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close connection to {}:{}", addr, port, e);
+    }
+    // wake up the writers waiting for a slot and the reader
+    slots.release(maxInflight);
+    responsesDue.release();
+    for (Integer callId : pending.keySet()) {
+      ResponseHandler handler = pending.remove(callId);
+      if (handler != null) {
+        handler.onError(callId, cause);
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    shutdown(new ConnectionClosingException("Connection to " + addr + ":" + port + " closed"));
+  }
+}
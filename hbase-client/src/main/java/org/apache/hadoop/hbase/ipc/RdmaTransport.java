@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * The zero-copy transport used by the RDMA rpc path. Both the client side
+ * ({@link BlockingRDMARpcConnection}) and the server side (the RdmaListener of
+ * SimpleRpcServer) only talk to this interface, so the wire implementation can be swapped by
+ * configuration, see {@link RdmaTransportFactory}. Implementations need a constructor taking a
+ * {@code Configuration} and the {@link RdmaBufferPool} to stage messages in.
+ * <p>
+ * The transport is message oriented: every {@code write} is delivered as exactly one
+ * {@code read} on the peer. A message is the bytes between the position and the limit of the
+ * passed buffer.
+ * <p>
+ * Implementations must be thread safe for {@link #connect(String, int)}, and {@link #accept()}
+ * is only called from a single listener thread.
+ */
+@InterfaceAudience.Private
+public interface RdmaTransport extends Closeable {
+
+  /**
+   * Bind the server side of the transport to the given port. Must be called once before
+   * {@link #accept()}.
+   */
+  void bind(int port) throws IOException;
+
+  /**
+   * Connect to the server listening on {@code addr:port}. Blocks until the connection is
+   * established.
+   * @throws IOException if the connection can not be established
+   */
+  ClientConnection connect(String addr, int port) throws IOException;
+
+  /**
+   * Wait for and accept the next incoming connection. Blocks until a client connects or the
+   * transport is closed.
+   * @throws IOException if the transport is closed or the accept failed
+   */
+  ServerConnection accept() throws IOException;
+
+  /**
+   * @return how many queries a client may have written on one connection before it reads the
+   *         first response. Transports whose wire protocol is a strict query/response handshake
+   *         return 1. Responses of pipelined queries may arrive in any order.
+   */
+  int getMaxInflightQueries();
+
+  /**
+   * Common operations of both ends of a connection.
+   */
+  interface Connection extends Closeable {
+
+    /**
+     * @return true if this end or the peer closed the connection.
+     */
+    boolean isClosed();
+
+    /**
+     * Send the remaining bytes of {@code data} as one message. Blocks until the message has been
+     * handed to the transport; the buffer can be reused after return.
+     */
+    void write(ByteBuffer data) throws IOException;
+
+    /**
+     * Send the remaining bytes of all buffers, in order, as one message. Saves callers which
+     * hold a message in several buffers, e.g. a response and its cell block, from copying it
+     * into one.
+     */
+    void write(ByteBuffer[] data) throws IOException;
+  }
+
+  /**
+   * Client end of a connection.
+   */
+  interface ClientConnection extends Connection {
+
+    /**
+     * Wait for the next response message. The returned buffer may be invalidated by the next
+     * call to {@code read}.
+     */
+    ByteBuffer read() throws IOException;
+  }
+
+  /**
+   * Server end of a connection.
+   */
+  interface ServerConnection extends Connection {
+
+    /**
+     * Non blocking check whether the next query has arrived.
+     */
+    boolean isReadable();
+
+    /**
+     * Read the next query. Should only be called after {@link #isReadable()} returned true. The
+     * returned buffer may be invalidated by the next call to {@code read}.
+     */
+    ByteBuffer read() throws IOException;
+
+    /**
+     * @return the address of the connected client.
+     */
+    InetAddress getRemoteAddress();
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.ByteBufferPool;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Factory to create a {@link RdmaTransport}.
+ */
+@InterfaceAudience.Private
+public final class RdmaTransportFactory {
+
+  public static final String RDMA_TRANSPORT_IMPL_CONF_KEY = "hbase.ipc.rdma.transport.impl";
+
+  /** The RPC port whose server also listens for RDMA, on the port after it */
+  public static final String RDMA_RPC_PORT_CONF_KEY = "hbase.ipc.rdma.rpc.port";
+
+  /**
+   * Private Constructor
+   */
+  private RdmaTransportFactory() {
+  }
+
+  /**
+   * @return the RPC port whose server also listens for RDMA, the region server port unless set
+   */
+  public static int getRdmaRpcPort(Configuration conf) {
+    return conf.getInt(RDMA_RPC_PORT_CONF_KEY, HConstants.DEFAULT_REGIONSERVER_PORT);
+  }
+
+  private static String getTransportClass(Configuration conf) {
+    return conf.get(RDMA_TRANSPORT_IMPL_CONF_KEY, NativeRdmaTransport.class.getName());
+  }
+
+  /**
+   * Creates a new RdmaTransport by the class defined in the configuration or falls back to
+   * {@link NativeRdmaTransport}.
+   * @param conf configuration
+   * @return newly created RdmaTransport
+   */
+  public static RdmaTransport createTransport(Configuration conf) {
+    return createTransport(conf, null);
+  }
+
+  /**
+   * Creates a new RdmaTransport whose staging buffers are shared with the given pool.
+   * @param conf configuration
+   * @param reservoir the ByteBufferPool of the rpc server, may be null
+   * @return newly created RdmaTransport
+   */
+  public static RdmaTransport createTransport(Configuration conf, ByteBufferPool reservoir) {
+    return ReflectionUtils.instantiateWithCustomCtor(getTransportClass(conf),
+      new Class[] { Configuration.class, RdmaBufferPool.class },
+      new Object[] { conf, new RdmaBufferPool(reservoir, conf) });
+  }
+}
@@ -45,6 +45,12 @@ public final class RpcClientFactory {
   private RpcClientFactory() {
   }
 
+  /** Helper method for tests only. Creates an {@code RpcClient} without metrics. */
+  @VisibleForTesting
+  public static RpcClient createClient(Configuration conf, String clusterId) {
+    return createClient(conf, clusterId, false);
+  }
+
   /** Helper method for tests only. Creates an {@code RpcClient} without metrics. */
   @VisibleForTesting
   public static RpcClient createClient(Configuration conf, String clusterId,boolean isRdma) {
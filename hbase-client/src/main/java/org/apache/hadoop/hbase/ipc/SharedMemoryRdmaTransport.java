@@ -0,0 +1,421 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.UnsafeAccess;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * A {@link RdmaTransport} for co-located processes. Every connection is a memory mapped file
+ * holding two {@link ShmRingBuffer}s, one per direction, so no byte goes through the kernel
+ * network stack once the connection is established.
+ * <p>
+ * The server binds a directory named after the port under {@link #SHM_DIR_CONF_KEY}. A client
+ * creates and initializes a connection file in that directory and renames it to its final name;
+ * the server picks it up, maps it, marks it accepted and unlinks it. Both ends keep the mapping
+ * until they are closed.
+ * <p>
+ * Layout of a connection file:
+ *
+ * <pre>
+ * 0    magic (int), version (int), ring capacity (int), state (int)
+ * 64   client to server ring head (long)
+ * 128  client to server ring tail (long)
+ * 192  server to client ring head (long)
+ * 256  server to client ring tail (long)
+ * 512  client to server ring data
+ * 512 + capacity  server to client ring data
+ * </pre>
+ *
+ * Every message is written as a 4 bytes length followed by the payload. Messages larger than the
+ * ring are streamed, the reader drains the ring while the writer is still filling it.
+ */
+@InterfaceAudience.Private
+public class SharedMemoryRdmaTransport implements RdmaTransport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryRdmaTransport.class);
+
+  public static final String SHM_DIR_CONF_KEY = "hbase.ipc.rdma.shm.dir";
+
+  public static final String SHM_RING_SIZE_CONF_KEY = "hbase.ipc.rdma.shm.ring.size";
+
+  public static final int DEFAULT_SHM_RING_SIZE = 4 * 1024 * 1024;
+
+  public static final String SHM_CONNECT_TIMEOUT_CONF_KEY = "hbase.ipc.rdma.shm.connect.timeout";
+
+  public static final int DEFAULT_SHM_CONNECT_TIMEOUT = 10000;
+
+  static final int MAGIC = 0x48534852; // "HSHR"
+  static final int VERSION = 1;
+
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int STATE_OFFSET = 12;
+  private static final int C2S_HEAD_OFFSET = 64;
+  private static final int C2S_TAIL_OFFSET = 128;
+  private static final int S2C_HEAD_OFFSET = 192;
+  private static final int S2C_TAIL_OFFSET = 256;
+  private static final int DATA_OFFSET = 512;
+
+  static final int STATE_ACCEPTED = 1;
+  static final int STATE_CLIENT_CLOSED = 2;
+  static final int STATE_SERVER_CLOSED = 4;
+
+  private static final String CONN_SUFFIX = ".conn";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final long ACCEPT_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Configuration conf;
+  private final File baseDir;
+  private final int ringSize;
+  private final int connectTimeout;
+
+  private volatile File bindDir;
+  private volatile boolean closed = false;
+
+  /**
+   * @param bufferPool not used, messages are copied straight between the caller's buffers and
+   *          the mapped rings
+   */
+  public SharedMemoryRdmaTransport(Configuration conf, RdmaBufferPool bufferPool) {
+    this.conf = conf;
+    this.baseDir = new File(conf.get(SHM_DIR_CONF_KEY, defaultBaseDir()));
+    int size = conf.getInt(SHM_RING_SIZE_CONF_KEY, DEFAULT_SHM_RING_SIZE);
+    // round up to the next power of two
+    this.ringSize = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+    this.connectTimeout = conf.getInt(SHM_CONNECT_TIMEOUT_CONF_KEY, DEFAULT_SHM_CONNECT_TIMEOUT);
+  }
+
+  private static String defaultBaseDir() {
+    File devShm = new File("/dev/shm");
+    if (devShm.isDirectory() && devShm.canWrite()) {
+      return devShm.getPath();
+    }
+    return System.getProperty("java.io.tmpdir");
+  }
+
+  private File getPortDir(int port) {
+    return new File(baseDir, "hbase-rpc-" + port);
+  }
+
+  @Override
+  public void bind(int port) throws IOException {
+    File dir = getPortDir(port);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Can not create " + dir);
+    }
+    // connection files left by a previous incarnation will never be accepted
+    File[] stale = dir.listFiles();
+    if (stale != null) {
+      for (File f : stale) {
+        if (!f.delete()) {
+          LOG.warn("Failed to delete stale connection file {}", f);
+        }
+      }
+    }
+    this.bindDir = dir;
+  }
+
+  @Override
+  public ClientConnection connect(String addr, int port) throws IOException {
+    File dir = getPortDir(port);
+    if (!dir.isDirectory()) {
+      throw new ConnectException("No shared memory listener for port " + port + " under "
+          + baseDir);
+    }
+    String name = UUID.randomUUID().toString();
+    File tmp = new File(dir, name + TMP_SUFFIX);
+    File file = new File(dir, name + CONN_SUFFIX);
+    MappedByteBuffer buf = map(tmp, DATA_OFFSET + 2L * ringSize);
+    buf.putInt(MAGIC_OFFSET, MAGIC);
+    buf.putInt(VERSION_OFFSET, VERSION);
+    buf.putInt(CAPACITY_OFFSET, ringSize);
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Failed to publish connection file " + file);
+    }
+    SharedMemoryConnection conn = new SharedMemoryConnection(buf, true, conf);
+    long deadline = EnvironmentEdgeManager.currentTime() + connectTimeout;
+    while ((conn.state() & STATE_ACCEPTED) == 0) {
+      if (EnvironmentEdgeManager.currentTime() > deadline) {
+        // the server may still pick it up in a race, it will see the close flag then
+        conn.close();
+        file.delete();
+        throw new ConnectException("Shared memory connect to port " + port + " timed out after "
+            + connectTimeout + " ms");
+      }
+      if (Thread.interrupted()) {
+        conn.close();
+        file.delete();
+        throw new InterruptedIOException();
+      }
+      LockSupport.parkNanos(ACCEPT_PARK_NANOS);
+    }
+    return conn;
+  }
+
+  @Override
+  public ServerConnection accept() throws IOException {
+    File dir = bindDir;
+    if (dir == null) {
+      throw new IOException("Transport is not bound");
+    }
+    while (!closed) {
+      File[] files = dir.listFiles((d, n) -> n.endsWith(CONN_SUFFIX));
+      if (files != null) {
+        for (File f : files) {
+          SharedMemoryConnection conn = tryAccept(f);
+          if (conn != null) {
+            return conn;
+          }
+        }
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedIOException();
+      }
+      LockSupport.parkNanos(ACCEPT_PARK_NANOS);
+    }
+    throw new ConnectionClosingException("Transport closed");
+  }
+
+  private SharedMemoryConnection tryAccept(File f) {
+    try {
+      MappedByteBuffer buf = map(f, -1);
+      if (!f.delete()) {
+        LOG.warn("Failed to unlink accepted connection file {}", f);
+      }
+      if (buf.getInt(MAGIC_OFFSET) != MAGIC || buf.getInt(VERSION_OFFSET) != VERSION) {
+        LOG.warn("Dropping connection file {} with bad magic or version", f);
+        return null;
+      }
+      SharedMemoryConnection conn = new SharedMemoryConnection(buf, false, conf);
+      if (!conn.casState(0, STATE_ACCEPTED)) {
+        // the client gave up before we got here
+        return null;
+      }
+      return conn;
+    } catch (IOException e) {
+      LOG.warn("Failed to accept shared memory connection {}", f, e);
+      f.delete();
+      return null;
+    }
+  }
+
+  private static MappedByteBuffer map(File f, long size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+      if (size >= 0) {
+        raf.setLength(size);
+      } else {
+        size = raf.length();
+      }
+      if (size < DATA_OFFSET) {
+        throw new IOException("Connection file " + f + " is too small: " + size);
+      }
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  @Override
+  public int getMaxInflightQueries() {
+    // the rings carry any number of framed messages, writers block while the ring is full
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * One end of a shared memory connection. The same class serves as client and server end, only
+   * the direction of the two rings differs.
+   */
+  static final class SharedMemoryConnection implements ClientConnection, ServerConnection {
+
+    private final MappedByteBuffer buf;
+    private final long stateAddress;
+    private final boolean client;
+    private final ShmRingBuffer in;
+    private final ShmRingBuffer out;
+    private final RdmaIdleStrategy readIdle;
+    private final RdmaIdleStrategy writeIdle;
+    // reads and writes go to different rings, so they are guarded by different locks
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private final ByteBuffer readLengthBuf = ByteBuffer.allocate(4);
+    private final ByteBuffer writeLengthBuf = ByteBuffer.allocate(4);
+    private ByteBuffer readBuf;
+
+    SharedMemoryConnection(MappedByteBuffer buf, boolean client, Configuration conf) {
+      this.buf = buf;
+      this.client = client;
+      this.readIdle = new RdmaIdleStrategy(conf);
+      this.writeIdle = new RdmaIdleStrategy(conf);
+      this.stateAddress = ((DirectBuffer) buf).address() + STATE_OFFSET;
+      int capacity = buf.getInt(CAPACITY_OFFSET);
+      ShmRingBuffer c2s =
+          new ShmRingBuffer(buf, C2S_HEAD_OFFSET, C2S_TAIL_OFFSET, DATA_OFFSET, capacity);
+      ShmRingBuffer s2c = new ShmRingBuffer(buf, S2C_HEAD_OFFSET, S2C_TAIL_OFFSET,
+          DATA_OFFSET + capacity, capacity);
+      this.in = client ? s2c : c2s;
+      this.out = client ? c2s : s2c;
+    }
+
+    int state() {
+      return UnsafeAccess.theUnsafe.getIntVolatile(null, stateAddress);
+    }
+
+    boolean casState(int expect, int update) {
+      return UnsafeAccess.theUnsafe.compareAndSwapInt(null, stateAddress, expect, update);
+    }
+
+    @Override
+    public boolean isClosed() {
+      return (state() & (STATE_CLIENT_CLOSED | STATE_SERVER_CLOSED)) != 0;
+    }
+
+    private void checkOpen() throws IOException {
+      if (isClosed()) {
+        throw new ConnectionClosingException("Shared memory connection is closed");
+      }
+    }
+
+    private void awaitWritable(int len) throws IOException {
+      writeIdle.reset();
+      while (out.writableBytes() < len) {
+        checkOpen();
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException();
+        }
+        writeIdle.idle();
+      }
+    }
+
+    private void awaitReadable(int len) throws IOException {
+      readIdle.reset();
+      while (in.readableBytes() < len) {
+        // drain what the peer wrote before it closed
+        checkOpen();
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException();
+        }
+        readIdle.idle();
+      }
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+      write(new ByteBuffer[] { data });
+    }
+
+    @Override
+    public void write(ByteBuffer[] data) throws IOException {
+      checkOpen();
+      int len = 0;
+      for (ByteBuffer b : data) {
+        len += b.remaining();
+      }
+      synchronized (writeLock) {
+        awaitWritable(4);
+        writeLengthBuf.clear();
+        writeLengthBuf.putInt(0, len);
+        out.put(writeLengthBuf, 4);
+        for (ByteBuffer b : data) {
+          ByteBuffer src = b.duplicate();
+          while (src.hasRemaining()) {
+            awaitWritable(1);
+            out.put(src, Math.min(src.remaining(), out.writableBytes()));
+          }
+        }
+      }
+    }
+
+    @Override
+    public boolean isReadable() {
+      return in.readableBytes() >= 4;
+    }
+
+    @Override
+    public ByteBuffer read() throws IOException {
+      synchronized (readLock) {
+        awaitReadable(4);
+        readLengthBuf.clear();
+        in.get(readLengthBuf, 4);
+        int len = readLengthBuf.getInt(0);
+        if (len < 0) {
+          throw new IOException("Corrupted shared memory connection, message length " + len);
+        }
+        if (readBuf == null || readBuf.capacity() < len) {
+          readBuf = ByteBuffer.allocate(len);
+        }
+        readBuf.clear();
+        readBuf.limit(len);
+        while (readBuf.hasRemaining()) {
+          awaitReadable(1);
+          in.get(readBuf, Math.min(readBuf.remaining(), in.readableBytes()));
+        }
+        readBuf.flip();
+        return readBuf;
+      }
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+      return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public void close() {
+      int flag = client ? STATE_CLIENT_CLOSED : STATE_SERVER_CLOSED;
+      for (;;) {
+        int s = state();
+        if ((s & flag) != 0 || casState(s, s | flag)) {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "SharedMemoryConnection(client=" + client + ", capacity=" + in.capacity()
+          + ", mapped=" + buf.capacity() + ")";
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.util.UnsafeAccess;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * A single producer single consumer byte ring laid out in a (possibly shared, memory mapped)
+ * direct buffer. The head and tail counters are monotonically increasing byte offsets living in
+ * the same buffer, so the two ends can be in different processes.
+ * <p>
+ * The data is copied with plain stores, and then published with an ordered store of the tail;
+ * the consumer reads the tail with a volatile load before touching the data. The head is
+ * published the same way in the other direction.
+ */
+@InterfaceAudience.Private
+class ShmRingBuffer {
+
+  private final ByteBuffer data;
+  private final int capacity;
+  private final int mask;
+  private final long headAddress;
+  private final long tailAddress;
+
+  /**
+   * @param buf the mapped buffer, must be direct
+   * @param headOffset offset of the 8 bytes consumer counter in {@code buf}
+   * @param tailOffset offset of the 8 bytes producer counter in {@code buf}
+   * @param dataOffset offset of the data area in {@code buf}
+   * @param capacity size of the data area, must be a power of two
+   */
+  ShmRingBuffer(ByteBuffer buf, int headOffset, int tailOffset, int dataOffset, int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    ByteBuffer dup = buf.duplicate();
+    dup.position(dataOffset);
+    dup.limit(dataOffset + capacity);
+    this.data = dup.slice();
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    long address = ((DirectBuffer) buf).address();
+    this.headAddress = address + headOffset;
+    this.tailAddress = address + tailOffset;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  private long head() {
+    return UnsafeAccess.theUnsafe.getLongVolatile(null, headAddress);
+  }
+
+  private long tail() {
+    return UnsafeAccess.theUnsafe.getLongVolatile(null, tailAddress);
+  }
+
+  /**
+   * @return number of bytes the consumer can read now.
+   */
+  int readableBytes() {
+    return (int) (tail() - head());
+  }
+
+  /**
+   * @return number of bytes the producer can write now.
+   */
+  int writableBytes() {
+    return capacity - (int) (tail() - head());
+  }
+
+  /**
+   * Copy {@code len} bytes from {@code src} into the ring and publish them. The caller must have
+   * checked that {@link #writableBytes()} is at least {@code len}.
+   */
+  void put(ByteBuffer src, int len) {
+    long tail = UnsafeAccess.theUnsafe.getLong(tailAddress);
+    int index = (int) (tail & mask);
+    int first = Math.min(len, capacity - index);
+    copy(src, data, index, first);
+    if (first < len) {
+      copy(src, data, 0, len - first);
+    }
+    UnsafeAccess.theUnsafe.putOrderedLong(null, tailAddress, tail + len);
+  }
+
+  /**
+   * Copy {@code len} bytes out of the ring into {@code dst} and release the space. The caller must
+   * have checked that {@link #readableBytes()} is at least {@code len}.
+   */
+  void get(ByteBuffer dst, int len) {
+    long head = UnsafeAccess.theUnsafe.getLong(headAddress);
+    int index = (int) (head & mask);
+    int first = Math.min(len, capacity - index);
+    ByteBuffer src = data.duplicate();
+    src.limit(index + first).position(index);
+    dst.put(src);
+    if (first < len) {
+      src.limit(len - first).position(0);
+      dst.put(src);
+    }
+    UnsafeAccess.theUnsafe.putOrderedLong(null, headAddress, head + len);
+  }
+
+  private static void copy(ByteBuffer src, ByteBuffer ring, int index, int len) {
+    ByteBuffer from = src.duplicate();
+    from.limit(from.position() + len);
+    ByteBuffer to = ring.duplicate();
+    to.position(index);
+    to.put(from);
+    src.position(src.position() + len);
+  }
+}
@@ -137,4 +137,22 @@ public class TestMetricsConnection {
     assertEquals(Ratio.of(0, 3).getValue(), executorMetrics.getValue(), 0);
     assertEquals(Double.NaN, metaMetrics.getValue(), 0);
   }
+
+  @Test
+  public void testRdmaPoolMetrics() {
+    METRICS.incrRdmaPoolConnections();
+    METRICS.incrRdmaPoolConnections();
+    METRICS.decrRdmaPoolConnections();
+    METRICS.updateRdmaPoolAcquire(1000, false);
+    METRICS.updateRdmaPoolAcquire(100, true);
+    METRICS.updateRdmaPoolAcquire(100, true);
+    METRICS.updateRdmaPoolAcquire(100, true);
+    assertEquals(1, METRICS.rdmaPoolConnections.getCount());
+    assertEquals(4, METRICS.rdmaPoolAcquireTimer.getCount());
+    assertEquals(3, METRICS.rdmaPoolHits.getCount());
+    assertEquals(1, METRICS.rdmaPoolMisses.getCount());
+    RatioGauge reuseRatio = (RatioGauge) METRICS.getMetricRegistry()
+            .getMetrics().get(METRICS.getRdmaPoolReuseRatioName());
+    assertEquals(Ratio.of(3, 4).getValue(), reuseRatio.getValue(), 0);
+  }
 }
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.ByteBufferPool;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestRdmaBufferPool {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestRdmaBufferPool.class);
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.setInt(RdmaBufferPool.MAX_BUFFER_SIZE_CONF_KEY, 256 * 1024);
+    conf.setInt(RdmaBufferPool.MAX_PER_CLASS_CONF_KEY, 2);
+  }
+
+  @Test
+  public void testSizeClasses() {
+    RdmaBufferPool pool = new RdmaBufferPool(null, conf);
+    ByteBuffer buf = pool.acquire(70000);
+    assertTrue(buf.isDirect());
+    assertEquals(0, buf.position());
+    assertEquals(70000, buf.limit());
+    assertEquals(128 * 1024, buf.capacity());
+    pool.release(buf);
+    // the same class hands the buffer out again
+    ByteBuffer again = pool.acquire(100000);
+    assertSame(buf, again);
+    assertEquals(100000, again.limit());
+    // other classes do not
+    ByteBuffer larger = pool.acquire(200000);
+    assertEquals(256 * 1024, larger.capacity());
+    pool.release(again);
+    pool.release(larger);
+    assertNotSame(larger, pool.acquire(100));
+  }
+
+  @Test
+  public void testOversizedNotPooled() {
+    RdmaBufferPool pool = new RdmaBufferPool(null, conf);
+    ByteBuffer buf = pool.acquire(300000);
+    assertEquals(300000, buf.capacity());
+    pool.release(buf);
+    assertNotSame(buf, pool.acquire(300000));
+  }
+
+  @Test
+  public void testMaxPerClass() {
+    RdmaBufferPool pool = new RdmaBufferPool(null, conf);
+    ByteBuffer[] bufs = new ByteBuffer[3];
+    for (int i = 0; i < bufs.length; i++) {
+      bufs[i] = pool.acquire(100000);
+    }
+    for (ByteBuffer buf : bufs) {
+      pool.release(buf);
+    }
+    // only two of the three were kept
+    ByteBuffer first = pool.acquire(100000);
+    ByteBuffer second = pool.acquire(100000);
+    ByteBuffer third = pool.acquire(100000);
+    assertSame(bufs[0], first);
+    assertSame(bufs[1], second);
+    assertNotSame(bufs[2], third);
+  }
+
+  @Test
+  public void testSharedWithByteBufferPool() {
+    ByteBufferPool shared = new ByteBufferPool(4 * 1024, 10, true);
+    RdmaBufferPool pool = new RdmaBufferPool(shared, conf);
+    ByteBuffer buf = pool.acquire(1000);
+    assertEquals(4 * 1024, buf.capacity());
+    pool.release(buf);
+    // returned to the rpc server pool, which hands it out from now on
+    assertEquals(1, shared.getQueueSize());
+    assertSame(buf, shared.getBuffer());
+    shared.putbackBuffer(buf);
+    assertSame(buf, pool.acquire(4000));
+
+    // an on heap pool can not be shared
+    ByteBufferPool onHeap = new ByteBufferPool(4 * 1024, 10, false);
+    pool = new RdmaBufferPool(onHeap, conf);
+    buf = pool.acquire(1000);
+    assertTrue(buf.isDirect());
+    pool.release(buf);
+    assertEquals(0, onHeap.getQueueSize());
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.exceptions.ConnectionClosingException;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestRdmaConnectionPool {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestRdmaConnectionPool.class);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int PORT = 16021;
+  private static final int POOL_SIZE = 3;
+  private static final byte[] HEADER = Bytes.toBytes("header");
+
+  private Configuration conf;
+  private RdmaTransport server;
+  private RdmaTransport client;
+  private ExecutorService executor;
+  private final List<RdmaTransport.ServerConnection> accepted = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    conf.set(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY,
+      SharedMemoryRdmaTransport.class.getName());
+    conf.set(SharedMemoryRdmaTransport.SHM_DIR_CONF_KEY, folder.getRoot().getAbsolutePath());
+    conf.setInt(SharedMemoryRdmaTransport.SHM_RING_SIZE_CONF_KEY, 4096);
+    conf.setInt(RdmaConnectionPool.POOL_SIZE_CONF_KEY, POOL_SIZE);
+    server = RdmaTransportFactory.createTransport(conf);
+    client = RdmaTransportFactory.createTransport(conf);
+    server.bind(PORT);
+    executor = Executors.newCachedThreadPool();
+    executor.submit(() -> {
+      for (;;) {
+        accepted.add(server.accept());
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+    executor.shutdownNow();
+    client.close();
+  }
+
+  private RdmaConnectionPool createPool() {
+    return new RdmaConnectionPool(client, conf, null);
+  }
+
+  @Test
+  public void testStriping() throws IOException {
+    try (RdmaConnectionPool pool = createPool()) {
+      RdmaConnectionPool.PooledConnection[] conns =
+          new RdmaConnectionPool.PooledConnection[POOL_SIZE];
+      for (int i = 0; i < POOL_SIZE; i++) {
+        conns[i] = pool.acquire("localhost", PORT, HEADER, i);
+        conns[i].close();
+      }
+      assertEquals(POOL_SIZE, pool.getConnectionCount());
+      for (int i = 0; i < POOL_SIZE; i++) {
+        for (int j = i + 1; j < POOL_SIZE; j++) {
+          assertNotSame(conns[i].getConnection(), conns[j].getConnection());
+        }
+        // the same stripe hands out the same connection again
+        try (RdmaConnectionPool.PooledConnection again =
+            pool.acquire("localhost", PORT, HEADER, i + POOL_SIZE)) {
+          assertSame(conns[i], again);
+        }
+      }
+      // a different connection header needs its own connections
+      try (RdmaConnectionPool.PooledConnection other =
+          pool.acquire("localhost", PORT, Bytes.toBytes("other"), 0)) {
+        assertNotSame(conns[0], other);
+      }
+      assertEquals(POOL_SIZE + 1, pool.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+    try (RdmaConnectionPool pool = createPool()) {
+      List<Future<?>> futures = new CopyOnWriteArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 100; i++) {
+            try (RdmaConnectionPool.PooledConnection c = pool.acquire("localhost", PORT, HEADER,
+              ThreadLocalRandom.current().nextInt())) {
+              assertTrue(!c.getConnection().isClosed());
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      assertEquals(POOL_SIZE, pool.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void testWarmupAndEvictIdle() throws Exception {
+    conf.setLong(RdmaConnectionPool.IDLE_TIMEOUT_CONF_KEY, 100);
+    try (RdmaConnectionPool pool = createPool()) {
+      pool.warmup("localhost", PORT, HEADER);
+      assertEquals(POOL_SIZE, pool.getConnectionCount());
+      RdmaConnectionPool.PooledConnection leased = pool.acquire("localhost", PORT, HEADER, 0);
+      Thread.sleep(200);
+      // everything but the leased connection is idle
+      pool.evictIdle();
+      assertEquals(1, pool.getConnectionCount());
+      assertTrue(!leased.getConnection().isClosed());
+      leased.close();
+      Thread.sleep(200);
+      pool.evictIdle();
+      assertEquals(0, pool.getConnectionCount());
+      assertTrue(leased.getConnection().isClosed());
+    }
+  }
+
+  @Test
+  public void testReplaceFailedConnection() throws Exception {
+    try (RdmaConnectionPool pool = createPool()) {
+      RdmaConnectionPool.PooledConnection first = pool.acquire("localhost", PORT, HEADER, 0);
+      first.close();
+      while (accepted.isEmpty()) {
+        Thread.sleep(1);
+      }
+      accepted.get(0).close();
+      assertTrue(first.getConnection().isClosed());
+      try (RdmaConnectionPool.PooledConnection second =
+          pool.acquire("localhost", PORT, HEADER, 0)) {
+        assertNotSame(first, second);
+        assertTrue(!second.getConnection().isClosed());
+      }
+      assertEquals(1, pool.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void testAcquireAfterClose() throws IOException {
+    RdmaConnectionPool pool = createPool();
+    RdmaConnectionPool.PooledConnection c = pool.acquire("localhost", PORT, HEADER, 0);
+    c.close();
+    pool.close();
+    assertEquals(0, pool.getConnectionCount());
+    assertTrue(c.getConnection().isClosed());
+    try {
+      pool.acquire("localhost", PORT, HEADER, 0);
+      fail("Should fail as the pool is closed");
+    } catch (ConnectionClosingException e) {
+      // expected
+    }
+  }
+}
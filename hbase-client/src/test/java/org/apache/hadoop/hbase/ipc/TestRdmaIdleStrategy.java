@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestRdmaIdleStrategy {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestRdmaIdleStrategy.class);
+
+  @Test
+  public void testSpinYieldThenPark() {
+    RdmaIdleStrategy idle = new RdmaIdleStrategy(3, 2, 1000, 1000);
+    for (int i = 0; i < 5; i++) {
+      assertFalse(idle.idle());
+    }
+    assertTrue(idle.idle());
+    assertTrue(idle.idle());
+    idle.reset();
+    assertFalse(idle.idle());
+  }
+
+  @Test
+  public void testWakeupCutsParkShort() throws Exception {
+    long parkNanos = TimeUnit.SECONDS.toNanos(30);
+    RdmaIdleStrategy idle = new RdmaIdleStrategy(0, 0, parkNanos, parkNanos);
+    CountDownLatch parked = new CountDownLatch(1);
+    Thread t = new Thread(() -> {
+      idle.idle();
+      parked.countDown();
+    });
+    t.start();
+    // loop as the wakeup may land before the thread parks, which is fine as well
+    while (!parked.await(10, TimeUnit.MILLISECONDS)) {
+      idle.wakeup();
+    }
+    t.join();
+  }
+
+  @Test
+  public void testWakeupBeforeIdle() {
+    long parkNanos = TimeUnit.SECONDS.toNanos(30);
+    RdmaIdleStrategy idle = new RdmaIdleStrategy(0, 0, parkNanos, parkNanos);
+    idle.wakeup();
+    long start = System.nanoTime();
+    assertTrue(idle.idle());
+    assertTrue(System.nanoTime() - start < parkNanos);
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.RPCProtos.ResponseHeader;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestRdmaMuxedClientConnection {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestRdmaMuxedClientConnection.class);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int PORT = 16021;
+
+  private RdmaTransport server;
+  private RdmaTransport client;
+  private ExecutorService executor;
+  private final BlockingQueue<Object> completions = new LinkedBlockingQueue<>();
+
+  private final RdmaMuxedClientConnection.ResponseHandler handler =
+      new RdmaMuxedClientConnection.ResponseHandler() {
+
+        @Override
+        public void onResponse(int callId, ByteBuffer response) {
+          // the buffer is only valid during the call, keep the payload behind the header
+          String s = Bytes.toString(toBytes(response));
+          completions.add(s.substring(s.indexOf("response-")));
+        }
+
+        @Override
+        public void onError(int callId, IOException e) {
+          completions.add(callId);
+        }
+      };
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY,
+      SharedMemoryRdmaTransport.class.getName());
+    conf.set(SharedMemoryRdmaTransport.SHM_DIR_CONF_KEY, folder.getRoot().getAbsolutePath());
+    conf.setInt(SharedMemoryRdmaTransport.SHM_RING_SIZE_CONF_KEY, 4096);
+    server = RdmaTransportFactory.createTransport(conf);
+    client = RdmaTransportFactory.createTransport(conf);
+    server.bind(PORT);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    server.close();
+    client.close();
+  }
+
+  private static byte[] toBytes(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * A response the way the server frames it: total size, delimited header, then a payload we
+   * use to recognize the response.
+   */
+  private static ByteBuffer response(int callId) throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    ResponseHeader.newBuilder().setCallId(callId).build().writeDelimitedTo(header);
+    byte[] payload = Bytes.toBytes("response-" + callId);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    dos.writeInt(header.size() + payload.length);
+    header.writeTo(dos);
+    dos.write(payload);
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+
+  private RdmaTransport.ServerConnection connect(RdmaMuxedClientConnection[] conn,
+      int maxInflight, byte[] preamble) throws Exception {
+    Future<RdmaMuxedClientConnection> f = executor.submit(
+      () -> new RdmaMuxedClientConnection(client, "localhost", PORT, maxInflight, preamble));
+    RdmaTransport.ServerConnection serverConn = server.accept();
+    conn[0] = f.get();
+    return serverConn;
+  }
+
+  @Test
+  public void testPipelinedOutOfOrderResponses() throws Exception {
+    RdmaMuxedClientConnection[] conn = new RdmaMuxedClientConnection[1];
+    byte[] preamble = Bytes.toBytes("header");
+    RdmaTransport.ServerConnection serverConn = connect(conn, 8, preamble);
+    for (int id = 1; id <= 3; id++) {
+      conn[0].writeQuery(id, ByteBuffer.wrap(Bytes.toBytes("query-" + id)), handler);
+    }
+    assertEquals(3, conn[0].getInflight());
+    // all queries are on the wire before any response, the preamble only precedes the first one
+    assertEquals("headerquery-1", Bytes.toString(toBytes(serverConn.read())));
+    assertEquals("query-2", Bytes.toString(toBytes(serverConn.read())));
+    assertEquals("query-3", Bytes.toString(toBytes(serverConn.read())));
+
+    for (int id : new int[] { 3, 1, 2 }) {
+      serverConn.write(response(id));
+      assertEquals("response-" + id, completions.poll(10, TimeUnit.SECONDS));
+    }
+    assertEquals(0, conn[0].getInflight());
+    conn[0].close();
+  }
+
+  @Test
+  public void testWriterBlocksWhenSlotsExhausted() throws Exception {
+    RdmaMuxedClientConnection[] conn = new RdmaMuxedClientConnection[1];
+    RdmaTransport.ServerConnection serverConn = connect(conn, 2, null);
+    assertEquals(2, conn[0].getMaxInflight());
+    conn[0].writeQuery(1, ByteBuffer.wrap(Bytes.toBytes("query-1")), handler);
+    conn[0].writeQuery(2, ByteBuffer.wrap(Bytes.toBytes("query-2")), handler);
+    Future<?> third = executor.submit(() -> {
+      conn[0].writeQuery(3, ByteBuffer.wrap(Bytes.toBytes("query-3")), handler);
+      return null;
+    });
+    try {
+      third.get(200, TimeUnit.MILLISECONDS);
+      fail("The third query should wait for a free slot");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    serverConn.read();
+    serverConn.read();
+    serverConn.write(response(2));
+    assertEquals("response-2", completions.poll(10, TimeUnit.SECONDS));
+    third.get(10, TimeUnit.SECONDS);
+    assertEquals("query-3", Bytes.toString(toBytes(serverConn.read())));
+    conn[0].close();
+  }
+
+  @Test
+  public void testPendingCallsFailOnPeerClose() throws Exception {
+    RdmaMuxedClientConnection[] conn = new RdmaMuxedClientConnection[1];
+    RdmaTransport.ServerConnection serverConn = connect(conn, 8, null);
+    conn[0].writeQuery(1, ByteBuffer.wrap(Bytes.toBytes("query-1")), handler);
+    conn[0].writeQuery(2, ByteBuffer.wrap(Bytes.toBytes("query-2")), handler);
+    serverConn.close();
+    Object first = completions.poll(10, TimeUnit.SECONDS);
+    Object second = completions.poll(10, TimeUnit.SECONDS);
+    assertTrue((first.equals(1) && second.equals(2)) || (first.equals(2) && second.equals(1)));
+    assertTrue(conn[0].isClosed());
+    try {
+      conn[0].writeQuery(3, ByteBuffer.wrap(Bytes.toBytes("query-3")), handler);
+      fail("Write should fail on a closed connection");
+    } catch (IOException e) {
+      // expected
+    }
+    assertFalse(completions.contains(3));
+  }
+
+  @Test
+  public void testPeekCallId() throws Exception {
+    assertEquals(12345, RdmaMuxedClientConnection.peekCallId(response(12345)));
+    ByteBuffer buf = ByteBuffer.allocate(100);
+    buf.position(7);
+    buf.put(response(7));
+    buf.flip();
+    buf.position(7);
+    assertEquals(7, RdmaMuxedClientConnection.peekCallId(buf));
+    assertEquals(7, buf.position());
+    assertArrayEquals(toBytes(response(7)), toBytes(buf));
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestSharedMemoryRdmaTransport {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestSharedMemoryRdmaTransport.class);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int PORT = 16021;
+
+  private Configuration conf;
+  private RdmaTransport server;
+  private RdmaTransport client;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    conf.set(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY,
+      SharedMemoryRdmaTransport.class.getName());
+    conf.set(SharedMemoryRdmaTransport.SHM_DIR_CONF_KEY, folder.getRoot().getAbsolutePath());
+    conf.setInt(SharedMemoryRdmaTransport.SHM_RING_SIZE_CONF_KEY, 4096);
+    conf.setInt(SharedMemoryRdmaTransport.SHM_CONNECT_TIMEOUT_CONF_KEY, 500);
+    server = RdmaTransportFactory.createTransport(conf);
+    client = RdmaTransportFactory.createTransport(conf);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    server.close();
+    client.close();
+  }
+
+  private static byte[] randomBytes(int len) {
+    byte[] bytes = new byte[len];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] toBytes(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return bytes;
+  }
+
+  private RdmaTransport.ServerConnection acceptAsync(
+      Future<RdmaTransport.ClientConnection>[] clientConn) throws Exception {
+    server.bind(PORT);
+    clientConn[0] = executor.submit(() -> client.connect("localhost", PORT));
+    return server.accept();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    @SuppressWarnings("unchecked")
+    Future<RdmaTransport.ClientConnection>[] f = new Future[1];
+    RdmaTransport.ServerConnection serverConn = acceptAsync(f);
+    RdmaTransport.ClientConnection clientConn = f[0].get();
+    assertFalse(serverConn.isReadable());
+
+    byte[] query = randomBytes(100);
+    clientConn.write(ByteBuffer.wrap(query));
+    while (!serverConn.isReadable()) {
+      Thread.sleep(1);
+    }
+    assertArrayEquals(query, toBytes(serverConn.read()));
+    assertFalse(serverConn.isReadable());
+
+    byte[] response = randomBytes(200);
+    serverConn.write(ByteBuffer.wrap(response));
+    assertArrayEquals(response, toBytes(clientConn.read()));
+
+    // only the remaining bytes of the buffer are sent
+    ByteBuffer partial = ByteBuffer.wrap(randomBytes(50));
+    partial.position(10);
+    byte[] expected = new byte[40];
+    partial.duplicate().get(expected);
+    clientConn.write(partial);
+    assertEquals(10, partial.position());
+    assertArrayEquals(expected, toBytes(serverConn.read()));
+  }
+
+  @Test
+  public void testGatheringWrite() throws Exception {
+    @SuppressWarnings("unchecked")
+    Future<RdmaTransport.ClientConnection>[] f = new Future[1];
+    RdmaTransport.ServerConnection serverConn = acceptAsync(f);
+    RdmaTransport.ClientConnection clientConn = f[0].get();
+
+    byte[] first = randomBytes(30);
+    byte[] second = randomBytes(1000);
+    ByteBuffer direct = ByteBuffer.allocateDirect(second.length);
+    direct.put(second).flip();
+    serverConn.write(new ByteBuffer[] { ByteBuffer.wrap(first), direct, ByteBuffer.allocate(0) });
+    assertEquals(0, direct.position());
+    // the buffers arrive as one message
+    ByteBuffer response = clientConn.read();
+    assertEquals(first.length + second.length, response.remaining());
+    byte[] bytes = toBytes(response);
+    assertArrayEquals(first, Arrays.copyOfRange(bytes, 0, first.length));
+    assertArrayEquals(second, Arrays.copyOfRange(bytes, first.length, bytes.length));
+  }
+
+  @Test
+  public void testMessageLargerThanRing() throws Exception {
+    @SuppressWarnings("unchecked")
+    Future<RdmaTransport.ClientConnection>[] f = new Future[1];
+    RdmaTransport.ServerConnection serverConn = acceptAsync(f);
+    RdmaTransport.ClientConnection clientConn = f[0].get();
+    for (int i = 0; i < 10; i++) {
+      byte[] query = randomBytes(100 * 1024 + i);
+      Future<?> writer = executor.submit(() -> {
+        clientConn.write(ByteBuffer.wrap(query));
+        return null;
+      });
+      assertArrayEquals(query, toBytes(serverConn.read()));
+      writer.get();
+    }
+    byte[] response = randomBytes(1024 * 1024);
+    Future<?> writer = executor.submit(() -> {
+      serverConn.write(ByteBuffer.wrap(response));
+      return null;
+    });
+    assertArrayEquals(response, toBytes(clientConn.read()));
+    writer.get();
+  }
+
+  @Test
+  public void testConnectTimeout() throws Exception {
+    server.bind(PORT);
+    try {
+      client.connect("localhost", PORT);
+      fail("Should time out as nobody accepts");
+    } catch (ConnectException e) {
+      // expected
+    }
+    // the abandoned connection file must not be handed out to the server
+    executor.submit(() -> {
+      Thread.sleep(100);
+      server.close();
+      return null;
+    });
+    try {
+      server.accept();
+      fail("Should fail as the transport is closed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConnectWithoutListener() throws Exception {
+    try {
+      client.connect("localhost", PORT);
+      fail("Should fail as nobody is listening");
+    } catch (ConnectException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPeerClose() throws Exception {
+    @SuppressWarnings("unchecked")
+    Future<RdmaTransport.ClientConnection>[] f = new Future[1];
+    RdmaTransport.ServerConnection serverConn = acceptAsync(f);
+    RdmaTransport.ClientConnection clientConn = f[0].get();
+    Future<ByteBuffer> reader = executor.submit(() -> clientConn.read());
+    serverConn.close();
+    assertTrue(serverConn.isClosed());
+    assertTrue(clientConn.isClosed());
+    try {
+      reader.get();
+      fail("Read should fail after the peer closed");
+    } catch (Exception e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    try {
+      clientConn.write(ByteBuffer.wrap(randomBytes(10)));
+      fail("Write should fail after the peer closed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
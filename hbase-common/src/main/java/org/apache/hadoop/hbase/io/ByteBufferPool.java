@@ -145,6 +145,13 @@ public class ByteBufferPool {
     return this.bufferSize;
   }
 
+  /**
+   * @return Whether this pool creates off heap ByteBuffers
+   */
+  public boolean isDirectByteBuffer() {
+    return this.directByteBuffer;
+  }
+
   /**
    * @return Number of free buffers
    */
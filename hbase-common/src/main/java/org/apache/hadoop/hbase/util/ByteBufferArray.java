@@ -292,6 +292,12 @@ public class ByteBufferArray {
       LOG.error(msg);
       throw new RuntimeException(msg);
     }
+    if (startBufferOffset + len <= bufferSize) {
+      // Most blocks are within a buffer, no need of the array of the buffers
+      ByteBuffer bb = buffers[startBuffer].duplicate();
+      bb.limit(startBufferOffset + len).position(startBufferOffset);
+      return new SingleByteBuff(bb.slice());
+    }
     int srcIndex = 0, cnt = -1;
     ByteBuffer[] mbb = new ByteBuffer[endBuffer - startBuffer + 1];
     for (int i = startBuffer, j = 0; i <= endBuffer; ++i, j++) {
@@ -222,6 +222,26 @@ public class Threads {
     };
   }
 
+  /**
+   * Get a {@link ThreadFactory} that builds virtual threads, named {@code prefix-<n>}.
+   * Virtual threads exist since Java 21, so they are looked up by reflection.
+   * @return the factory, or null if the running JVM has no virtual threads
+   */
+  public static ThreadFactory newVirtualThreadFactory(final String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, prefix + "-", 0L);
+      builder = builderClass.getMethod("uncaughtExceptionHandler", UncaughtExceptionHandler.class)
+          .invoke(builder, LOGGING_EXCEPTION_HANDLER);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      LOG.debug("Virtual threads are not available", e);
+      return null;
+    }
+  }
+
   /**
    * Same as {#newDaemonThreadFactory(String, UncaughtExceptionHandler)},
    * without setting the exception handler.
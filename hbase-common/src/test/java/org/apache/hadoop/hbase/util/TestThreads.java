@@ -17,8 +17,11 @@
  */
 package org.apache.hadoop.hbase.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.hadoop.hbase.HBaseClassTestRule;
 import org.apache.hadoop.hbase.testclassification.MiscTests;
@@ -82,4 +85,20 @@ public class TestThreads {
     LOG.debug("Target sleep time: " + SLEEP_TIME_MS + ", time elapsed: " +
         timeElapsed);
   }
+
+  @Test
+  public void testNewVirtualThreadFactory() throws InterruptedException {
+    ThreadFactory factory = Threads.newVirtualThreadFactory("test");
+    String version = System.getProperty("java.specification.version");
+    if (version.startsWith("1.") || Integer.parseInt(version) < 21) {
+      assertNull(factory);
+      return;
+    }
+    AtomicBoolean ran = new AtomicBoolean(false);
+    Thread t = factory.newThread(() -> ran.set(true));
+    assertEquals("test-0", t.getName());
+    t.start();
+    t.join();
+    assertTrue(ran.get());
+  }
 }
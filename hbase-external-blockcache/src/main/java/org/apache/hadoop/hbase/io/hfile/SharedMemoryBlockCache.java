@@ -0,0 +1,743 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.HasThread;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Class to store blocks in a memory-mapped file shared by the processes of a host.
+ * <p>
+ * The file, best placed on a tmpfs such as /dev/shm, is divided into sets of fixed size slots.
+ * A block goes into one of the slots of the set its key hashes to, replacing the least recently
+ * read block of the set if they are all taken. Any process mapping the same file with the same
+ * geometry, e.g. a second region server or a sidecar warming the cache, sees the blocks the
+ * others cached, and the blocks outlive the region server process so that a restarted server
+ * reads them again without going to HDFS.
+ * <p>
+ * Writers of a set exclude each other with a lock on the set's region of the file, which works
+ * across processes. Readers do not lock: each slot carries a version which is odd while the slot
+ * is being written, and a CRC of the key and block. A read which overlaps a write, or finds a
+ * block torn by a process which died while writing it, is a miss. The file locks are taken on a
+ * channel which a thread interrupted while waiting on one closes; the channel is then reopened by
+ * the next thread to lock a set, the mappings of the file remain valid meanwhile.
+ * <p>
+ * Blocks are written to the file by writer threads, so caching a block does not wait on the
+ * copy; a block still waiting to be written is served from memory.
+ */
+@InterfaceAudience.Private
+public class SharedMemoryBlockCache implements BlockCache {
+  private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryBlockCache.class);
+
+  /** Path of the shared file. All processes sharing the cache must use the same geometry */
+  public static final String SHM_PATH_KEY = "hbase.cache.shm.path";
+  public static final String SHM_PATH_DEFAULT = "/dev/shm/hbase-blockcache";
+  /** Size of the shared file */
+  public static final String SHM_SIZE_KEY = "hbase.cache.shm.size";
+  public static final long SHM_SIZE_DEFAULT = 1024L * 1024 * 1024;
+  /** Size of a slot. Blocks which do not fit, with their key, in a slot are not cached */
+  public static final String SHM_SLOT_SIZE_KEY = "hbase.cache.shm.slot.size";
+  public static final int SHM_SLOT_SIZE_DEFAULT = 68 * 1024;
+  /** Number of slots of a set, i.e. of slots a block may be cached in */
+  public static final String SHM_WAYS_KEY = "hbase.cache.shm.ways";
+  public static final int SHM_WAYS_DEFAULT = 4;
+  public static final String SHM_WRITER_THREADS_KEY = "hbase.cache.shm.writer.threads";
+  public static final int SHM_WRITER_THREADS_DEFAULT = 2;
+  public static final String SHM_WRITER_QUEUE_ITEMS_KEY = "hbase.cache.shm.writer.queue.items";
+  public static final int SHM_WRITER_QUEUE_ITEMS_DEFAULT = 256;
+
+  private static final int MAGIC = 0x53484d42; // "SHMB"
+  private static final int FORMAT_VERSION = 1;
+  // magic, format version, slot size, ways, sets
+  @VisibleForTesting
+  static final int HEADER_SIZE = 4096;
+
+  // Slot layout. A slot is empty when its key length is 0 and its version even.
+  @VisibleForTesting
+  static final int SLOT_VERSION = 0;
+  private static final int SLOT_LAST_ACCESS = 8;
+  private static final int SLOT_KEY_LENGTH = 16;
+  private static final int SLOT_DATA_LENGTH = 20;
+  private static final int SLOT_CRC = 24;
+  private static final int SLOT_KEY = 32;
+  private static final int MAX_KEY_LENGTH = 256;
+  @VisibleForTesting
+  static final int SLOT_DATA = SLOT_KEY + MAX_KEY_LENGTH;
+
+  // Keep each mapping below the 2G limit of a MappedByteBuffer
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+  /**
+   * Lock stripes serializing the writers of a set within this process, by path of the shared file;
+   * the file locks do across processes but throw if the same process takes them twice.
+   */
+  private static final ConcurrentHashMap<String, ReentrantLock[]> SET_LOCKS =
+      new ConcurrentHashMap<>();
+  private static final int SET_LOCK_STRIPES = 1024;
+
+  private final File path;
+  private volatile RandomAccessFile file;
+  private volatile FileChannel channel;
+  private final ReentrantLock channelLock = new ReentrantLock();
+  private final MappedByteBuffer[] segments;
+  private final int slotSize;
+  private final int ways;
+  private final long sets;
+  private final long setsPerSegment;
+  private final ReentrantLock[] setLocks;
+
+  /**
+   * The sets this process wrote blocks of an hfile to, by hfile name, so that evicting the blocks
+   * of an hfile does not sweep the whole file. Blocks of the hfile other processes, or this one
+   * before a restart, wrote to other sets stay there until replaced; hfiles are never rewritten
+   * under the same name, so they are only taking up room, never read in place of another block.
+   */
+  private final ConcurrentHashMap<String, Set<Long>> setsByHfile = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<BlockCacheKey, HFileBlock> pendingBlocks =
+      new ConcurrentHashMap<>();
+  private final BlockingQueue<BlockCacheKey> writeQueue;
+  private final WriterThread[] writerThreads;
+  private volatile boolean running = true;
+
+  private final CacheStats cacheStats = new CacheStats("SharedMemoryBlockCache");
+
+  public SharedMemoryBlockCache(Configuration c) throws IOException {
+    String path = c.get(SHM_PATH_KEY, SHM_PATH_DEFAULT);
+    long size = c.getLong(SHM_SIZE_KEY, SHM_SIZE_DEFAULT);
+    this.slotSize = c.getInt(SHM_SLOT_SIZE_KEY, SHM_SLOT_SIZE_DEFAULT);
+    this.ways = c.getInt(SHM_WAYS_KEY, SHM_WAYS_DEFAULT);
+    if (slotSize <= SLOT_DATA || ways <= 0) {
+      throw new IllegalArgumentException("Invalid " + SHM_SLOT_SIZE_KEY + "=" + slotSize + " or "
+          + SHM_WAYS_KEY + "=" + ways);
+    }
+    long setSize = (long) slotSize * ways;
+    this.sets = (size - HEADER_SIZE) / setSize;
+    if (sets <= 0 || setSize > MAX_SEGMENT_SIZE) {
+      throw new IllegalArgumentException(SHM_SIZE_KEY + "=" + size + " is too small for sets of "
+          + ways + " slots of " + slotSize + " bytes");
+    }
+    this.setsPerSegment = MAX_SEGMENT_SIZE / setSize;
+    LOG.info("Creating SharedMemoryBlockCache at {}, sets={}, ways={}, slotSize={}", path, sets,
+      ways, slotSize);
+
+    File f = new File(path);
+    this.path = f;
+    this.setLocks = SET_LOCKS.computeIfAbsent(f.getCanonicalPath(), p -> {
+      ReentrantLock[] locks = new ReentrantLock[SET_LOCK_STRIPES];
+      for (int i = 0; i < locks.length; i++) {
+        locks[i] = new ReentrantLock();
+      }
+      return locks;
+    });
+    this.file = new RandomAccessFile(f, "rw");
+    this.channel = file.getChannel();
+    try {
+      long length = HEADER_SIZE + sets * setSize;
+      // The first process to get here sizes and formats the file; the others reuse it
+      synchronized (setLocks) {
+        try (FileLock lock = channel.lock(0, HEADER_SIZE, false)) {
+          boolean reuse = file.length() == length && checkHeader();
+          if (!reuse) {
+            file.setLength(length);
+          }
+          this.segments = map(length);
+          if (reuse) {
+            LOG.info("Reusing the blocks cached in {}", path);
+          } else {
+            format();
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      file.close();
+      throw e;
+    }
+
+    this.writeQueue = new ArrayBlockingQueue<>(
+        c.getInt(SHM_WRITER_QUEUE_ITEMS_KEY, SHM_WRITER_QUEUE_ITEMS_DEFAULT));
+    this.writerThreads = new WriterThread[c.getInt(SHM_WRITER_THREADS_KEY,
+      SHM_WRITER_THREADS_DEFAULT)];
+    for (int i = 0; i < writerThreads.length; i++) {
+      writerThreads[i] = new WriterThread("SharedMemoryBlockCacheWriter-" + i);
+      writerThreads[i].setDaemon(true);
+      writerThreads[i].start();
+    }
+  }
+
+  private boolean checkHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(24);
+    channel.read(header, 0);
+    header.flip();
+    return header.remaining() == 24 && header.getInt() == MAGIC
+        && header.getInt() == FORMAT_VERSION && header.getInt() == slotSize
+        && header.getInt() == ways && header.getLong() == sets;
+  }
+
+  private MappedByteBuffer[] map(long length) throws IOException {
+    long setSize = (long) slotSize * ways;
+    int count = (int) ((sets + setsPerSegment - 1) / setsPerSegment);
+    MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long position = HEADER_SIZE + i * setsPerSegment * setSize;
+      mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+        Math.min(setsPerSegment * setSize, length - position));
+    }
+    return mapped;
+  }
+
+  private void format() throws IOException {
+    for (long set = 0; set < sets; set++) {
+      for (int way = 0; way < ways; way++) {
+        ByteBuffer segment = segment(set);
+        int slot = slotPosition(set, way);
+        segment.putLong(slot + SLOT_VERSION, 0);
+        segment.putInt(slot + SLOT_KEY_LENGTH, 0);
+      }
+    }
+    // Write the header last so that a file is only reused once completely formatted
+    ByteBuffer header = ByteBuffer.allocate(24);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(slotSize).putInt(ways).putLong(sets);
+    header.flip();
+    channel.write(header, 0);
+  }
+
+  private ByteBuffer segment(long set) {
+    return segments[(int) (set / setsPerSegment)];
+  }
+
+  private int slotPosition(long set, int way) {
+    return (int) ((set % setsPerSegment) * ways + way) * slotSize;
+  }
+
+  private long setOf(byte[] key) {
+    return (Bytes.hashCode(key) & Integer.MAX_VALUE) % sets;
+  }
+
+  private static byte[] toKey(BlockCacheKey cacheKey) {
+    return Bytes.add(Bytes.toBytes(cacheKey.getHfileName()), Bytes.toBytes(cacheKey.getOffset()));
+  }
+
+  private static int crc(byte[] key, byte[] data, int dataOffset, int dataLength) {
+    CRC32 crc = new CRC32();
+    crc.update(key, 0, key.length);
+    crc.update(data, dataOffset, dataLength);
+    return (int) crc.getValue();
+  }
+
+  private static boolean keyMatches(ByteBuffer segment, int slot, byte[] key) {
+    if (segment.getInt(slot + SLOT_KEY_LENGTH) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (segment.get(slot + SLOT_KEY + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    cacheBlock(cacheKey, buf);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    if (!(buf instanceof HFileBlock)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("SharedMemoryBlockCache can not cache Cacheable's of type "
+            + buf.getClass().toString());
+      }
+      return;
+    }
+    if (!running || pendingBlocks.putIfAbsent(cacheKey, (HFileBlock) buf) != null) {
+      return;
+    }
+    if (!writeQueue.offer(cacheKey)) {
+      // The writers are behind; like the BucketCache, rather drop the block than wait
+      pendingBlocks.remove(cacheKey);
+    }
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching,
+                            boolean repeat, boolean updateCacheMetrics) {
+    HFileBlock result = pendingBlocks.get(cacheKey);
+    if (result == null) {
+      try {
+        result = read(toKey(cacheKey));
+      } catch (Exception e) {
+        // Whatever the file holds must not fail the read path
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Exception reading [ " + cacheKey.toString() + " ]. Treating as a miss.", e);
+        }
+        result = null;
+      }
+    }
+    if (updateCacheMetrics) {
+      if (result == null) {
+        cacheStats.miss(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      } else {
+        cacheStats.hit(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      }
+    }
+    return result;
+  }
+
+  private HFileBlock read(byte[] key) throws IOException {
+    long set = setOf(key);
+    ByteBuffer segment = segment(set);
+    for (int way = 0; way < ways; way++) {
+      int slot = slotPosition(set, way);
+      long version = segment.getLong(slot + SLOT_VERSION);
+      if ((version & 1) != 0 || !keyMatches(segment, slot, key)) {
+        continue;
+      }
+      int dataLength = segment.getInt(slot + SLOT_DATA_LENGTH);
+      if (dataLength <= 0 || dataLength > slotSize - SLOT_DATA) {
+        return null;
+      }
+      int expectedCrc = segment.getInt(slot + SLOT_CRC);
+      byte[] data = new byte[dataLength];
+      ByteBuffer dup = segment.duplicate();
+      dup.position(slot + SLOT_DATA);
+      dup.get(data);
+      // Overwritten meanwhile, or torn by a writer which died
+      if (segment.getLong(slot + SLOT_VERSION) != version
+          || crc(key, data, 0, dataLength) != expectedCrc) {
+        return null;
+      }
+      segment.putLong(slot + SLOT_LAST_ACCESS, EnvironmentEdgeManager.currentTime());
+      ByteBuff buf = new SingleByteBuff(ByteBuffer.wrap(data));
+      return (HFileBlock) HFileBlock.BLOCK_DESERIALIZER.deserialize(buf, true,
+        MemoryType.EXCLUSIVE);
+    }
+    return null;
+  }
+
+  private void write(BlockCacheKey cacheKey, HFileBlock block) throws IOException {
+    byte[] key = toKey(cacheKey);
+    int dataLength = block.getSerializedLength();
+    if (key.length > MAX_KEY_LENGTH || dataLength > slotSize - SLOT_DATA) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Block " + cacheKey + " of " + dataLength + " bytes does not fit in a slot");
+      }
+      return;
+    }
+    ByteBuffer bb = ByteBuffer.allocate(dataLength);
+    block.serialize(bb, true);
+    int crc = crc(key, bb.array(), 0, dataLength);
+
+    long set = setOf(key);
+    ByteBuffer segment = segment(set);
+    ReentrantLock setLock = setLocks[(int) (set % setLocks.length)];
+    setLock.lock();
+    FileLock lock = null;
+    try {
+      lock = lockSet(set);
+      int slot = slotPosition(set, chooseWay(segment, set, key));
+      untrackReplaced(segment, set, slot, key);
+      long version = segment.getLong(slot + SLOT_VERSION);
+      // An odd version is left by a writer which died while holding the set
+      version = (version | 1) + 1;
+      segment.putLong(slot + SLOT_VERSION, version - 1);
+      segment.putInt(slot + SLOT_KEY_LENGTH, key.length);
+      segment.putInt(slot + SLOT_DATA_LENGTH, dataLength);
+      segment.putInt(slot + SLOT_CRC, crc);
+      ByteBuffer dup = segment.duplicate();
+      dup.position(slot + SLOT_KEY);
+      dup.put(key);
+      dup.position(slot + SLOT_DATA);
+      dup.put(bb.array(), 0, dataLength);
+      segment.putLong(slot + SLOT_LAST_ACCESS, EnvironmentEdgeManager.currentTime());
+      segment.putLong(slot + SLOT_VERSION, version);
+      setsByHfile.computeIfAbsent(cacheKey.getHfileName(), k -> ConcurrentHashMap.newKeySet())
+          .add(set);
+    } finally {
+      try {
+        unlock(lock);
+      } finally {
+        setLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Stops tracking the set for the hfile of the block the given slot holds, if it is about to be
+   * replaced by another block and was the last block of its hfile in the set. Must be called with
+   * the set locked.
+   */
+  private void untrackReplaced(ByteBuffer segment, long set, int slot, byte[] key) {
+    int keyLength = segment.getInt(slot + SLOT_KEY_LENGTH);
+    if (keyLength <= Bytes.SIZEOF_LONG || keyLength > MAX_KEY_LENGTH
+        || keyMatches(segment, slot, key)) {
+      return;
+    }
+    byte[] hfileName = new byte[keyLength - Bytes.SIZEOF_LONG];
+    for (int i = 0; i < hfileName.length; i++) {
+      hfileName[i] = segment.get(slot + SLOT_KEY + i);
+    }
+    for (int way = 0; way < ways; way++) {
+      int other = slotPosition(set, way);
+      if (other != slot && hfileNameMatches(segment, other, hfileName)) {
+        return;
+      }
+    }
+    setsByHfile.computeIfPresent(Bytes.toString(hfileName), (name, sets) -> {
+      sets.remove(set);
+      return sets.isEmpty() ? null : sets;
+    });
+  }
+
+  private FileLock lockSet(long set) throws IOException {
+    long setSize = (long) slotSize * ways;
+    for (;;) {
+      FileChannel ch = channel;
+      try {
+        return ch.lock(HEADER_SIZE + set * setSize, setSize, false);
+      } catch (FileLockInterruptionException e) {
+        // This thread was interrupted, give up; the next one reopens the channel
+        throw e;
+      } catch (ClosedChannelException e) {
+        reopenChannel(ch, e);
+      }
+    }
+  }
+
+  private static void unlock(FileLock lock) throws IOException {
+    if (lock == null) {
+      return;
+    }
+    try {
+      lock.release();
+    } catch (ClosedChannelException e) {
+      // Released along with the channel, closed by an interrupted thread
+    }
+  }
+
+  /**
+   * Reopens the channel the file locks are taken on, unless another thread already did.
+   */
+  private void reopenChannel(FileChannel closed, IOException ioe) throws IOException {
+    if (!running) {
+      throw ioe;
+    }
+    channelLock.lock();
+    try {
+      if (channel != closed) {
+        return;
+      }
+      LOG.warn("Caught ClosedChannelException locking a set of {}, reopening the file", path, ioe);
+      try {
+        file.close();
+      } catch (IOException e) {
+        LOG.debug("Error closing the shared memory file", e);
+      }
+      file = new RandomAccessFile(path, "rw");
+      channel = file.getChannel();
+    } finally {
+      channelLock.unlock();
+    }
+  }
+
+  /** @return the way holding the key, else an empty way, else the least recently read one */
+  private int chooseWay(ByteBuffer segment, long set, byte[] key) {
+    int victim = 0;
+    long oldest = Long.MAX_VALUE;
+    for (int way = 0; way < ways; way++) {
+      int slot = slotPosition(set, way);
+      if (keyMatches(segment, slot, key)) {
+        return way;
+      }
+      long access = segment.getInt(slot + SLOT_KEY_LENGTH) == 0 ? Long.MIN_VALUE
+          : segment.getLong(slot + SLOT_LAST_ACCESS);
+      if (access < oldest) {
+        oldest = access;
+        victim = way;
+      }
+    }
+    return victim;
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    cacheStats.evict();
+    boolean evicted = pendingBlocks.remove(cacheKey) != null;
+    try {
+      byte[] key = toKey(cacheKey);
+      evicted |= evictSlots(setOf(key), key, null) > 0;
+    } catch (IOException e) {
+      LOG.warn("Error evicting " + cacheKey.toString(), e);
+    }
+    return evicted;
+  }
+
+  /**
+   * Empties the slot holding the key, or, if the key is null, the slots holding a block of the
+   * hfile whose name is passed.
+   * @return the number of slots emptied
+   */
+  private int evictSlots(long set, byte[] key, byte[] hfileName) throws IOException {
+    ByteBuffer segment = segment(set);
+    int evicted = 0;
+    ReentrantLock setLock = setLocks[(int) (set % setLocks.length)];
+    setLock.lock();
+    FileLock lock = null;
+    try {
+      lock = lockSet(set);
+      for (int way = 0; way < ways; way++) {
+        int slot = slotPosition(set, way);
+        if (key != null ? keyMatches(segment, slot, key) : hfileNameMatches(segment, slot,
+          hfileName)) {
+          long version = (segment.getLong(slot + SLOT_VERSION) | 1) + 1;
+          segment.putLong(slot + SLOT_VERSION, version - 1);
+          segment.putInt(slot + SLOT_KEY_LENGTH, 0);
+          segment.putLong(slot + SLOT_VERSION, version);
+          evicted++;
+        }
+      }
+    } finally {
+      try {
+        unlock(lock);
+      } finally {
+        setLock.unlock();
+      }
+    }
+    return evicted;
+  }
+
+  private static boolean hfileNameMatches(ByteBuffer segment, int slot, byte[] hfileName) {
+    if (segment.getInt(slot + SLOT_KEY_LENGTH) != hfileName.length + Bytes.SIZEOF_LONG) {
+      return false;
+    }
+    for (int i = 0; i < hfileName.length; i++) {
+      if (segment.get(slot + SLOT_KEY + i) != hfileName[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Only sweeps the sets this process cached blocks of the hfile to. Other processes sharing the
+   * cache lose these blocks of the file as well.
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    pendingBlocks.keySet().removeIf(key -> key.getHfileName().equals(hfileName));
+    Set<Long> hfileSets = setsByHfile.remove(hfileName);
+    if (hfileSets == null) {
+      return 0;
+    }
+    byte[] name = hfileName.getBytes(StandardCharsets.UTF_8);
+    int evicted = 0;
+    try {
+      for (long set : hfileSets) {
+        evicted += evictSlots(set, null, name);
+      }
+    } catch (IOException e) {
+      LOG.warn("Error evicting the blocks of " + hfileName, e);
+    }
+    return evicted;
+  }
+
+  /**
+   * @return the number of blocks waiting to be written to the file
+   */
+  @VisibleForTesting
+  int getPendingBlockCount() {
+    return pendingBlocks.size();
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return cacheStats;
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    for (WriterThread writer : writerThreads) {
+      writer.interrupt();
+    }
+    for (WriterThread writer : writerThreads) {
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (MappedByteBuffer segment : segments) {
+      // Only does something if the file is not on a tmpfs
+      segment.force();
+    }
+    try {
+      channel.close();
+      file.close();
+    } catch (IOException e) {
+      LOG.warn("Error closing the shared memory file", e);
+    }
+  }
+
+  @Override
+  public long size() {
+    return getMaxSize();
+  }
+
+  @Override
+  public long getMaxSize() {
+    return sets * ways * (slotSize - SLOT_DATA);
+  }
+
+  /**
+   * The cache is shared with other processes, which this one does not know the blocks of, so the
+   * following report 0.
+   */
+  @Override
+  public long getFreeSize() {
+    return 0;
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return 0;
+  }
+
+  @Override
+  public long getCurrentDataSize() {
+    return 0;
+  }
+
+  @Override
+  public long getBlockCount() {
+    return 0;
+  }
+
+  @Override
+  public long getDataBlockCount() {
+    return 0;
+  }
+
+  @Override
+  public Iterator<CachedBlock> iterator() {
+    return new Iterator<CachedBlock>() {
+      @Override
+      public boolean hasNext() {
+        return false;
+      }
+
+      @Override
+      public CachedBlock next() {
+        throw new NoSuchElementException("SharedMemoryBlockCache can't iterate over blocks.");
+      }
+
+      @Override
+      public void remove() {
+
+      }
+    };
+  }
+
+  @Override
+  public BlockCache[] getBlockCaches() {
+    return null;
+  }
+
+  /**
+   * Writes the queued blocks to the file in batches.
+   */
+  private class WriterThread extends HasThread {
+
+    WriterThread(String name) {
+      super(name);
+    }
+
+    @Override
+    public void run() {
+      List<BlockCacheKey> batch = new ArrayList<>();
+      while (running) {
+        try {
+          BlockCacheKey first = writeQueue.poll(1, TimeUnit.SECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          writeQueue.drainTo(batch);
+          for (BlockCacheKey key : batch) {
+            HFileBlock block = pendingBlocks.get(key);
+            if (block == null) {
+              // Evicted before written
+              continue;
+            }
+            try {
+              write(key, block);
+            } catch (IOException e) {
+              LOG.warn("Failed writing " + key + " to the shared memory file", e);
+            } finally {
+              pendingBlocks.remove(key, block);
+            }
+          }
+        } catch (InterruptedException e) {
+          if (!running) {
+            break;
+          }
+        } finally {
+          batch.clear();
+        }
+      }
+      LOG.info(getName() + " exiting");
+    }
+  }
+}
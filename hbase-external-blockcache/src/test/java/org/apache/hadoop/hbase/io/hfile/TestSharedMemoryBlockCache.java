@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+@Category({ IOTests.class, SmallTests.class })
+public class TestSharedMemoryBlockCache {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestSharedMemoryBlockCache.class);
+
+  private static final int BLOCK_SIZE = 1024;
+  private static final int SLOT_SIZE = 4096;
+
+  @Rule
+  public TemporaryFolder testFolder = new TemporaryFolder();
+
+  private File file;
+  private Configuration conf;
+  private SharedMemoryBlockCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(testFolder.getRoot(), "blockcache");
+    conf = createConf(64, 4);
+    cache = new SharedMemoryBlockCache(conf);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+  }
+
+  private Configuration createConf(int sets, int ways) {
+    Configuration c = HBaseConfiguration.create();
+    c.set(SharedMemoryBlockCache.SHM_PATH_KEY, file.getPath());
+    c.setLong(SharedMemoryBlockCache.SHM_SIZE_KEY,
+      SharedMemoryBlockCache.HEADER_SIZE + (long) sets * ways * SLOT_SIZE);
+    c.setInt(SharedMemoryBlockCache.SHM_SLOT_SIZE_KEY, SLOT_SIZE);
+    c.setInt(SharedMemoryBlockCache.SHM_WAYS_KEY, ways);
+    c.setInt(SharedMemoryBlockCache.SHM_WRITER_THREADS_KEY, 1);
+    return c;
+  }
+
+  private void reopen(Configuration c) throws IOException {
+    cache.shutdown();
+    cache = new SharedMemoryBlockCache(c);
+  }
+
+  private static void waitUntilWritten(SharedMemoryBlockCache cache) throws InterruptedException {
+    while (cache.getPendingBlockCount() > 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static Cacheable get(BlockCache cache, BlockCacheKey key) {
+    return cache.getBlock(key, true, false, true);
+  }
+
+  @Test
+  public void testCacheAndEvict() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 10);
+    for (HFileBlockPair block : blocks) {
+      assertNull(get(cache, block.getBlockName()));
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    waitUntilWritten(cache);
+    for (HFileBlockPair block : blocks) {
+      assertEquals(block.getBlock(), get(cache, block.getBlockName()));
+    }
+    assertTrue(cache.evictBlock(blocks[0].getBlockName()));
+    assertNull(get(cache, blocks[0].getBlockName()));
+    assertFalse(cache.evictBlock(blocks[0].getBlockName()));
+    assertEquals(blocks[1].getBlock(), get(cache, blocks[1].getBlockName()));
+  }
+
+  @Test
+  public void testCorruptSlotIsMiss() throws Exception {
+    // A single slot, so that the block is where the test expects it
+    reopen(createConf(1, 1));
+    HFileBlockPair block = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+    cache.cacheBlock(block.getBlockName(), block.getBlock());
+    waitUntilWritten(cache);
+    assertEquals(block.getBlock(), get(cache, block.getBlockName()));
+
+    long slot = SharedMemoryBlockCache.HEADER_SIZE;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // Flip a byte of the data, the CRC no longer matches
+      long pos = slot + SharedMemoryBlockCache.SLOT_DATA + BLOCK_SIZE / 2;
+      raf.seek(pos);
+      int b = raf.read();
+      raf.seek(pos);
+      raf.write(~b);
+      assertNull(get(cache, block.getBlockName()));
+
+      // Written again over the corrupt copy
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+      waitUntilWritten(cache);
+      assertEquals(block.getBlock(), get(cache, block.getBlockName()));
+
+      // An odd version is left by a writer which died halfway through the slot
+      raf.seek(slot + SharedMemoryBlockCache.SLOT_VERSION);
+      long version = raf.readLong();
+      raf.seek(slot + SharedMemoryBlockCache.SLOT_VERSION);
+      raf.writeLong(version + 1);
+      assertNull(get(cache, block.getBlockName()));
+    }
+
+    // The next write to the set does not trust the torn slot either
+    cache.cacheBlock(block.getBlockName(), block.getBlock());
+    waitUntilWritten(cache);
+    assertEquals(block.getBlock(), get(cache, block.getBlockName()));
+  }
+
+  @Test
+  public void testSharedAndReopened() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 10);
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    waitUntilWritten(cache);
+
+    // Another instance on the same file, as another region server of the host would open it
+    SharedMemoryBlockCache other = new SharedMemoryBlockCache(conf);
+    try {
+      for (HFileBlockPair block : blocks) {
+        assertEquals(block.getBlock(), get(other, block.getBlockName()));
+      }
+      HFileBlockPair added = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+      other.cacheBlock(added.getBlockName(), added.getBlock());
+      waitUntilWritten(other);
+      assertEquals(added.getBlock(), get(cache, added.getBlockName()));
+    } finally {
+      other.shutdown();
+    }
+
+    // The blocks survive a restart
+    reopen(conf);
+    for (HFileBlockPair block : blocks) {
+      assertEquals(block.getBlock(), get(cache, block.getBlockName()));
+    }
+
+    // but not a change of geometry, which formats the file again
+    reopen(createConf(64, 2));
+    for (HFileBlockPair block : blocks) {
+      assertNull(get(cache, block.getBlockName()));
+    }
+  }
+
+  @Test
+  public void testPendingBlocks() throws Exception {
+    // No writer, the blocks stay queued
+    Configuration c = createConf(64, 4);
+    c.setInt(SharedMemoryBlockCache.SHM_WRITER_THREADS_KEY, 0);
+    c.setInt(SharedMemoryBlockCache.SHM_WRITER_QUEUE_ITEMS_KEY, 2);
+    reopen(c);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 3);
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    // Read before they reach the file, the one over the queue size is dropped
+    assertEquals(2, cache.getPendingBlockCount());
+    assertEquals(blocks[0].getBlock(), get(cache, blocks[0].getBlockName()));
+    assertEquals(blocks[1].getBlock(), get(cache, blocks[1].getBlockName()));
+    assertNull(get(cache, blocks[2].getBlockName()));
+
+    assertTrue(cache.evictBlock(blocks[0].getBlockName()));
+    assertNull(get(cache, blocks[0].getBlockName()));
+    assertEquals(1, cache.getPendingBlockCount());
+
+    // Queued blocks never reached the file
+    reopen(conf);
+    assertNull(get(cache, blocks[1].getBlockName()));
+    cache.cacheBlock(blocks[1].getBlockName(), blocks[1].getBlock());
+    waitUntilWritten(cache);
+    assertEquals(blocks[1].getBlock(), get(cache, blocks[1].getBlockName()));
+  }
+
+  @Test
+  public void testEvictBlocksByHfileName() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 20);
+    BlockCacheKey[] keys = new BlockCacheKey[blocks.length];
+    for (int i = 0; i < blocks.length; i++) {
+      keys[i] = new BlockCacheKey(i % 2 == 0 ? "a" : "b", i * BLOCK_SIZE);
+      cache.cacheBlock(keys[i], blocks[i].getBlock());
+    }
+    waitUntilWritten(cache);
+    for (int i = 0; i < blocks.length; i++) {
+      assertEquals(blocks[i].getBlock(), get(cache, keys[i]));
+    }
+    assertEquals(blocks.length / 2, cache.evictBlocksByHfileName("a"));
+    for (int i = 0; i < blocks.length; i++) {
+      if (i % 2 == 0) {
+        assertNull(get(cache, keys[i]));
+      } else {
+        assertEquals(blocks[i].getBlock(), get(cache, keys[i]));
+      }
+    }
+    assertEquals(0, cache.evictBlocksByHfileName("a"));
+    assertEquals(blocks.length / 2, cache.evictBlocksByHfileName("b"));
+  }
+
+  @Test
+  public void testInterruptedLock() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 2);
+    cache.cacheBlock(blocks[0].getBlockName(), blocks[0].getBlock());
+    waitUntilWritten(cache);
+
+    // Taking the file lock of an interrupted handler closes the channel the locks are taken on
+    Thread.currentThread().interrupt();
+    try {
+      assertFalse(cache.evictBlock(blocks[0].getBlockName()));
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+    assertEquals(blocks[0].getBlock(), get(cache, blocks[0].getBlockName()));
+
+    // The next ones reopen it
+    cache.cacheBlock(blocks[1].getBlockName(), blocks[1].getBlock());
+    waitUntilWritten(cache);
+    assertEquals(blocks[1].getBlock(), get(cache, blocks[1].getBlockName()));
+    assertTrue(cache.evictBlock(blocks[0].getBlockName()));
+    assertNull(get(cache, blocks[0].getBlockName()));
+  }
+}
@@ -89,6 +89,18 @@ public interface MetricsHBaseServerSource extends ExceptionTrackingSource {
   String NUM_LIFO_MODE_SWITCHES_NAME = "numLifoModeSwitches";
   String NUM_LIFO_MODE_SWITCHES_DESC = "Total number of calls in general queue which " +
     "were served from the tail of the queue";
+  String NUM_VIRTUAL_THREAD_PINNED_EVENTS_NAME = "numVirtualThreadPinnedEvents";
+  String NUM_VIRTUAL_THREAD_PINNED_EVENTS_DESC = "Total number of times a virtual thread " +
+    "running calls pinned its carrier thread, e.g. blocking in a synchronized block";
+  String NUM_EXPIRED_CALLS_DROPPED_NAME = "numExpiredCallsDropped";
+  String NUM_EXPIRED_CALLS_DROPPED_DESC = "Total number of calls in general queue which " +
+    "were dropped as their client deadline passed before a handler took them";
+  String RDMA_READER_PARKS_NAME = "rdmaReaderParks";
+  String RDMA_READER_PARKS_DESC = "Number of times an RDMA reader parked because none of " +
+    "its connections was readable";
+  String RDMA_READY_CONNECTIONS_NAME = "rdmaReadyConnections";
+  String RDMA_READY_CONNECTIONS_DESC = "Number of readable connections an RDMA reader " +
+    "served in one polling pass";
 
   void authorizationSuccess();
 
@@ -113,4 +125,8 @@ public interface MetricsHBaseServerSource extends ExceptionTrackingSource {
   void processedCall(int processingTime);
 
   void queuedAndProcessedCall(int totalTime);
+
+  void rdmaReaderParked();
+
+  void rdmaReadyConnections(int count);
 }
@@ -39,6 +39,10 @@ public interface MetricsHBaseServerWrapper {
 
   long getNumLifoModeSwitches();
 
+  long getNumVirtualThreadPinnedEvents();
+
+  long getNumExpiredCallsDropped();
+
   int getWriteQueueLength();
 
   int getReadQueueLength();
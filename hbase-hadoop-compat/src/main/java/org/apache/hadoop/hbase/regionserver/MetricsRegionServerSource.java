@@ -370,6 +370,15 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String L2_CACHE_HIT_RATIO_DESC = "L2 cache hit ratio.";
   String L2_CACHE_MISS_RATIO = "l2CacheMissRatio";
   String L2_CACHE_MISS_RATIO_DESC = "L2 cache miss ratio.";
+  String L2_CACHE_RECOVERED_BLOCK_COUNT = "l2CacheRecoveredBlockCount";
+  String L2_CACHE_RECOVERED_BLOCK_COUNT_DESC =
+      "Number of blocks the L2 cache recovered from its persisted index at startup.";
+  String L2_CACHE_RECOVERY_TIME = "l2CacheRecoveryTime";
+  String L2_CACHE_RECOVERY_TIME_DESC =
+      "Time in milliseconds the L2 cache took to recover its persisted index at startup.";
+  String L2_CACHE_CHECKSUM_FAILURE_COUNT = "l2CacheChecksumFailureCount";
+  String L2_CACHE_CHECKSUM_FAILURE_COUNT_DESC =
+      "Number of recovered L2 cache blocks dropped as their checksum did not match.";
   String RS_START_TIME_NAME = "regionServerStartTime";
   String ZOOKEEPER_QUORUM_NAME = "zookeeperQuorum";
   String SERVER_NAME_NAME = "serverName";
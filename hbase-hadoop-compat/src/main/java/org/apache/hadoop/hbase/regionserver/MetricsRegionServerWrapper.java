@@ -312,6 +312,21 @@ public interface MetricsRegionServerWrapper {
    */
   public double getL2CacheMissRatio();
 
+  /**
+   * Number of blocks L2 cache recovered from its persisted index at startup.
+   */
+  long getL2CacheRecoveredBlockCount();
+
+  /**
+   * Time in milliseconds L2 cache took to recover its persisted index at startup.
+   */
+  long getL2CacheRecoveryTime();
+
+  /**
+   * Number of recovered blocks of L2 cache dropped on a checksum mismatch.
+   */
+  long getL2CacheChecksumFailureCount();
+
   /**
    * Force a re-computation of the metrics.
    */
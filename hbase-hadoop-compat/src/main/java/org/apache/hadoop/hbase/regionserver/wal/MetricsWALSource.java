@@ -59,6 +59,11 @@ public interface MetricsWALSource extends BaseSource {
   String SLOW_APPEND_COUNT_DESC = "Number of appends that were slow.";
   String SYNC_TIME = "syncTime";
   String SYNC_TIME_DESC = "The time it took to sync the WAL to HDFS.";
+  String SYNC_BATCH_SIZE = "syncBatchSize";
+  String SYNC_BATCH_SIZE_DESC = "Number of sync requests made durable by one sync of the WAL.";
+  String SYNC_WAIT_TIME = "syncWaitTime";
+  String SYNC_WAIT_TIME_DESC =
+      "Time (in microseconds) a sync of the WAL was held for more sync requests to join it.";
   String ROLL_REQUESTED = "rollRequest";
   String ROLL_REQUESTED_DESC = "How many times a log roll has been requested total";
   String LOW_REPLICA_ROLL_REQUESTED = "lowReplicaRollRequest";
@@ -92,6 +97,16 @@ public interface MetricsWALSource extends BaseSource {
    */
   void incrementSyncTime(long time);
 
+  /**
+   * Add the number of sync requests a sync of the wal made durable.
+   */
+  void incrementSyncBatchSize(long size);
+
+  /**
+   * Add the time a sync of the wal was held for group commit.
+   */
+  void incrementSyncWaitTime(long time);
+
   void incrementLogRollRequested();
 
   void incrementLowReplicationLogRoll();
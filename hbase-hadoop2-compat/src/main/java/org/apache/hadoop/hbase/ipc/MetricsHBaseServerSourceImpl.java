@@ -38,6 +38,7 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
   private final MutableFastCounter authenticationFallbacks;
   private final MutableFastCounter sentBytes;
   private final MutableFastCounter receivedBytes;
+  private final MutableFastCounter rdmaReaderParks;
 
 
   private MetricHistogram queueCallTime;
@@ -45,6 +46,7 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
   private MetricHistogram totalCallTime;
   private MetricHistogram requestSize;
   private MetricHistogram responseSize;
+  private MetricHistogram rdmaReadyConnections;
 
   public MetricsHBaseServerSourceImpl(String metricsName,
                                       String metricsDescription,
@@ -78,6 +80,10 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
         REQUEST_SIZE_DESC);
     this.responseSize = this.getMetricsRegistry().newSizeHistogram(RESPONSE_SIZE_NAME,
               RESPONSE_SIZE_DESC);
+    this.rdmaReaderParks = this.getMetricsRegistry().newCounter(RDMA_READER_PARKS_NAME,
+        RDMA_READER_PARKS_DESC, 0L);
+    this.rdmaReadyConnections = this.getMetricsRegistry().newHistogram(
+        RDMA_READY_CONNECTIONS_NAME, RDMA_READY_CONNECTIONS_DESC);
   }
 
   @Override
@@ -140,6 +146,16 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
     totalCallTime.add(totalTime);
   }
 
+  @Override
+  public void rdmaReaderParked() {
+    rdmaReaderParks.incr();
+  }
+
+  @Override
+  public void rdmaReadyConnections(int count) {
+    rdmaReadyConnections.add(count);
+  }
+
   @Override
   public void getMetrics(MetricsCollector metricsCollector, boolean all) {
     MetricsRecordBuilder mrb = metricsCollector.addRecord(metricsName);
@@ -160,6 +176,10 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
               NUM_GENERAL_CALLS_DROPPED_DESC), wrapper.getNumGeneralCallsDropped())
           .addCounter(Interns.info(NUM_LIFO_MODE_SWITCHES_NAME,
               NUM_LIFO_MODE_SWITCHES_DESC), wrapper.getNumLifoModeSwitches())
+          .addCounter(Interns.info(NUM_VIRTUAL_THREAD_PINNED_EVENTS_NAME,
+              NUM_VIRTUAL_THREAD_PINNED_EVENTS_DESC), wrapper.getNumVirtualThreadPinnedEvents())
+          .addCounter(Interns.info(NUM_EXPIRED_CALLS_DROPPED_NAME,
+              NUM_EXPIRED_CALLS_DROPPED_DESC), wrapper.getNumExpiredCallsDropped())
           .addGauge(Interns.info(WRITE_QUEUE_NAME, WRITE_QUEUE_DESC),
               wrapper.getWriteQueueLength())
           .addGauge(Interns.info(READ_QUEUE_NAME, READ_QUEUE_DESC),
@@ -541,6 +541,13 @@ public class MetricsRegionServerSourceImpl
                     rsWrap.getL2CacheHitRatio())
             .addGauge(Interns.info(L2_CACHE_MISS_RATIO, L2_CACHE_MISS_RATIO_DESC),
                     rsWrap.getL2CacheMissRatio())
+            .addGauge(Interns.info(L2_CACHE_RECOVERED_BLOCK_COUNT,
+                    L2_CACHE_RECOVERED_BLOCK_COUNT_DESC), rsWrap.getL2CacheRecoveredBlockCount())
+            .addGauge(Interns.info(L2_CACHE_RECOVERY_TIME, L2_CACHE_RECOVERY_TIME_DESC),
+                    rsWrap.getL2CacheRecoveryTime())
+            .addGauge(Interns.info(L2_CACHE_CHECKSUM_FAILURE_COUNT,
+                    L2_CACHE_CHECKSUM_FAILURE_COUNT_DESC),
+                    rsWrap.getL2CacheChecksumFailureCount())
             .addGauge(Interns.info(MOB_FILE_CACHE_COUNT, MOB_FILE_CACHE_COUNT_DESC),
                     rsWrap.getMobFileCacheCount())
             .addGauge(Interns.info(MOB_FILE_CACHE_HIT_PERCENT, MOB_FILE_CACHE_HIT_PERCENT_DESC),
@@ -129,6 +129,15 @@ public interface BlockCache extends Iterable<CachedBlock> {
   @Override
   Iterator<CachedBlock> iterator();
 
+  /**
+   * @param hfileName the name of an hfile
+   * @return Iterator over the blocks of the hfile in the cache; returns null if the cache does not
+   *         index its blocks by hfile, so that they can only be found through {@link #iterator()}.
+   */
+  default Iterator<CachedBlock> iteratorByHfileName(String hfileName) {
+    return null;
+  }
+
   /**
    * @return The list of sub blockcaches that make up this one; returns null if no sub caches.
    */
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.metrics.Gauge;
+import org.apache.hadoop.hbase.metrics.MetricRegistry;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Partitions of the block caches, each with a minimum and maximum share of every cache it has
+ * blocks in.
+ * <p>
+ * A store joins the partition named by {@link #PARTITION_KEY} in its table or family
+ * configuration; naming the same partition in the tables of a namespace makes a namespace
+ * partition. The files of the store are registered in the partition while open, and the eviction
+ * of the {@link LruBlockCache} and the {@link org.apache.hadoop.hbase.io.hfile.bucket.BucketCache}
+ * first evicts the blocks of the partitions above their maximum share, then evicts as usual but
+ * leaves alone the blocks of the partitions at or below their minimum share. Blocks of files not
+ * in any partition are evicted as usual.
+ */
+@InterfaceAudience.Private
+public final class BlockCachePartitions {
+  private static final Logger LOG = LoggerFactory.getLogger(BlockCachePartitions.class);
+
+  /** Name of the block cache partition of a table or family; unset by default */
+  public static final String PARTITION_KEY = "hbase.blockcache.partition";
+  /** Share of each block cache the blocks of the partition are not evicted below */
+  public static final String MIN_SHARE_KEY = "hbase.blockcache.partition.min.share";
+  public static final float DEFAULT_MIN_SHARE = 0f;
+  /** Share of each block cache the blocks of the partition are evicted above */
+  public static final String MAX_SHARE_KEY = "hbase.blockcache.partition.max.share";
+  public static final float DEFAULT_MAX_SHARE = 1f;
+
+  /**
+   * Bound on the sum of the minimum shares, scaled down above it, so that eviction always finds
+   * blocks to evict outside of the protected partitions.
+   */
+  static final float MAX_TOTAL_MIN_SHARE = 0.8f;
+
+  private static final String METRIC_PREFIX = "blockCachePartition_";
+
+  /** A partition of the block caches */
+  public static final class Partition {
+    private final String name;
+    private volatile float minShare;
+    private volatile float maxShare;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+
+    Partition(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public float getMinShare() {
+      return minShare;
+    }
+
+    public float getMaxShare() {
+      return maxShare;
+    }
+
+    public long getHitCount() {
+      return hitCount.sum();
+    }
+
+    public long getMissCount() {
+      return missCount.sum();
+    }
+
+    /** @return the number of blocks evicted to make room, not counting invalidated blocks */
+    public long getEvictedCount() {
+      return evictedCount.sum();
+    }
+
+    void hit() {
+      hitCount.increment();
+    }
+
+    void miss() {
+      missCount.increment();
+    }
+
+    @Override
+    public String toString() {
+      return "partition=" + name + ", minShare=" + minShare + ", maxShare=" + maxShare;
+    }
+  }
+
+  private static final ConcurrentHashMap<String, Partition> PARTITIONS = new ConcurrentHashMap<>();
+  /** Partitions by name of their open hfiles */
+  private static final ConcurrentHashMap<String, Partition> FILES = new ConcurrentHashMap<>();
+  private static volatile MetricRegistry metricRegistry;
+
+  private BlockCachePartitions() {
+  }
+
+  /**
+   * Gets the partition named in the passed configuration, creating it if needed. The shares of a
+   * partition are the ones of the configuration it was last got with.
+   * @return the partition, or null if the configuration does not name one
+   */
+  public static Partition getPartition(Configuration conf) {
+    String name = conf.get(PARTITION_KEY);
+    if (name == null || name.isEmpty()) {
+      return null;
+    }
+    float minShare = conf.getFloat(MIN_SHARE_KEY, DEFAULT_MIN_SHARE);
+    float maxShare = conf.getFloat(MAX_SHARE_KEY, DEFAULT_MAX_SHARE);
+    if (minShare < 0 || maxShare > 1 || minShare > maxShare) {
+      throw new IllegalArgumentException("Invalid shares of block cache partition " + name + ": "
+          + MIN_SHARE_KEY + "=" + minShare + ", " + MAX_SHARE_KEY + "=" + maxShare);
+    }
+    Partition partition = PARTITIONS.computeIfAbsent(name, n -> {
+      Partition p = new Partition(n);
+      MetricRegistry registry = metricRegistry;
+      if (registry != null) {
+        registerMetrics(registry, p);
+      }
+      return p;
+    });
+    if (partition.minShare != minShare || partition.maxShare != maxShare) {
+      partition.minShare = minShare;
+      partition.maxShare = maxShare;
+      LOG.info("Block cache {}", partition);
+    }
+    return partition;
+  }
+
+  /** Registers an open hfile in a partition */
+  public static void registerFile(String hfileName, Partition partition) {
+    FILES.put(hfileName, partition);
+  }
+
+  public static void unregisterFile(String hfileName) {
+    FILES.remove(hfileName);
+  }
+
+  /** @return the partition the hfile is in, or null */
+  public static Partition getPartition(String hfileName) {
+    return FILES.isEmpty() ? null : FILES.get(hfileName);
+  }
+
+  /** @return whether the caches have to enforce the shares of partitions when evicting */
+  public static boolean isActive() {
+    return !FILES.isEmpty();
+  }
+
+  /** Counts a block of the hfile evicted to make room */
+  public static void evicted(String hfileName) {
+    Partition partition = getPartition(hfileName);
+    if (partition != null) {
+      partition.evictedCount.increment();
+    }
+  }
+
+  /**
+   * Exports the hit, miss and eviction counts of the current and future partitions.
+   */
+  public static void registerMetrics(MetricRegistry registry) {
+    metricRegistry = registry;
+    for (Partition partition : PARTITIONS.values()) {
+      registerMetrics(registry, partition);
+    }
+  }
+
+  private static void registerMetrics(MetricRegistry registry, Partition partition) {
+    String prefix = METRIC_PREFIX + partition.getName() + "_";
+    registry.register(prefix + "hitCount", (Gauge<Long>) partition::getHitCount);
+    registry.register(prefix + "missCount", (Gauge<Long>) partition::getMissCount);
+    registry.register(prefix + "evictedCount", (Gauge<Long>) partition::getEvictedCount);
+  }
+
+  @VisibleForTesting
+  static void clear() {
+    PARTITIONS.clear();
+    FILES.clear();
+    metricRegistry = null;
+  }
+
+  /**
+   * The sizes of the partitions in one cache, summed up by an eviction run over the blocks of the
+   * cache, and the resulting quotas.
+   */
+  public static final class Usage {
+    private final long capacity;
+    private final Map<Partition, Long> sizes = new HashMap<>();
+    private float minShareScale = -1;
+
+    public Usage(long capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Adds a block to the size of its partition.
+     * @return the partition of the block, or null
+     */
+    public Partition add(String hfileName, long size) {
+      Partition partition = getPartition(hfileName);
+      if (partition != null) {
+        sizes.merge(partition, size, Long::sum);
+      }
+      return partition;
+    }
+
+    public long size(Partition partition) {
+      return sizes.getOrDefault(partition, 0L);
+    }
+
+    /** @return how far the partition is above its maximum share, or 0 */
+    public long excess(Partition partition) {
+      return Math.max(0, size(partition) - (long) (partition.getMaxShare() * capacity));
+    }
+
+    /** @return whether the partition is at or below its minimum share */
+    public boolean isProtected(Partition partition) {
+      if (minShareScale < 0) {
+        float totalMinShare = 0;
+        for (Partition p : sizes.keySet()) {
+          totalMinShare += p.getMinShare();
+        }
+        minShareScale =
+            totalMinShare > MAX_TOTAL_MIN_SHARE ? MAX_TOTAL_MIN_SHARE / totalMinShare : 1;
+      }
+      return size(partition) <= (long) (partition.getMinShare() * minShareScale * capacity);
+    }
+
+    public Iterable<Partition> partitions() {
+      return sizes.keySet();
+    }
+  }
+}
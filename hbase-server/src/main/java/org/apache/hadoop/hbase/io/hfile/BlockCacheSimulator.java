@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.CommandLine;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.HelpFormatter;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.Options;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.ParseException;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.PosixParser;
+
+/**
+ * Replays the block cache traces written by {@link BlockCacheTracer} against block caches of
+ * several policies and capacities, and prints the miss ratio of each, i.e. the miss ratio curve
+ * of each policy.
+ * <p>
+ * The caches replayed against are the real ones, fed blocks which only have the size of the
+ * traced blocks. Since a trace holds all the accesses to a sample of the blocks, a cache of a
+ * given capacity is simulated with a cache of that capacity times the sample rate.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.TOOLS)
+public class BlockCacheSimulator extends Configured implements Tool {
+
+  /** The block cache policies replayed against */
+  public enum Policy {
+    /** {@link LruBlockCache} */
+    LRU,
+    /** {@link TinyLfuBlockCache} */
+    TINYLFU,
+    /** {@link BucketCache} off heap */
+    BUCKET
+  }
+
+  /** Outcome of the replay of traces against one cache */
+  public static final class Result {
+    private final Policy policy;
+    private final long capacity;
+    private long accesses;
+    private long misses;
+    private long tracedMisses;
+
+    Result(Policy policy, long capacity) {
+      this.policy = policy;
+      this.capacity = capacity;
+    }
+
+    public Policy getPolicy() {
+      return policy;
+    }
+
+    public long getCapacity() {
+      return capacity;
+    }
+
+    public long getAccesses() {
+      return accesses;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public double getMissRatio() {
+      return accesses == 0 ? 0 : (double) misses / accesses;
+    }
+
+    /** @return the miss ratio of the traced cache */
+    public double getTracedMissRatio() {
+      return accesses == 0 ? 0 : (double) tracedMisses / accesses;
+    }
+  }
+
+  /**
+   * A block of the size of a traced block, without content.
+   */
+  private static final class SimulatedBlock implements Cacheable {
+    private static final CacheableDeserializer<Cacheable> DESERIALIZER =
+        new CacheableDeserializer<Cacheable>() {
+      @Override
+      public Cacheable deserialize(ByteBuff b) {
+        return new SimulatedBlock(b.limit(), null);
+      }
+
+      @Override
+      public Cacheable deserialize(ByteBuff b, boolean reuse, MemoryType memType) {
+        return deserialize(b);
+      }
+
+      @Override
+      public int getDeserialiserIdentifier() {
+        return DESERIALIZER_ID;
+      }
+    };
+    private static final int DESERIALIZER_ID =
+        CacheableDeserializerIdManager.registerDeserializer(DESERIALIZER);
+
+    private final int size;
+    private final BlockType type;
+
+    SimulatedBlock(int size, BlockType type) {
+      this.size = size;
+      this.type = type;
+    }
+
+    @Override
+    public long heapSize() {
+      return size;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return size;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination, boolean includeNextBlockMetadata) {
+      // Nothing to serialize, only the size matters
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return DESERIALIZER;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return type;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
+  }
+
+  /**
+   * Creates a cache of the policy.
+   * @param capacity capacity of the cache, already scaled by the sample rate
+   */
+  private static BlockCache createCache(Policy policy, long capacity, Configuration conf)
+      throws IOException {
+    long blockSize = conf.getLong("hbase.offheapcache.minblocksize", HConstants.DEFAULT_BLOCKSIZE);
+    switch (policy) {
+      case LRU:
+        return new LruBlockCache(capacity, blockSize, false, conf);
+      case TINYLFU:
+        return new TinyLfuBlockCache(capacity, blockSize, conf);
+      case BUCKET:
+        BucketCache bucketCache = new BucketCache("offheap", capacity, (int) blockSize, null, 1,
+            64, null);
+        // Replays go faster than the writers, do not drop blocks because of it
+        bucketCache.setWaitWhenCache(true);
+        return bucketCache;
+      default:
+        throw new IllegalArgumentException("Unknown policy " + policy);
+    }
+  }
+
+  /**
+   * Replays the traces against a cache.
+   * @param capacity capacity of the simulated cache, not scaled by the sample rate
+   */
+  @VisibleForTesting
+  static Result simulate(Policy policy, long capacity, List<File> traces, Configuration conf)
+      throws IOException {
+    Result result = new Result(policy, capacity);
+    Map<Long, String> fileNames = new HashMap<>();
+    BlockCache cache = null;
+    BlockCacheTracer.Access access = new BlockCacheTracer.Access();
+    try {
+      for (File trace : traces) {
+        try (BlockCacheTracer.Reader reader = new BlockCacheTracer.Reader(trace)) {
+          if (cache == null) {
+            cache = createCache(policy, (long) (capacity * reader.getSampleRate()), conf);
+          }
+          while (reader.next(access)) {
+            BlockCacheKey key = new BlockCacheKey(
+                fileNames.computeIfAbsent(access.getFile(), Long::toHexString), access.getOffset(),
+                true, access.getBlockType());
+            result.accesses++;
+            if (!access.isHit()) {
+              result.tracedMisses++;
+            }
+            Cacheable block = cache.getBlock(key, true, false, true);
+            if (block != null) {
+              cache.returnBlock(key, block);
+              continue;
+            }
+            result.misses++;
+            // Only cache the blocks the traced cache did cache on a miss, or which it had cached
+            if (access.isHit() || access.isCacheOnMiss()) {
+              cache.cacheBlock(key, new SimulatedBlock(access.getSize(), access.getBlockType()),
+                access.isInMemory());
+            }
+          }
+        }
+      }
+    } finally {
+      if (cache != null) {
+        cache.shutdown();
+      }
+    }
+    return result;
+  }
+
+  private static void printUsage(Options options) {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("BlockCacheSimulator -t TRACE[,TRACE...] -c CAPACITY[,CAPACITY...]"
+        + " [-p POLICY[,POLICY...]]", options, true);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("t", "traces", true, "Comma separated trace files, replayed in order");
+    options.addOption("c", "capacities", true,
+      "Comma separated capacities of the simulated caches, e.g. 1g,2g,4g");
+    options.addOption("p", "policies", true, "Comma separated policies among "
+        + java.util.Arrays.toString(Policy.values()) + "; all by default");
+    CommandLine cmd;
+    try {
+      cmd = new PosixParser().parse(options, args);
+    } catch (ParseException e) {
+      System.err.println(e.getMessage());
+      printUsage(options);
+      return 1;
+    }
+    if (!cmd.hasOption("t") || !cmd.hasOption("c")) {
+      printUsage(options);
+      return 1;
+    }
+    List<File> traces = new ArrayList<>();
+    for (String trace : cmd.getOptionValue("t").split(",")) {
+      traces.add(new File(trace));
+    }
+    List<Long> capacities = new ArrayList<>();
+    for (String capacity : cmd.getOptionValue("c").split(",")) {
+      capacities.add(StringUtils.TraditionalBinaryPrefix.string2long(capacity));
+    }
+    List<Policy> policies = new ArrayList<>();
+    if (cmd.hasOption("p")) {
+      for (String policy : cmd.getOptionValue("p").split(",")) {
+        policies.add(Policy.valueOf(policy.trim().toUpperCase(Locale.ROOT)));
+      }
+    } else {
+      policies.addAll(java.util.Arrays.asList(Policy.values()));
+    }
+
+    PrintStream out = System.out;
+    out.println("policy\tcapacity\taccesses\tmisses\tmissRatio\ttracedMissRatio");
+    for (Policy policy : policies) {
+      for (long capacity : capacities) {
+        Result result;
+        try {
+          result = simulate(policy, capacity, traces, getConf());
+        } catch (RuntimeException e) {
+          // e.g. a bucket cache too small for its bucket sizes once scaled
+          out.println(policy + "\t" + capacity + "\tfailed: " + e);
+          continue;
+        }
+        out.println(String.format(Locale.ROOT, "%s\t%d\t%d\t%d\t%.4f\t%.4f", policy, capacity,
+          result.getAccesses(), result.getMisses(), result.getMissRatio(),
+          result.getTracedMissRatio()));
+      }
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    System.exit(ToolRunner.run(conf, new BlockCacheSimulator(), args));
+  }
+}
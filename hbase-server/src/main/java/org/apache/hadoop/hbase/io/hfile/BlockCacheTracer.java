@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Sampling tracer of the block cache accesses of the hfile readers, to replay them offline with
+ * {@link BlockCacheSimulator}.
+ * <p>
+ * Accesses are sampled by block, on a hash of the block's key, so that all the accesses to a
+ * sampled block are traced: the trace then behaves like the full access stream to a cache
+ * {@link #SAMPLE_RATE_KEY} times smaller. A traced access is recorded in a ring buffer without
+ * locking; a daemon thread appends the buffer to a trace file in {@link #TRACE_DIR_KEY} every
+ * {@link #FLUSH_INTERVAL_KEY}. Accesses overwritten in the ring before being flushed are lost and
+ * counted.
+ * <p>
+ * A trace file holds a header, the magic, the format version and the sample rate, followed by the
+ * accesses, each of {@value #ENTRY_SIZE} bytes: the time in ms, a 64 bit hash of the hfile name,
+ * the offset and size of the block, the ordinal of its {@link BlockType} and flags.
+ */
+@InterfaceAudience.Private
+public final class BlockCacheTracer implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(BlockCacheTracer.class);
+
+  /** Whether the accesses to the block cache are traced */
+  public static final String TRACE_ENABLED_KEY = "hbase.blockcache.trace.enabled";
+  public static final boolean DEFAULT_TRACE_ENABLED = false;
+  /** Share of the blocks whose accesses are traced */
+  public static final String SAMPLE_RATE_KEY = "hbase.blockcache.trace.sample.rate";
+  public static final double DEFAULT_SAMPLE_RATE = 0.01;
+  /** Number of accesses the ring buffer holds; rounded up to a power of 2 */
+  public static final String BUFFER_ENTRIES_KEY = "hbase.blockcache.trace.buffer.entries";
+  public static final int DEFAULT_BUFFER_ENTRIES = 1 << 20;
+  /** Local directory the trace files are written to */
+  public static final String TRACE_DIR_KEY = "hbase.blockcache.trace.dir";
+  public static final String FLUSH_INTERVAL_KEY = "hbase.blockcache.trace.flush.interval";
+  public static final long DEFAULT_FLUSH_INTERVAL = 10000;
+
+  static final int MAGIC = 0x42435452; // "BCTR"
+  static final int FORMAT_VERSION = 1;
+  static final int ENTRY_SIZE = 8 + 8 + 8 + 4 + 1 + 1;
+
+  /** The access was a hit */
+  public static final byte FLAG_HIT = 1;
+  /** The block was cached on the miss */
+  public static final byte FLAG_CACHE_ON_MISS = 2;
+  /** The block is of an in-memory family */
+  public static final byte FLAG_IN_MEMORY = 4;
+
+  private static final int SAMPLE_BITS = 24;
+
+  private static volatile BlockCacheTracer instance;
+
+  private final double sampleRate;
+  private final long sampleThreshold;
+  private final int mask;
+  // The ring. A slot holds an access once its sequence is the index the access was given.
+  private final AtomicLongArray sequences;
+  private final long[] times;
+  private final long[] files;
+  private final long[] offsets;
+  private final int[] sizes;
+  private final byte[] types;
+  private final byte[] flags;
+  private final AtomicLong next = new AtomicLong();
+  private long flushed = 0;
+  private final AtomicLong lost = new AtomicLong();
+
+  private final DataOutputStream out;
+  private final Thread flusher;
+  private volatile boolean running = true;
+
+  @VisibleForTesting
+  BlockCacheTracer(double sampleRate, int bufferEntries, File traceFile, long flushInterval)
+      throws IOException {
+    if (sampleRate <= 0 || sampleRate > 1) {
+      throw new IllegalArgumentException(SAMPLE_RATE_KEY + " must be in (0, 1], it is "
+          + sampleRate);
+    }
+    this.sampleRate = sampleRate;
+    this.sampleThreshold = (long) Math.ceil(sampleRate * (1 << SAMPLE_BITS));
+    int capacity = Integer.highestOneBit(Math.max(1, bufferEntries - 1)) << 1;
+    this.mask = capacity - 1;
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, -1);
+    }
+    this.times = new long[capacity];
+    this.files = new long[capacity];
+    this.offsets = new long[capacity];
+    this.sizes = new int[capacity];
+    this.types = new byte[capacity];
+    this.flags = new byte[capacity];
+    if (traceFile != null) {
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeDouble(sampleRate);
+      this.flusher = Threads.setDaemonThreadRunning(new Thread(() -> {
+        while (running) {
+          try {
+            Thread.sleep(flushInterval);
+          } catch (InterruptedException e) {
+            // Flush what is left and exit
+          }
+          try {
+            flush();
+          } catch (IOException e) {
+            LOG.warn("Failed writing the block cache trace, stopping", e);
+            return;
+          }
+        }
+      }), "BlockCacheTracer");
+      LOG.info("Tracing {} of the blocks accessed in the block cache to {}", sampleRate,
+        traceFile);
+    } else {
+      this.out = null;
+      this.flusher = null;
+    }
+  }
+
+  /**
+   * Starts tracing if enabled in the configuration, replacing the current tracer if any.
+   */
+  public static synchronized void configure(Configuration conf) {
+    if (!conf.getBoolean(TRACE_ENABLED_KEY, DEFAULT_TRACE_ENABLED)) {
+      return;
+    }
+    String dir = conf.get(TRACE_DIR_KEY);
+    if (dir == null) {
+      LOG.warn("Not tracing the block cache accesses, {} is not set", TRACE_DIR_KEY);
+      return;
+    }
+    File traceFile = new File(dir, "blockcache-" + EnvironmentEdgeManager.currentTime()
+        + ".trace");
+    try {
+      BlockCacheTracer tracer = new BlockCacheTracer(
+          conf.getDouble(SAMPLE_RATE_KEY, DEFAULT_SAMPLE_RATE),
+          conf.getInt(BUFFER_ENTRIES_KEY, DEFAULT_BUFFER_ENTRIES), traceFile,
+          conf.getLong(FLUSH_INTERVAL_KEY, DEFAULT_FLUSH_INTERVAL));
+      BlockCacheTracer previous = instance;
+      instance = tracer;
+      if (previous != null) {
+        previous.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to create the block cache trace {}", traceFile, e);
+    }
+  }
+
+  /**
+   * Records an access to the block cache, if traced.
+   * @param cacheKey key of the block
+   * @param size heap size of the block
+   * @param type type of the block, null if unknown
+   * @param flags {@link #FLAG_HIT}, {@link #FLAG_CACHE_ON_MISS}, {@link #FLAG_IN_MEMORY}
+   */
+  static void trace(BlockCacheKey cacheKey, long size, BlockType type, byte flags) {
+    BlockCacheTracer tracer = instance;
+    if (tracer != null) {
+      tracer.record(cacheKey, size, type, flags);
+    }
+  }
+
+  @VisibleForTesting
+  void record(BlockCacheKey cacheKey, long size, BlockType type, byte accessFlags) {
+    // The key's hash is cached by the hfile name, so checking the sample costs next to nothing
+    if ((mix(cacheKey.hashCode()) & ((1 << SAMPLE_BITS) - 1)) >= sampleThreshold) {
+      return;
+    }
+    long index = next.getAndIncrement();
+    int slot = (int) (index & mask);
+    // Invalidate the slot while it is overwritten
+    sequences.set(slot, -1);
+    times[slot] = EnvironmentEdgeManager.currentTime();
+    files[slot] = hash64(cacheKey.getHfileName());
+    offsets[slot] = cacheKey.getOffset();
+    sizes[slot] = (int) Math.min(size, Integer.MAX_VALUE);
+    types[slot] = type == null ? -1 : (byte) type.ordinal();
+    flags[slot] = accessFlags;
+    sequences.lazySet(slot, index);
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static long hash64(String s) {
+    // FNV-1a
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  /** Appends the accesses recorded since the last flush to the trace file */
+  @VisibleForTesting
+  synchronized void flush() throws IOException {
+    if (out == null) {
+      return;
+    }
+    long end = next.get();
+    long start = Math.max(flushed, end - mask - 1);
+    lost.addAndGet(start - flushed);
+    for (long index = start; index < end; index++) {
+      int slot = (int) (index & mask);
+      if (sequences.get(slot) != index) {
+        // Still being written, or already overwritten
+        if (sequences.get(slot) < index) {
+          end = index;
+          break;
+        }
+        lost.incrementAndGet();
+        continue;
+      }
+      long time = times[slot];
+      long file = files[slot];
+      long offset = offsets[slot];
+      int size = sizes[slot];
+      byte type = types[slot];
+      byte flag = flags[slot];
+      if (sequences.get(slot) != index) {
+        lost.incrementAndGet();
+        continue;
+      }
+      out.writeLong(time);
+      out.writeLong(file);
+      out.writeLong(offset);
+      out.writeInt(size);
+      out.writeByte(type);
+      out.writeByte(flag);
+    }
+    flushed = end;
+    out.flush();
+  }
+
+  /** @return the number of traced accesses overwritten before they were written to the file */
+  public long getLostCount() {
+    return lost.get();
+  }
+
+  public double getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    if (flusher != null) {
+      flusher.interrupt();
+      try {
+        flusher.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        flush();
+        out.close();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static void setInstance(BlockCacheTracer tracer) {
+    instance = tracer;
+  }
+
+  /** An access read back from a trace file */
+  public static final class Access {
+    private long time;
+    private long file;
+    private long offset;
+    private int size;
+    private byte type;
+    private byte flags;
+
+    public long getTime() {
+      return time;
+    }
+
+    /** @return a hash of the name of the hfile */
+    public long getFile() {
+      return file;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /** @return the type of the block, or null if unknown */
+    public BlockType getBlockType() {
+      return type < 0 ? null : BlockType.values()[type];
+    }
+
+    public boolean isHit() {
+      return (flags & FLAG_HIT) != 0;
+    }
+
+    public boolean isCacheOnMiss() {
+      return (flags & FLAG_CACHE_ON_MISS) != 0;
+    }
+
+    public boolean isInMemory() {
+      return (flags & FLAG_IN_MEMORY) != 0;
+    }
+  }
+
+  /** Reads a trace file */
+  public static final class Reader implements Closeable {
+    private final DataInputStream in;
+    private final double sampleRate;
+
+    public Reader(File traceFile) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+          throw new IOException(traceFile + " is not a block cache trace");
+        }
+        this.sampleRate = in.readDouble();
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    /** @return the share of the blocks whose accesses were traced */
+    public double getSampleRate() {
+      return sampleRate;
+    }
+
+    /**
+     * Reads the next access into the passed one.
+     * @return false at the end of the trace
+     */
+    public boolean next(Access access) throws IOException {
+      try {
+        access.time = in.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      access.file = in.readLong();
+      access.offset = in.readLong();
+      access.size = in.readInt();
+      access.type = in.readByte();
+      access.flags = in.readByte();
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Scan-driven readahead of the data blocks of an HFile for one scanner. Once the scanner has
+ * moved from block to block in file order for a few blocks, the next blocks are looked up in the
+ * block index and read with positional reads in parallel on a pool shared by all scanners, so
+ * that a long scan does not wait on the read latency of each block in turn. The blocks read
+ * ahead are handed to the scanner when it gets to them, and are cached on the way if the scanner
+ * caches blocks.
+ * <p>
+ * The number of blocks read ahead starts at {@link #MIN_BLOCKS_KEY} and doubles, up to
+ * {@link #MAX_BLOCKS_KEY}, each time the scanner has to wait for a block that is still being read,
+ * i.e. each time it consumes blocks faster than they are read. It drops back when the scanner
+ * seeks away from the blocks read ahead. Blocks not consumed are released when the scanner moves
+ * past them or is closed.
+ * <p>
+ * Not thread safe: a readahead is driven by its scanner's thread only; the reads it issues hand
+ * over their blocks under the readahead's lock.
+ */
+@InterfaceAudience.Private
+public class BlockReadahead {
+  private static final Logger LOG = LoggerFactory.getLogger(BlockReadahead.class);
+
+  /** Whether scanners, other than those of compactions, read blocks ahead */
+  public static final String READAHEAD_ENABLED_KEY = "hbase.hfile.readahead.enabled";
+  public static final boolean DEFAULT_READAHEAD_ENABLED = false;
+  /** Number of blocks a scanner has to move through in file order before blocks are read ahead */
+  public static final String SEQUENTIAL_BLOCKS_KEY = "hbase.hfile.readahead.sequential.blocks";
+  public static final int DEFAULT_SEQUENTIAL_BLOCKS = 2;
+  /** Number of blocks initially read ahead */
+  public static final String MIN_BLOCKS_KEY = "hbase.hfile.readahead.min.blocks";
+  public static final int DEFAULT_MIN_BLOCKS = 2;
+  /** Maximum number of blocks read ahead for a scanner */
+  public static final String MAX_BLOCKS_KEY = "hbase.hfile.readahead.max.blocks";
+  public static final int DEFAULT_MAX_BLOCKS = 16;
+  /** Threads of the pool the blocks are read on, shared by all scanners */
+  public static final String THREADS_KEY = "hbase.hfile.readahead.threads";
+  public static final int DEFAULT_THREADS = 8;
+
+  private static final ExecutorService READAHEAD_POOL;
+  static {
+    // Like the prefetch pool, sized from the static configuration
+    Configuration conf = HBaseConfiguration.create();
+    READAHEAD_POOL = Executors.newFixedThreadPool(conf.getInt(THREADS_KEY, DEFAULT_THREADS),
+      Threads.newDaemonThreadFactory("hfile-readahead"));
+  }
+
+  /** A block being read ahead */
+  private static final class PendingBlock {
+    private final long offset;
+    private Future<?> future;
+    /** Set once read unless dropped meanwhile; guarded by the readahead */
+    private HFileBlock block;
+    /** Whether the scanner does not want the block anymore; guarded by the readahead */
+    private boolean dropped;
+
+    PendingBlock(long offset) {
+      this.offset = offset;
+    }
+  }
+
+  private final HFile.Reader reader;
+  private final HFileBlockIndex.CellBasedKeyBlockIndexReader indexReader;
+  private final boolean cacheBlocks;
+  private final DataBlockEncoding expectedDataBlockEncoding;
+  /** Gets the first key of a data block, to look it up in the block index */
+  private final Function<HFileBlock, Cell> firstKeyOf;
+  private final int sequentialBlocks;
+  private final int minBlocks;
+  private final int maxBlocks;
+
+  /** Blocks read ahead and not yet consumed, by offset */
+  private final TreeMap<Long, PendingBlock> pending = new TreeMap<>();
+  private final long[] nextOffsets;
+  private final int[] nextOnDiskSizes;
+  /** Number of blocks to keep read ahead */
+  private int window;
+  /** Number of blocks the scanner moved through in file order since it last seeked away */
+  private int sequentialRun = 0;
+  /** Whether the scanner asked for the block following its current one */
+  private boolean nextBlockRequested = false;
+  private long lastOffset = -1;
+  private long lastEnd = -1;
+  private long lastIssuedOffset = -1;
+
+  BlockReadahead(HFile.Reader reader, HFileBlockIndex.CellBasedKeyBlockIndexReader indexReader,
+      boolean cacheBlocks, DataBlockEncoding expectedDataBlockEncoding,
+      Function<HFileBlock, Cell> firstKeyOf, int sequentialBlocks, int minBlocks,
+      int maxBlocks) {
+    this.reader = reader;
+    this.indexReader = indexReader;
+    this.cacheBlocks = cacheBlocks;
+    this.expectedDataBlockEncoding = expectedDataBlockEncoding;
+    this.firstKeyOf = firstKeyOf;
+    this.sequentialBlocks = Math.max(1, sequentialBlocks);
+    this.maxBlocks = Math.max(1, maxBlocks);
+    this.minBlocks = Math.max(1, Math.min(minBlocks, this.maxBlocks));
+    this.window = this.minBlocks;
+    this.nextOffsets = new long[this.maxBlocks];
+    this.nextOnDiskSizes = new int[this.maxBlocks];
+  }
+
+  /**
+   * Hands over the block at the given offset if it was read ahead, waiting for its read to
+   * complete. Called when the scanner moves on to the block following its current one.
+   * @return the block, which the scanner has to return like a block it read itself, or null if
+   *         the block was not read ahead or its read failed
+   */
+  HFileBlock take(long offset) {
+    nextBlockRequested = true;
+    PendingBlock p = pending.remove(offset);
+    if (p == null) {
+      return null;
+    }
+    if (!p.future.isDone()) {
+      // Reading falls behind the scan, read further ahead
+      window = Math.min(window * 2, maxBlocks);
+    }
+    try {
+      p.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      drop(p);
+      return null;
+    } catch (ExecutionException | CancellationException e) {
+      drop(p);
+      return null;
+    }
+    synchronized (this) {
+      HFileBlock block = p.block;
+      p.block = null;
+      p.dropped = true;
+      return block;
+    }
+  }
+
+  /**
+   * Called when the scanner switched to a new current data block, whether by moving on to the
+   * next block or by seeking. Issues more reads when the scanner moves through the file in order.
+   */
+  void blockLoaded(HFileBlock block) {
+    long offset = block.getOffset();
+    boolean sequential = lastOffset >= 0 && offset > lastOffset
+        && (nextBlockRequested || offset == lastEnd || offset <= lastIssuedOffset);
+    nextBlockRequested = false;
+    if (sequential) {
+      sequentialRun++;
+    } else {
+      sequentialRun = 0;
+      window = minBlocks;
+    }
+    // Release what the scanner moved past or seeked away from
+    Iterator<Map.Entry<Long, PendingBlock>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      PendingBlock p = it.next().getValue();
+      if (!sequential || p.offset <= offset) {
+        it.remove();
+        drop(p);
+      }
+    }
+    if (!sequential) {
+      lastIssuedOffset = -1;
+    }
+    lastOffset = offset;
+    lastEnd = offset + block.getOnDiskSizeWithHeader();
+
+    if (sequentialRun >= sequentialBlocks && pending.size() <= window / 2) {
+      try {
+        issueReads(block);
+      } catch (IOException e) {
+        LOG.debug("Failed to look up the blocks following {} of {}", offset, reader.getName(), e);
+      }
+    }
+  }
+
+  private void issueReads(HFileBlock block) throws IOException {
+    int found = indexReader.getNextDataBlocks(firstKeyOf.apply(block), nextOffsets,
+      nextOnDiskSizes);
+    for (int i = 0; i < found && pending.size() < window; i++) {
+      long offset = nextOffsets[i];
+      if (offset <= lastIssuedOffset) {
+        continue;
+      }
+      PendingBlock p = new PendingBlock(offset);
+      int onDiskSize = nextOnDiskSizes[i];
+      try {
+        p.future = READAHEAD_POOL.submit(() -> read(p, onDiskSize));
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Readahead of {} rejected", reader.getName());
+        return;
+      }
+      pending.put(offset, p);
+      lastIssuedOffset = offset;
+    }
+  }
+
+  private void read(PendingBlock p, int onDiskSize) {
+    synchronized (this) {
+      if (p.dropped) {
+        return;
+      }
+    }
+    HFileBlock block;
+    try {
+      block = reader.readBlock(p.offset, onDiskSize, cacheBlocks, true, false, true, null,
+        expectedDataBlockEncoding);
+    } catch (IOException e) {
+      LOG.debug("Failed to read ahead block {} of {}", p.offset, reader.getName(), e);
+      return;
+    }
+    synchronized (this) {
+      if (!p.dropped) {
+        p.block = block;
+        return;
+      }
+    }
+    reader.returnBlock(block);
+  }
+
+  private void drop(PendingBlock p) {
+    HFileBlock block;
+    synchronized (this) {
+      p.dropped = true;
+      block = p.block;
+      p.block = null;
+    }
+    // Never interrupt a read in progress, it would close the file's input stream
+    p.future.cancel(false);
+    if (block != null) {
+      reader.returnBlock(block);
+    }
+  }
+
+  /** Cancels the reads in progress and releases the blocks read ahead but not consumed */
+  void close() {
+    for (PendingBlock p : pending.values()) {
+      drop(p);
+    }
+    pending.clear();
+  }
+
+  @VisibleForTesting
+  int getWindow() {
+    return window;
+  }
+
+  @VisibleForTesting
+  int getPendingCount() {
+    return pending.size();
+  }
+}
@@ -84,6 +84,13 @@ public class CacheConfig {
   public static final String CACHE_DATA_BLOCKS_COMPRESSED_KEY =
       "hbase.block.data.cachecompressed";
 
+  /**
+   * Configuration key to also cache in L1, uncompressed, the data blocks cached compressed in L2
+   * once they are read again from L2.
+   */
+  public static final String PROMOTE_DATA_BLOCKS_UNCOMPRESSED_KEY =
+      "hbase.block.data.cachecompressed.promote";
+
   /**
    * Configuration key to evict all blocks of a given file from the block cache
    * when the file is closed.
@@ -138,6 +145,13 @@ public class CacheConfig {
    */
   public static final String BLOCKCACHE_BLOCKSIZE_KEY = "hbase.offheapcache.minblocksize";
 
+  /**
+   * The policy of the on-heap L1 block cache: {@code LRU} for the {@link LruBlockCache}, or
+   * {@code TinyLFU} for the scan-resistant {@link TinyLfuBlockCache}.
+   */
+  public static final String BLOCKCACHE_POLICY_KEY = "hfile.block.cache.policy";
+  public static final String BLOCKCACHE_POLICY_DEFAULT = "LRU";
+
   private static final String EXTERNAL_BLOCKCACHE_KEY = "hbase.blockcache.use.external";
   private static final boolean EXTERNAL_BLOCKCACHE_DEFAULT = false;
 
@@ -151,7 +165,8 @@ public class CacheConfig {
    * This is used for config.
    */
   private static enum ExternalBlockCaches {
-    memcached("org.apache.hadoop.hbase.io.hfile.MemcachedBlockCache");
+    memcached("org.apache.hadoop.hbase.io.hfile.MemcachedBlockCache"),
+    shm("org.apache.hadoop.hbase.io.hfile.SharedMemoryBlockCache");
     // TODO(eclark): Consider more. Redis, etc.
     Class<? extends BlockCache> clazz;
     ExternalBlockCaches(String clazzName) {
@@ -174,6 +189,7 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_CACHE_DATA_COMPRESSED = false;
+  public static final boolean DEFAULT_PROMOTE_DATA_UNCOMPRESSED = false;
   public static final boolean DEFAULT_PREFETCH_ON_OPEN = false;
 
   /** Local reference to the block cache, null if completely disabled */
@@ -205,11 +221,17 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed and/or encrypted form in the cache */
   private final boolean cacheDataCompressed;
 
+  /** Whether data blocks read again from L2 should be cached uncompressed in L1 */
+  private final boolean promoteDataUncompressed;
+
   /** Whether data blocks should be prefetched into the cache */
   private final boolean prefetchOnOpen;
 
   private final boolean dropBehindCompaction;
 
+  /** Partition of the block caches the blocks go in, null if none */
+  private BlockCachePartitions.Partition partition;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -234,8 +256,10 @@ public class CacheConfig {
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
         conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
             DEFAULT_PREFETCH_ON_OPEN) || family.isPrefetchBlocksOnOpen(),
-        conf.getBoolean(DROP_BEHIND_CACHE_COMPACTION_KEY, DROP_BEHIND_CACHE_COMPACTION_DEFAULT)
+        conf.getBoolean(DROP_BEHIND_CACHE_COMPACTION_KEY, DROP_BEHIND_CACHE_COMPACTION_DEFAULT),
+        conf.getBoolean(PROMOTE_DATA_BLOCKS_UNCOMPRESSED_KEY, DEFAULT_PROMOTE_DATA_UNCOMPRESSED)
      );
+    this.partition = BlockCachePartitions.getPartition(conf);
     LOG.info("Created cacheConfig for " + family.getNameAsString() + ": " + this);
   }
 
@@ -257,7 +281,8 @@ public class CacheConfig {
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
         conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN),
-        conf.getBoolean(DROP_BEHIND_CACHE_COMPACTION_KEY, DROP_BEHIND_CACHE_COMPACTION_DEFAULT)
+        conf.getBoolean(DROP_BEHIND_CACHE_COMPACTION_KEY, DROP_BEHIND_CACHE_COMPACTION_DEFAULT),
+        conf.getBoolean(PROMOTE_DATA_BLOCKS_UNCOMPRESSED_KEY, DEFAULT_PROMOTE_DATA_UNCOMPRESSED)
      );
     LOG.info("Created cacheConfig: " + this);
   }
@@ -285,6 +310,21 @@ public class CacheConfig {
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
       final boolean cacheDataCompressed, final boolean prefetchOnOpen,
       final boolean dropBehindCompaction) {
+    this(blockCache, cacheDataOnRead, inMemory, cacheDataOnWrite, cacheIndexesOnWrite,
+        cacheBloomsOnWrite, evictOnClose, cacheDataCompressed, prefetchOnOpen,
+        dropBehindCompaction, DEFAULT_PROMOTE_DATA_UNCOMPRESSED);
+  }
+
+  /**
+   * @param promoteDataUncompressed whether data blocks cached compressed in L2 should be cached
+   *          uncompressed in L1 too once read again
+   */
+  CacheConfig(final BlockCache blockCache,
+      final boolean cacheDataOnRead, final boolean inMemory,
+      final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
+      final boolean cacheBloomsOnWrite, final boolean evictOnClose,
+      final boolean cacheDataCompressed, final boolean prefetchOnOpen,
+      final boolean dropBehindCompaction, final boolean promoteDataUncompressed) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -295,6 +335,7 @@ public class CacheConfig {
     this.cacheDataCompressed = cacheDataCompressed;
     this.prefetchOnOpen = prefetchOnOpen;
     this.dropBehindCompaction = dropBehindCompaction;
+    this.promoteDataUncompressed = promoteDataUncompressed;
   }
 
   /**
@@ -306,7 +347,8 @@ public class CacheConfig {
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
         cacheConf.cacheDataCompressed, cacheConf.prefetchOnOpen,
-        cacheConf.dropBehindCompaction);
+        cacheConf.dropBehindCompaction, cacheConf.promoteDataUncompressed);
+    this.partition = cacheConf.partition;
   }
 
   private CacheConfig() {
@@ -341,6 +383,13 @@ public class CacheConfig {
     return dropBehindCompaction;
   }
 
+  /**
+   * @return the partition of the block caches the blocks go in, or null if none
+   */
+  public BlockCachePartitions.Partition getPartition() {
+    return partition;
+  }
+
   /**
    * Should we cache a block of a particular category? We always cache
    * important blocks such as index blocks, as long as the block cache is
@@ -421,6 +470,14 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.cacheDataOnRead && this.cacheDataCompressed;
   }
 
+  /**
+   * @return true if data blocks cached compressed and read again from L2 should be cached
+   *         uncompressed in L1 too, false if not
+   */
+  public boolean shouldPromoteDataUncompressed() {
+    return shouldCacheDataCompressed() && this.promoteDataUncompressed;
+  }
+
   /**
    * @return true if this {@link BlockCategory} should be compressed in blockcache, false otherwise
    */
@@ -495,7 +552,9 @@ public class CacheConfig {
       ", cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() +
       ", cacheEvictOnClose=" + shouldEvictOnClose() +
       ", cacheDataCompressed=" + shouldCacheDataCompressed() +
-      ", prefetchOnOpen=" + shouldPrefetchOnOpen();
+      ", promoteDataUncompressed=" + shouldPromoteDataUncompressed() +
+      ", prefetchOnOpen=" + shouldPrefetchOnOpen() +
+      (partition != null ? ", " + partition : "");
   }
 
   // Static block cache reference and methods
@@ -507,7 +566,7 @@ public class CacheConfig {
   // Clear this if in tests you'd make more than one block cache instance.
   @VisibleForTesting
   static BlockCache GLOBAL_BLOCK_CACHE_INSTANCE;
-  private static LruBlockCache ONHEAP_CACHE_INSTANCE = null;
+  private static FirstLevelBlockCache ONHEAP_CACHE_INSTANCE = null;
   private static BlockCache L2_CACHE_INSTANCE = null;// Can be BucketCache or External cache.
 
   /** Boolean whether we have disabled the block cache entirely. */
@@ -516,9 +575,9 @@ public class CacheConfig {
 
   /**
    * @param c Configuration to use.
-   * @return An L1 instance.  Currently an instance of LruBlockCache.
+   * @return An L1 instance, of the policy set by {@link #BLOCKCACHE_POLICY_KEY}.
    */
-  public static LruBlockCache getOnHeapCache(final Configuration c) {
+  public static FirstLevelBlockCache getOnHeapCache(final Configuration c) {
     return getOnHeapCacheInternal(c);
   }
 
@@ -538,9 +597,9 @@ public class CacheConfig {
 
   /**
    * @param c Configuration to use.
-   * @return An L1 instance.  Currently an instance of LruBlockCache.
+   * @return An L1 instance, of the policy set by {@link #BLOCKCACHE_POLICY_KEY}.
    */
-  private synchronized static LruBlockCache getOnHeapCacheInternal(final Configuration c) {
+  private synchronized static FirstLevelBlockCache getOnHeapCacheInternal(final Configuration c) {
     if (ONHEAP_CACHE_INSTANCE != null) {
       return ONHEAP_CACHE_INSTANCE;
     }
@@ -550,9 +609,19 @@ public class CacheConfig {
     }
     if (blockCacheDisabled) return null;
     int blockSize = c.getInt(BLOCKCACHE_BLOCKSIZE_KEY, HConstants.DEFAULT_BLOCKSIZE);
-    LOG.info("Allocating onheap LruBlockCache size=" +
-      StringUtils.byteDesc(cacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
-    ONHEAP_CACHE_INSTANCE = new LruBlockCache(cacheSize, blockSize, true, c);
+    String policy = c.get(BLOCKCACHE_POLICY_KEY, BLOCKCACHE_POLICY_DEFAULT);
+    if (policy.equalsIgnoreCase("LRU")) {
+      LOG.info("Allocating onheap LruBlockCache size=" +
+        StringUtils.byteDesc(cacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
+      ONHEAP_CACHE_INSTANCE = new LruBlockCache(cacheSize, blockSize, true, c);
+    } else if (policy.equalsIgnoreCase("TinyLFU")) {
+      LOG.info("Allocating onheap TinyLfuBlockCache size=" +
+        StringUtils.byteDesc(cacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
+      ONHEAP_CACHE_INSTANCE = new TinyLfuBlockCache(cacheSize, blockSize, c);
+    } else {
+      throw new IllegalArgumentException("Unknown block cache policy " + policy + " set by "
+          + BLOCKCACHE_POLICY_KEY + ", expected LRU or TinyLFU");
+    }
     return ONHEAP_CACHE_INSTANCE;
   }
 
@@ -649,7 +718,7 @@ public class CacheConfig {
   public static synchronized BlockCache instantiateBlockCache(Configuration conf) {
     if (GLOBAL_BLOCK_CACHE_INSTANCE != null) return GLOBAL_BLOCK_CACHE_INSTANCE;
     if (blockCacheDisabled) return null;
-    LruBlockCache onHeapCache = getOnHeapCacheInternal(conf);
+    FirstLevelBlockCache onHeapCache = getOnHeapCacheInternal(conf);
     // blockCacheDisabled is set as a side-effect of getL1Internal(), so check it again after the
     // call.
     if (blockCacheDisabled) return null;
@@ -669,6 +738,7 @@ public class CacheConfig {
       GLOBAL_BLOCK_CACHE_INSTANCE = L2_CACHE_INSTANCE == null ? onHeapCache
           : new CombinedBlockCache(onHeapCache, L2_CACHE_INSTANCE);
     }
+    BlockCacheTracer.configure(conf);
     return GLOBAL_BLOCK_CACHE_INSTANCE;
   }
 
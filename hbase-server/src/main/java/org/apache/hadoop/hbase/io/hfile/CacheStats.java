@@ -74,6 +74,12 @@ public class CacheStats {
   /** The total number of blocks that were not inserted. */
   private final AtomicLong failedInserts = new AtomicLong(0);
 
+  /** The number of blocks an admission policy let into the main area of the cache */
+  private final LongAdder admittedCount = new LongAdder();
+
+  /** The number of blocks an admission policy kept out of the main area of the cache */
+  private final LongAdder rejectedCount = new LongAdder();
+
   /** Per Block Type Counts */
   private final LongAdder dataMissCount = new LongAdder();
   private final LongAdder leafIndexMissCount = new LongAdder();
@@ -145,6 +151,8 @@ public class CacheStats {
       ", evictedBlockCount=" + getEvictedCount() +
       ", primaryMissCount=" + getPrimaryMissCount() +
       ", primaryHitCount=" + getPrimaryHitCount() +
+      ", admittedCount=" + getAdmittedCount() +
+      ", rejectedCount=" + getRejectedCount() +
       ", evictedAgeMean=" + snapshot.getMean();
   }
 
@@ -261,6 +269,14 @@ public class CacheStats {
     return failedInserts.incrementAndGet();
   }
 
+  public void admitted() {
+    admittedCount.increment();
+  }
+
+  public void rejected() {
+    rejectedCount.increment();
+  }
+
 
   // All of the counts of misses and hits.
   public long getDataMissCount() {
@@ -441,6 +457,14 @@ public class CacheStats {
     return failedInserts.get();
   }
 
+  public long getAdmittedCount() {
+    return admittedCount.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
   public void rollMetricsPeriod() {
     hitCounts[windowIndex] = getHitCount() - lastHitCount;
     lastHitCount = getHitCount();
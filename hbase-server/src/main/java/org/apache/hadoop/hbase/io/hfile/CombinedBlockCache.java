@@ -30,7 +30,7 @@ import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesti
 
 /**
  * CombinedBlockCache is an abstraction layer that combines
- * {@link LruBlockCache} and {@link BucketCache}. The smaller lruCache is used
+ * a {@link FirstLevelBlockCache} and {@link BucketCache}. The smaller lruCache is used
  * to cache bloom blocks and index blocks.  The larger Cache is used to
  * cache data blocks. {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)} reads
  * first from the smaller lruCache before looking for the block in the l2Cache.
@@ -38,11 +38,11 @@ import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesti
  */
 @InterfaceAudience.Private
 public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
-  protected final LruBlockCache onHeapCache;
+  protected final FirstLevelBlockCache onHeapCache;
   protected final BlockCache l2Cache;
   protected final CombinedCacheStats combinedCacheStats;
 
-  public CombinedBlockCache(LruBlockCache onHeapCache, BlockCache l2Cache) {
+  public CombinedBlockCache(FirstLevelBlockCache onHeapCache, BlockCache l2Cache) {
     this.onHeapCache = onHeapCache;
     this.l2Cache = l2Cache;
     this.combinedCacheStats = new CombinedCacheStats(onHeapCache.getStats(),
@@ -85,6 +85,21 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
         l2Cache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
   }
 
+  /**
+   * Cache in L1 the unpacked form of a data block cached packed, compressed and/or encrypted, in
+   * L2 once the block is read from L2, so the blocks read over and over are not decompressed on
+   * every read. Which of them stay in L1 is up to the L1 policy: the promoted blocks enter the
+   * single access area of the LRU cache, and the admission window of the TinyLFU cache.
+   * @return true if the block was cached in L1
+   */
+  public boolean promoteBlock(BlockCacheKey cacheKey, Cacheable unpacked, boolean inMemory) {
+    if (onHeapCache.containsBlock(cacheKey)) {
+      return false;
+    }
+    onHeapCache.cacheBlock(cacheKey, unpacked, inMemory);
+    return true;
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     return onHeapCache.evictBlock(cacheKey) || l2Cache.evictBlock(cacheKey);
@@ -330,6 +345,16 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
       return lruCacheStats.getFailedInserts() + bucketCacheStats.getFailedInserts();
     }
 
+    @Override
+    public long getAdmittedCount() {
+      return lruCacheStats.getAdmittedCount() + bucketCacheStats.getAdmittedCount();
+    }
+
+    @Override
+    public long getRejectedCount() {
+      return lruCacheStats.getRejectedCount() + bucketCacheStats.getRejectedCount();
+    }
+
     @Override
     public long getSumHitCountsPastNPeriods() {
       return lruCacheStats.getSumHitCountsPastNPeriods()
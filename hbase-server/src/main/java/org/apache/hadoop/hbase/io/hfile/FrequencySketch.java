@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A count-min sketch estimating how often a key was seen recently, in 4-bit counters, so at most
+ * 15. Every key has four counters, one per hash function, each in a long picked by that hash.
+ * Its estimate is the smallest of them.
+ * <p>
+ * To keep the estimates recent, all counters are halved once the number of increments reaches
+ * ten times the number of keys the sketch is sized for.
+ * <p>
+ * Not thread safe.
+ */
+@InterfaceAudience.Private
+class FrequencySketch {
+  private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+    0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final int SAMPLE_FACTOR = 10;
+
+  private long[] table = new long[0];
+  private int tableMask;
+  private int sampleSize;
+  private int additions;
+
+  FrequencySketch(long expectedKeys) {
+    ensureCapacity(expectedKeys);
+  }
+
+  /**
+   * Grow the sketch to estimate the frequencies of {@code expectedKeys} keys, forgetting the
+   * frequencies seen so far. Does nothing if the sketch is large enough already.
+   */
+  void ensureCapacity(long expectedKeys) {
+    int maximum = (int) Math.min(Math.max(expectedKeys, 1), Integer.MAX_VALUE >>> 1);
+    if (table.length >= maximum) {
+      return;
+    }
+    table = new long[maximum == 1 ? 1 : Integer.highestOneBit(maximum - 1) << 1];
+    tableMask = Math.max(0, table.length - 1);
+    sampleSize = (int) Math.min((long) SAMPLE_FACTOR * maximum, Integer.MAX_VALUE);
+    additions = 0;
+  }
+
+  /**
+   * @return the estimated number of times the key was seen recently, at most 15
+   */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Count one more occurrence of the key, halving all counters if the sample is complete.
+   */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Increment the counter at {@code counterIndex} of the long at {@code i}, unless it is at 15.
+   * @return true if the counter was incremented
+   */
+  private boolean incrementAt(int i, int counterIndex) {
+    int offset = counterIndex << 2;
+    long mask = 0xfL << offset;
+    if ((table[i] & mask) != mask) {
+      table[i] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halve all counters, dropping the odd bits */
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    // a key has four counters, so a quarter of the odd counters approximates the lost increments
+    additions = Math.max(0, additions - (odd >>> 2)) >>> 1;
+  }
+
+  private int indexOf(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  /** Spread the bits of a weak hash code, as most keys differ in their offset only */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
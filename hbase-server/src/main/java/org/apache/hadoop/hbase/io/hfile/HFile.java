@@ -36,6 +36,7 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -68,6 +69,7 @@ import org.apache.hadoop.hbase.shaded.protobuf.generated.HFileProtos;
 import org.apache.hadoop.hbase.util.BloomFilterWriter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.Writable;
 
 import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
@@ -263,6 +265,14 @@ public class HFile {
      * Return the file context for the HFile this writer belongs to
      */
     HFileContext getFileContext();
+
+    /**
+     * Sets a filter which is passed the first and the last cell of each finished data block and
+     * decides whether the block is cached on write when the cache config does not cache all data
+     * blocks on write anyway. Compactions use it to warm only the key ranges which were hot in
+     * the compacted files.
+     */
+    void setCacheOnWriteFilter(BiPredicate<Cell, Cell> filter);
   }
 
   /**
@@ -454,6 +464,13 @@ public class HFile {
 
     HFileBlockIndex.BlockIndexReader getDataBlockIndexReader();
 
+    /**
+     * Returns the keys bounding the data block at the passed offset: the key of its first cell and
+     * the index key of the following data block, which is null for the last data block.
+     * @return the keys, or null if the block at the offset is no data block
+     */
+    Pair<Cell, Cell> getDataBlockKeyRange(long offset) throws IOException;
+
     HFileScanner getScanner(boolean cacheBlocks, boolean pread);
 
     Compression.Algorithm getCompressionAlgorithm();
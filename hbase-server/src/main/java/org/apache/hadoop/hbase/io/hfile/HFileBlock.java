@@ -191,6 +191,12 @@ public class HFileBlock implements Cacheable {
 
   private MemoryType memType = MemoryType.EXCLUSIVE;
 
+  /**
+   * Whether this block was decompressed and/or decrypted by {@link #unpack} from a packed block.
+   * Tells an unpacked block found in a cache holding packed blocks from a packed one.
+   */
+  private boolean unpackedCopy;
+
   /**
    * The on-disk size of the next block, including the header and checksums if present.
    * UNSET if unknown.
@@ -641,6 +647,7 @@ public class HFileBlock implements Cacheable {
 
     HFileBlock unpacked = new HFileBlock(this);
     unpacked.allocateBuffer(); // allocates space for the decompressed block
+    unpacked.unpackedCopy = true;
 
     HFileBlockDecodingContext ctx = blockType == BlockType.ENCODED_DATA ?
       reader.getBlockDecodingContext() : reader.getDefaultBlockDecodingContext();
@@ -654,6 +661,13 @@ public class HFileBlock implements Cacheable {
     return unpacked;
   }
 
+  /**
+   * @return true if this block is the result of unpacking a compressed and/or encrypted block
+   */
+  boolean isUnpackedCopy() {
+    return unpackedCopy;
+  }
+
   /**
    * Always allocates a new buffer of the correct size. Copies header bytes
    * from the existing buffer. Does not change header fields.
@@ -732,6 +746,8 @@ public class HFileBlock implements Cacheable {
         4 * Bytes.SIZEOF_INT +
         // This and previous block offset
         2 * Bytes.SIZEOF_LONG +
+        // Whether unpacked from a packed block
+        Bytes.SIZEOF_BOOLEAN +
         // Heap size of the meta object. meta will be always not null.
         fileContext.heapSize()
     );
@@ -287,6 +287,62 @@ public class HFileBlockIndex {
       return blockKeys[i];
     }
 
+    /**
+     * Looks up the data blocks which follow, in file order, the data block containing the given
+     * key. With a multi-level index only the leaf-level index block holding the entry of that
+     * data block is looked at, so fewer blocks than asked for may be found before the end of the
+     * file.
+     * @param key a key within the data block to start after
+     * @param offsets filled with the offsets of the following data blocks
+     * @param onDiskSizes filled with the on-disk sizes, including header, of these blocks
+     * @return the number of data blocks found
+     */
+    public int getNextDataBlocks(Cell key, long[] offsets, int[] onDiskSizes) throws IOException {
+      int rootLevelIndex = rootBlockContainingKey(key);
+      if (rootLevelIndex < 0 || rootLevelIndex >= blockOffsets.length) {
+        return 0;
+      }
+      if (searchTreeLevel == 1) {
+        int found = Math.min(offsets.length, blockOffsets.length - rootLevelIndex - 1);
+        System.arraycopy(blockOffsets, rootLevelIndex + 1, offsets, 0, found);
+        System.arraycopy(blockDataSizes, rootLevelIndex + 1, onDiskSizes, 0, found);
+        return found;
+      }
+
+      long currentOffset = blockOffsets[rootLevelIndex];
+      int currentOnDiskSize = blockDataSizes[rootLevelIndex];
+      for (int lookupLevel = 1; lookupLevel < searchTreeLevel; lookupLevel++) {
+        boolean leafLevel = lookupLevel == searchTreeLevel - 1;
+        HFileBlock block = cachingBlockReader.readBlock(currentOffset, currentOnDiskSize, true,
+          true, false, true, leafLevel ? BlockType.LEAF_INDEX : BlockType.INTERMEDIATE_INDEX,
+          null);
+        try {
+          ByteBuff buffer = block.getBufferWithoutHeader();
+          int index = locateNonRootIndexEntry(buffer, key, comparator);
+          if (index == -1) {
+            return 0;
+          }
+          if (!leafLevel) {
+            currentOffset = buffer.getLong();
+            currentOnDiskSize = buffer.getInt();
+            continue;
+          }
+          int numEntries = buffer.getInt(0);
+          int entriesOffset = Bytes.SIZEOF_INT * (numEntries + 2);
+          int found = 0;
+          for (int i = index + 1; i < numEntries && found < offsets.length; i++, found++) {
+            int entryOffset = entriesOffset + buffer.getInt(Bytes.SIZEOF_INT * (1 + i));
+            offsets[found] = buffer.getLong(entryOffset);
+            onDiskSizes[found] = buffer.getInt(entryOffset + Bytes.SIZEOF_LONG);
+          }
+          return found;
+        } finally {
+          cachingBlockReader.returnBlock(block);
+        }
+      }
+      return 0;
+    }
+
     @Override
     public BlockWithScanInfo loadDataBlockWithScanInfo(Cell key, HFileBlock currentBlock,
         boolean cacheBlocks, boolean pread, boolean isCompaction,
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
@@ -51,7 +52,10 @@ import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDecodingContext;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
+import org.apache.hadoop.hbase.ipc.RpcCall;
+import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
 import org.apache.hadoop.hbase.security.EncryptionUtil;
@@ -59,6 +63,7 @@ import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.IdLock;
 import org.apache.hadoop.hbase.util.ObjectIntPair;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.htrace.core.TraceScope;
 
@@ -123,6 +128,12 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
 
   private Configuration conf;
 
+  /** Whether non-compaction scanners read blocks ahead; see {@link BlockReadahead} */
+  private final boolean readaheadEnabled;
+  private final int readaheadSequentialBlocks;
+  private final int readaheadMinBlocks;
+  private final int readaheadMaxBlocks;
+
   private HFileContext hfileContext;
 
   /** Filesystem-level block reader. */
@@ -196,6 +207,14 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     this.name = path.getName();
     this.conf = conf;
     this.primaryReplicaReader = primaryReplicaReader;
+    this.readaheadEnabled = conf != null && conf.getBoolean(BlockReadahead.READAHEAD_ENABLED_KEY,
+      BlockReadahead.DEFAULT_READAHEAD_ENABLED);
+    this.readaheadSequentialBlocks = readaheadEnabled ? conf.getInt(
+      BlockReadahead.SEQUENTIAL_BLOCKS_KEY, BlockReadahead.DEFAULT_SEQUENTIAL_BLOCKS) : 0;
+    this.readaheadMinBlocks = readaheadEnabled ? conf.getInt(BlockReadahead.MIN_BLOCKS_KEY,
+      BlockReadahead.DEFAULT_MIN_BLOCKS) : 0;
+    this.readaheadMaxBlocks = readaheadEnabled ? conf.getInt(BlockReadahead.MAX_BLOCKS_KEY,
+      BlockReadahead.DEFAULT_MAX_BLOCKS) : 0;
     checkFileVersion();
     this.hfileContext = createHFileContext(fsdis, fileSize, hfs, path, trailer);
     this.fsBlockReader = new HFileBlock.FSReaderImpl(fsdis, fileSize, hfs, path, hfileContext);
@@ -374,6 +393,15 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     if (blockCache != null && block != null) {
       BlockCacheKey cacheKey = new BlockCacheKey(this.getFileContext().getHFileName(),
           block.getOffset(), this.isPrimaryReplicaReader(), block.getBlockType());
+      if (block.getMemoryType() == MemoryType.SHARED) {
+        // The response of the current call may send cells of the block without copying them,
+        // the block must then stay in the cache memory until the response is sent.
+        Optional<RpcCall> call = RpcServer.getCurrentCall();
+        if (call.isPresent()
+            && call.get().releaseWhenSent(() -> blockCache.returnBlock(cacheKey, block))) {
+          return;
+        }
+      }
       blockCache.returnBlock(cacheKey, block);
     }
   }
@@ -510,6 +538,8 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     protected HFileBlock curBlock;
     // Previous blocks that were used in the course of the read
     protected final ArrayList<HFileBlock> prevBlocks = new ArrayList<>();
+    // Reads the blocks following the current one ahead on sequential access; null if disabled
+    private final BlockReadahead readahead;
 
     public HFileScannerImpl(final HFile.Reader reader, final boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
@@ -517,6 +547,13 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
       this.cacheBlocks = cacheBlocks;
       this.pread = pread;
       this.isCompaction = isCompaction;
+      this.readahead = reader instanceof HFileReaderImpl ? ((HFileReaderImpl) reader)
+          .createReadahead(cacheBlocks, isCompaction, this::getFirstKeyCellInBlock) : null;
+    }
+
+    @VisibleForTesting
+    BlockReadahead getReadahead() {
+      return readahead;
     }
 
     void updateCurrBlockRef(HFileBlock block) {
@@ -529,6 +566,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
         prevBlocks.add(this.curBlock);
       }
       this.curBlock = block;
+      if (readahead != null && block != null) {
+        readahead.blockLoaded(block);
+      }
     }
 
     void reset() {
@@ -589,6 +629,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
 
     @Override
     public void close() {
+      if (readahead != null) {
+        readahead.close();
+      }
       if (!pread) {
         // For seek + pread stream socket should be closed when the scanner is closed. HBASE-9393
         reader.unbufferStream();
@@ -921,9 +964,11 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
           throw new IOException("Invalid block file offset: " + block);
         }
 
+        long nextBlockOffset = block.getOffset() + block.getOnDiskSizeWithHeader();
+        HFileBlock readAhead = readahead == null ? null : readahead.take(nextBlockOffset);
         // We are reading the next block without block type validation, because
         // it might turn out to be a non-data block.
-        block = reader.readBlock(block.getOffset() + block.getOnDiskSizeWithHeader(),
+        block = readAhead != null ? readAhead : reader.readBlock(nextBlockOffset,
             block.getNextBlockOnDiskSize(), cacheBlocks, pread,
             isCompaction, true, null, getEffectiveDataBlockEncoding());
         if (block != null && !block.getBlockType().isData()) { // Findbugs: NP_NULL_ON_SOME_PATH
@@ -1301,13 +1346,26 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
        BlockCache cache = cacheConf.getBlockCache();
        HFileBlock cachedBlock = (HFileBlock) cache.getBlock(cacheKey, cacheBlock, useLock,
          updateCacheMetrics);
+       if (updateCacheMetrics && cacheConf.getPartition() != null) {
+         if (cachedBlock != null) {
+           cacheConf.getPartition().hit();
+         } else {
+           cacheConf.getPartition().miss();
+         }
+       }
        if (cachedBlock != null) {
-         if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())) {
+         // A block read again may have been promoted to L1 unpacked
+         if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())
+             && !cachedBlock.isUnpackedCopy()) {
            HFileBlock compressedBlock = cachedBlock;
            cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader);
            // In case of compressed block after unpacking we can return the compressed block
           if (compressedBlock != cachedBlock) {
             cache.returnBlock(cacheKey, compressedBlock);
+            if (cacheConf.shouldPromoteDataUncompressed() && cache instanceof CombinedBlockCache) {
+              ((CombinedBlockCache) cache).promoteBlock(cacheKey, cachedBlock,
+                cacheConf.isInMemory());
+            }
           }
         }
          validateBlockType(cachedBlock, expectedBlockType);
@@ -1470,6 +1528,10 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
                   + dataBlockEncoder.getDataBlockEncoding() + ")");
               }
             }
+            if (updateCacheMetrics) {
+              BlockCacheTracer.trace(cacheKey, cachedBlock.heapSize(),
+                cachedBlock.getBlockType(), BlockCacheTracer.FLAG_HIT);
+            }
             // Cache-hit. Return!
             return cachedBlock;
           }
@@ -1491,11 +1553,18 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
         BlockType.BlockCategory category = hfileBlock.getBlockType().getCategory();
 
         // Cache the block if necessary
-        if (cacheBlock && cacheConf.shouldCacheBlockOnRead(category)) {
+        boolean cacheOnMiss = cacheBlock && cacheConf.shouldCacheBlockOnRead(category);
+        if (cacheOnMiss) {
           cacheConf.getBlockCache().cacheBlock(cacheKey,
             cacheConf.shouldCacheCompressed(category) ? hfileBlock : unpacked,
             cacheConf.isInMemory());
         }
+        if (updateCacheMetrics && cacheConf.isBlockCacheEnabled()) {
+          BlockCacheTracer.trace(cacheKey,
+            (cacheConf.shouldCacheCompressed(category) ? hfileBlock : unpacked).heapSize(),
+            hfileBlock.getBlockType(), (byte) ((cacheOnMiss ? BlockCacheTracer.FLAG_CACHE_ON_MISS
+                : 0) | (cacheConf.isInMemory() ? BlockCacheTracer.FLAG_IN_MEMORY : 0)));
+        }
 
         if (updateCacheMetrics && hfileBlock.getBlockType().isData()) {
           HFile.DATABLOCK_READ_COUNT.increment();
@@ -1822,6 +1891,59 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     return context;
   }
 
+  /**
+   * @return the readahead for a new scanner of this file, or null if the scanner should not read
+   *         blocks ahead
+   */
+  BlockReadahead createReadahead(boolean cacheBlocks, boolean isCompaction,
+      Function<HFileBlock, Cell> firstKeyOf) {
+    if (!readaheadEnabled || isCompaction) {
+      return null;
+    }
+    return new BlockReadahead(this, dataBlockIndexReader, cacheBlocks,
+        getEffectiveEncodingInCache(false), firstKeyOf, readaheadSequentialBlocks,
+        readaheadMinBlocks, readaheadMaxBlocks);
+  }
+
+  @Override
+  public Pair<Cell, Cell> getDataBlockKeyRange(long offset) throws IOException {
+    // A hot block is served from the cache
+    HFileBlock block = readBlock(offset, -1, false, true, true, false, null, null);
+    try {
+      if (!block.getBlockType().isData()) {
+        return null;
+      }
+      // The scanner matching this file's encoding knows how to find the first key of a block
+      HFileScannerImpl scanner = (HFileScannerImpl) getScanner(false, true, true);
+      Cell firstKey;
+      try {
+        firstKey = copyKey(scanner.getFirstKeyCellInBlock(block));
+      } finally {
+        scanner.close();
+      }
+      BlockWithScanInfo blockWithScanInfo = dataBlockIndexReader.loadDataBlockWithScanInfo(
+        firstKey, block, false, true, true, null);
+      if (blockWithScanInfo == null) {
+        return null;
+      }
+      if (blockWithScanInfo.getHFileBlock() != block) {
+        returnBlock(blockWithScanInfo.getHFileBlock());
+        return null;
+      }
+      Cell nextIndexedKey = blockWithScanInfo.getNextIndexedKey();
+      return new Pair<>(firstKey,
+          nextIndexedKey == null || nextIndexedKey == KeyValueScanner.NO_NEXT_INDEXED_KEY ? null
+              : copyKey(nextIndexedKey));
+    } finally {
+      returnBlock(block);
+    }
+  }
+
+  private static Cell copyKey(Cell key) {
+    // The key may be backed by a block which goes back to the cache
+    return new KeyValue.KeyOnlyKeyValue(PrivateCellUtil.getCellKeySerializedAsKeyValueKey(key));
+  }
+
   /**
    * Create a Scanner on this file. No seeks or reads are done on creation. Call
    * {@link HFileScanner#seekTo(Cell)} to position an start the read. There is
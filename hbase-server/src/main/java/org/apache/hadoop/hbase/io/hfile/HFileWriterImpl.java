@@ -25,6 +25,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiPredicate;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -116,6 +117,12 @@ public class HFileWriterImpl implements HFile.Writer {
   /** Cache configuration for caching data on write. */
   protected final CacheConfig cacheConf;
 
+  /**
+   * Decides per data block whether to cache it on write when the cache config does not cache
+   * data on write. May be null.
+   */
+  private BiPredicate<Cell, Cell> cacheOnWriteFilter;
+
   /**
    * Name for this object used when logging or in toString. Is either
    * the result of a toString on stream or else name of passed file Path.
@@ -346,6 +353,9 @@ public class HFileWriterImpl implements HFile.Writer {
     totalUncompressedBytes += blockWriter.getUncompressedSizeWithHeader();
     if (cacheConf.shouldCacheDataOnWrite()) {
       doCacheOnWrite(lastDataBlockOffset);
+    } else if (cacheOnWriteFilter != null && cacheConf.isBlockCacheEnabled()
+        && cacheOnWriteFilter.test(firstCellInBlock, lastCell)) {
+      doCacheOnWrite(lastDataBlockOffset);
     }
   }
 
@@ -717,6 +727,11 @@ public class HFileWriterImpl implements HFile.Writer {
     return hFileContext;
   }
 
+  @Override
+  public void setCacheOnWriteFilter(BiPredicate<Cell, Cell> filter) {
+    this.cacheOnWriteFilter = filter;
+  }
+
   /**
    * Add key/value to file. Keys must be added in an order that agrees with the
    * Comparator passed on construction.
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import java.lang.ref.WeakReference;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -97,7 +98,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  */
 @InterfaceAudience.Private
 @JsonIgnoreProperties({"encodingCountsForTest"})
-public class LruBlockCache implements ResizableBlockCache, HeapSize {
+public class LruBlockCache implements FirstLevelBlockCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(LruBlockCache.class);
 
@@ -509,6 +510,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
    *
    * @return true if contains the block
    */
+  @Override
   public boolean containsBlock(BlockCacheKey cacheKey) {
     return map.containsKey(cacheKey);
   }
@@ -570,6 +572,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       // When the eviction of the block happened because of invalidation of HFiles, no need to
       // update the stats counter.
       stats.evicted(block.getCachedTime(), block.getCacheKey().isPrimary());
+      BlockCachePartitions.evicted(block.getCacheKey().getHfileName());
       if (victimHandler != null) {
         victimHandler.cacheBlock(block.getCacheKey(), block.getBuffer());
       }
@@ -624,8 +627,51 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       BlockBucket bucketMulti = new BlockBucket("multi", bytesToFree, blockSize, multiSize());
       BlockBucket bucketMemory = new BlockBucket("memory", bytesToFree, blockSize, memorySize());
 
-      // Scan entire map putting into appropriate buckets
+      // Blocks of the partitions above their maximum share go first
+      BlockCachePartitions.Usage usage = null;
+      long partitionBytesFreed = 0;
+      if (BlockCachePartitions.isActive()) {
+        usage = new BlockCachePartitions.Usage(maxSize);
+        for (LruCachedBlock cachedBlock : map.values()) {
+          usage.add(cachedBlock.getCacheKey().getHfileName(), cachedBlock.heapSize());
+        }
+        Map<BlockCachePartitions.Partition, BlockBucket> partitionBuckets = new HashMap<>();
+        for (BlockCachePartitions.Partition partition : usage.partitions()) {
+          long excess = usage.excess(partition);
+          if (excess > 0) {
+            partitionBuckets.put(partition,
+              new BlockBucket(partition.getName(), excess, blockSize, 0));
+          }
+        }
+        if (!partitionBuckets.isEmpty()) {
+          for (LruCachedBlock cachedBlock : map.values()) {
+            BlockBucket partitionBucket = partitionBuckets
+                .get(BlockCachePartitions.getPartition(cachedBlock.getCacheKey().getHfileName()));
+            if (partitionBucket != null) {
+              partitionBucket.add(cachedBlock);
+            }
+          }
+          for (Map.Entry<BlockCachePartitions.Partition, BlockBucket> e :
+              partitionBuckets.entrySet()) {
+            partitionBytesFreed += e.getValue().free(usage.excess(e.getKey()));
+          }
+          if (partitionBytesFreed >= bytesToFree) {
+            return;
+          }
+          bytesToFree -= partitionBytesFreed;
+        }
+      }
+
+      // Scan entire map putting into appropriate buckets. The blocks freed above are gone from it,
+      // the rest of their partitions are evicted along with the other blocks
       for (LruCachedBlock cachedBlock : map.values()) {
+        if (usage != null) {
+          BlockCachePartitions.Partition partition =
+              BlockCachePartitions.getPartition(cachedBlock.getCacheKey().getHfileName());
+          if (partition != null && usage.isProtected(partition)) {
+            continue;
+          }
+        }
         switch (cachedBlock.getPriority()) {
           case SINGLE: {
             bucketSingle.add(cachedBlock);
@@ -706,7 +752,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
         long multi = bucketMulti.totalSize();
         long memory = bucketMemory.totalSize();
         LOG.trace("Block cache LRU eviction completed; " +
-          "freed=" + StringUtils.byteDesc(bytesFreed) + ", " +
+          "freed=" + StringUtils.byteDesc(partitionBytesFreed + bytesFreed) + ", " +
           "total=" + StringUtils.byteDesc(this.size.get()) + ", " +
           "single=" + StringUtils.byteDesc(single) + ", " +
           "multi=" + StringUtils.byteDesc(multi) + ", " +
@@ -1113,7 +1159,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
       LOG.debug("Still running " + runnables);
     }
-    this.evictionThread.shutdown();
+    if (this.evictionThread != null) {
+      this.evictionThread.shutdown();
+    }
   }
 
   /** Clears the cache. Used in tests. */
@@ -1159,6 +1207,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
     return counts;
   }
 
+  @Override
   public void setVictimCache(BlockCache handler) {
     assert victimHandler == null;
     victimHandler = handler;
@@ -0,0 +1,754 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A block cache using the W-TinyLFU policy, which keeps the blocks read over and over even
+ * while large scans go through the cache.
+ * <p>
+ * New blocks go to a small LRU admission window. The blocks falling out of the window are
+ * candidates for the main area, a segmented LRU of a probation and a protected segment. A
+ * candidate is only admitted if it was read more often recently than the block it would replace,
+ * the least recently used block of the probation segment. A block read again while on probation
+ * moves to the protected segment, whose least recently used blocks move back to probation when it
+ * is full. The read frequencies are estimated by a {@link FrequencySketch}, which also remembers
+ * blocks no longer in the cache, so a block read once by a scan can not replace a hot one.
+ * Blocks of in-memory families are always admitted.
+ * <p>
+ * Lookups do not lock. The reads are recorded in a buffer, which is replayed on the policy under
+ * a lock by the next write, or by a reader once enough reads are buffered. The buffer drops reads
+ * when full, which only makes the policy a little less accurate. Blocks are evicted while caching
+ * a block, in constant time per evicted block, so there is no eviction thread.
+ * <p>
+ * The share of the admission window is {@value #WINDOW_PERCENTAGE_CONFIG_NAME}, the share of the
+ * protected segment in the main area {@value #PROTECTED_PERCENTAGE_CONFIG_NAME}. The blocks
+ * admitted to and rejected from the main area are counted in {@link CacheStats}.
+ */
+@InterfaceAudience.Private
+public final class TinyLfuBlockCache implements FirstLevelBlockCache {
+  private static final Logger LOG = LoggerFactory.getLogger(TinyLfuBlockCache.class);
+
+  static final String WINDOW_PERCENTAGE_CONFIG_NAME = "hbase.tinylfu.blockcache.window.percentage";
+  static final float DEFAULT_WINDOW_PERCENTAGE = 0.01f;
+  static final String PROTECTED_PERCENTAGE_CONFIG_NAME =
+      "hbase.tinylfu.blockcache.protected.percentage";
+  static final float DEFAULT_PROTECTED_PERCENTAGE = 0.8f;
+  private static final String MAX_BLOCK_SIZE = "hbase.tinylfu.max.block.size";
+  private static final long DEFAULT_MAX_BLOCK_SIZE = 16L * 1024L * 1024L;
+
+  /** Reads buffered before a reader replays them */
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+  /** Reads buffered at most, further ones are dropped until the buffer is replayed */
+  private static final int READ_BUFFER_MAX = 1024;
+
+  /** Period of the statistics logging, in seconds */
+  private static final int STAT_THREAD_PERIOD = 60 * 5;
+
+  public static final long PER_BLOCK_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+      (6 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) + Bytes.SIZEOF_BOOLEAN) +
+      ClassSize.CONCURRENT_HASHMAP_ENTRY;
+
+  private enum Area {
+    WINDOW, PROBATION, PROTECTED
+  }
+
+  /** A cached block, linked in the access order of its area */
+  private static final class Node {
+    final BlockCacheKey key;
+    final Cacheable buf;
+    final long weight;
+    final long cachedTime = System.nanoTime();
+    final boolean inMemory;
+    // guarded by the policy lock, null once the block is no longer cached
+    Area area;
+    Node prev;
+    Node next;
+
+    /** The head of an access order */
+    Node() {
+      this.key = null;
+      this.buf = null;
+      this.inMemory = false;
+      this.weight = 0;
+    }
+
+    Node(BlockCacheKey key, Cacheable buf, boolean inMemory) {
+      this.key = key;
+      this.buf = buf;
+      this.inMemory = inMemory;
+      this.weight = ClassSize.align(key.heapSize()) + ClassSize.align(buf.heapSize())
+          + PER_BLOCK_OVERHEAD;
+    }
+
+    BlockPriority getPriority() {
+      if (inMemory) {
+        return BlockPriority.MEMORY;
+      }
+      return area == Area.PROTECTED ? BlockPriority.MULTI : BlockPriority.SINGLE;
+    }
+  }
+
+  /** The nodes of an area from the least to the most recently used, guarded by the policy lock */
+  private static final class AccessOrder {
+    private final Node head = new Node();
+    private long size = 0;
+
+    AccessOrder() {
+      head.prev = head;
+      head.next = head;
+    }
+
+    void add(Node node) {
+      node.prev = head.prev;
+      node.next = head;
+      head.prev.next = node;
+      head.prev = node;
+      size += node.weight;
+    }
+
+    void remove(Node node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+      size -= node.weight;
+    }
+
+    void moveToTail(Node node) {
+      remove(node);
+      add(node);
+    }
+
+    /** @return the least recently used node, or null if empty */
+    Node first() {
+      return head.next == head ? null : head.next;
+    }
+  }
+
+  private final Map<BlockCacheKey, Node> map = new ConcurrentHashMap<>();
+  private final ReentrantLock policyLock = new ReentrantLock();
+  private final AccessOrder window = new AccessOrder();
+  private final AccessOrder probation = new AccessOrder();
+  private final AccessOrder protectedSegment = new AccessOrder();
+  private final FrequencySketch sketch;
+  private final Queue<Node> readBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger readBufferSize = new AtomicInteger(0);
+
+  private final AtomicLong size = new AtomicLong(0);
+  private final LongAdder dataBlockSize = new LongAdder();
+  private final LongAdder dataBlockElements = new LongAdder();
+  private final CacheStats stats = new CacheStats(getClass().getSimpleName());
+  private final ScheduledExecutorService statsThreadPool;
+
+  private final long blockSize;
+  private final long maxBlockSize;
+  private final float windowPercentage;
+  private final float protectedPercentage;
+  private volatile long maxSize;
+  // guarded by the policy lock
+  private long windowMaxSize;
+  private long mainMaxSize;
+  private long protectedMaxSize;
+
+  private BlockCache victimHandler = null;
+
+  /**
+   * Creates a block cache.
+   *
+   * @param maxSize maximum size of this cache, in bytes
+   * @param blockSize expected average size of blocks, in bytes
+   * @param conf additional configuration
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize, Configuration conf) {
+    this(maxSize, blockSize,
+        conf.getFloat(WINDOW_PERCENTAGE_CONFIG_NAME, DEFAULT_WINDOW_PERCENTAGE),
+        conf.getFloat(PROTECTED_PERCENTAGE_CONFIG_NAME, DEFAULT_PROTECTED_PERCENTAGE),
+        conf.getLong(MAX_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE), true);
+  }
+
+  /**
+   * Creates a block cache.
+   *
+   * @param maxSize maximum size of this cache, in bytes
+   * @param blockSize expected average size of blocks, in bytes
+   * @param windowPercentage share of the cache for the admission window
+   * @param protectedPercentage share of the main area for the protected segment
+   * @param maxBlockSize maximum size of a block, in bytes
+   * @param logStats whether to log the statistics periodically
+   */
+  @VisibleForTesting
+  TinyLfuBlockCache(long maxSize, long blockSize, float windowPercentage,
+      float protectedPercentage, long maxBlockSize, boolean logStats) {
+    if (windowPercentage < 0 || windowPercentage > 1 || protectedPercentage < 0
+        || protectedPercentage > 1) {
+      throw new IllegalArgumentException("The window and protected percentages must be "
+          + "between 0.0 and 1.0, they are " + windowPercentage + " and " + protectedPercentage);
+    }
+    this.blockSize = blockSize;
+    this.maxBlockSize = maxBlockSize;
+    this.windowPercentage = windowPercentage;
+    this.protectedPercentage = protectedPercentage;
+    this.sketch = new FrequencySketch(maxSize / Math.max(1, blockSize));
+    setMaxSize(maxSize);
+    if (logStats) {
+      this.statsThreadPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("TinyLfuBlockCacheStatsExecutor").setDaemon(true).build());
+      this.statsThreadPool.scheduleAtFixedRate(this::logStats, STAT_THREAD_PERIOD,
+        STAT_THREAD_PERIOD, TimeUnit.SECONDS);
+    } else {
+      this.statsThreadPool = null;
+    }
+  }
+
+  @Override
+  public void setMaxSize(long maxSize) {
+    List<Node> evicted = new ArrayList<>();
+    policyLock.lock();
+    try {
+      this.maxSize = maxSize;
+      this.windowMaxSize = (long) (maxSize * windowPercentage);
+      this.mainMaxSize = maxSize - windowMaxSize;
+      this.protectedMaxSize = (long) (mainMaxSize * protectedPercentage);
+      sketch.ensureCapacity(maxSize / Math.max(1, blockSize));
+      drainReadBuffer();
+      demoteProtected();
+      evict(evicted);
+    } finally {
+      policyLock.unlock();
+    }
+    offerToVictimHandler(evicted);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    if (buf.heapSize() > maxBlockSize) {
+      // If there are a lot of blocks that are too big this can make the logs way too noisy.
+      // So we log 2%
+      if (stats.failInsert() % 50 == 0) {
+        LOG.warn("Trying to cache too large a block " + cacheKey.getHfileName() + " @ "
+            + cacheKey.getOffset() + " is " + buf.heapSize() + " which is larger than "
+            + maxBlockSize);
+      }
+      return;
+    }
+    if (map.containsKey(cacheKey)
+        && !BlockCacheUtil.shouldReplaceExistingCacheBlock(this, cacheKey, buf)) {
+      return;
+    }
+    Node node = new Node(cacheKey, buf, inMemory);
+    List<Node> evicted = new ArrayList<>();
+    policyLock.lock();
+    try {
+      drainReadBuffer();
+      Node existing = map.put(cacheKey, node);
+      if (existing != null) {
+        remove(existing);
+      }
+      sketch.increment(cacheKey);
+      node.area = Area.WINDOW;
+      window.add(node);
+      updateSizeMetrics(node, false);
+      evict(evicted);
+    } finally {
+      policyLock.unlock();
+    }
+    offerToVictimHandler(evicted);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
+      boolean updateCacheMetrics) {
+    Node node = map.get(cacheKey);
+    if (node == null) {
+      if (!repeat && updateCacheMetrics) {
+        stats.miss(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      }
+      // If there is another block cache then try and read there.
+      // However if this is a retry ( second time in double checked locking )
+      // And it's already a miss then the l2 will also be a miss.
+      if (victimHandler != null && !repeat) {
+        Cacheable result = victimHandler.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
+        // Promote this to L1.
+        if (result != null && caching) {
+          if (result instanceof HFileBlock && ((HFileBlock) result).usesSharedMemory()) {
+            result = ((HFileBlock) result).deepClone();
+          }
+          cacheBlock(cacheKey, result, /* inMemory = */ false);
+        }
+        return result;
+      }
+      return null;
+    }
+    if (updateCacheMetrics) {
+      stats.hit(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+    }
+    recordRead(node);
+    return node.buf;
+  }
+
+  /**
+   * Buffer the read of the block, and replay the buffered reads if there are enough of them and
+   * no one else holds the policy lock.
+   */
+  private void recordRead(Node node) {
+    int buffered = readBufferSize.incrementAndGet();
+    if (buffered <= READ_BUFFER_MAX) {
+      readBuffer.offer(node);
+    } else {
+      readBufferSize.decrementAndGet();
+    }
+    if (buffered >= READ_BUFFER_DRAIN_THRESHOLD && policyLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        policyLock.unlock();
+      }
+    }
+  }
+
+  /** Replay the buffered reads on the policy. Must be called with the policy lock held. */
+  private void drainReadBuffer() {
+    for (Node node; (node = readBuffer.poll()) != null;) {
+      readBufferSize.decrementAndGet();
+      onRead(node);
+    }
+  }
+
+  private void onRead(Node node) {
+    if (node.area == null) {
+      // evicted since
+      return;
+    }
+    sketch.increment(node.key);
+    switch (node.area) {
+      case WINDOW:
+        window.moveToTail(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.area = Area.PROTECTED;
+        protectedSegment.add(node);
+        demoteProtected();
+        break;
+      case PROTECTED:
+        protectedSegment.moveToTail(node);
+        break;
+      default:
+        throw new IllegalStateException("Unknown area " + node.area);
+    }
+  }
+
+  /** Move the least recently used protected blocks to probation while it is too large */
+  private void demoteProtected() {
+    while (protectedSegment.size > protectedMaxSize) {
+      Node node = protectedSegment.first();
+      protectedSegment.remove(node);
+      node.area = Area.PROBATION;
+      probation.add(node);
+    }
+  }
+
+  /**
+   * Move the blocks falling out of the window to the main area if admitted, and evict blocks
+   * until the cache is within its maximum size. Must be called with the policy lock held.
+   * @param evicted collects the blocks evicted by the policy
+   */
+  private void evict(List<Node> evicted) {
+    int before = evicted.size();
+    while (window.size > windowMaxSize) {
+      Node candidate = window.first();
+      window.remove(candidate);
+      admit(candidate, evicted);
+    }
+    // only after shrinking the cache, as admit keeps the main area within its size
+    while (size.get() > maxSize) {
+      Node victim = probation.first();
+      if (victim == null) {
+        victim = protectedSegment.first();
+      }
+      if (victim == null) {
+        victim = window.first();
+      }
+      if (victim == null) {
+        break;
+      }
+      evict(victim, evicted);
+    }
+    if (evicted.size() > before) {
+      stats.evict();
+    }
+  }
+
+  /**
+   * Put a block out of the window on probation if the main area has room for it, or if it was
+   * read more often than each block it has to replace. Evict it otherwise.
+   */
+  private void admit(Node candidate, List<Node> evicted) {
+    if (candidate.weight > mainMaxSize) {
+      stats.rejected();
+      evict(candidate, evicted);
+      return;
+    }
+    int candidateFrequency = candidate.inMemory ? Integer.MAX_VALUE : -1;
+    while (probation.size + protectedSegment.size + candidate.weight > mainMaxSize) {
+      Node victim = probation.first();
+      if (victim == null) {
+        victim = protectedSegment.first();
+      }
+      if (candidateFrequency < 0) {
+        candidateFrequency = sketch.frequency(candidate.key);
+      }
+      if (candidateFrequency <= sketch.frequency(victim.key)) {
+        stats.rejected();
+        evict(candidate, evicted);
+        return;
+      }
+      evict(victim, evicted);
+    }
+    stats.admitted();
+    candidate.area = Area.PROBATION;
+    probation.add(candidate);
+  }
+
+  /** Evict a block linked in an area, or the candidate not linked anymore */
+  private void evict(Node node, List<Node> evicted) {
+    if (node.prev != null) {
+      remove(node);
+    } else {
+      unmap(node);
+    }
+    evicted.add(node);
+  }
+
+  /** Remove a cached block. Must be called with the policy lock held. */
+  private void remove(Node node) {
+    switch (node.area) {
+      case WINDOW:
+        window.remove(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedSegment.remove(node);
+        break;
+      default:
+        throw new IllegalStateException("Unknown area " + node.area);
+    }
+    unmap(node);
+  }
+
+  private void unmap(Node node) {
+    map.remove(node.key, node);
+    node.area = null;
+    updateSizeMetrics(node, true);
+  }
+
+  private void updateSizeMetrics(Node node, boolean evict) {
+    long heapSize = evict ? -node.weight : node.weight;
+    if (node.buf.getBlockType().isData()) {
+      dataBlockSize.add(heapSize);
+      if (evict) {
+        dataBlockElements.decrement();
+      } else {
+        dataBlockElements.increment();
+      }
+    }
+    size.addAndGet(heapSize);
+  }
+
+  /**
+   * Count the evictions, and hand the evicted blocks to the victim handler if any. Done without
+   * holding the policy lock, as the victim handler may be a remote cache.
+   */
+  private void offerToVictimHandler(List<Node> evicted) {
+    for (Node node : evicted) {
+      stats.evicted(node.cachedTime, node.key.isPrimary());
+      if (victimHandler != null) {
+        victimHandler.cacheBlock(node.key, node.buf);
+      }
+    }
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    Node node = map.get(cacheKey);
+    if (node == null) {
+      return false;
+    }
+    policyLock.lock();
+    try {
+      if (node.area == null) {
+        return false;
+      }
+      remove(node);
+      return true;
+    } finally {
+      policyLock.unlock();
+    }
+  }
+
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName) && evictBlock(key)) {
+        numEvicted++;
+      }
+    }
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
+    return numEvicted;
+  }
+
+  @Override
+  public void setVictimCache(BlockCache victimCache) {
+    if (victimHandler != null) {
+      throw new IllegalArgumentException("The victim cache has already been set");
+    }
+    victimHandler = victimCache;
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public void shutdown() {
+    if (victimHandler != null) {
+      victimHandler.shutdown();
+    }
+    if (statsThreadPool != null) {
+      statsThreadPool.shutdown();
+    }
+  }
+
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  @Override
+  public long size() {
+    return getMaxSize();
+  }
+
+  @Override
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return size.get();
+  }
+
+  @Override
+  public long getCurrentDataSize() {
+    return dataBlockSize.sum();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return map.size();
+  }
+
+  @Override
+  public long getDataBlockCount() {
+    return dataBlockElements.sum();
+  }
+
+  @VisibleForTesting
+  BlockPriority getPriority(BlockCacheKey cacheKey) {
+    policyLock.lock();
+    try {
+      drainReadBuffer();
+      Node node = map.get(cacheKey);
+      return node == null ? null : node.getPriority();
+    } finally {
+      policyLock.unlock();
+    }
+  }
+
+  public void logStats() {
+    LOG.info("totalSize=" + StringUtils.byteDesc(heapSize()) + ", " +
+        "freeSize=" + StringUtils.byteDesc(getFreeSize()) + ", " +
+        "max=" + StringUtils.byteDesc(maxSize) + ", " +
+        "blockCount=" + getBlockCount() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ?
+          "0," : StringUtils.formatPercent(stats.getHitRatio(), 2) + ", ") +
+        "cachingAccesses=" + stats.getRequestCachingCount() + ", " +
+        "cachingHits=" + stats.getHitCachingCount() + ", " +
+        "cachingHitsRatio=" + (stats.getHitCachingCount() == 0 ?
+          "0," : StringUtils.formatPercent(stats.getHitCachingRatio(), 2) + ", ") +
+        "admitted=" + stats.getAdmittedCount() + ", " +
+        "rejected=" + stats.getRejectedCount() + ", " +
+        "evicted=" + stats.getEvictedCount());
+  }
+
+  @Override
+  public String toString() {
+    return "TinyLfuBlockCache[blockCount=" + getBlockCount() + ", currentSize=" + getCurrentSize()
+        + ", freeSize=" + getFreeSize() + ", maxSize=" + getMaxSize() + ", stats=" + stats + "]";
+  }
+
+  @Override
+  public Iterator<CachedBlock> iterator() {
+    final Iterator<Node> iterator = map.values().iterator();
+
+    return new Iterator<CachedBlock>() {
+      private final long now = System.nanoTime();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public CachedBlock next() {
+        final Node node = iterator.next();
+        return new CachedBlock() {
+          @Override
+          public String toString() {
+            return BlockCacheUtil.toString(this, now);
+          }
+
+          @Override
+          public BlockPriority getBlockPriority() {
+            return node.getPriority();
+          }
+
+          @Override
+          public BlockType getBlockType() {
+            return node.buf.getBlockType();
+          }
+
+          @Override
+          public long getOffset() {
+            return node.key.getOffset();
+          }
+
+          @Override
+          public long getSize() {
+            return node.buf.heapSize();
+          }
+
+          @Override
+          public long getCachedTime() {
+            return node.cachedTime;
+          }
+
+          @Override
+          public String getFilename() {
+            return node.key.getHfileName();
+          }
+
+          @Override
+          public int compareTo(CachedBlock other) {
+            int diff = this.getFilename().compareTo(other.getFilename());
+            if (diff != 0) {
+              return diff;
+            }
+            diff = Long.compare(this.getOffset(), other.getOffset());
+            if (diff != 0) {
+              return diff;
+            }
+            return Long.compare(other.getCachedTime(), this.getCachedTime());
+          }
+
+          @Override
+          public int hashCode() {
+            return node.hashCode();
+          }
+
+          @Override
+          public boolean equals(Object obj) {
+            if (obj instanceof CachedBlock) {
+              CachedBlock cb = (CachedBlock) obj;
+              return compareTo(cb) == 0;
+            } else {
+              return false;
+            }
+          }
+        };
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  @JsonIgnore
+  public BlockCache[] getBlockCaches() {
+    if (victimHandler != null) {
+      return new BlockCache[] { this, this.victimHandler };
+    }
+    return null;
+  }
+}
@@ -20,10 +20,13 @@
 
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -276,8 +279,8 @@ public final class BucketAllocator {
   }
 
   // Default block size in hbase is 64K, so we choose more sizes near 64K, you'd better
-  // reset it according to your cluster's block size distribution
-  // TODO Support the view of block size distribution statistics
+  // reset it according to your cluster's block size distribution. The buckets are shared
+  // among the sizes in proportion to the block sizes seen, see getTargetBucketCounts.
   // TODO: Why we add the extra 1024 bytes? Slop?
   private static final int DEFAULT_BUCKET_SIZES[] = { 4 * 1024 + 1024, 8 * 1024 + 1024,
       16 * 1024 + 1024, 32 * 1024 + 1024, 40 * 1024 + 1024, 48 * 1024 + 1024,
@@ -309,6 +312,11 @@ public final class BucketAllocator {
   private BucketSizeInfo[] bucketSizeInfos;
   private final long totalSize;
   private long usedSize = 0;
+  // Histogram of the sizes of the blocks to allocate, per size class, halved by each rebalance so
+  // that it follows the sizes in demand lately
+  private final long[] requestCounts;
+  // Allocations failed for want of space, per size class, since the last rebalance
+  private final long[] failedCounts;
 
   BucketAllocator(long availableSpace, int[] bucketSizes)
       throws BucketAllocatorException {
@@ -321,6 +329,8 @@ public final class BucketAllocator {
       throw new BucketAllocatorException("Bucket allocator size too small (" + buckets.length +
         "); must have room for at least " + this.bucketSizes.length + " buckets");
     bucketSizeInfos = new BucketSizeInfo[this.bucketSizes.length];
+    requestCounts = new long[this.bucketSizes.length];
+    failedCounts = new long[this.bucketSizes.length];
     for (int i = 0; i < this.bucketSizes.length; ++i) {
       bucketSizeInfos[i] = new BucketSizeInfo(i);
     }
@@ -352,11 +362,14 @@ public final class BucketAllocator {
 
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
-    // we've found. we can only reconfigure each bucket once; if more than once,
-    // we know there's a bug, so we just log the info, throw, and start again...
+    // we've found. we can only reconfigure each bucket once. A map persisted
+    // incrementally may still hold a block whose space was reused since, so we
+    // keep the block found first and drop the ones that conflict with it. Which
+    // of them is valid is left to the checksum of the block when it is read.
     boolean[] reconfigured = new boolean[buckets.length];
     int sizeNotMatchedCount = 0;
     int insufficientCapacityCount = 0;
+    int conflictingCount = 0;
     Iterator<Map.Entry<BlockCacheKey, BucketEntry>> iterator = map.entrySet().iterator();
     while (iterator.hasNext()) {
       Map.Entry<BlockCacheKey, BucketEntry> entry = iterator.next();
@@ -383,7 +396,9 @@ public final class BucketAllocator {
       Bucket b = buckets[bucketNo];
       if (reconfigured[bucketNo]) {
         if (b.sizeIndex() != bucketSizeIndex) {
-          throw new BucketAllocatorException("Inconsistent allocation in bucket map;");
+          conflictingCount++;
+          iterator.remove();
+          continue;
         }
       } else {
         if (!b.isCompletelyFree()) {
@@ -398,8 +413,15 @@ public final class BucketAllocator {
         bsi.instantiateBucket(b);
         reconfigured[bucketNo] = true;
       }
+      try {
+        buckets[bucketNo].addAllocation(foundOffset);
+      } catch (BucketAllocatorException e) {
+        // already allocated to another block, or not at an item boundary
+        conflictingCount++;
+        iterator.remove();
+        continue;
+      }
       realCacheSize.add(foundLen);
-      buckets[bucketNo].addAllocation(foundOffset);
       usedSize += buckets[bucketNo].getItemAllocationSize();
       bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
     }
@@ -408,6 +430,10 @@ public final class BucketAllocator {
       LOG.warn("There are " + sizeNotMatchedCount + " blocks which can't be rebuilt because " +
         "there is no matching bucket size for these blocks");
     }
+    if (conflictingCount > 0) {
+      LOG.warn("There are " + conflictingCount + " blocks which can't be rebuilt because " +
+        "their space is allocated to other blocks");
+    }
     if (insufficientCapacityCount > 0) {
       LOG.warn("There are " + insufficientCapacityCount + " blocks which can't be rebuilt - "
         + "did you shrink the cache?");
@@ -430,6 +456,10 @@ public final class BucketAllocator {
     return this.usedSize;
   }
 
+  int[] getBucketSizes() {
+    return this.bucketSizes;
+  }
+
   public long getFreeSize() {
     return this.totalSize - getUsedSize();
   }
@@ -455,10 +485,13 @@ public final class BucketAllocator {
         " to accomodate if size seems reasonable and you want it cached.");
     }
     long offset = bsi.allocateBlock();
+    requestCounts[bsi.sizeIndex()]++;
 
     // Ask caller to free up space and try again!
-    if (offset < 0)
+    if (offset < 0) {
+      failedCounts[bsi.sizeIndex()]++;
       throw new CacheFullException(blockSize, bsi.sizeIndex());
+    }
     usedSize += bucketSizes[bsi.sizeIndex()];
     return offset;
   }
@@ -546,6 +579,220 @@ public final class BucketAllocator {
     }
   }
 
+  /**
+   * Statistics of a size class, telling how well its buckets fit the blocks cached in them.
+   */
+  public static final class SizeClassStatistics {
+    private final int itemSize;
+    private final int bucketCount;
+    private final int targetBucketCount;
+    private final long usedCount;
+    private final long freeCount;
+    private final long totalBytes;
+    private final long dataBytes;
+
+    SizeClassStatistics(int itemSize, int bucketCount, int targetBucketCount, long usedCount,
+        long freeCount, long totalBytes, long dataBytes) {
+      this.itemSize = itemSize;
+      this.bucketCount = bucketCount;
+      this.targetBucketCount = targetBucketCount;
+      this.usedCount = usedCount;
+      this.freeCount = freeCount;
+      this.totalBytes = totalBytes;
+      this.dataBytes = dataBytes;
+    }
+
+    public int getItemSize() {
+      return itemSize;
+    }
+
+    public int getBucketCount() {
+      return bucketCount;
+    }
+
+    /**
+     * @return the number of buckets the class should have for the block sizes in demand
+     */
+    public int getTargetBucketCount() {
+      return targetBucketCount;
+    }
+
+    public long getUsedCount() {
+      return usedCount;
+    }
+
+    public long getFreeCount() {
+      return freeCount;
+    }
+
+    /**
+     * @return the bytes of the buckets of the class
+     */
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    /**
+     * @return the bytes of the blocks cached in the buckets of the class
+     */
+    public long getDataBytes() {
+      return dataBytes;
+    }
+
+    /**
+     * @return the share of the bytes of the buckets of the class not holding data, either free or
+     *         wasted by rounding blocks up to the item size
+     */
+    public float getFragmentation() {
+      return totalBytes == 0 ? 0 : (float) (totalBytes - dataBytes) / totalBytes;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+        .add("itemSize", itemSize)
+        .add("buckets", bucketCount)
+        .add("targetBuckets", targetBucketCount)
+        .add("used", usedCount)
+        .add("free", freeCount)
+        .add("dataBytes", dataBytes)
+        .add("fragmentation", String.format("%.2f", getFragmentation()))
+        .toString();
+    }
+  }
+
+  /**
+   * Get the number of buckets each size class should have, in proportion to the bytes of the items
+   * requested from it lately. A class keeps at least one bucket.
+   * @return the number of buckets per size index, the current ones if nothing was requested
+   */
+  synchronized int[] getTargetBucketCounts() {
+    int[] targets = new int[bucketSizes.length];
+    double totalDemand = 0;
+    for (int i = 0; i < bucketSizes.length; ++i) {
+      totalDemand += (double) requestCounts[i] * bucketSizes[i];
+    }
+    for (int i = 0; i < bucketSizes.length; ++i) {
+      if (totalDemand == 0) {
+        targets[i] = bucketSizeInfos[i].bucketList.size();
+      } else {
+        double share = requestCounts[i] * bucketSizes[i] / totalDemand;
+        targets[i] = Math.max(1, (int) Math.round(share * buckets.length));
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * Reconfigure the completely free buckets of the size classes holding more buckets than their
+   * target for the classes holding fewer, neediest first.
+   * @return the number of buckets reconfigured
+   */
+  synchronized int reassignCompletelyFreeBuckets(int[] targets) {
+    int moved = 0;
+    for (int to = neediestSizeIndex(targets); to >= 0; to = neediestSizeIndex(targets)) {
+      Bucket b = null;
+      for (BucketSizeInfo from : bucketSizeInfos) {
+        if (from.bucketList.size() > targets[from.sizeIndex()]) {
+          b = from.findAndRemoveCompletelyFreeBucket();
+          if (b != null) {
+            break;
+          }
+        }
+      }
+      if (b == null) {
+        break;
+      }
+      bucketSizeInfos[to].instantiateBucket(b);
+      moved++;
+    }
+    return moved;
+  }
+
+  private int neediestSizeIndex(int[] targets) {
+    int neediest = -1, maxDeficit = 0;
+    for (int i = 0; i < bucketSizeInfos.length; ++i) {
+      int deficit = targets[i] - bucketSizeInfos[i].bucketList.size();
+      if (deficit > maxDeficit) {
+        neediest = i;
+        maxDeficit = deficit;
+      }
+    }
+    return neediest;
+  }
+
+  /**
+   * Pick the buckets to empty so that they can be reconfigured for the size classes below their
+   * target which failed allocations since the last rebalance. The buckets are the least filled
+   * ones of the classes above their target, as many as the starving classes miss.
+   * @param targets the number of buckets per size index
+   * @param excludedBuckets the buckets that need to be excluded due to currently being in use
+   * @param maxBuckets the maximum number of buckets to return
+   * @return the indices of the buckets to evict the blocks of
+   */
+  synchronized Set<Integer> getBucketsToDefragment(int[] targets, Set<Integer> excludedBuckets,
+      int maxBuckets) {
+    int needed = 0;
+    for (int i = 0; i < bucketSizeInfos.length; ++i) {
+      if (failedCounts[i] > 0) {
+        needed += Math.max(0, targets[i] - bucketSizeInfos[i].bucketList.size());
+      }
+    }
+    needed = Math.min(needed, maxBuckets);
+    if (needed == 0) {
+      return Collections.emptySet();
+    }
+    List<Integer> candidates = new ArrayList<>();
+    for (int i = 0; i < buckets.length; ++i) {
+      Bucket b = buckets[i];
+      if (!excludedBuckets.contains(i) && !b.isUninstantiated() && !b.isCompletelyFree()
+          && bucketSizeInfos[b.sizeIndex()].bucketList.size() > targets[b.sizeIndex()]) {
+        candidates.add(i);
+      }
+    }
+    // Cheapest to empty first, without taking a class below its target
+    candidates.sort(Comparator.comparingLong(i -> buckets[i].getUsedBytes()));
+    int[] excess = new int[bucketSizeInfos.length];
+    for (int i = 0; i < bucketSizeInfos.length; ++i) {
+      excess[i] = bucketSizeInfos[i].bucketList.size() - targets[i];
+    }
+    Set<Integer> result = new HashSet<>(needed);
+    for (int i : candidates) {
+      if (result.size() >= needed) {
+        break;
+      }
+      if (excess[buckets[i].sizeIndex()]-- > 0) {
+        result.add(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Halve the histogram of the requested sizes, and forget the failed allocations.
+   */
+  synchronized void decayRequestCounts() {
+    for (int i = 0; i < requestCounts.length; ++i) {
+      requestCounts[i] >>>= 1;
+      failedCounts[i] = 0;
+    }
+  }
+
+  /**
+   * @param dataBytes the bytes of the blocks cached per size index
+   * @param targets the number of buckets per size index
+   */
+  synchronized SizeClassStatistics[] getSizeClassStatistics(long[] dataBytes, int[] targets) {
+    SizeClassStatistics[] stats = new SizeClassStatistics[bucketSizes.length];
+    for (int i = 0; i < stats.length; ++i) {
+      IndexStatistics s = bucketSizeInfos[i].statistics();
+      int bucketCount = bucketSizeInfos[i].bucketList.size();
+      stats[i] = new SizeClassStatistics(bucketSizes[i], bucketCount, targets[i], s.usedCount(),
+          s.freeCount(), bucketCount * bucketCapacity, dataBytes[i]);
+    }
+    return stats;
+  }
+
   public Bucket [] getBuckets() {
     return this.buckets;
   }
@@ -20,17 +20,13 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -51,11 +47,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockCachePartitions;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheUtil;
 import org.apache.hadoop.hbase.io.hfile.BlockPriority;
@@ -70,8 +68,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileBlock;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.HasThread;
-import org.apache.hadoop.hbase.util.IdReadWriteLock;
-import org.apache.hadoop.hbase.util.IdReadWriteLock.ReferenceType;
+import org.apache.hadoop.hbase.util.StripedStampedLock;
 import org.apache.hadoop.hbase.util.UnsafeAvailChecker;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -131,6 +128,24 @@ public class BucketCache implements BlockCache, HeapSize {
   final static int DEFAULT_WRITER_THREADS = 3;
   final static int DEFAULT_WRITER_QUEUE_ITEMS = 64;
 
+  /** Number of stripes of the offset lock */
+  static final String OFFSET_LOCK_STRIPES_CONFIG_NAME = "hbase.bucketcache.offsetlock.stripes";
+  static final int DEFAULT_OFFSET_LOCK_STRIPES = 1024;
+
+  /** Interval between persisting the changes of the backing map of a persistent cache */
+  static final String PERSIST_INTERVAL_CONFIG_NAME = "hbase.bucketcache.persist.intervalinmillis";
+  static final long DEFAULT_PERSIST_INTERVAL = 1000;
+
+  /**
+   * Interval between rebalances of the buckets among the size classes in demand, 0 to disable.
+   * A rebalance empties at most the configured number of buckets.
+   */
+  static final String REBALANCE_INTERVAL_CONFIG_NAME =
+      "hbase.bucketcache.rebalance.intervalinmillis";
+  static final long DEFAULT_REBALANCE_INTERVAL = 60000;
+  static final String REBALANCE_MAX_BUCKETS_CONFIG_NAME = "hbase.bucketcache.rebalance.max.buckets";
+  static final int DEFAULT_REBALANCE_MAX_BUCKETS = 8;
+
   // Store/read block data
   final IOEngine ioEngine;
 
@@ -183,6 +198,8 @@ public class BucketCache implements BlockCache, HeapSize {
   private final BucketCacheStats cacheStats = new BucketCacheStats();
 
   private final String persistencePath;
+  /** Persists the backing map if the IO engine is persistent and a path is given, else null */
+  private final BucketCachePersister persister;
   private final long cacheCapacity;
   /** Approximate block size */
   private final long blockSize;
@@ -197,13 +214,13 @@ public class BucketCache implements BlockCache, HeapSize {
   private volatile long ioErrorStartTime = -1;
 
   /**
-   * A ReentrantReadWriteLock to lock on a particular block identified by offset.
-   * The purpose of this is to avoid freeing the block which is being read.
-   * <p>
-   * Key set of offsets in BucketCache is limited so soft reference is the best choice here.
+   * A StampedLock to lock on a particular block identified by offset, shared by the offsets
+   * hashing to the same stripe. The purpose of this is to avoid freeing the block which is being
+   * read. Readers read optimistically, and read again under the read lock only if the block was
+   * evicted meanwhile.
    */
   @VisibleForTesting
-  final IdReadWriteLock offsetLock = new IdReadWriteLock(ReferenceType.SOFT);
+  final StripedStampedLock offsetLock;
 
   private final NavigableSet<BlockCacheKey> blocksByHFile =
       new ConcurrentSkipListSet<>(new Comparator<BlockCacheKey>() {
@@ -248,6 +265,13 @@ public class BucketCache implements BlockCache, HeapSize {
   /** In-memory bucket size */
   private float memoryFactor;
 
+  /** Most buckets emptied by a rebalance */
+  private final int rebalanceMaxBuckets;
+
+  /** Statistics of the size classes as of the last rebalance */
+  private volatile BucketAllocator.SizeClassStatistics[] sizeClassStatistics =
+      new BucketAllocator.SizeClassStatistics[0];
+
   public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
       int writerThreadNum, int writerQLen, String persistencePath) throws FileNotFoundException,
       IOException {
@@ -284,6 +308,10 @@ public class BucketCache implements BlockCache, HeapSize {
     this.persistencePath = persistencePath;
     this.blockSize = blockSize;
     this.ioErrorsTolerationDuration = ioErrorsTolerationDuration;
+    this.offsetLock = new StripedStampedLock(
+        conf.getInt(OFFSET_LOCK_STRIPES_CONFIG_NAME, DEFAULT_OFFSET_LOCK_STRIPES));
+    this.rebalanceMaxBuckets =
+        conf.getInt(REBALANCE_MAX_BUCKETS_CONFIG_NAME, DEFAULT_REBALANCE_MAX_BUCKETS);
 
     bucketAllocator = new BucketAllocator(capacity, bucketSizes);
     for (int i = 0; i < writerThreads.length; ++i) {
@@ -296,14 +324,17 @@ public class BucketCache implements BlockCache, HeapSize {
     this.backingMap = new ConcurrentHashMap<>((int) blockNumCapacity);
 
     if (ioEngine.isPersistent() && persistencePath != null) {
+      this.persister = new BucketCachePersister(persistencePath, capacity, ioEngine,
+          bucketAllocator.getBucketSizes());
       try {
         retrieveFromFile(bucketSizes);
       } catch (IOException ioex) {
         LOG.error("Can't restore from file because of", ioex);
-      } catch (ClassNotFoundException cnfe) {
-        LOG.error("Can't restore from file in rebuild because can't deserialise",cnfe);
-        throw new RuntimeException(cnfe);
       }
+      // Start over from a snapshot of what we recovered, replacing what we couldn't
+      persister.writeSnapshot(backingMap, deserialiserMap);
+    } else {
+      this.persister = null;
     }
     final String threadName = Thread.currentThread().getName();
     this.cacheEnabled = true;
@@ -319,6 +350,17 @@ public class BucketCache implements BlockCache, HeapSize {
     // every five minutes.
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
         statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    if (persister != null) {
+      long persistInterval = conf.getLong(PERSIST_INTERVAL_CONFIG_NAME, DEFAULT_PERSIST_INTERVAL);
+      this.scheduleThreadPool.scheduleWithFixedDelay(this::persistChanges, persistInterval,
+        persistInterval, TimeUnit.MILLISECONDS);
+    }
+    long rebalanceInterval = conf.getLong(REBALANCE_INTERVAL_CONFIG_NAME,
+      DEFAULT_REBALANCE_INTERVAL);
+    if (rebalanceInterval > 0) {
+      this.scheduleThreadPool.scheduleWithFixedDelay(this::rebalanceBuckets, rebalanceInterval,
+        rebalanceInterval, TimeUnit.MILLISECONDS);
+    }
     LOG.info("Started bucket cache; ioengine=" + ioEngineName +
         ", capacity=" + StringUtils.byteDesc(capacity) +
       ", blockSize=" + StringUtils.byteDesc(blockSize) + ", writerThreadNum=" +
@@ -363,6 +405,15 @@ public class BucketCache implements BlockCache, HeapSize {
     return ioEngine.toString();
   }
 
+  /**
+   * Makes caching wait for room in the writer queues rather than skip the block, for callers
+   * caching faster than the IOEngine can take, like the {@link
+   * org.apache.hadoop.hbase.io.hfile.BlockCacheSimulator}.
+   */
+  public void setWaitWhenCache(boolean waitWhenCache) {
+    this.wait_when_cache = waitWhenCache;
+  }
+
   /**
    * Get the IOEngine from the IO engine name
    * @param ioEngineName
@@ -496,41 +547,52 @@ public class BucketCache implements BlockCache, HeapSize {
     }
     BucketEntry bucketEntry = backingMap.get(key);
     if (bucketEntry != null) {
+      boolean checksumFailed = false;
       long start = System.nanoTime();
-      ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+      StampedLock lock = offsetLock.getLock(bucketEntry.offset());
       try {
-        lock.readLock().lock();
-        // We can not read here even if backingMap does contain the given key because its offset
-        // maybe changed. If we lock BlockCacheKey instead of offset, then we can only check
-        // existence here.
-        if (bucketEntry.equals(backingMap.get(key))) {
-          // TODO : change this area - should be removed after server cells and
-          // 12295 are available
-          int len = bucketEntry.getLength();
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("Read offset=" + bucketEntry.offset() + ", len=" + len);
+        Cacheable cachedBlock = null;
+        // Most reads race with no eviction of the block, so read without locking, and validate
+        // that the block was not freed meanwhile. A concurrent write may make the read fail.
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+          try {
+            cachedBlock = readIfCurrent(key, bucketEntry);
+          } catch (IOException | RuntimeException e) {
+            if (lock.validate(stamp)) {
+              throw e;
+            }
           }
-          Cacheable cachedBlock = ioEngine.read(bucketEntry.offset(), len,
-              bucketEntry.deserializerReference(this.deserialiserMap));
+        }
+        if (stamp == 0 || !lock.validate(stamp)) {
+          releaseBlock(key, bucketEntry, cachedBlock);
+          stamp = lock.readLock();
+          try {
+            cachedBlock = readIfCurrent(key, bucketEntry);
+          } finally {
+            lock.unlockRead(stamp);
+          }
+        }
+        if (cachedBlock != null) {
           long timeTaken = System.nanoTime() - start;
           if (updateCacheMetrics) {
             cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
             cacheStats.ioHit(timeTaken);
           }
-          if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
-            bucketEntry.incrementRefCountAndGet();
-          }
           bucketEntry.access(accessCount.incrementAndGet());
           if (this.ioErrorStartTime > 0) {
             ioErrorStartTime = -1;
           }
           return cachedBlock;
         }
+      } catch (ChecksumMismatchException e) {
+        checksumFailed = true;
       } catch (IOException ioex) {
         LOG.error("Failed reading block " + key + " from bucket cache", ioex);
         checkIOErrorIsTolerated();
-      } finally {
-        lock.readLock().unlock();
+      }
+      if (checksumFailed) {
+        evictCorruptBlock(key, bucketEntry);
       }
     }
     if (!repeat && updateCacheMetrics) {
@@ -539,8 +601,67 @@ public class BucketCache implements BlockCache, HeapSize {
     return null;
   }
 
+  /**
+   * Read the block of the given entry, unless it is no longer mapped to the key. We can not read
+   * even if backingMap does contain the given key because its offset maybe changed. If we lock
+   * BlockCacheKey instead of offset, then we can only check existence here.
+   * @return the block, referenced if in shared memory, or null if the entry is no longer current
+   */
+  private Cacheable readIfCurrent(BlockCacheKey key, BucketEntry bucketEntry) throws IOException {
+    if (!bucketEntry.equals(backingMap.get(key))) {
+      return null;
+    }
+    int len = bucketEntry.getLength();
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Read offset=" + bucketEntry.offset() + ", len=" + len);
+    }
+    CacheableDeserializer<Cacheable> deserializer =
+        bucketEntry.deserializerReference(this.deserialiserMap);
+    if (!bucketEntry.isChecksumVerified()) {
+      deserializer = new ChecksumVerifyingDeserializer(deserializer, bucketEntry);
+    }
+    Cacheable cachedBlock = ioEngine.read(bucketEntry.offset(), len, deserializer);
+    // Referenced before the read is validated, so an evictor locking after the validation sees
+    // the reference and does not free the block
+    if (cachedBlock != null && cachedBlock.getMemoryType() == MemoryType.SHARED) {
+      bucketEntry.incrementRefCountAndGet();
+    }
+    return cachedBlock;
+  }
+
+  /**
+   * Drop the reference taken by an optimistic read which failed validation.
+   */
+  private void releaseBlock(BlockCacheKey key, BucketEntry bucketEntry, Cacheable cachedBlock) {
+    if (cachedBlock != null && cachedBlock.getMemoryType() == MemoryType.SHARED) {
+      int refCount = bucketEntry.decrementRefCountAndGet();
+      if (refCount == 0 && bucketEntry.isMarkedForEvict()) {
+        forceEvict(key);
+      }
+    }
+  }
+
+  /**
+   * Evict a recovered block whose checksum does not match the data read back.
+   */
+  private void evictCorruptBlock(BlockCacheKey key, BucketEntry bucketEntry) {
+    LOG.warn("Checksum mismatch of recovered block " + key + ", evicting it");
+    cacheStats.checksumFailed();
+    StampedLock lock = offsetLock.getLock(bucketEntry.offset());
+    long stamp = lock.writeLock();
+    try {
+      if (backingMap.remove(key, bucketEntry)) {
+        blockEvicted(key, bucketEntry, true);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
   @VisibleForTesting
   void blockEvicted(BlockCacheKey cacheKey, BucketEntry bucketEntry, boolean decrementBlockNumber) {
+    // Before the space is freed, so the removal is persisted no later than a reuse of the space
+    backingMapChanged(cacheKey);
     bucketAllocator.freeBlock(bucketEntry.offset());
     realCacheSize.add(-1 * bucketEntry.getLength());
     blocksByHFile.remove(cacheKey);
@@ -570,16 +691,16 @@ public class BucketCache implements BlockCache, HeapSize {
         return false;
       }
     }
-    ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+    StampedLock lock = offsetLock.getLock(bucketEntry.offset());
+    long stamp = lock.writeLock();
     try {
-      lock.writeLock().lock();
       if (backingMap.remove(cacheKey, bucketEntry)) {
         blockEvicted(cacheKey, bucketEntry, removedBlock == null);
       } else {
         return false;
       }
     } finally {
-      lock.writeLock().unlock();
+      lock.unlockWrite(stamp);
     }
     cacheStats.evicted(bucketEntry.getCachedTime(), cacheKey.isPrimary());
     return true;
@@ -608,9 +729,9 @@ public class BucketCache implements BlockCache, HeapSize {
         return false;
       }
     }
-    ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+    StampedLock lock = offsetLock.getLock(bucketEntry.offset());
+    long stamp = lock.writeLock();
     try {
-      lock.writeLock().lock();
       int refCount = bucketEntry.getRefCount();
       if (refCount == 0) {
         if (backingMap.remove(cacheKey, bucketEntry)) {
@@ -635,7 +756,7 @@ public class BucketCache implements BlockCache, HeapSize {
         }
       }
     } finally {
-      lock.writeLock().unlock();
+      lock.unlockWrite(stamp);
     }
     cacheStats.evicted(bucketEntry.getCachedTime(), cacheKey.isPrimary());
     return true;
@@ -739,12 +860,70 @@ public class BucketCache implements BlockCache, HeapSize {
       for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
         if (candidateBuckets.contains(bucketAllocator
             .getBucketIndex(entry.getValue().offset()))) {
+          if (evictBlock(entry.getKey(), false)) {
+            BlockCachePartitions.evicted(entry.getKey().getHfileName());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Move buckets towards the size classes in demand lately. Completely free buckets are
+   * reconfigured right away. If a class below its target failed allocations, the least filled
+   * buckets of the classes above their target are emptied and reconfigured too. Runs in the
+   * background, evicting block by block, so the writers only wait on the allocator as long as it
+   * takes to free a block or to reconfigure a bucket.
+   */
+  @VisibleForTesting
+  void rebalanceBuckets() {
+    try {
+      int[] targets = bucketAllocator.getTargetBucketCounts();
+      int moved = bucketAllocator.reassignCompletelyFreeBuckets(targets);
+      Set<Integer> inUseBuckets = new HashSet<>();
+      for (BucketEntry entry : backingMap.values()) {
+        if (entry.getRefCount() != 0) {
+          inUseBuckets.add(bucketAllocator.getBucketIndex(entry.offset()));
+        }
+      }
+      Set<Integer> defragmented =
+          bucketAllocator.getBucketsToDefragment(targets, inUseBuckets, rebalanceMaxBuckets);
+      long[] dataBytes = new long[bucketAllocator.getBucketSizes().length];
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+        BucketEntry bucketEntry = entry.getValue();
+        if (defragmented.contains(bucketAllocator.getBucketIndex(bucketEntry.offset()))) {
           evictBlock(entry.getKey(), false);
+        } else {
+          dataBytes[bucketAllocator.sizeIndexOfAllocation(bucketEntry.offset())] +=
+              bucketEntry.getLength();
         }
       }
+      if (!defragmented.isEmpty()) {
+        moved += bucketAllocator.reassignCompletelyFreeBuckets(targets);
+      }
+      bucketAllocator.decayRequestCounts();
+      sizeClassStatistics = bucketAllocator.getSizeClassStatistics(dataBytes, targets);
+      if (moved > 0) {
+        LOG.info("Rebalanced bucket cache; reconfigured " + moved + " buckets, emptied "
+            + defragmented.size() + " of them");
+      }
+      if (LOG.isDebugEnabled()) {
+        for (BucketAllocator.SizeClassStatistics stats : sizeClassStatistics) {
+          LOG.debug("Size class " + stats);
+        }
+      }
+    } catch (Throwable t) {
+      LOG.warn("Failed rebalancing buckets", t);
     }
   }
 
+  /**
+   * @return the statistics of the size classes as of the last rebalance of the buckets
+   */
+  public BucketAllocator.SizeClassStatistics[] getSizeClassStatistics() {
+    return sizeClassStatistics;
+  }
+
   /**
    * Free the space if the used size reaches acceptableSize() or one size block
    * couldn't be allocated. When freeing the space, we use the LRU algorithm and
@@ -802,9 +981,48 @@ public class BucketCache implements BlockCache, HeapSize {
       BucketEntryGroup bucketMemory = new BucketEntryGroup(bytesToFreeWithExtra,
           blockSize, getPartitionSize(memoryFactor));
 
+      long bytesFreed = 0;
+
+      // Entries of the partitions above their maximum share go first
+      BlockCachePartitions.Usage usage = null;
+      if (BlockCachePartitions.isActive()) {
+        usage = new BlockCachePartitions.Usage(totalSize);
+        for (Map.Entry<BlockCacheKey, BucketEntry> e : backingMap.entrySet()) {
+          usage.add(e.getKey().getHfileName(), e.getValue().getLength());
+        }
+        Map<BlockCachePartitions.Partition, BucketEntryGroup> partitionGroups = new HashMap<>();
+        for (BlockCachePartitions.Partition partition : usage.partitions()) {
+          long excess = usage.excess(partition);
+          if (excess > 0) {
+            partitionGroups.put(partition, new BucketEntryGroup(excess, blockSize, 0));
+          }
+        }
+        if (!partitionGroups.isEmpty()) {
+          for (Map.Entry<BlockCacheKey, BucketEntry> e : backingMap.entrySet()) {
+            BucketEntryGroup partitionGroup = partitionGroups
+                .get(BlockCachePartitions.getPartition(e.getKey().getHfileName()));
+            if (partitionGroup != null) {
+              partitionGroup.add(e);
+            }
+          }
+          for (Map.Entry<BlockCachePartitions.Partition, BucketEntryGroup> e :
+              partitionGroups.entrySet()) {
+            bytesFreed += e.getValue().free(usage.excess(e.getKey()));
+          }
+        }
+      }
+
       // Scan entire map putting bucket entry into appropriate bucket entry
-      // group
+      // group. The entries freed above are gone from it, the rest of their partitions are
+      // evicted along with the other entries
       for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
+        if (usage != null) {
+          BlockCachePartitions.Partition partition =
+              BlockCachePartitions.getPartition(bucketEntryWithKey.getKey().getHfileName());
+          if (partition != null && usage.isProtected(partition)) {
+            continue;
+          }
+        }
         switch (bucketEntryWithKey.getValue().getPriority()) {
           case SINGLE: {
             bucketSingle.add(bucketEntryWithKey);
@@ -829,7 +1047,6 @@ public class BucketCache implements BlockCache, HeapSize {
       bucketQueue.add(bucketMemory);
 
       int remainingBuckets = 3;
-      long bytesFreed = 0;
 
       BucketEntryGroup bucketGroup;
       while ((bucketGroup = bucketQueue.poll()) != null) {
@@ -943,13 +1160,14 @@ public class BucketCache implements BlockCache, HeapSize {
      */
     private void putIntoBackingMap(BlockCacheKey key, BucketEntry bucketEntry) {
       BucketEntry previousEntry = backingMap.put(key, bucketEntry);
+      backingMapChanged(key);
       if (previousEntry != null && previousEntry != bucketEntry) {
-        ReentrantReadWriteLock lock = offsetLock.getLock(previousEntry.offset());
-        lock.writeLock().lock();
+        StampedLock lock = offsetLock.getLock(previousEntry.offset());
+        long stamp = lock.writeLock();
         try {
           blockEvicted(key, previousEntry, false);
         } finally {
-          lock.writeLock().unlock();
+          lock.unlockWrite(stamp);
         }
       }
     }
@@ -1043,14 +1261,14 @@ public class BucketCache implements BlockCache, HeapSize {
           heapSize.add(-1 * entries.get(i).getData().heapSize());
         } else if (bucketEntries[i] != null){
           // Block should have already been evicted. Remove it and free space.
-          ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntries[i].offset());
+          StampedLock lock = offsetLock.getLock(bucketEntries[i].offset());
+          long stamp = lock.writeLock();
           try {
-            lock.writeLock().lock();
             if (backingMap.remove(key, bucketEntries[i])) {
               blockEvicted(key, bucketEntries[i], false);
             }
           } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
           }
         }
       }
@@ -1083,73 +1301,54 @@ public class BucketCache implements BlockCache, HeapSize {
     return receptacle;
   }
 
-  private void persistToFile() throws IOException {
-    assert !cacheEnabled;
-    FileOutputStream fos = null;
-    ObjectOutputStream oos = null;
+  private void backingMapChanged(BlockCacheKey key) {
+    if (persister != null) {
+      persister.changed(key);
+    }
+  }
+
+  /**
+   * Persist the changes of the backing map since the last call. Run periodically, so a restart
+   * after a crash recovers all but the most recent changes.
+   */
+  @VisibleForTesting
+  void persistChanges() {
     try {
-      if (!ioEngine.isPersistent()) {
-        throw new IOException("Attempt to persist non-persistent cache mappings!");
-      }
-      fos = new FileOutputStream(persistencePath, false);
-      oos = new ObjectOutputStream(fos);
-      oos.writeLong(cacheCapacity);
-      oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
-      oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
-    } finally {
-      if (oos != null) oos.close();
-      if (fos != null) fos.close();
+      persister.persist(backingMap, deserialiserMap);
+    } catch (Throwable t) {
+      LOG.warn("Failed persisting bucket cache index to " + persistencePath, t);
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException,
-      ClassNotFoundException {
-    File persistenceFile = new File(persistencePath);
-    if (!persistenceFile.exists()) {
-      return;
+  private void persistToFile() throws IOException {
+    assert !cacheEnabled;
+    if (persister == null) {
+      throw new IOException("Attempt to persist non-persistent cache mappings!");
     }
+    persister.writeSnapshot(backingMap, deserialiserMap);
+  }
+
+  private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException {
     assert !cacheEnabled;
-    FileInputStream fis = null;
-    ObjectInputStream ois = null;
-    try {
-      if (!ioEngine.isPersistent())
-        throw new IOException(
-            "Attempt to restore non-persistent cache mappings!");
-      fis = new FileInputStream(persistencePath);
-      ois = new ObjectInputStream(fis);
-      long capacitySize = ois.readLong();
-      if (capacitySize != cacheCapacity)
-        throw new IOException("Mismatched cache capacity:"
-            + StringUtils.byteDesc(capacitySize) + ", expected: "
-            + StringUtils.byteDesc(cacheCapacity));
-      String ioclass = ois.readUTF();
-      String mapclass = ois.readUTF();
-      if (!ioEngine.getClass().getName().equals(ioclass))
-        throw new IOException("Class name for IO engine mismatch: " + ioclass
-            + ", expected:" + ioEngine.getClass().getName());
-      if (!backingMap.getClass().getName().equals(mapclass))
-        throw new IOException("Class name for cache map mismatch: " + mapclass
-            + ", expected:" + backingMap.getClass().getName());
-      UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
-          .readObject();
-      ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMapFromFile =
-          (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois.readObject();
-      BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
-          backingMapFromFile, realCacheSize);
-      bucketAllocator = allocator;
-      deserialiserMap = deserMap;
-      backingMap = backingMapFromFile;
-    } finally {
-      if (ois != null) ois.close();
-      if (fis != null) fis.close();
-      if (!persistenceFile.delete()) {
-        throw new IOException("Failed deleting persistence file "
-            + persistenceFile.getAbsolutePath());
-      }
+    long start = EnvironmentEdgeManager.currentTime();
+    BucketCachePersister.RecoveredIndex index = persister.recover();
+    if (index == null) {
+      return;
     }
+    LongAdder recoveredSize = new LongAdder();
+    BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
+        index.backingMap, recoveredSize);
+    bucketAllocator = allocator;
+    deserialiserMap = index.deserialiserMap;
+    backingMap = index.backingMap;
+    realCacheSize.add(recoveredSize.sum());
+    blocksByHFile.addAll(backingMap.keySet());
+    blockNumber.add(backingMap.size());
+    long took = EnvironmentEdgeManager.currentTime() - start;
+    cacheStats.recovered(backingMap.size(), took);
+    LOG.info("Recovered " + backingMap.size() + " blocks of "
+        + StringUtils.byteDesc(recoveredSize.sum()) + " from " + persistencePath + " with "
+        + index.deltas + " deltas in " + took + " ms");
   }
 
   /**
@@ -1301,6 +1500,10 @@ public class BucketCache implements BlockCache, HeapSize {
     byte deserialiserIndex;
     private volatile long accessCounter;
     private BlockPriority priority;
+    /** CRC32 of the block data, kept if the IO engine is persistent */
+    private int checksum;
+    /** False for entries recovered from a persisted index until the block data is read back */
+    private volatile boolean checksumVerified = true;
 
     /**
      * Time this block was cached.  Presumes we are created just before we are added to the cache.
@@ -1362,6 +1565,27 @@ public class BucketCache implements BlockCache, HeapSize {
       return this.priority;
     }
 
+    long getAccessCounter() {
+      return accessCounter;
+    }
+
+    int getChecksum() {
+      return checksum;
+    }
+
+    void setChecksum(int checksum, boolean verified) {
+      this.checksum = checksum;
+      this.checksumVerified = verified;
+    }
+
+    boolean isChecksumVerified() {
+      return checksumVerified;
+    }
+
+    void checksumVerified() {
+      this.checksumVerified = true;
+    }
+
     public long getCachedTime() {
       return cachedTime;
     }
@@ -1455,6 +1679,7 @@ public class BucketCache implements BlockCache, HeapSize {
       while ((entry = queue.pollLast()) != null) {
         if (evictBlock(entry.getKey(), false)) {
           freedBytes += entry.getValue().getLength();
+          BlockCachePartitions.evicted(entry.getKey().getHfileName());
         }
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -1511,12 +1736,10 @@ public class BucketCache implements BlockCache, HeapSize {
       // This cacheable thing can't be serialized
       if (len == 0) return null;
       long offset = bucketAllocator.allocateBlock(len);
-      BucketEntry bucketEntry = ioEngine.usesSharedMemory()
-          ? UnsafeAvailChecker.isAvailable()
-              ? new UnsafeSharedMemoryBucketEntry(offset, len, accessCounter, inMemory)
-              : new SharedMemoryBucketEntry(offset, len, accessCounter, inMemory)
-          : new BucketEntry(offset, len, accessCounter, inMemory);
+      BucketEntry bucketEntry = newBucketEntry(ioEngine, offset, len, accessCounter, inMemory);
       bucketEntry.setDeserialiserReference(data.getDeserializer(), deserialiserMap);
+      // Checksummed so blocks recovered after a restart can be verified
+      CRC32 crc = ioEngine.isPersistent() ? new CRC32() : null;
       try {
         if (data instanceof HFileBlock) {
           // If an instance of HFileBlock, save on some allocations.
@@ -1526,11 +1749,18 @@ public class BucketCache implements BlockCache, HeapSize {
           if (LOG.isTraceEnabled()) {
             LOG.trace("Write offset=" + offset + ", len=" + len);
           }
+          if (crc != null) {
+            updateChecksum(crc, sliceBuf);
+            crc.update(metadata.duplicate());
+          }
           ioEngine.write(sliceBuf, offset);
           ioEngine.write(metadata, offset + len - metadata.limit());
         } else {
           ByteBuffer bb = ByteBuffer.allocate(len);
           data.serialize(bb, true);
+          if (crc != null) {
+            crc.update(bb.duplicate());
+          }
           ioEngine.write(bb, offset);
         }
       } catch (IOException ioe) {
@@ -1539,11 +1769,88 @@ public class BucketCache implements BlockCache, HeapSize {
         throw ioe;
       }
 
+      if (crc != null) {
+        bucketEntry.setChecksum((int) crc.getValue(), true);
+      }
       realCacheSize.add(len);
       return bucketEntry;
     }
   }
 
+  static BucketEntry newBucketEntry(IOEngine ioEngine, long offset, int length,
+      long accessCounter, boolean inMemory) {
+    return ioEngine.usesSharedMemory()
+        ? UnsafeAvailChecker.isAvailable()
+            ? new UnsafeSharedMemoryBucketEntry(offset, length, accessCounter, inMemory)
+            : new SharedMemoryBucketEntry(offset, length, accessCounter, inMemory)
+        : new BucketEntry(offset, length, accessCounter, inMemory);
+  }
+
+  /**
+   * Update the checksum with the remaining bytes of the buffer, leaving its position as is.
+   */
+  private static void updateChecksum(CRC32 crc, ByteBuff buf) {
+    if (buf.hasArray()) {
+      crc.update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      return;
+    }
+    byte[] chunk = new byte[Math.min(buf.remaining(), 8 * 1024)];
+    for (int pos = buf.position(); pos < buf.limit(); pos += chunk.length) {
+      int length = Math.min(chunk.length, buf.limit() - pos);
+      buf.get(pos, chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+  }
+
+  /**
+   * Thrown when the data read back for a recovered block is not what was cached, the space was
+   * reused or not synced before a crash.
+   */
+  private static class ChecksumMismatchException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Verifies the checksum of a block recovered from a persisted index before deserializing it,
+   * as the data may have been overwritten or not synced before the restart.
+   */
+  private static class ChecksumVerifyingDeserializer implements CacheableDeserializer<Cacheable> {
+    private final CacheableDeserializer<Cacheable> deserializer;
+    private final BucketEntry bucketEntry;
+
+    ChecksumVerifyingDeserializer(CacheableDeserializer<Cacheable> deserializer,
+        BucketEntry bucketEntry) {
+      this.deserializer = deserializer;
+      this.bucketEntry = bucketEntry;
+    }
+
+    @Override
+    public Cacheable deserialize(ByteBuff b) throws IOException {
+      return deserialize(b, false, MemoryType.EXCLUSIVE);
+    }
+
+    /**
+     * @throws ChecksumMismatchException if the checksum of the block does not match
+     */
+    @Override
+    public Cacheable deserialize(ByteBuff b, boolean reuse, MemoryType memType)
+        throws IOException {
+      CRC32 crc = new CRC32();
+      // Like the deserializers, read from the start, the IO engine may leave the position at end
+      updateChecksum(crc, b.duplicate().rewind());
+      if ((int) crc.getValue() != bucketEntry.getChecksum()) {
+        throw new ChecksumMismatchException();
+      }
+      bucketEntry.checksumVerified();
+      return deserializer.deserialize(b, reuse, memType);
+    }
+
+    @Override
+    public int getDeserialiserIdentifier() {
+      return deserializer.getDeserialiserIdentifier();
+    }
+  }
+
   /**
    * Only used in test
    * @throws InterruptedException
@@ -1572,77 +1879,99 @@ public class BucketCache implements BlockCache, HeapSize {
       @Override
       public CachedBlock next() {
         final Map.Entry<BlockCacheKey, BucketEntry> e = i.next();
-        return new CachedBlock() {
-          @Override
-          public String toString() {
-            return BlockCacheUtil.toString(this, now);
-          }
+        return toCachedBlock(e.getKey(), e.getValue(), now);
+      }
 
-          @Override
-          public BlockPriority getBlockPriority() {
-            return e.getValue().getPriority();
-          }
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
 
-          @Override
-          public BlockType getBlockType() {
-            // Not held by BucketEntry.  Could add it if wanted on BucketEntry creation.
-            return null;
-          }
+  @Override
+  public Iterator<CachedBlock> iteratorByHfileName(String hfileName) {
+    Set<BlockCacheKey> keySet = blocksByHFile.subSet(
+        new BlockCacheKey(hfileName, Long.MIN_VALUE), true,
+        new BlockCacheKey(hfileName, Long.MAX_VALUE), true);
+    long now = System.nanoTime();
+    List<CachedBlock> blocks = new ArrayList<>();
+    for (BlockCacheKey key : keySet) {
+      // Skip the blocks evicted since they were looked up
+      BucketEntry entry = backingMap.get(key);
+      if (entry != null) {
+        blocks.add(toCachedBlock(key, entry, now));
+      }
+    }
+    return blocks.iterator();
+  }
 
-          @Override
-          public long getOffset() {
-            return e.getKey().getOffset();
-          }
+  private static CachedBlock toCachedBlock(final BlockCacheKey key, final BucketEntry entry,
+      final long now) {
+    return new CachedBlock() {
+      @Override
+      public String toString() {
+        return BlockCacheUtil.toString(this, now);
+      }
 
-          @Override
-          public long getSize() {
-            return e.getValue().getLength();
-          }
+      @Override
+      public BlockPriority getBlockPriority() {
+        return entry.getPriority();
+      }
 
-          @Override
-          public long getCachedTime() {
-            return e.getValue().getCachedTime();
-          }
+      @Override
+      public BlockType getBlockType() {
+        // Not held by BucketEntry.  Could add it if wanted on BucketEntry creation.
+        return null;
+      }
 
-          @Override
-          public String getFilename() {
-            return e.getKey().getHfileName();
-          }
+      @Override
+      public long getOffset() {
+        return key.getOffset();
+      }
 
-          @Override
-          public int compareTo(CachedBlock other) {
-            int diff = this.getFilename().compareTo(other.getFilename());
-            if (diff != 0) return diff;
+      @Override
+      public long getSize() {
+        return entry.getLength();
+      }
 
-            diff = Long.compare(this.getOffset(), other.getOffset());
-            if (diff != 0) return diff;
-            if (other.getCachedTime() < 0 || this.getCachedTime() < 0) {
-              throw new IllegalStateException("" + this.getCachedTime() + ", " +
-                other.getCachedTime());
-            }
-            return Long.compare(other.getCachedTime(), this.getCachedTime());
-          }
+      @Override
+      public long getCachedTime() {
+        return entry.getCachedTime();
+      }
 
-          @Override
-          public int hashCode() {
-            return e.getKey().hashCode();
-          }
+      @Override
+      public String getFilename() {
+        return key.getHfileName();
+      }
 
-          @Override
-          public boolean equals(Object obj) {
-            if (obj instanceof CachedBlock) {
-              CachedBlock cb = (CachedBlock)obj;
-              return compareTo(cb) == 0;
-            } else {
-              return false;
-            }
-          }
-        };
+      @Override
+      public int compareTo(CachedBlock other) {
+        int diff = this.getFilename().compareTo(other.getFilename());
+        if (diff != 0) return diff;
+
+        diff = Long.compare(this.getOffset(), other.getOffset());
+        if (diff != 0) return diff;
+        if (other.getCachedTime() < 0 || this.getCachedTime() < 0) {
+          throw new IllegalStateException("" + this.getCachedTime() + ", " +
+            other.getCachedTime());
+        }
+        return Long.compare(other.getCachedTime(), this.getCachedTime());
       }
 
       @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+      public int hashCode() {
+        return key.hashCode();
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        if (obj instanceof CachedBlock) {
+          CachedBlock cb = (CachedBlock)obj;
+          return compareTo(cb) == 0;
+        } else {
+          return false;
+        }
       }
     };
   }
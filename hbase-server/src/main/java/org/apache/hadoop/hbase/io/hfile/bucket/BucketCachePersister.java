@@ -0,0 +1,463 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.io.ByteStreams;
+
+/**
+ * Persists the backing map of a {@link BucketCache} on a persistent {@link IOEngine}, so that
+ * the cached blocks can be served again after the region server restarts, cleanly or not.
+ * <p>
+ * The file starts with a magic number and a version, followed by sections. A section is a type
+ * byte, the length of its payload as a long, the CRC32 of its payload, and the payload. The
+ * first section is a snapshot of the whole map. The others are deltas, holding the entries put
+ * into or removed from the map since the section before. Deltas are appended to the file, and
+ * once they are larger than the snapshot, a new snapshot replaces the file. The header of a
+ * section is written after its payload is synced, so recovery stops at a section torn by a crash.
+ * <p>
+ * A payload starts with the deserialiser map, followed by one record per entry and an end
+ * marker. A hfile name is written once per section, and referenced by its number afterwards.
+ * The state of the {@link BucketAllocator} is not written, as it is rebuilt from the map.
+ */
+@InterfaceAudience.Private
+final class BucketCachePersister {
+  private static final Logger LOG = LoggerFactory.getLogger(BucketCachePersister.class);
+
+  private static final int MAGIC = 0x42434958; // BCIX
+  private static final byte VERSION = 1;
+  private static final int FILE_HEADER_SIZE = Bytes.SIZEOF_INT + Bytes.SIZEOF_BYTE;
+  private static final int SECTION_HEADER_SIZE =
+      Bytes.SIZEOF_BYTE + Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Section types
+  private static final byte SNAPSHOT = 1;
+  private static final byte DELTA = 2;
+
+  // Record types
+  private static final byte END = 0;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  private final File file;
+  private final long capacity;
+  private final IOEngine ioEngine;
+  private final int[] bucketSizes;
+
+  /** Keys put into or removed from the backing map since they were last persisted */
+  private final Set<BlockCacheKey> changedKeys = ConcurrentHashMap.newKeySet();
+
+  /** Whether the file holds a snapshot we can append deltas to */
+  private boolean snapshotWritten = false;
+  private long snapshotSize = 0;
+  private long deltasSize = 0;
+
+  BucketCachePersister(String path, long capacity, IOEngine ioEngine, int[] bucketSizes) {
+    this.file = new File(path);
+    this.capacity = capacity;
+    this.ioEngine = ioEngine;
+    this.bucketSizes = bucketSizes;
+  }
+
+  /**
+   * Record that the entry of the key was put into or removed from the backing map. Must be
+   * called after the backing map was changed.
+   */
+  void changed(BlockCacheKey key) {
+    changedKeys.add(key);
+  }
+
+  /**
+   * Persist the changes since the last call, as a delta, or as a new snapshot if the deltas
+   * outgrew the snapshot.
+   */
+  synchronized void persist(Map<BlockCacheKey, BucketEntry> backingMap,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    if (!snapshotWritten || deltasSize > snapshotSize) {
+      writeSnapshot(backingMap, deserialiserMap);
+    } else if (!changedKeys.isEmpty()) {
+      writeDelta(backingMap, deserialiserMap);
+    }
+  }
+
+  /**
+   * Replace the file by a snapshot of the backing map.
+   */
+  synchronized void writeSnapshot(final Map<BlockCacheKey, BucketEntry> backingMap,
+      final UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    // Changes made while we iterate over the map may be missed, they are in the next delta
+    changedKeys.clear();
+    snapshotWritten = false;
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+      header.putInt(MAGIC).put(VERSION).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      snapshotSize = writeSection(channel, SNAPSHOT, out -> {
+        out.writeLong(capacity);
+        WritableUtils.writeString(out, ioEngine.getClass().getName());
+        WritableUtils.writeVInt(out, bucketSizes.length);
+        for (int bucketSize : bucketSizes) {
+          WritableUtils.writeVInt(out, bucketSize);
+        }
+        writeDeserialisers(out, deserialiserMap);
+        Map<String, Integer> names = new HashMap<>();
+        for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+          writePut(out, names, entry.getKey(), entry.getValue());
+        }
+        out.writeByte(END);
+      });
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+    deltasSize = 0;
+    snapshotWritten = true;
+  }
+
+  private void writeDelta(final Map<BlockCacheKey, BucketEntry> backingMap,
+      final UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    // A failure may leave a partial section behind, so the next call writes a snapshot
+    snapshotWritten = false;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      channel.position(channel.size());
+      deltasSize += writeSection(channel, DELTA, out -> {
+        writeDeserialisers(out, deserialiserMap);
+        Map<String, Integer> names = new HashMap<>();
+        for (Iterator<BlockCacheKey> it = changedKeys.iterator(); it.hasNext();) {
+          BlockCacheKey key = it.next();
+          // Unmark before reading the map, so a concurrent change is marked again
+          it.remove();
+          BucketEntry entry = backingMap.get(key);
+          if (entry == null) {
+            out.writeByte(REMOVE);
+            writeKey(out, names, key);
+          } else {
+            writePut(out, names, key, entry);
+          }
+        }
+        out.writeByte(END);
+      });
+    }
+    snapshotWritten = true;
+  }
+
+  private interface SectionWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Write a section at the position of the channel.
+   * @return the number of bytes written
+   */
+  private static long writeSection(FileChannel channel, byte type, SectionWriter writer)
+      throws IOException {
+    long start = channel.position();
+    channel.position(start + SECTION_HEADER_SIZE);
+    CRC32 crc = new CRC32();
+    // Not closed, as that closes the channel
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new CheckedOutputStream(Channels.newOutputStream(channel), crc), BUFFER_SIZE));
+    writer.write(out);
+    out.flush();
+    long length = channel.position() - start - SECTION_HEADER_SIZE;
+    channel.force(false);
+    ByteBuffer header = ByteBuffer.allocate(SECTION_HEADER_SIZE);
+    header.put(type).putLong(length).putInt((int) crc.getValue()).flip();
+    while (header.hasRemaining()) {
+      channel.write(header, start + header.position());
+    }
+    channel.force(false);
+    return SECTION_HEADER_SIZE + length;
+  }
+
+  private static void writeDeserialisers(DataOutputStream out,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    // Copied first, as the map may grow while we write it
+    List<Map.Entry<Integer, Integer>> entries =
+        new ArrayList<>(deserialiserMap.mReverseMap.entrySet());
+    WritableUtils.writeVInt(out, entries.size());
+    for (Map.Entry<Integer, Integer> entry : entries) {
+      WritableUtils.writeVInt(out, entry.getKey());
+      WritableUtils.writeVInt(out, entry.getValue());
+    }
+  }
+
+  private static void writeKey(DataOutputStream out, Map<String, Integer> names,
+      BlockCacheKey key) throws IOException {
+    Integer name = names.get(key.getHfileName());
+    if (name == null) {
+      WritableUtils.writeVInt(out, 0);
+      WritableUtils.writeString(out, key.getHfileName());
+      names.put(key.getHfileName(), names.size() + 1);
+    } else {
+      WritableUtils.writeVInt(out, name);
+    }
+    WritableUtils.writeVLong(out, key.getOffset());
+  }
+
+  private static void writePut(DataOutputStream out, Map<String, Integer> names,
+      BlockCacheKey key, BucketEntry entry) throws IOException {
+    out.writeByte(PUT);
+    writeKey(out, names, key);
+    out.writeBoolean(key.isPrimary());
+    out.writeByte(key.getBlockType() == null ? -1 : key.getBlockType().ordinal());
+    WritableUtils.writeVLong(out, entry.offset());
+    WritableUtils.writeVInt(out, entry.getLength());
+    out.writeByte(entry.deserialiserIndex);
+    out.writeByte(entry.getPriority().ordinal());
+    WritableUtils.writeVLong(out, entry.getAccessCounter());
+    out.writeInt(entry.getChecksum());
+  }
+
+  /**
+   * The backing map and deserialiser map read back from the file
+   */
+  static final class RecoveredIndex {
+    final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap = new ConcurrentHashMap<>();
+    final UniqueIndexMap<Integer> deserialiserMap = new UniqueIndexMap<>();
+    int deltas = 0;
+  }
+
+  /**
+   * Read back the snapshot and deltas persisted by a previous run. Entries are read back with
+   * their block checksums unverified.
+   * @return the recovered index, or null if nothing was persisted
+   * @throws IOException if the file can't be read, is corrupt, or was written by a cache of
+   *           different capacity or IO engine
+   */
+  synchronized RecoveredIndex recover() throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    long remaining = file.length() - FILE_HEADER_SIZE;
+    RecoveredIndex index = new RecoveredIndex();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+      if (remaining < 0 || in.readInt() != MAGIC) {
+        throw new IOException("Not a bucket cache index: " + file);
+      }
+      byte version = in.readByte();
+      if (version != VERSION) {
+        throw new IOException("Unsupported bucket cache index version " + version + " of " + file);
+      }
+      boolean first = true;
+      while (remaining > 0) {
+        byte type = -1;
+        long length = -1;
+        int checksum = 0;
+        if (remaining >= SECTION_HEADER_SIZE) {
+          type = in.readByte();
+          length = in.readLong();
+          checksum = in.readInt();
+          remaining -= SECTION_HEADER_SIZE;
+        }
+        Section section = null;
+        if (type == (first ? SNAPSHOT : DELTA) && length >= 0 && length <= remaining) {
+          section = readSection(in, length, checksum, first);
+          remaining -= length;
+        }
+        if (section == null) {
+          if (first) {
+            throw new IOException("Corrupt snapshot in bucket cache index " + file);
+          }
+          LOG.warn("Ignoring torn or corrupt delta " + (index.deltas + 1) + " and the rest of "
+              + file);
+          break;
+        }
+        section.applyTo(index);
+        if (!first) {
+          index.deltas++;
+        }
+        first = false;
+      }
+    }
+    // An entry may have been put while its deserialiser was not written yet
+    int unknown = 0;
+    for (Iterator<BucketEntry> it = index.backingMap.values().iterator(); it.hasNext();) {
+      if (!index.deserialiserMap.mReverseMap.containsKey((int) it.next().deserialiserIndex)) {
+        it.remove();
+        unknown++;
+      }
+    }
+    if (unknown > 0) {
+      LOG.warn("Dropped " + unknown + " recovered blocks of unknown deserialisers");
+    }
+    return index;
+  }
+
+  /** The changes read from a section, applied once its checksum is verified */
+  private static final class Section {
+    final Map<Integer, Integer> deserialisers = new HashMap<>();
+    // A null entry for a removed key
+    final Map<BlockCacheKey, BucketEntry> entries = new LinkedHashMap<>();
+
+    void applyTo(RecoveredIndex index) {
+      for (Map.Entry<Integer, Integer> deserialiser : deserialisers.entrySet()) {
+        index.deserialiserMap.restore(deserialiser.getKey(), deserialiser.getValue());
+      }
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : entries.entrySet()) {
+        if (entry.getValue() == null) {
+          index.backingMap.remove(entry.getKey());
+        } else {
+          index.backingMap.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the section, or null if it is a delta which is corrupt
+   * @throws IOException if it is a snapshot which is corrupt or does not fit this cache
+   */
+  private Section readSection(DataInputStream in, long length, int checksum, boolean snapshot)
+      throws IOException {
+    CRC32 crc = new CRC32();
+    DataInputStream payload =
+        new DataInputStream(new CheckedInputStream(ByteStreams.limit(in, length), crc));
+    Section section = new Section();
+    try {
+      if (snapshot) {
+        readSnapshotHeader(payload);
+      }
+      int deserialisers = WritableUtils.readVInt(payload);
+      for (int i = 0; i < deserialisers; i++) {
+        section.deserialisers.put(WritableUtils.readVInt(payload),
+          WritableUtils.readVInt(payload));
+      }
+      List<String> names = new ArrayList<>();
+      for (byte record = payload.readByte(); record != END; record = payload.readByte()) {
+        if (record != PUT && record != REMOVE) {
+          throw new IOException("Unknown record type " + record);
+        }
+        BlockCacheKey key = readKey(payload, names, record == PUT);
+        section.entries.put(key, record == PUT ? readEntry(payload) : null);
+      }
+      if (payload.read() != -1) {
+        throw new IOException("Trailing bytes after the end of the section");
+      }
+    } catch (IOException | RuntimeException e) {
+      if (snapshot) {
+        throw new IOException("Failed reading snapshot of " + file, e);
+      }
+      LOG.warn("Failed reading delta of " + file, e);
+      return null;
+    }
+    if ((int) crc.getValue() != checksum) {
+      if (snapshot) {
+        throw new IOException("Checksum mismatch of snapshot of " + file);
+      }
+      return null;
+    }
+    return section;
+  }
+
+  private void readSnapshotHeader(DataInputStream in) throws IOException {
+    long persistedCapacity = in.readLong();
+    if (persistedCapacity != capacity) {
+      throw new IOException("Mismatched cache capacity " + persistedCapacity + ", expected "
+          + capacity);
+    }
+    String ioEngineClass = WritableUtils.readString(in);
+    if (!ioEngine.getClass().getName().equals(ioEngineClass)) {
+      throw new IOException("Class name for IO engine mismatch: " + ioEngineClass
+          + ", expected: " + ioEngine.getClass().getName());
+    }
+    int[] persistedBucketSizes = new int[WritableUtils.readVInt(in)];
+    for (int i = 0; i < persistedBucketSizes.length; i++) {
+      persistedBucketSizes[i] = WritableUtils.readVInt(in);
+    }
+    if (!Arrays.equals(persistedBucketSizes, bucketSizes)) {
+      LOG.info("Bucket sizes changed from " + Arrays.toString(persistedBucketSizes)
+          + ", blocks not fitting the new sizes are dropped");
+    }
+  }
+
+  private static BlockCacheKey readKey(DataInputStream in, List<String> names, boolean put)
+      throws IOException {
+    int name = WritableUtils.readVInt(in);
+    if (name == 0) {
+      names.add(WritableUtils.readString(in));
+      name = names.size();
+    }
+    String hfileName = names.get(name - 1);
+    long offset = WritableUtils.readVLong(in);
+    if (!put) {
+      return new BlockCacheKey(hfileName, offset);
+    }
+    boolean primary = in.readBoolean();
+    byte blockType = in.readByte();
+    return new BlockCacheKey(hfileName, offset, primary,
+        blockType < 0 ? null : BlockType.values()[blockType]);
+  }
+
+  private BucketEntry readEntry(DataInputStream in) throws IOException {
+    long offset = WritableUtils.readVLong(in);
+    int length = WritableUtils.readVInt(in);
+    byte deserialiserIndex = in.readByte();
+    BlockPriority priority = BlockPriority.values()[in.readByte()];
+    long accessCounter = WritableUtils.readVLong(in);
+    int checksum = in.readInt();
+    BucketEntry entry = BucketCache.newBucketEntry(ioEngine, offset, length, accessCounter,
+      priority == BlockPriority.MEMORY);
+    if (priority == BlockPriority.MULTI) {
+      entry.access(accessCounter);
+    }
+    entry.deserialiserIndex = deserialiserIndex;
+    entry.setChecksum(checksum, false);
+    return entry;
+  }
+}
@@ -34,6 +34,11 @@ public class BucketCacheStats extends CacheStats {
   private final LongAdder ioHitTime = new LongAdder();
   private static final long NANO_TIME = TimeUnit.MILLISECONDS.toNanos(1);
   private long lastLogTime = EnvironmentEdgeManager.currentTime();
+  /** Blocks recovered from the persisted index at startup, and the time it took in ms */
+  private volatile long recoveredBlockCount = 0;
+  private volatile long recoveryTime = 0;
+  /** Recovered blocks evicted as their data did not match their checksum */
+  private final LongAdder checksumFailureCount = new LongAdder();
 
   BucketCacheStats() {
     super("BucketCache");
@@ -42,7 +47,30 @@ public class BucketCacheStats extends CacheStats {
   @Override
   public String toString() {
     return super.toString() + ", ioHitsPerSecond=" + getIOHitsPerSecond() +
-      ", ioTimePerHit=" + getIOTimePerHit();
+      ", ioTimePerHit=" + getIOTimePerHit() + ", recoveredBlockCount=" + getRecoveredBlockCount() +
+      ", recoveryTime=" + getRecoveryTime() + ", checksumFailureCount=" +
+      getChecksumFailureCount();
+  }
+
+  void recovered(long blockCount, long timeInMillis) {
+    this.recoveredBlockCount = blockCount;
+    this.recoveryTime = timeInMillis;
+  }
+
+  void checksumFailed() {
+    checksumFailureCount.increment();
+  }
+
+  public long getRecoveredBlockCount() {
+    return recoveredBlockCount;
+  }
+
+  public long getRecoveryTime() {
+    return recoveryTime;
+  }
+
+  public long getChecksumFailureCount() {
+    return checksumFailureCount.sum();
   }
 
   public void ioHit(long time) {
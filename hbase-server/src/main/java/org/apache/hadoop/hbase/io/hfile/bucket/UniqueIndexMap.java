@@ -48,6 +48,13 @@ public final class UniqueIndexMap<T> implements Serializable {
     return nexti;
   }
 
+  // Restore a mapping read back from a persisted index.
+  void restore(int index, T parameter) {
+    mForwardMap.put(parameter, index);
+    mReverseMap.put(index, parameter);
+    mIndex.accumulateAndGet(index, Math::max);
+  }
+
   T unmap(int leni) {
     Integer len = Integer.valueOf(leni);
     assert mReverseMap.containsKey(len);
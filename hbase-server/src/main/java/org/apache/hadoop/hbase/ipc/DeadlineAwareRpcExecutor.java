@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Abortable;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * An {@link RpcExecutor} whose handlers all take calls from a single {@link DeadlineCallQueue},
+ * so calls run earliest client deadline first, and calls which can not complete in time anymore
+ * are dropped before a handler is spent on them.
+ * <p>
+ * Unlike {@link RWQueueRpcExecutor}, handlers are not split up between request types by a static
+ * ratio: any handler runs small calls, and all but
+ * {@code hbase.ipc.server.callqueue.edf.reserved.handlers} of them run large calls too, so gets
+ * are not stuck behind multi-MB multi puts.
+ */
+@InterfaceAudience.Private
+public class DeadlineAwareRpcExecutor extends RpcExecutor {
+
+  private final DeadlineCallQueue queue;
+
+  public DeadlineAwareRpcExecutor(final String name, final int handlerCount,
+      final int maxQueueLength, final PriorityFunction priority, final Configuration conf,
+      final Abortable abortable) {
+    super(name, handlerCount, CALL_QUEUE_TYPE_EDF_CONF_VALUE, maxQueueLength, priority, conf,
+        abortable);
+    initializeQueues(1);
+    this.queue = (DeadlineCallQueue) queues.get(0);
+  }
+
+  @Override
+  protected Handler getHandler(String name, double handlerFailureThreshhold,
+      BlockingQueue<CallRunner> q, AtomicInteger activeHandlerCount) {
+    return new DeadlineHandler(name, handlerFailureThreshhold, q, activeHandlerCount);
+  }
+
+  @Override
+  public boolean dispatch(final CallRunner callTask) throws InterruptedException {
+    // that means we can overflow by at most <num reader> size (5), that's ok
+    if (queue.size() >= currentQueueLimit) {
+      return false;
+    }
+    return queue.offer(callTask);
+  }
+
+  /**
+   * @return the number of queued calls which are large calls
+   */
+  public int getLargeCallQueueLength() {
+    return queue.getLargeCallQueueLength();
+  }
+
+  class DeadlineHandler extends Handler {
+
+    // the last call taken was a large one, which completed once we are back for the next one
+    private boolean runningLargeCall = false;
+
+    DeadlineHandler(String name, double handlerFailureThreshhold, BlockingQueue<CallRunner> q,
+        AtomicInteger activeHandlerCount) {
+      super(name, handlerFailureThreshhold, q, activeHandlerCount);
+    }
+
+    @Override
+    protected CallRunner getCallRunner() throws InterruptedException {
+      if (runningLargeCall) {
+        runningLargeCall = false;
+        queue.largeCallDone();
+      }
+      CallRunner cr = queue.take();
+      runningLargeCall = queue.isLarge(cr);
+      return cr;
+    }
+  }
+}
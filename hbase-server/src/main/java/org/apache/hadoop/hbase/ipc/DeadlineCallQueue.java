@@ -0,0 +1,398 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A bounded call queue handing out calls earliest deadline first.
+ * <p>
+ * The deadline of a call is the one the client sent along with its timeout, or, for calls without
+ * a timeout, the receive time plus a default timeout. Calls whose deadline passed while queued are
+ * dropped instead of being handed out, as the client does not wait for their response anymore.
+ * <p>
+ * Calls of at least {@code largeCallSize} bytes, like multi-MB multi puts, are kept apart from
+ * the small ones. Small calls always go first, and at most {@code maxRunningLargeCalls} large
+ * calls are handed out at once, so a burst of large calls can not occupy all the handlers while
+ * gets wait behind them. The handlers report back when they are done with a large call, see
+ * {@link #largeCallDone()}.
+ */
+@InterfaceAudience.Private
+public class DeadlineCallQueue extends AbstractQueue<CallRunner>
+    implements BlockingQueue<CallRunner> {
+
+  private static final class Entry implements Comparable<Entry> {
+    final CallRunner cr;
+    final long deadline;
+    // FIFO among calls of the same deadline
+    final long seqId;
+
+    Entry(CallRunner cr, long deadline, long seqId) {
+      this.cr = cr;
+      this.deadline = deadline;
+      this.seqId = seqId;
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      int c = Long.compare(deadline, o.deadline);
+      return c != 0 ? c : Long.compare(seqId, o.seqId);
+    }
+  }
+
+  private final int capacity;
+  private final long largeCallSize;
+  private final int maxRunningLargeCalls;
+  private final int defaultTimeout;
+  private final LongAdder numExpiredCallsDropped;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final PriorityQueue<Entry> smallCalls = new PriorityQueue<>();
+  private final PriorityQueue<Entry> largeCalls = new PriorityQueue<>();
+  private int runningLargeCalls = 0;
+  private long seqId = 0;
+
+  public DeadlineCallQueue(int capacity, long largeCallSize, int maxRunningLargeCalls,
+      int defaultTimeout, LongAdder numExpiredCallsDropped) {
+    this.capacity = capacity;
+    this.largeCallSize = largeCallSize;
+    this.maxRunningLargeCalls = Math.max(1, maxRunningLargeCalls);
+    this.defaultTimeout = defaultTimeout;
+    this.numExpiredCallsDropped = numExpiredCallsDropped;
+  }
+
+  /**
+   * @return true if the call is handed out as a large one, in which case the handler must call
+   *         {@link #largeCallDone()} once it ran it
+   */
+  public boolean isLarge(CallRunner cr) {
+    return cr.getRpcCall().getSize() >= largeCallSize;
+  }
+
+  /**
+   * Tell the queue a large call handed out by it completed.
+   */
+  public void largeCallDone() {
+    lock.lock();
+    try {
+      runningLargeCalls--;
+      if (!largeCalls.isEmpty()) {
+        notEmpty.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static boolean isExpired(RpcCall call, long now) {
+    return call.getDeadline() < now;
+  }
+
+  /**
+   * Drops the call if it expired while being read.
+   * @return true if the call was dropped, and must be accepted without being queued
+   */
+  private boolean dropIfExpired(CallRunner cr) {
+    if (!isExpired(cr.getRpcCall(), EnvironmentEdgeManager.currentTime())) {
+      return false;
+    }
+    numExpiredCallsDropped.increment();
+    cr.drop();
+    return true;
+  }
+
+  private long deadlineOf(CallRunner cr) {
+    RpcCall call = cr.getRpcCall();
+    long deadline = call.getDeadline();
+    return deadline == Long.MAX_VALUE ? call.getReceiveTime() + defaultTimeout : deadline;
+  }
+
+  private boolean isFull() {
+    return smallCalls.size() + largeCalls.size() >= capacity;
+  }
+
+  /**
+   * Must be called with the lock held, and the queue not full.
+   */
+  private void enqueue(CallRunner cr, long deadline, boolean large) {
+    (large ? largeCalls : smallCalls).offer(new Entry(cr, deadline, seqId++));
+    notEmpty.signal();
+  }
+
+  @Override
+  public boolean offer(CallRunner cr) {
+    if (dropIfExpired(cr)) {
+      return true;
+    }
+    long deadline = deadlineOf(cr);
+    boolean large = isLarge(cr);
+    lock.lock();
+    try {
+      if (isFull()) {
+        return false;
+      }
+      enqueue(cr, deadline, large);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove the expired calls from the head of the given queue. As the queue is ordered by
+   * deadline, all expired calls are at its head, except for those without a timeout which never
+   * expire.
+   */
+  private void removeExpired(PriorityQueue<Entry> calls, long now, List<CallRunner> expired) {
+    for (Entry e; (e = calls.peek()) != null && e.deadline < now;) {
+      if (!isExpired(e.cr.getRpcCall(), now)) {
+        return;
+      }
+      calls.poll();
+      expired.add(e.cr);
+    }
+  }
+
+  /**
+   * Must be called with the lock held.
+   * @return the next call which may be handed out, or null if there is none
+   */
+  private CallRunner dequeue(List<CallRunner> expired) {
+    long now = EnvironmentEdgeManager.currentTime();
+    removeExpired(smallCalls, now, expired);
+    removeExpired(largeCalls, now, expired);
+    Entry e = smallCalls.poll();
+    if (e == null && runningLargeCalls < maxRunningLargeCalls) {
+      e = largeCalls.poll();
+      if (e != null) {
+        runningLargeCalls++;
+      }
+    }
+    if (e != null && (!smallCalls.isEmpty() || !largeCalls.isEmpty())) {
+      // let another consumer take the rest, an offer signals only one of them
+      notEmpty.signal();
+    }
+    if (e != null || !expired.isEmpty()) {
+      notFull.signalAll();
+    }
+    return e == null ? null : e.cr;
+  }
+
+  private void drop(List<CallRunner> expired) {
+    for (CallRunner cr : expired) {
+      numExpiredCallsDropped.increment();
+      cr.drop();
+    }
+  }
+
+  @Override
+  public CallRunner poll() {
+    List<CallRunner> expired = new ArrayList<>(0);
+    lock.lock();
+    try {
+      return dequeue(expired);
+    } finally {
+      lock.unlock();
+      drop(expired);
+    }
+  }
+
+  @Override
+  public CallRunner take() throws InterruptedException {
+    for (;;) {
+      List<CallRunner> expired = new ArrayList<>(0);
+      CallRunner cr;
+      lock.lockInterruptibly();
+      try {
+        // do not hold back the responses of the dropped calls while waiting
+        while ((cr = dequeue(expired)) == null && expired.isEmpty()) {
+          notEmpty.await();
+        }
+      } finally {
+        lock.unlock();
+        drop(expired);
+      }
+      if (cr != null) {
+        return cr;
+      }
+    }
+  }
+
+  @Override
+  public CallRunner poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    List<CallRunner> expired = new ArrayList<>(0);
+    lock.lockInterruptibly();
+    try {
+      CallRunner cr;
+      while ((cr = dequeue(expired)) == null && nanos > 0) {
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return cr;
+    } finally {
+      lock.unlock();
+      drop(expired);
+    }
+  }
+
+  @Override
+  public CallRunner peek() {
+    lock.lock();
+    try {
+      Entry e = smallCalls.peek();
+      if (e == null) {
+        e = largeCalls.peek();
+      }
+      return e == null ? null : e.cr;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(CallRunner cr) throws InterruptedException {
+    if (dropIfExpired(cr)) {
+      return;
+    }
+    long deadline = deadlineOf(cr);
+    boolean large = isLarge(cr);
+    lock.lockInterruptibly();
+    try {
+      while (isFull()) {
+        notFull.await();
+      }
+      enqueue(cr, deadline, large);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(CallRunner cr, long timeout, TimeUnit unit) throws InterruptedException {
+    if (dropIfExpired(cr)) {
+      return true;
+    }
+    long deadline = deadlineOf(cr);
+    boolean large = isLarge(cr);
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (isFull()) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(cr, deadline, large);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Math.max(0, capacity - size());
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    lock.lock();
+    try {
+      int n = 0;
+      for (Entry e; n < maxElements && (e = smallCalls.poll()) != null; n++) {
+        c.add(e.cr);
+      }
+      for (Entry e; n < maxElements && (e = largeCalls.poll()) != null; n++) {
+        c.add(e.cr);
+      }
+      if (n > 0) {
+        notFull.signalAll();
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return an iterator over a snapshot of the queued calls, in no particular order
+   */
+  @Override
+  public Iterator<CallRunner> iterator() {
+    List<CallRunner> calls;
+    lock.lock();
+    try {
+      calls = new ArrayList<>(size());
+      for (Entry e : smallCalls) {
+        calls.add(e.cr);
+      }
+      for (Entry e : largeCalls) {
+        calls.add(e.cr);
+      }
+    } finally {
+      lock.unlock();
+    }
+    return calls.iterator();
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return smallCalls.size() + largeCalls.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of queued calls of at least the large call size
+   */
+  public int getLargeCallQueueLength() {
+    lock.lock();
+    try {
+      return largeCalls.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
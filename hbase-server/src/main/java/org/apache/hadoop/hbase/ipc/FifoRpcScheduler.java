@@ -143,6 +143,16 @@ public class FifoRpcScheduler extends RpcScheduler {
     return 0;
   }
 
+  @Override
+  public long getNumVirtualThreadPinnedEvents() {
+    return 0;
+  }
+
+  @Override
+  public long getNumExpiredCallsDropped() {
+    return 0;
+  }
+
   @Override
   public int getWriteQueueLength() {
     return 0;
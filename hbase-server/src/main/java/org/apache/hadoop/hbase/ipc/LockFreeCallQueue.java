@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A bounded call queue whose {@link #offer(CallRunner)} and {@link #poll()} never take a lock, so
+ * the readers dispatching calls and the handlers taking them do not contend with each other.
+ * <p>
+ * Blocking consumers, see {@link #take()}, wait on a condition, and producers only take its lock
+ * when some consumer is waiting. {@link WorkStealingRpcExecutor} does not block on the queue at
+ * all. {@link #put(CallRunner)} is not expected to be used by call queues and just backs off while
+ * the queue is full.
+ */
+@InterfaceAudience.Private
+public class LockFreeCallQueue extends AbstractQueue<CallRunner>
+    implements BlockingQueue<CallRunner> {
+
+  private static final long PUT_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final Queue<CallRunner> calls = new ConcurrentLinkedQueue<>();
+  // counts the calls offered and not yet polled, ConcurrentLinkedQueue#size is O(n)
+  private final AtomicInteger count = new AtomicInteger();
+  private final int capacity;
+
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+
+  public LockFreeCallQueue(int capacity) {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public boolean offer(CallRunner cr) {
+    if (cr == null) {
+      throw new NullPointerException();
+    }
+    for (;;) {
+      int c = count.get();
+      if (c >= capacity) {
+        return false;
+      }
+      if (count.compareAndSet(c, c + 1)) {
+        break;
+      }
+    }
+    calls.offer(cr);
+    if (waiters.get() > 0) {
+      lock.lock();
+      try {
+        notEmpty.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public CallRunner poll() {
+    CallRunner cr = calls.poll();
+    if (cr != null) {
+      count.decrementAndGet();
+    }
+    return cr;
+  }
+
+  @Override
+  public CallRunner peek() {
+    return calls.peek();
+  }
+
+  @Override
+  public void put(CallRunner cr) throws InterruptedException {
+    while (!offer(cr)) {
+      LockSupport.parkNanos(PUT_BACKOFF_NANOS);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  @Override
+  public boolean offer(CallRunner cr, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(cr)) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(PUT_BACKOFF_NANOS);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public CallRunner take() throws InterruptedException {
+    CallRunner cr = poll();
+    if (cr != null) {
+      return cr;
+    }
+    lock.lockInterruptibly();
+    // register before polling again, so an offer either is seen here or sees us waiting
+    waiters.incrementAndGet();
+    try {
+      while ((cr = poll()) == null) {
+        notEmpty.await();
+      }
+      return cr;
+    } finally {
+      waiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner poll(long timeout, TimeUnit unit) throws InterruptedException {
+    CallRunner cr = poll();
+    if (cr != null) {
+      return cr;
+    }
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    waiters.incrementAndGet();
+    try {
+      while ((cr = poll()) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return cr;
+    } finally {
+      waiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Math.max(0, capacity - count.get());
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    for (CallRunner cr; n < maxElements && (cr = poll()) != null; n++) {
+      c.add(cr);
+    }
+    return n;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (calls.remove(o)) {
+      count.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<CallRunner> iterator() {
+    final Iterator<CallRunner> it = calls.iterator();
+    return new Iterator<CallRunner>() {
+
+      private CallRunner last;
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public CallRunner next() {
+        last = it.next();
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        LockFreeCallQueue.this.remove(last);
+        last = null;
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return count.get();
+  }
+}
@@ -86,6 +86,14 @@ public class MetricsHBaseServer {
     source.queuedAndProcessedCall(totalTime);
   }
 
+  void rdmaReaderParked() {
+    source.rdmaReaderParked();
+  }
+
+  void rdmaReadyConnections(int count) {
+    source.rdmaReadyConnections(count);
+  }
+
   public void exception(Throwable throwable) {
     source.exception();
 
@@ -98,6 +98,22 @@ public class MetricsHBaseServerWrapperImpl implements MetricsHBaseServerWrapper
     return server.getScheduler().getNumLifoModeSwitches();
   }
 
+  @Override
+  public long getNumVirtualThreadPinnedEvents() {
+    if (!isServerStarted() || this.server.getScheduler() == null) {
+      return 0;
+    }
+    return server.getScheduler().getNumVirtualThreadPinnedEvents();
+  }
+
+  @Override
+  public long getNumExpiredCallsDropped() {
+    if (!isServerStarted() || this.server.getScheduler() == null) {
+      return 0;
+    }
+    return server.getScheduler().getNumExpiredCallsDropped();
+  }
+
   @Override
   public int getWriteQueueLength() {
     if (!isServerStarted() || this.server.getScheduler() == null) {
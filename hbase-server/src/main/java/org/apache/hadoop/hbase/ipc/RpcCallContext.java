@@ -82,6 +82,17 @@ public interface RpcCallContext {
 
   boolean isRetryImmediatelySupported();
 
+  /**
+   * Hand over the release of memory the response may still reference, like a cached block whose
+   * cells are sent without a copy, so it is released once the response has been sent.
+   * @param release releases the memory
+   * @return false if the response does not reference such memory, the caller then releases it
+   *         right away
+   */
+  default boolean releaseWhenSent(Runnable release) {
+    return false;
+  }
+
   /**
    * The size of response cells that have been accumulated so far.
    * This along with the corresponding increment call is used to ensure that multi's or
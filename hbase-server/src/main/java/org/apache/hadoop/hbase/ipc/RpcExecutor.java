@@ -67,6 +67,16 @@ public abstract class RpcExecutor {
   public static final String CALL_QUEUE_TYPE_CODEL_CONF_VALUE = "codel";
   public static final String CALL_QUEUE_TYPE_DEADLINE_CONF_VALUE = "deadline";
   public static final String CALL_QUEUE_TYPE_FIFO_CONF_VALUE = "fifo";
+  /**
+   * If set to 'steal', uses {@link WorkStealingRpcExecutor}: FIFO lock-free queues whose handlers
+   * steal calls from each other's queues when their own is empty.
+   */
+  public static final String CALL_QUEUE_TYPE_STEAL_CONF_VALUE = "steal";
+  /**
+   * If set to 'edf', uses {@link DeadlineAwareRpcExecutor}: one queue handing out calls earliest
+   * client deadline first, dropping the expired ones and keeping large calls off some handlers.
+   */
+  public static final String CALL_QUEUE_TYPE_EDF_CONF_VALUE = "edf";
   public static final String CALL_QUEUE_TYPE_CONF_KEY = "hbase.ipc.server.callqueue.type";
   public static final String CALL_QUEUE_TYPE_CONF_DEFAULT = CALL_QUEUE_TYPE_FIFO_CONF_VALUE;
 
@@ -79,8 +89,20 @@ public abstract class RpcExecutor {
   public static final int CALL_QUEUE_CODEL_DEFAULT_INTERVAL = 100;
   public static final double CALL_QUEUE_CODEL_DEFAULT_LIFO_THRESHOLD = 0.8;
 
+  // These 2 are only used by EDF executor
+  /** Requests of at least this many bytes are large calls, e.g. big multi puts */
+  public static final String CALL_QUEUE_EDF_LARGE_CALL_SIZE =
+      "hbase.ipc.server.callqueue.edf.large.call.size";
+  /** Handlers which never run large calls, so small calls get through while large ones pile up */
+  public static final String CALL_QUEUE_EDF_RESERVED_HANDLERS =
+      "hbase.ipc.server.callqueue.edf.reserved.handlers";
+
+  public static final long CALL_QUEUE_EDF_DEFAULT_LARGE_CALL_SIZE = 1024 * 1024;
+  public static final float CALL_QUEUE_EDF_DEFAULT_RESERVED_HANDLERS_FACTOR = 0.1f;
+
   private LongAdder numGeneralCallsDropped = new LongAdder();
   private LongAdder numLifoModeSwitches = new LongAdder();
+  private LongAdder numExpiredCallsDropped = new LongAdder();
 
   protected final int numCallQueues;
   protected final List<BlockingQueue<CallRunner>> queues;
@@ -139,6 +161,23 @@ public abstract class RpcExecutor {
       queueInitArgs = new Object[] { maxQueueLength, codelTargetDelay, codelInterval,
           codelLifoThreshold, numGeneralCallsDropped, numLifoModeSwitches };
       queueClass = AdaptiveLifoCoDelCallQueue.class;
+    } else if (isEdfQueueType(callQueueType)) {
+      this.name += ".EDF";
+      long largeCallSize = conf.getLong(CALL_QUEUE_EDF_LARGE_CALL_SIZE,
+        CALL_QUEUE_EDF_DEFAULT_LARGE_CALL_SIZE);
+      int reservedHandlers = conf.getInt(CALL_QUEUE_EDF_RESERVED_HANDLERS, Math.max(1,
+        Math.round(this.handlerCount * CALL_QUEUE_EDF_DEFAULT_RESERVED_HANDLERS_FACTOR)));
+      // leave at least one handler for large calls
+      reservedHandlers = Math.max(0, Math.min(this.handlerCount - 1, reservedHandlers));
+      int defaultTimeout = conf.getInt(HConstants.HBASE_RPC_TIMEOUT_KEY,
+        HConstants.DEFAULT_HBASE_RPC_TIMEOUT);
+      queueInitArgs = new Object[] { maxQueueLength, largeCallSize,
+          this.handlerCount - reservedHandlers, defaultTimeout, numExpiredCallsDropped };
+      queueClass = DeadlineCallQueue.class;
+    } else if (isStealQueueType(callQueueType)) {
+      this.name += ".Steal";
+      queueInitArgs = new Object[] { maxQueueLength };
+      queueClass = LockFreeCallQueue.class;
     } else {
       this.name += ".Fifo";
       queueInitArgs = new Object[] { maxQueueLength };
@@ -319,32 +358,41 @@ public abstract class RpcExecutor {
     private void run(CallRunner cr) {
       MonitoredRPCHandler status = RpcServer.getStatus();
       cr.setStatus(status);
-      try {
-        this.activeHandlerCount.incrementAndGet();
-        cr.run();
-      } catch (Throwable e) {
-        if (e instanceof Error) {
-          int failedCount = failedHandlerCount.incrementAndGet();
-          if (this.handlerFailureThreshhold >= 0
-              && failedCount > handlerCount * this.handlerFailureThreshhold) {
-            String message = "Number of failed RpcServer handler runs exceeded threshhold "
-                + this.handlerFailureThreshhold + "; reason: " + StringUtils.stringifyException(e);
-            if (abortable != null) {
-              abortable.abort(message, e);
-            } else {
-              LOG.error("Error but can't abort because abortable is null: "
-                  + StringUtils.stringifyException(e));
-              throw e;
-            }
+      runCallRunner(cr, handlerFailureThreshhold, activeHandlerCount);
+    }
+  }
+
+  /**
+   * Run the call on the current thread, counting it as an active handler. Aborts the server when
+   * too many runs failed with an {@link Error}.
+   */
+  protected void runCallRunner(CallRunner cr, double handlerFailureThreshhold,
+      AtomicInteger activeHandlerCount) {
+    try {
+      activeHandlerCount.incrementAndGet();
+      cr.run();
+    } catch (Throwable e) {
+      if (e instanceof Error) {
+        int failedCount = failedHandlerCount.incrementAndGet();
+        if (handlerFailureThreshhold >= 0
+            && failedCount > handlerCount * handlerFailureThreshhold) {
+          String message = "Number of failed RpcServer handler runs exceeded threshhold "
+              + handlerFailureThreshhold + "; reason: " + StringUtils.stringifyException(e);
+          if (abortable != null) {
+            abortable.abort(message, e);
           } else {
-            LOG.warn("Handler errors " + StringUtils.stringifyException(e));
+            LOG.error("Error but can't abort because abortable is null: "
+                + StringUtils.stringifyException(e));
+            throw e;
           }
         } else {
-          LOG.warn("Handler  exception " + StringUtils.stringifyException(e));
+          LOG.warn("Handler errors " + StringUtils.stringifyException(e));
         }
-      } finally {
-        this.activeHandlerCount.decrementAndGet();
+      } else {
+        LOG.warn("Handler  exception " + StringUtils.stringifyException(e));
       }
+    } finally {
+      activeHandlerCount.decrementAndGet();
     }
   }
 
@@ -431,6 +479,14 @@ public abstract class RpcExecutor {
     return callQueueType.equals(CALL_QUEUE_TYPE_FIFO_CONF_VALUE);
   }
 
+  public static boolean isStealQueueType(final String callQueueType) {
+    return callQueueType.equals(CALL_QUEUE_TYPE_STEAL_CONF_VALUE);
+  }
+
+  public static boolean isEdfQueueType(final String callQueueType) {
+    return callQueueType.equals(CALL_QUEUE_TYPE_EDF_CONF_VALUE);
+  }
+
   public long getNumGeneralCallsDropped() {
     return numGeneralCallsDropped.longValue();
   }
@@ -439,6 +495,10 @@ public abstract class RpcExecutor {
     return numLifoModeSwitches.longValue();
   }
 
+  public long getNumExpiredCallsDropped() {
+    return numExpiredCallsDropped.longValue();
+  }
+
   public int getActiveHandlerCount() {
     return activeHandlerCount.get();
   }
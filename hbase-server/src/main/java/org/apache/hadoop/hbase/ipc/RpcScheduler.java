@@ -93,6 +93,18 @@ public abstract class RpcScheduler {
    */
   public abstract long getNumLifoModeSwitches();
 
+  /**
+   * If calls run on virtual threads, retrieves the number of times a virtual thread pinned its
+   * carrier thread; returns 0 otherwise.
+   */
+  public abstract long getNumVirtualThreadPinnedEvents();
+
+  /**
+   * If the general queue drops calls by deadline, retrieves the number of calls dropped as their
+   * client deadline passed while queued; returns 0 otherwise.
+   */
+  public abstract long getNumExpiredCallsDropped();
+
   /** Retrieves length of the write queue for metrics when use RWQueueRpcExecutor. */
   public abstract int getWriteQueueLength();
 
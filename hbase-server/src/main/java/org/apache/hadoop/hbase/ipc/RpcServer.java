@@ -212,6 +212,20 @@ public abstract class RpcServer implements RpcServerInterface,
   // We make this to be 1/6th of the pool buffer size.
   protected final int minSizeForReservoirUse;
 
+  /**
+   * If true, off-heap cells of cached blocks are not copied into the response cell block; the
+   * response references the block memory and the blocks are held until the response is sent.
+   */
+  public static final String ZERO_COPY_RESPONSE = "hbase.ipc.server.response.zerocopy";
+  public static final boolean DEFAULT_ZERO_COPY_RESPONSE = false;
+  /** Smaller cells are still copied, sending many tiny buffers costs more than the copy */
+  public static final String ZERO_COPY_MIN_CELL_SIZE =
+      "hbase.ipc.server.response.zerocopy.min.cell.size";
+  public static final int DEFAULT_ZERO_COPY_MIN_CELL_SIZE = 1024;
+  // Cells of at least this size are sent without a copy. Integer.MAX_VALUE when disabled, which
+  // it is without a reservoir for the rest of the cell block.
+  protected final int minCellSizeForZeroCopy;
+
   protected volatile boolean allowFallbackToSimpleAuth;
 
   /**
@@ -288,6 +302,10 @@ public abstract class RpcServer implements RpcServerInterface,
       reservoir = null;
       this.minSizeForReservoirUse = Integer.MAX_VALUE;// reservoir itself not in place.
     }
+    this.minCellSizeForZeroCopy =
+        reservoir != null && conf.getBoolean(ZERO_COPY_RESPONSE, DEFAULT_ZERO_COPY_RESPONSE)
+            ? conf.getInt(ZERO_COPY_MIN_CELL_SIZE, DEFAULT_ZERO_COPY_MIN_CELL_SIZE)
+            : Integer.MAX_VALUE;
     this.server = server;
     this.services = services;
     this.bindAddress = bindAddress;
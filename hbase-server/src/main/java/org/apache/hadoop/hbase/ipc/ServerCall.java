@@ -87,6 +87,11 @@ abstract class ServerCall<T extends ServerRpcConnection> implements RpcCall, Rpc
   protected final InetAddress remoteAddress;
   protected RpcCallback rpcCallback;
 
+  // Releases of the memory the response references, see releaseWhenSent. Run once it is sent.
+  private List<Runnable> releasesWhenSent;
+  // true while the callback runs for a response referencing memory it does not own
+  private boolean acceptsReleases = false;
+
   private long responseCellSize = 0;
   private long responseBlockSize = 0;
   // cumulative size of serialized exceptions
@@ -141,6 +146,16 @@ abstract class ServerCall<T extends ServerRpcConnection> implements RpcCall, Rpc
       this.cellBlockStream.releaseResources();
       this.cellBlockStream = null;
     }
+    if (this.releasesWhenSent != null) {
+      for (Runnable release : this.releasesWhenSent) {
+        try {
+          release.run();
+        } catch (RuntimeException e) {
+          RpcServer.LOG.warn("Exception while releasing memory referenced by the response", e);
+        }
+      }
+      this.releasesWhenSent = null;
+    }
     // If the call was run successfuly, we might have already returned the BB
     // back to pool. No worries..Then inputCellBlock will be null
     cleanup();
@@ -206,7 +221,19 @@ abstract class ServerCall<T extends ServerRpcConnection> implements RpcCall, Rpc
       List<ByteBuffer> cellBlock = null;
       int cellBlockSize = 0;
 
-        if (this.reservoir != null) {
+        if (this.reservoir != null
+            && this.connection.rpcServer.minCellSizeForZeroCopy != Integer.MAX_VALUE
+            && ZeroCopyCellBlockStream.canSlice(this.connection.codec,
+              this.connection.compressionCodec)) {
+          ZeroCopyCellBlockStream stream = ZeroCopyCellBlockStream.build(this.connection.codec,
+            cells, this.reservoir, this.connection.rpcServer.minCellSizeForZeroCopy);
+          if (stream != null) {
+            this.cellBlockStream = stream;
+            cellBlock = stream.getByteBuffers();
+            cellBlockSize = stream.size();
+            this.acceptsReleases = stream.hasSlices();
+          }
+        } else if (this.reservoir != null) {
           this.cellBlockStream = this.cellBlockBuilder.buildCellBlockStream(this.connection.codec,
             this.connection.compressionCodec, cells, this.reservoir);
           if (this.cellBlockStream != null) {
@@ -263,13 +290,35 @@ abstract class ServerCall<T extends ServerRpcConnection> implements RpcCall, Rpc
     // Once a response message is created and set to this.response, this Call can be treated as
     // done. The Responder thread will do the n/w write of this message back to client.
     if (this.rpcCallback != null) {
+      RpcCall prevCall = RpcServer.CurCall.get();
+      if (this.acceptsReleases) {
+        // so the blocks released by the callback find this call, see releaseWhenSent
+        RpcServer.CurCall.set(this);
+      }
       try {
         this.rpcCallback.run();
       } catch (Exception e) {
         // Don't allow any exception here to kill this handler thread.
         RpcServer.LOG.warn("Exception while running the Rpc Callback.", e);
+      } finally {
+        if (this.acceptsReleases) {
+          RpcServer.CurCall.set(prevCall);
+        }
       }
     }
+    this.acceptsReleases = false;
+  }
+
+  @Override
+  public synchronized boolean releaseWhenSent(Runnable release) {
+    if (!this.acceptsReleases) {
+      return false;
+    }
+    if (this.releasesWhenSent == null) {
+      this.releasesWhenSent = new ArrayList<>();
+    }
+    this.releasesWhenSent.add(release);
+    return true;
   }
 
   static void setExceptionResponse(Throwable t, String errorMsg,
@@ -76,12 +76,23 @@ public class SimpleRpcScheduler extends RpcScheduler implements ConfigurationObs
       RpcExecutor.CALL_QUEUE_TYPE_CONF_DEFAULT);
     float callqReadShare = conf.getFloat(RWQueueRpcExecutor.CALL_QUEUE_READ_SHARE_CONF_KEY, 0);
 
-    if (callqReadShare > 0) {
+    if (conf.getBoolean(VirtualThreadRpcExecutor.VIRTUAL_THREADS_CONF_KEY,
+      VirtualThreadRpcExecutor.DEFAULT_VIRTUAL_THREADS)) {
+      callExecutor = new VirtualThreadRpcExecutor("default.VT", handlerCount, maxQueueLength,
+        priority, conf, server);
+    } else if (callqReadShare > 0) {
       // at least 1 read handler and 1 write handler
       callExecutor = new RWQueueRpcExecutor("default.RWQ", Math.max(2, handlerCount),
         maxQueueLength, priority, conf, server);
     } else {
-      if (RpcExecutor.isFifoQueueType(callQueueType) || RpcExecutor.isCodelQueueType(callQueueType)) {
+      if (RpcExecutor.isEdfQueueType(callQueueType)) {
+        callExecutor = new DeadlineAwareRpcExecutor("default.EDF", handlerCount, maxQueueLength,
+            priority, conf, server);
+      } else if (RpcExecutor.isStealQueueType(callQueueType)) {
+        callExecutor = new WorkStealingRpcExecutor("default.WSQ", handlerCount, maxQueueLength,
+            priority, conf, server);
+      } else if (RpcExecutor.isFifoQueueType(callQueueType) ||
+          RpcExecutor.isCodelQueueType(callQueueType)) {
         callExecutor = new FastPathBalancedQueueRpcExecutor("default.FPBQ", handlerCount,
             maxQueueLength, priority, conf, server);
       } else {
@@ -204,6 +215,17 @@ public class SimpleRpcScheduler extends RpcScheduler implements ConfigurationObs
     return callExecutor.getNumLifoModeSwitches();
   }
 
+  @Override
+  public long getNumVirtualThreadPinnedEvents() {
+    return callExecutor instanceof VirtualThreadRpcExecutor ?
+        VirtualThreadRpcExecutor.getNumPinnedEvents() : 0;
+  }
+
+  @Override
+  public long getNumExpiredCallsDropped() {
+    return callExecutor.getNumExpiredCallsDropped();
+  }
+
   @Override
   public int getWriteQueueLength() {
     return callExecutor.getWriteQueueLength();
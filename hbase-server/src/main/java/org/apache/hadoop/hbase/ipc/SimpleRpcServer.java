@@ -29,6 +29,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -84,7 +85,7 @@ import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFacto
  */
 @InterfaceAudience.LimitedPrivate({HBaseInterfaceAudience.CONFIG})
 public class SimpleRpcServer extends RpcServer {
-  private  RdmaNative rdma =null;
+  private RdmaTransport rdma = null;
 
       //TODO isRdma get from conf
       
@@ -93,6 +94,8 @@ public class SimpleRpcServer extends RpcServer {
   protected int rdmaPort;//rdma listener port
   protected InetSocketAddress address;            // inet address we listen on
   private int readThreads;                        // number of read threads
+  // queries read from one rdma connection and not yet responded to
+  private int rdmaMaxInflightPerConnection;
 
 
   protected int socketSendBufferSize;
@@ -394,14 +397,12 @@ public class SimpleRpcServer extends RpcServer {
           conf.getInt("hbase.ipc.server.read.connection-queue.size", 100);
       // Create a new server socket and set to non blocking mode
 
-      if(port!=16020){//only for regionserver
+      if (port != RdmaTransportFactory.getRdmaRpcPort(conf)) {//only for regionserver
         LOG.info("drop for the not regionserver"+name);
         return;
       }
-      //LOG.warn("Server Loading the rdmalib");
-      rdma= new RdmaNative();
-      //LOG.warn("Server bind! the rdmalib");
-      rdma.rdmaBind(rdmaport);
+      rdma = RdmaTransportFactory.createTransport(conf, reservoir);
+      rdma.bind(rdmaport);
 
       readers = new Reader[readThreads];
       // Why this executor thing? Why not like hadoop just start up all the threads? I suppose it
@@ -425,13 +426,25 @@ public class SimpleRpcServer extends RpcServer {
     }
 
 
+    /**
+     * Polls the connections it owns for readable queries. The transport has no selector to block
+     * on, so when a whole pass over the connections finds nothing the reader backs off through
+     * its {@link RdmaIdleStrategy}: it spins, then yields, then parks. Handing over a new
+     * connection or stopping the server wakes it up. Every pass starts at a different connection
+     * and reads at most one query per connection, so a busy client can not starve the others.
+     * Clients may pipeline queries; a connection with too many calls in progress is skipped until
+     * their responses went out.
+     */
     private class Reader implements Runnable {
       final private LinkedBlockingQueue<SimpleServerRdmaRpcConnection> pendingConnections;
-      //private final Selector readSelector;
+      // only accessed by the reader thread
+      private final List<SimpleServerRdmaRpcConnection> connections = new ArrayList<>();
+      private final RdmaIdleStrategy idleStrategy;
+      private int startIndex = 0;
 
       Reader() throws IOException {
         this.pendingConnections = new LinkedBlockingQueue<>(readerPendingConnectionQueueLength);
-        //this.readSelector = Selector.open();
+        this.idleStrategy = new RdmaIdleStrategy(conf);
       }
 
       @Override
@@ -440,19 +453,25 @@ public class SimpleRpcServer extends RpcServer {
           doRunLoop();
       }
 
+      void addConnection(SimpleServerRdmaRpcConnection conn) throws InterruptedException {
+        pendingConnections.put(conn);
+        idleStrategy.wakeup();
+      }
+
+      void wakeup() {
+        idleStrategy.wakeup();
+      }
+
       private synchronized void doRunLoop() {
         while (running) {
           try {
-            //LOG.warn("RDMA reader running");
-            Iterator<SimpleServerRdmaRpcConnection> iter = pendingConnections.iterator();
-            while (iter.hasNext()) {
-              //LOG.warn("RDMA reader running");
-              SimpleServerRdmaRpcConnection  rdma_conn= iter.next();
-                if (rdma_conn.isReadable()) {
-                  doRead(rdma_conn);
-                  //closeRdmaConnection(rdma_conn);
-                  //iter.remove();//just close it
-                }
+            pendingConnections.drainTo(connections);
+            int served = doPass();
+            if (served > 0) {
+              metrics.rdmaReadyConnections(served);
+              idleStrategy.reset();
+            } else if (idleStrategy.idle()) {
+              metrics.rdmaReaderParked();
             }
           } catch (InterruptedException e) {
             if (running) {                      // unexpected -- log it
@@ -462,13 +481,64 @@ public class SimpleRpcServer extends RpcServer {
             LOG.error(getName() + ": CancelledKeyException in RDMA Reader", e);
           } 
         }
+        for (SimpleServerRdmaRpcConnection c : connections) {
+          closeRdmaConnection(c);
+        }
+        connections.clear();
       }
-      void doRead(SimpleServerRdmaRpcConnection c) throws InterruptedException {
-        //SimpleRpcServer.LOG.warn("RDMA  reader doRead");
-        int count;
-        if (c == null) {
-          return;
+
+      /**
+       * Go over all connections once, starting at a rotating index.
+       * @return the number of connections a query was read from
+       */
+      private int doPass() throws InterruptedException {
+        int size = connections.size();
+        if (size == 0) {
+          return 0;
         }
+        int served = 0;
+        boolean removed = false;
+        for (int k = 0; k < size; k++) {
+          int idx = (startIndex + k) % size;
+          SimpleServerRdmaRpcConnection rdma_conn = connections.get(idx);
+          if (!rdma_conn.hasInflightCapacity(rdmaMaxInflightPerConnection)) {
+            // leave the pipelined queries in the transport until handlers catch up
+            continue;
+          }
+          boolean readable;
+          try {
+            readable = rdma_conn.isReadable();
+          } catch (IOException e) {
+            LOG.debug("Caught exception while polling RDMA connection, closing it", e);
+            closeRdmaConnection(rdma_conn);
+            connections.set(idx, null);
+            removed = true;
+            continue;
+          }
+          if (readable) {
+            served++;
+            if (!doRead(rdma_conn)) {
+              connections.set(idx, null);
+              removed = true;
+            }
+          } else if (rdma_conn.rdmaconn.isClosed()) {
+            closeRdmaConnection(rdma_conn);
+            connections.set(idx, null);
+            removed = true;
+          }
+        }
+        if (removed) {
+          connections.removeIf(c -> c == null);
+        }
+        startIndex = connections.isEmpty() ? 0 : (startIndex + 1) % connections.size();
+        return served;
+      }
+
+      /**
+       * @return false if the connection failed and has been closed
+       */
+      boolean doRead(SimpleServerRdmaRpcConnection c) throws InterruptedException {
+        int count;
         c.setLastContact(System.currentTimeMillis());
         try {
           count = c.readAndProcess();
@@ -483,10 +553,10 @@ public class SimpleRpcServer extends RpcServer {
         }
         if (count < 0) {
           closeRdmaConnection(c);
-          c = null;
-        } else {
-          c.setLastContact(System.currentTimeMillis());
+          return false;
         }
+        c.setLastContact(System.currentTimeMillis());
+        return true;
       }
 
     }
@@ -499,12 +569,22 @@ public class SimpleRpcServer extends RpcServer {
       SimpleRpcServer.LOG.info("RDMA listener start and bind at port "+ rdmaPort+" this rpcserver is at port "+port);
       int i=1;
       while (running) {
-        SimpleServerRdmaRpcConnection rdma_conn=getRdmaConnection(rdmaPort,System.currentTimeMillis());
-        this.readers[i].pendingConnections.add(rdma_conn);
-      SimpleRpcServer.LOG.info("RDMA listener add a conn to reader "+ i);
-      //   synchronized (this.readers[i].lock) {  should we add a lock????
-      //     this.readers[i].lock.notify();
-      // }
+        SimpleServerRdmaRpcConnection rdma_conn;
+        try {
+          rdma_conn = getRdmaConnection(rdma.accept(), System.currentTimeMillis());
+        } catch (IOException e) {
+          if (running) {
+            LOG.warn(getName() + ": RDMA accept failed", e);
+          }
+          continue;
+        }
+        try {
+          this.readers[i].addConnection(rdma_conn);
+        } catch (InterruptedException e) {
+          closeRdmaConnection(rdma_conn);
+          continue;
+        }
+        SimpleRpcServer.LOG.info("RDMA listener add a conn to reader "+ i);
       i++;
       i = i % readThreads ;//add in a round robin way  
 
@@ -516,7 +596,19 @@ public class SimpleRpcServer extends RpcServer {
 
     synchronized void doStop() {
       SimpleRpcServer.LOG.warn("RDMA listener doStop");
-      readPool.shutdownNow();
+      if (rdma != null) {
+        try {
+          rdma.close();
+        } catch (IOException e) {
+          LOG.warn(getName() + ": failed to close RDMA transport", e);
+        }
+      }
+      if (readPool != null) {
+        for (Reader reader : readers) {
+          reader.wakeup();
+        }
+        readPool.shutdownNow();
+      }
     }
 
 
@@ -540,13 +632,14 @@ public class SimpleRpcServer extends RpcServer {
     super(server, name, services, bindAddress, conf, scheduler, reservoirEnabled);
     this.socketSendBufferSize = 0;
     this.readThreads = conf.getInt("hbase.ipc.server.read.threadpool.size", 10);
+    this.rdmaMaxInflightPerConnection = conf.getInt("hbase.ipc.server.rdma.max.inflight", 64);
     this.purgeTimeout = conf.getLong("hbase.ipc.client.call.purge.timeout",
       2 * HConstants.DEFAULT_HBASE_RPC_TIMEOUT);
 
     // Start the listener here and let it bind to the port
     listener = new Listener(name);
     this.port = listener.getAddress().getPort();
-    if(this.port==16020){
+    if (this.port == RdmaTransportFactory.getRdmaRpcPort(conf)) {
       this.rdmaPort=port+1;
         rdmalistener = new RdmaListener(name, rdmaPort);
       
@@ -567,17 +660,19 @@ public class SimpleRpcServer extends RpcServer {
   protected SimpleServerRpcConnection getConnection(SocketChannel channel, long time) {
     return new SimpleServerRpcConnection(this, channel, time);
   }
-  protected SimpleServerRdmaRpcConnection getRdmaConnection(int port, long time) {
-    return new SimpleServerRdmaRpcConnection(this,port, time);
+  protected SimpleServerRdmaRpcConnection getRdmaConnection(
+      RdmaTransport.ServerConnection rdmaconn, long time) {
+    return new SimpleServerRdmaRpcConnection(this, rdmaconn, rdmaPort, time);
   }
   protected void closeConnection(SimpleServerRpcConnection connection) {
     connectionManager.close(connection); 
   }
 
   protected static void closeRdmaConnection(SimpleServerRdmaRpcConnection connection) {
-    if(!connection.rdmaconn.close())
-    {
-      LOG.warn("RDMA close failed L583");
+    try {
+      connection.rdmaconn.close();
+    } catch (IOException e) {
+      LOG.warn("RDMA close failed", e);
     }
   }
 
@@ -600,7 +695,7 @@ public class SimpleRpcServer extends RpcServer {
     HBasePolicyProvider.init(conf, authManager);
     responder.start();
     listener.start();
-    if(this.port==16020){
+    if (this.port == RdmaTransportFactory.getRdmaRpcPort(conf)) {
       rdmalistener.start();
     }
     
@@ -619,8 +714,10 @@ public class SimpleRpcServer extends RpcServer {
     }
     listener.interrupt();
     listener.doStop();
-    rdmalistener.interrupt();
-    rdmalistener.doStop();
+    if (rdmalistener != null) {
+      rdmalistener.interrupt();
+      rdmalistener.doStop();
+    }
     responder.interrupt();
     scheduler.stop();
     notifyAll();
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
@@ -59,11 +60,8 @@ import org.apache.hadoop.hbase.util.Pair;
 class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
 
 
-  private RdmaNative rdma= new RdmaNative();
-  public  RdmaNative.RdmaServerConnection rdmaconn;//the core of the rdmaconn class TODO init  these two
+  final RdmaTransport.ServerConnection rdmaconn;
   private ByteBuff data;
-  private byte[] arr;
-  private int oldDataLength;
   private ByteBuffer dataLengthBuffer;
   private ByteBuffer preambleBuffer;
   private ByteBuffer rbuf;
@@ -80,26 +78,28 @@ class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
   final Lock responseWriteLock = new ReentrantLock();
   long lastSentTime = -1L;
 
-  public SimpleServerRdmaRpcConnection(SimpleRpcServer rpcServer,int port,
-      long lastContact) {
+  public SimpleServerRdmaRpcConnection(SimpleRpcServer rpcServer,
+      RdmaTransport.ServerConnection rdmaconn, int port, long lastContact) {
     super(rpcServer);
+    this.rdmaconn = rdmaconn;
     this.lastContact = lastContact;
     this.connectionHeaderRead=false;
     this.data = null;
     this.dataLengthBuffer = ByteBuffer.allocate(4);
-    this.oldDataLength=0;
-    this.arr=null;
     
-    this.hostAddress ="0.0.0.0";// rpcServer.getHostAddr();//tmp fix
-    try {
-      this.addr=InetAddress.getByName(this.hostAddress);
-    } catch (Exception e) {
-      SimpleRpcServer.LOG.warn("RDMARpcConn init addr failed.");
+    this.addr = rdmaconn.getRemoteAddress();
+    if (this.addr == null) {
+      this.hostAddress = "0.0.0.0";
+      try {
+        this.addr = InetAddress.getByName(this.hostAddress);
+      } catch (Exception e) {
+        SimpleRpcServer.LOG.warn("RDMARpcConn init addr failed.");
+      }
+    } else {
+      this.hostAddress = this.addr.getHostAddress();
     }
     this.remotePort = port;
-    do this.rdmaconn = rdma.rdmaBlockedAccept();
-         while (this.rdmaconn==null);  
-    SimpleRpcServer.LOG.info("RDMARpcConn rdmaAccept <- "+rdmaconn.getClientIp().toString());
+    SimpleRpcServer.LOG.info("RDMARpcConn rdmaAccept <- " + this.hostAddress);
   }
 
   public void setLastContact(long lastContact) {
@@ -114,10 +114,15 @@ class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
   boolean isIdle() {
     return rpcCount.sum() == 0;
   }
+
+  /* Return true if fewer than maxInflight rpcs are outstanding */
+  boolean hasInflightCapacity(int maxInflight) {
+    return rpcCount.sum() < maxInflight;
+  }
 // if it is readable , then just read into the rbuf
-  boolean isReadable(){
-    if (rdmaconn.isQueryReadable()) {
-      this.rbuf=rdmaconn.readQuery();
+  boolean isReadable() throws IOException {
+    if (rdmaconn.isReadable()) {
+      this.rbuf=rdmaconn.read();
       this.rbuf.rewind();
       //this.rdma_in=new DataInputStream(new ByteArrayInputStream(rbuf));
       //SimpleRpcServer.LOG.debug("RDMARpcConn isReadable <- rbuf("
@@ -205,55 +210,75 @@ class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
       int dataLength = dataLengthBuffer.getInt();
       //SimpleRpcServer.LOG.debug("RDMARpcConn readAndProcess() -> dataLength "+ dataLength);
       int realDataLength=rbuf.remaining();
+      boolean withConnectionHeader = realDataLength > dataLength;
 
-      if(oldDataLength<dataLength | data==null){
-        SimpleRpcServer.LOG.error("init data! ");
-      initByteBuffToReadInto(dataLength);
-      this.arr = new byte[dataLength];
-      this.oldDataLength=dataLength;
-      }
-      incRpcCount();
-
-      //SimpleRpcServer.LOG.debug("RDMARpcConn readAndProcess() -> rbuf remaining " + rbuf.remaining());
-      
-      rbuf.get(arr);
-      data.put(arr, 0, dataLength);// debug
-      
-      //SimpleRpcServer.LOG.debug("RDMARpcConn readAndProcess() -> rbuf -> "+
-      //StandardCharsets.UTF_8.decode(ByteBuffer.wrap(arr)).toString());
-      if (realDataLength>dataLength)
-      {
+      if (withConnectionHeader) {
         connectionHeaderRead=false;//force it to read the head
+      } else {
+        // the connection header in front of the first query is no rpc, nobody would decrement
+        incRpcCount();
       }
+      readIntoData(dataLength);
       process();
 
-
-      if (realDataLength>dataLength) {
-        //SimpleRpcServer.LOG.info("RDMARpcConn readAndProcess() read header done, continue to remain");
-        //if (!connectionHeaderRead)// force drop the conn header after first rbuf
-        //  SimpleRpcServer.LOG.warn("RDMARpcConn readAndProcess() header not read !?");
-        
-        int trueDataLength = realDataLength - dataLength ;
-        if(oldDataLength<trueDataLength | data==null){
-          SimpleRpcServer.LOG.error("re init data! ");
-        initByteBuffToReadInto(trueDataLength);
-        arr = new byte[trueDataLength];
-        this.oldDataLength=trueDataLength;
-        }
-
+      if (withConnectionHeader) {
+        // the first query follows the connection header, drop its length
+        rbuf.position(rbuf.position() + 4);
         incRpcCount();
-        
-        rbuf.get(arr);//read the left things
-        data.put(arr, 4, trueDataLength - 4);//drop the first int
-        //SimpleRpcServer.LOG.warn("RDMARpcConn readAndProcess() -> rbuf -> "+
-          //      StandardCharsets.UTF_8.decode(ByteBuffer.wrap(arr)).toString());
+        readIntoData(rbuf.remaining());
         process();
-    }
+      }
     //SimpleRpcServer.LOG.info("RDMA readAndProcess done");
 
     return dataLength;//return what we've read if -1, we will close it
   }
 
+  /**
+   * Copy the next {@code length} bytes of rbuf into a new data buffer, taken from the reservoir
+   * when the request is large enough, the way the socket connection reads from its channel.
+   */
+  private void readIntoData(int length) throws IOException {
+    initByteBuffToReadInto(length);
+    ByteBuffer src = rbuf.duplicate();
+    src.limit(src.position() + length);
+    data.read(new QueryChannel(src));
+    rbuf.position(src.position());
+  }
+
+  /**
+   * Hands the bytes of a query buffer to {@link ByteBuff#read(ReadableByteChannel)}.
+   */
+  private static final class QueryChannel implements ReadableByteChannel {
+
+    private final ByteBuffer src;
+
+    QueryChannel(ByteBuffer src) {
+      this.src = src;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (!src.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(src.remaining(), dst.remaining());
+      ByteBuffer chunk = src.duplicate();
+      chunk.limit(chunk.position() + n);
+      dst.put(chunk);
+      src.position(chunk.position());
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
   // It creates the ByteBuff and CallCleanup and assign to Connection instance.
   private void initByteBuffToReadInto(int length) {
     // We create random on heap buffers are read into those when
@@ -294,16 +319,16 @@ class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
       dataLengthBuffer.clear(); // Clean for the next call
       data = null; // For the GC
       this.callCleanup = null;
-      this.oldDataLength=0;
     }
   }
 
   @Override
   public synchronized void close() {
     SimpleRpcServer.LOG.info("RDMARpcConn close() invoked.");
-    if(!rdmaconn.close())
-    {
-      SimpleRpcServer.LOG.warn("RDMARpcConn close() failed.");
+    try {
+      rdmaconn.close();
+    } catch (IOException e) {
+      SimpleRpcServer.LOG.warn("RDMARpcConn close() failed.", e);
     }
     //rdma.rdmaDestroyGlobal();
     data = null;
@@ -343,27 +368,12 @@ class SimpleServerRdmaRpcConnection extends ServerRpcConnection {
       //for (ByteBuffer var : buf.getBuffers()) {
         //SimpleRpcServer.LOG.info("buf length " +var.remaining());
       //}
-      byte[] sbuf =buf.getBytes();
-      ByteBuffer directbuf=ByteBuffer.allocateDirect(sbuf.length);
-      directbuf.put(sbuf);
-      //ByteBuffer directbuf=ByteBuffer.allocateDirect(length);
-      //ByteBuffer tmp = buf.concat(); //ByteBuffer.wrap(sbuf);
-      //directbuf.put(tmp);
-
-
-      //SimpleRpcServer.LOG.info("RDMARpcConn processResponse() -> try RDMAConn writeResponse()");
-      if (!conn.rdmaconn.writeResponse(directbuf)) {
-        error = true;
-        //SimpleRpcServer.LOG.warn("RDMARpcConn processResponse() -> writeResponse() -> failed");
-      } else {
-        error = false;
-        //directbuf.rewind();
-       // SimpleRpcServer.LOG.info("RDMARpcConn processResponse() -> writeResponse() -> done with length and content "+directbuf.remaining()+"  "+ StandardCharsets.UTF_8.decode(directbuf).toString());
-      }
+      // gathered by the transport, straight from the cell block buffers
+      conn.rdmaconn.write(buf.getBuffers());
+      error = false;
       //rdma_out.close();
     } catch (Exception e){
-      SimpleRpcServer.LOG.info("RDMARpcConn processResponse() !! EXCEPTION!");
-      e.printStackTrace();
+      SimpleRpcServer.LOG.info("RDMARpcConn processResponse() failed", e);
     }
 
     resp.done();
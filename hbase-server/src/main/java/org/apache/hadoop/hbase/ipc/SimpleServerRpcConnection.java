@@ -327,6 +327,10 @@ class SimpleServerRpcConnection extends ServerRpcConnection {
     disposeSasl();
     data = null;
     callCleanup = null;
+    // release the buffers and cached blocks held by the responses which will not be sent
+    for (RpcResponse resp; (resp = responseQueue.pollFirst()) != null;) {
+      resp.done();
+    }
     if (!channel.isOpen()) return;
     try {
       socket.shutdownOutput();
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Abortable;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.monitoring.MonitoredRPCHandler;
+import org.apache.hadoop.hbase.monitoring.TaskMonitor;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link RpcExecutor} which runs every call on a thread of its own instead of on a fixed pool
+ * of handlers, so calls blocked on HDFS reads, row locks or WAL syncs do not hold back the others.
+ * <p>
+ * The threads are virtual threads when the JVM has them (Java 21+), otherwise platform threads
+ * of an unbounded cached pool. At most {@code hbase.ipc.server.virtual.threads.max.concurrency}
+ * calls run at once; further calls wait in a FIFO queue bounded like the other call queues.
+ * <p>
+ * A virtual thread blocking inside a {@code synchronized} block pins its carrier thread. When JFR
+ * is available, such pinning is counted, see {@link #getNumPinnedEvents()}.
+ */
+@InterfaceAudience.Private
+public class VirtualThreadRpcExecutor extends RpcExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadRpcExecutor.class);
+
+  public static final String VIRTUAL_THREADS_CONF_KEY = "hbase.ipc.server.virtual.threads";
+  public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+  public static final String MAX_CONCURRENCY_CONF_KEY =
+      "hbase.ipc.server.virtual.threads.max.concurrency";
+  /** Default concurrency, as a multiple of the handler count */
+  public static final int DEFAULT_MAX_CONCURRENCY_PER_HANDLER = 10;
+  public static final String PINNED_THRESHOLD_CONF_KEY =
+      "hbase.ipc.server.virtual.threads.pinned.threshold";
+  public static final long DEFAULT_PINNED_THRESHOLD = 20;
+
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final LongAdder PINNED_EVENTS = new LongAdder();
+  private static boolean pinnedMonitorStarted = false;
+
+  private final BlockingQueue<CallRunner> queue;
+  private final Semaphore permits;
+  private final int maxConcurrency;
+  // ExecutorService shutting down the platform threads, null for virtual threads
+  private final ExecutorService platformPool;
+  private final ThreadFactory threadFactory;
+  private final double handlerFailureThreshhold;
+  private final AtomicInteger activeCount = new AtomicInteger(0);
+  // one status per running call, reused so TaskMonitor does not collect one per call
+  private final Queue<MonitoredRPCHandler> statuses = new ConcurrentLinkedQueue<>();
+  private volatile boolean stopped = false;
+
+  public VirtualThreadRpcExecutor(final String name, final int handlerCount,
+      final int maxQueueLength, final PriorityFunction priority, final Configuration conf,
+      final Abortable abortable) {
+    super(name, handlerCount, CALL_QUEUE_TYPE_FIFO_CONF_VALUE, maxQueueLength, priority, conf,
+        abortable);
+    this.maxConcurrency = Math.max(1, conf.getInt(MAX_CONCURRENCY_CONF_KEY,
+      handlerCount * DEFAULT_MAX_CONCURRENCY_PER_HANDLER));
+    this.permits = new Semaphore(maxConcurrency);
+    this.currentQueueLimit = maxQueueLength;
+    this.queue = new LockFreeCallQueue(Math.max(maxQueueLength, DEFAULT_CALL_QUEUE_SIZE_HARD_LIMIT));
+    this.queues.add(queue);
+    this.handlerFailureThreshhold = conf.getDouble(
+      HConstants.REGION_SERVER_HANDLER_ABORT_ON_ERROR_PERCENT,
+      HConstants.DEFAULT_REGION_SERVER_HANDLER_ABORT_ON_ERROR_PERCENT);
+    String threadPrefix = "RpcServer." + getName() + ".call";
+    ThreadFactory virtual = Threads.newVirtualThreadFactory(threadPrefix);
+    if (virtual != null) {
+      this.threadFactory = virtual;
+      this.platformPool = null;
+      startPinnedMonitor(conf.getLong(PINNED_THRESHOLD_CONF_KEY, DEFAULT_PINNED_THRESHOLD));
+    } else {
+      LOG.warn("Virtual threads are not available in this JVM, running calls on platform threads");
+      this.threadFactory = null;
+      this.platformPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<>(), Threads.newDaemonThreadFactory(threadPrefix));
+    }
+    LOG.info("{} runs up to {} calls at once on {} threads", getName(), maxConcurrency,
+      virtual != null ? "virtual" : "platform");
+  }
+
+  /**
+   * Count the pinning of carrier threads through a JFR event stream, which is looked up by
+   * reflection as it does not exist before Java 14.
+   */
+  private static synchronized void startPinnedMonitor(long thresholdMs) {
+    if (pinnedMonitorStarted) {
+      return;
+    }
+    try {
+      Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+      Object stream = streamClass.getConstructor().newInstance();
+      Object settings = streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+      Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class)
+          .invoke(settings, Duration.ofMillis(thresholdMs));
+      Consumer<Object> onPinned = event -> {
+        PINNED_EVENTS.increment();
+        LOG.debug("Virtual thread pinned its carrier: {}", event);
+      };
+      streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT,
+        onPinned);
+      streamClass.getMethod("setReuse", boolean.class).invoke(stream, true);
+      streamClass.getMethod("startAsync").invoke(stream);
+      pinnedMonitorStarted = true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.info("Can not count pinned virtual threads", e);
+    }
+  }
+
+  /**
+   * @return the number of times, process wide, a virtual thread pinned its carrier thread for
+   *         longer than {@code hbase.ipc.server.virtual.threads.pinned.threshold} ms
+   */
+  public static long getNumPinnedEvents() {
+    return PINNED_EVENTS.sum();
+  }
+
+  @Override
+  protected void startHandlers(final int port) {
+    // no handlers, every call gets a thread of its own
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    super.stop();
+    if (platformPool != null) {
+      platformPool.shutdownNow();
+    }
+  }
+
+  @Override
+  public boolean dispatch(final CallRunner callTask) throws InterruptedException {
+    // that means we can overflow by at most <num reader> size (5), that's ok
+    if (stopped || queue.size() >= currentQueueLimit || !queue.offer(callTask)) {
+      return false;
+    }
+    runQueuedCalls();
+    return true;
+  }
+
+  /**
+   * Start a thread for every queued call a permit is left for. Called after queuing a call and
+   * after a call completes, so no call stays queued while permits are free.
+   */
+  private void runQueuedCalls() {
+    while (!stopped && !queue.isEmpty()) {
+      if (!permits.tryAcquire()) {
+        return;
+      }
+      CallRunner cr = queue.poll();
+      if (cr == null) {
+        // someone else took it, check again as a call may have been queued meanwhile
+        permits.release();
+        continue;
+      }
+      Runnable task = () -> run(cr);
+      try {
+        if (platformPool != null) {
+          platformPool.execute(task);
+        } else {
+          threadFactory.newThread(task).start();
+        }
+      } catch (RuntimeException e) {
+        // rejected by a stopping pool
+        permits.release();
+        LOG.warn("Failed to start a thread for a call", e);
+        cr.drop();
+      }
+    }
+  }
+
+  private void run(CallRunner cr) {
+    MonitoredRPCHandler status = statuses.poll();
+    if (status == null) {
+      status = TaskMonitor.get().createRPCStatus("RpcServer." + getName() + ".call");
+      status.pause("Waiting for a call");
+    }
+    try {
+      cr.setStatus(status);
+      runCallRunner(cr, handlerFailureThreshhold, activeCount);
+    } finally {
+      statuses.offer(status);
+      permits.release();
+      runQueuedCalls();
+    }
+  }
+
+  /**
+   * @return the number of calls which may run at once
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  @Override
+  public int getActiveHandlerCount() {
+    return activeCount.get();
+  }
+}
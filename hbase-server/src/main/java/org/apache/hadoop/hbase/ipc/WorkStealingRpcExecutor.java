@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Abortable;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * An {@link RpcExecutor} whose handlers steal calls from the queues of other handler groups.
+ * <p>
+ * Like {@link BalancedQueueRpcExecutor}, every queue is served by its own group of handlers, but
+ * the queues are {@link LockFreeCallQueue}s and a handler whose queue is empty takes calls from
+ * the other queues before going idle. A slow call therefore only holds up its own handler, not the
+ * calls queued behind it. Calls go to the shorter of two randomly chosen queues.
+ * <p>
+ * Idle handlers wait on a stack, as in {@link FastPathBalancedQueueRpcExecutor}, and each dispatch
+ * wakes the most recently idled one, which keeps the hot handlers busy.
+ */
+@InterfaceAudience.Private
+public class WorkStealingRpcExecutor extends RpcExecutor {
+
+  private final Deque<StealingHandler> idleHandlers = new ConcurrentLinkedDeque<>();
+  private final LongAdder stolenCalls = new LongAdder();
+
+  public WorkStealingRpcExecutor(final String name, final int handlerCount,
+      final int maxQueueLength, final PriorityFunction priority, final Configuration conf,
+      final Abortable abortable) {
+    super(name, handlerCount, CALL_QUEUE_TYPE_STEAL_CONF_VALUE, maxQueueLength, priority, conf,
+        abortable);
+    initializeQueues(this.numCallQueues);
+  }
+
+  @Override
+  protected Handler getHandler(String name, double handlerFailureThreshhold,
+      BlockingQueue<CallRunner> q, AtomicInteger activeHandlerCount) {
+    int index = 0;
+    while (queues.get(index) != q) {
+      index++;
+    }
+    return new StealingHandler(name, handlerFailureThreshhold, q, index, activeHandlerCount);
+  }
+
+  @Override
+  public boolean dispatch(final CallRunner callTask) throws InterruptedException {
+    BlockingQueue<CallRunner> queue = queues.get(nextQueue());
+    // that means we can overflow by at most <num reader> size (5), that's ok
+    if (queue.size() >= currentQueueLimit || !queue.offer(callTask)) {
+      return false;
+    }
+    wakeupIdleHandler();
+    return true;
+  }
+
+  private void wakeupIdleHandler() {
+    for (StealingHandler handler; (handler = idleHandlers.poll()) != null;) {
+      if (handler.wakeup()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the index of the shorter of two distinct random queues
+   */
+  private int nextQueue() {
+    if (numCallQueues == 1) {
+      return 0;
+    }
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    int a = rand.nextInt(numCallQueues);
+    int b = (a + 1 + rand.nextInt(numCallQueues - 1)) % numCallQueues;
+    return queues.get(a).size() <= queues.get(b).size() ? a : b;
+  }
+
+  /**
+   * @return the number of calls run by a handler of another queue than the one they were
+   *         dispatched to
+   */
+  public long getNumStolenCalls() {
+    return stolenCalls.sum();
+  }
+
+  class StealingHandler extends Handler {
+
+    private final int index;
+    // permits to wake up, may be left over from a wakeup which raced with finding a call
+    private final Semaphore semaphore = new Semaphore(0);
+    // true while this handler is on the idleHandlers stack
+    private final AtomicBoolean idle = new AtomicBoolean(false);
+
+    StealingHandler(String name, double handlerFailureThreshhold, BlockingQueue<CallRunner> q,
+        int index, AtomicInteger activeHandlerCount) {
+      super(name, handlerFailureThreshhold, q, activeHandlerCount);
+      this.index = index;
+    }
+
+    @Override
+    protected CallRunner getCallRunner() throws InterruptedException {
+      for (;;) {
+        CallRunner cr = pollAny();
+        if (cr != null) {
+          return cr;
+        }
+        if (idle.compareAndSet(false, true)) {
+          idleHandlers.push(this);
+        }
+        // a call dispatched before we were on the stack would not wake us up
+        cr = pollAny();
+        if (cr != null) {
+          if (idle.compareAndSet(true, false)) {
+            // leave the stack to the handlers which really are idle
+            idleHandlers.remove(this);
+          } else {
+            // a dispatch woke us up for a call we may not have taken, pass the wakeup on
+            wakeupIdleHandler();
+          }
+          return cr;
+        }
+        semaphore.acquire();
+      }
+    }
+
+    /**
+     * @return false if the handler was not idle anymore
+     */
+    boolean wakeup() {
+      if (!idle.compareAndSet(true, false)) {
+        return false;
+      }
+      semaphore.release();
+      return true;
+    }
+
+    /**
+     * Poll the own queue first, then the others starting with the next one.
+     */
+    private CallRunner pollAny() {
+      CallRunner cr = q.poll();
+      if (cr != null) {
+        return cr;
+      }
+      for (int i = 1; i < numCallQueues; i++) {
+        cr = queues.get((index + i) % numCallQueues).poll();
+        if (cr != null) {
+          stolenCalls.increment();
+          return cr;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
+import org.apache.hadoop.hbase.io.ByteBufferListOutputStream;
+import org.apache.hadoop.hbase.io.ByteBufferPool;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A cell block stream which, next to the bytes written to it, takes slices of buffers it does not
+ * own, see {@link #writeSlice(ByteBuffer, int, int)}. {@link #getByteBuffers()} returns the
+ * written bytes and the slices in order, so the slices go to the socket without being copied.
+ * <p>
+ * {@link #build(Codec, CellScanner, ByteBufferPool, int)} uses it to send the
+ * cells of off-heap cached blocks as slices of the block memory. Whoever owns that memory must
+ * keep it until the response has been sent.
+ */
+@InterfaceAudience.Private
+class ZeroCopyCellBlockStream extends ByteBufferListOutputStream {
+
+  /** A slice, which goes after the bytes written so far to the buffer at {@code bufIndex} */
+  private static final class Cut {
+    final int bufIndex;
+    final int position;
+    final ByteBuffer slice;
+
+    Cut(int bufIndex, int position, ByteBuffer slice) {
+      this.bufIndex = bufIndex;
+      this.position = position;
+      this.slice = slice;
+    }
+  }
+
+  private final List<Cut> cuts = new ArrayList<>();
+  private int slicedSize = 0;
+  private List<ByteBuffer> buffers;
+
+  ZeroCopyCellBlockStream(ByteBufferPool pool) {
+    super(pool);
+  }
+
+  /**
+   * @return true if the codec writes a cell as its length followed by its KeyValue serialization,
+   *         uncompressed, so cells can be sliced from KeyValue serialized memory
+   */
+  static boolean canSlice(Codec codec, CompressionCodec compressor) {
+    return compressor == null && codec != null && (codec.getClass() == KeyValueCodec.class
+        || codec.getClass() == KeyValueCodecWithTags.class);
+  }
+
+  /**
+   * Encode the cells as the codec would, except for off-heap cells of cached blocks of at least
+   * {@code minSliceSize} bytes, which are sliced from the block.
+   * @param codec a codec {@link #canSlice(Codec, CompressionCodec)} is true for
+   * @return the stream, or null if there were no cells
+   */
+  static ZeroCopyCellBlockStream build(Codec codec, CellScanner cellScanner, ByteBufferPool pool,
+      int minSliceSize) throws IOException {
+    if (cellScanner == null) {
+      return null;
+    }
+    boolean withTags = codec.getClass() == KeyValueCodecWithTags.class;
+    ZeroCopyCellBlockStream stream = new ZeroCopyCellBlockStream(pool);
+    Codec.Encoder encoder = codec.getEncoder(stream);
+    while (cellScanner.advance()) {
+      Cell cell = cellScanner.current();
+      if (isSliceable(cell)) {
+        ByteBufferKeyValue kv = (ByteBufferKeyValue) cell;
+        int length = kv.getSerializedSize(withTags);
+        if (length >= minSliceSize) {
+          ByteBufferUtils.putInt(stream, length);
+          stream.writeSlice(kv.getBuffer(), kv.getOffset(), length);
+          continue;
+        }
+      }
+      encoder.write(cell);
+    }
+    encoder.flush();
+    if (stream.size() == 0) {
+      stream.releaseResources();
+      return null;
+    }
+    return stream;
+  }
+
+  /**
+   * Cells read from off-heap blocks are plain {@link ByteBufferKeyValue}s laid out in the block as
+   * in a KeyValue serialization. Memstore chunk cells are of a subclass, and their chunks are not
+   * held by the scanners until the response is sent, so they are copied.
+   */
+  private static boolean isSliceable(Cell cell) {
+    return cell.getClass() == ByteBufferKeyValue.class
+        && ((ByteBufferKeyValue) cell).getBuffer().isDirect();
+  }
+
+  /**
+   * Add {@code length} bytes of {@code buf} from {@code offset} to the stream, without copying
+   * them. The buffer content must not change until the stream bytes have been sent.
+   */
+  void writeSlice(ByteBuffer buf, int offset, int length) {
+    ByteBuffer dup = buf.duplicate();
+    dup.limit(offset + length);
+    dup.position(offset);
+    // slice so nothing can be written past the limit into the memory we do not own
+    cuts.add(new Cut(allBufs.size() - 1, curBuf.position(), dup.slice()));
+    slicedSize += length;
+  }
+
+  /**
+   * @return true if any slice was added, so the stream references memory it does not own
+   */
+  boolean hasSlices() {
+    return !cuts.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return super.size() + slicedSize;
+  }
+
+  /**
+   * @return the written bytes and the slices, in order. All but the last buffer are sliced to
+   *         their content, the last one may have room left after its limit if it was written to.
+   */
+  @Override
+  public List<ByteBuffer> getByteBuffers() {
+    if (buffers != null) {
+      return buffers;
+    }
+    List<ByteBuffer> written = super.getByteBuffers();
+    if (cuts.isEmpty()) {
+      buffers = written;
+      return buffers;
+    }
+    buffers = new ArrayList<>(written.size() + cuts.size() * 2);
+    int c = 0;
+    for (int i = 0; i < written.size(); i++) {
+      ByteBuffer b = written.get(i);
+      int start = 0;
+      for (; c < cuts.size() && cuts.get(c).bufIndex == i; c++) {
+        Cut cut = cuts.get(c);
+        if (cut.position > start) {
+          buffers.add(part(b, start, cut.position).slice());
+        }
+        buffers.add(cut.slice);
+        start = cut.position;
+      }
+      if (b.limit() > start) {
+        ByteBuffer tail = part(b, start, b.limit());
+        buffers.add(i == written.size() - 1 ? tail : tail.slice());
+      }
+    }
+    return buffers;
+  }
+
+  private static ByteBuffer part(ByteBuffer b, int start, int end) {
+    ByteBuffer dup = b.duplicate();
+    dup.limit(end);
+    dup.position(start);
+    return dup;
+  }
+
+  @Override
+  public void releaseResources() {
+    super.releaseResources();
+    cuts.clear();
+    buffers = null;
+  }
+}
@@ -183,6 +183,23 @@ public abstract class AbstractMemStore implements MemStore {
     return buf.toString();
   }
 
+  @Override
+  public long getMemStoreLABWastedBytes() {
+    long wasted = 0;
+    try {
+      for (Segment segment : getSegments()) {
+        MemStoreLAB memStoreLAB = segment.getMemStoreLAB();
+        if (memStoreLAB != null) {
+          wasted += memStoreLAB.getWastedBytes();
+        }
+      }
+    } catch (IOException e) {
+      // None of the memstores actually throws when listing its segments
+      return wasted;
+    }
+    return wasted;
+  }
+
   protected Configuration getConfiguration() {
     return conf;
   }
@@ -54,6 +54,9 @@ public abstract class Chunk {
   // indicates if the chunk is formed by ChunkCreator#MemstorePool
   private final boolean fromPool;
 
+  // The local cache of the pool the chunk was last taken by, see ChunkCreator#MemStoreChunkPool
+  int poolStripe = -1;
+
   /**
    * Create an uninitialized chunk. Note that memory is not allocated yet, so
    * this is cheap.
@@ -176,6 +179,14 @@ public abstract class Chunk {
         + (data.capacity() - nextFreeOffset.get());
   }
 
+  /**
+   * @return the bytes of this chunk which are not allocated yet
+   */
+  int getFreeBytes() {
+    int offset = this.nextFreeOffset.get();
+    return offset < 0 ? 0 : size - offset;
+  }
+
   @VisibleForTesting
   int getNextFreeOffset() {
     return this.nextFreeOffset.get();
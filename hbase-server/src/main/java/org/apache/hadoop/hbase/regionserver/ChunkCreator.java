@@ -27,6 +27,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.yetus.audience.InterfaceAudience;
@@ -82,13 +83,24 @@ public class ChunkCreator {
   private MemStoreChunkPool dataChunksPool;
   private int chunkSize;
   private MemStoreChunkPool indexChunksPool;
+  // Number of chunks in each per core cache of the pools
+  private final int localChunks;
 
   @VisibleForTesting
   ChunkCreator(int chunkSize, boolean offheap, long globalMemStoreSize, float poolSizePercentage,
                float initialCountPercentage, HeapMemoryManager heapMemoryManager,
                float indexChunkSizePercentage) {
+    this(chunkSize, offheap, globalMemStoreSize, poolSizePercentage, initialCountPercentage,
+        heapMemoryManager, indexChunkSizePercentage, MemStoreLAB.CHUNK_POOL_LOCAL_CHUNKS_DEFAULT);
+  }
+
+  @VisibleForTesting
+  ChunkCreator(int chunkSize, boolean offheap, long globalMemStoreSize, float poolSizePercentage,
+               float initialCountPercentage, HeapMemoryManager heapMemoryManager,
+               float indexChunkSizePercentage, int localChunks) {
     this.offheap = offheap;
     this.chunkSize = chunkSize; // in case pools are not allocated
+    this.localChunks = localChunks;
     initializePools(chunkSize, globalMemStoreSize, poolSizePercentage, indexChunkSizePercentage,
             initialCountPercentage, heapMemoryManager);
   }
@@ -126,12 +138,27 @@ public class ChunkCreator {
   public static ChunkCreator initialize(int chunkSize, boolean offheap, long globalMemStoreSize,
                                         float poolSizePercentage, float initialCountPercentage,
                                         HeapMemoryManager heapMemoryManager) {
+    return initialize(chunkSize, offheap, globalMemStoreSize, poolSizePercentage,
+        initialCountPercentage, heapMemoryManager, MemStoreLAB.CHUNK_POOL_LOCAL_CHUNKS_DEFAULT);
+  }
+
+  /**
+   * Initializes the instance of ChunkCreator
+   * @param localChunks the number of chunks in each per core cache in front of the pools, 0 for
+   *          no such caches
+   * @see #initialize(int, boolean, long, float, float, HeapMemoryManager)
+   */
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "LI_LAZY_INIT_STATIC",
+          justification = "Method is called by single thread at the starting of RS")
+  public static ChunkCreator initialize(int chunkSize, boolean offheap, long globalMemStoreSize,
+                                        float poolSizePercentage, float initialCountPercentage,
+                                        HeapMemoryManager heapMemoryManager, int localChunks) {
     if (instance != null) {
       return instance;
     }
     instance = new ChunkCreator(chunkSize, offheap, globalMemStoreSize, poolSizePercentage,
             initialCountPercentage, heapMemoryManager,
-            MemStoreLABImpl.INDEX_CHUNK_PERCENTAGE_DEFAULT);
+            MemStoreLABImpl.INDEX_CHUNK_PERCENTAGE_DEFAULT, localChunks);
     return instance;
   }
 
@@ -316,6 +343,12 @@ public class ChunkCreator {
    * MemStoreChunkPool caches a number of retired chunks for reusing, it could
    * decrease allocating bytes when writing, thereby optimizing the garbage
    * collection on JVM.
+   *
+   * In front of the shared queue of reclaimed chunks, each core has a small cache of chunks, so
+   * that the handlers do not all contend on the queue. A thread takes chunks from the cache of the
+   * stripe its id falls in, and a chunk goes back to the cache it was taken from. A chunk thus
+   * keeps being reused by the same threads, the ones which first touched its memory, which also
+   * keeps off heap chunks on the NUMA node of these threads under a first touch policy.
    */
   private  class MemStoreChunkPool implements HeapMemoryTuneObserver {
     private final int chunkSize;
@@ -323,6 +356,11 @@ public class ChunkCreator {
 
     // A queue of reclaimed chunks
     private final BlockingQueue<Chunk> reclaimedChunks;
+    // The per core caches of reclaimed chunks, stripe after stripe
+    private final AtomicReferenceArray<Chunk> localChunks;
+    private final int stripes;
+    private final int chunksPerStripe;
+    private final AtomicInteger localChunkCount = new AtomicInteger();
     private final float poolSizePercentage;
 
     /** Statistics thread schedule pool */
@@ -340,6 +378,9 @@ public class ChunkCreator {
       this.maxCount = maxCount;
       this.poolSizePercentage = poolSizePercentage;
       this.reclaimedChunks = new LinkedBlockingQueue<>();
+      this.chunksPerStripe = Math.max(0, ChunkCreator.this.localChunks);
+      this.stripes = chunksPerStripe == 0 ? 0 : Runtime.getRuntime().availableProcessors();
+      this.localChunks = new AtomicReferenceArray<>(stripes * chunksPerStripe);
       for (int i = 0; i < initialCount; i++) {
         Chunk chunk = createChunk(true, CompactingMemStore.IndexType.ARRAY_MAP, chunkSize);
         chunk.init();
@@ -367,7 +408,11 @@ public class ChunkCreator {
     }
 
     Chunk getChunk(CompactingMemStore.IndexType chunkIndexType) {
-      Chunk chunk = reclaimedChunks.poll();
+      int stripe = stripe();
+      Chunk chunk = pollLocal(stripe);
+      if (chunk == null) {
+        chunk = reclaimedChunks.poll();
+      }
       if (chunk != null) {
         chunk.reset();
         reusedChunkCount.increment();
@@ -384,10 +429,89 @@ public class ChunkCreator {
             break;
           }
         }
+        if (chunk == null) {
+          // All the chunks are created, take one idling in the cache of another core if any
+          chunk = stealLocal();
+          if (chunk != null) {
+            chunk.reset();
+            reusedChunkCount.increment();
+          }
+        }
+      }
+      if (chunk != null) {
+        chunk.poolStripe = stripe;
       }
       return chunk;
     }
 
+    private int stripe() {
+      return stripes == 0 ? -1 : (int) (Thread.currentThread().getId() % stripes);
+    }
+
+    private Chunk pollLocal(int stripe) {
+      if (stripe < 0 || localChunkCount.get() == 0) {
+        return null;
+      }
+      for (int i = stripe * chunksPerStripe, end = i + chunksPerStripe; i < end; i++) {
+        Chunk chunk = localChunks.get(i);
+        if (chunk != null && localChunks.compareAndSet(i, chunk, null)) {
+          localChunkCount.decrementAndGet();
+          return chunk;
+        }
+      }
+      return null;
+    }
+
+    private Chunk stealLocal() {
+      for (int stripe = 0; stripe < stripes; stripe++) {
+        Chunk chunk = pollLocal(stripe);
+        if (chunk != null) {
+          return chunk;
+        }
+      }
+      return null;
+    }
+
+    private boolean offerLocal(Chunk chunk) {
+      int stripe = chunk.poolStripe;
+      if (stripe < 0 || stripe >= stripes) {
+        return false;
+      }
+      for (int i = stripe * chunksPerStripe, end = i + chunksPerStripe; i < end; i++) {
+        if (localChunks.compareAndSet(i, null, chunk)) {
+          localChunkCount.incrementAndGet();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return the number of reclaimed chunks, in the queue or in the per core caches
+     */
+    int getPooledCount() {
+      return reclaimedChunks.size() + localChunkCount.get();
+    }
+
+    boolean contains(Chunk chunk) {
+      if (reclaimedChunks.contains(chunk)) {
+        return true;
+      }
+      for (int i = 0; i < localChunks.length(); i++) {
+        if (localChunks.get(i) == chunk) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void clear() {
+      reclaimedChunks.clear();
+      while (stealLocal() != null) {
+        // drained one more chunk
+      }
+    }
+
     int getChunkSize() {
       return chunkSize;
     }
@@ -398,9 +522,11 @@ public class ChunkCreator {
      * @param c
      */
     private void putbackChunks(Chunk c) {
-      int toAdd = this.maxCount - reclaimedChunks.size();
+      int toAdd = this.maxCount - getPooledCount();
       if (c.isFromPool() && c.size == chunkSize && toAdd > 0) {
-        reclaimedChunks.add(c);
+        if (!offerLocal(c)) {
+          reclaimedChunks.add(c);
+        }
       } else {
         // remove the chunk (that is not going to pool)
         // though it is initially from the pool or not
@@ -425,7 +551,7 @@ public class ChunkCreator {
         long reused = reusedChunkCount.sum();
         long total = created + reused;
         LOG.debug("{} stats (chunk size={}): current pool size={}, created chunk count={}, " +
-                "reused chunk count={}, reuseRatio={}", label, chunkSize, reclaimedChunks.size(),
+                "reused chunk count={}, reuseRatio={}", label, chunkSize, getPooledCount(),
             created, reused,
             (total == 0? "0": StringUtils.formatPercent((float)reused/(float)total,2)));
       }
@@ -458,10 +584,12 @@ public class ChunkCreator {
           LOG.info("{} max count for chunks decreased from {} to {}", this.label, this.maxCount,
               newMaxCount);
           this.maxCount = newMaxCount;
-          if (this.reclaimedChunks.size() > newMaxCount) {
+          if (getPooledCount() > newMaxCount) {
             synchronized (this) {
-              while (this.reclaimedChunks.size() > newMaxCount) {
-                this.reclaimedChunks.poll();
+              while (getPooledCount() > newMaxCount) {
+                if (this.reclaimedChunks.poll() == null && stealLocal() == null) {
+                  break;
+                }
               }
             }
           }
@@ -542,12 +670,12 @@ public class ChunkCreator {
     switch (chunkType) {
       case INDEX_CHUNK:
         if (indexChunksPool != null) {
-          return indexChunksPool.reclaimedChunks.size();
+          return indexChunksPool.getPooledCount();
         }
         break;
       case DATA_CHUNK:
         if (dataChunksPool != null) {
-          return dataChunksPool.reclaimedChunks.size();
+          return dataChunksPool.getPooledCount();
         }
         break;
       default:
@@ -565,9 +693,9 @@ public class ChunkCreator {
     }
 
     // chunks that are from pool will return true chunk reference not null
-    if (dataChunksPool != null && dataChunksPool.reclaimedChunks.contains(c)) {
+    if (dataChunksPool != null && dataChunksPool.contains(c)) {
       return true;
-    } else if (indexChunksPool != null && indexChunksPool.reclaimedChunks.contains(c)) {
+    } else if (indexChunksPool != null && indexChunksPool.contains(c)) {
       return true;
     }
     return false;
@@ -579,10 +707,10 @@ public class ChunkCreator {
   @VisibleForTesting
   void clearChunksInPool() {
     if (dataChunksPool != null) {
-      dataChunksPool.reclaimedChunks.clear();
+      dataChunksPool.clear();
     }
     if (indexChunksPool != null) {
-      indexChunksPool.reclaimedChunks.clear();
+      indexChunksPool.clear();
     }
   }
 
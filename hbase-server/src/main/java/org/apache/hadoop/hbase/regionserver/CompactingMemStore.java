@@ -63,6 +63,11 @@ public class CompactingMemStore extends AbstractMemStore {
   public static final String IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY =
       "hbase.memstore.inmemoryflush.threshold.factor";
   private static final double IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT = 0.014;
+  // Fraction of in-memory-flush size the per-cell overhead of the active segment (its skip list
+  // entries and cell objects) may reach before an in-memory flush flattens it
+  public static final String IN_MEMORY_FLUSH_OVERHEAD_FACTOR_KEY =
+      "hbase.memstore.inmemoryflush.overhead.factor";
+  private static final double IN_MEMORY_FLUSH_OVERHEAD_FACTOR_DEFAULT = 0.5;
 
   private static final Logger LOG = LoggerFactory.getLogger(CompactingMemStore.class);
   private HStore store;
@@ -71,6 +76,7 @@ public class CompactingMemStore extends AbstractMemStore {
   protected MemStoreCompactor compactor;
 
   private long inmemoryFlushSize;       // the threshold on active size for in-memory flush
+  private long inmemoryFlushOverhead;   // the threshold on active per-cell overhead
   private final AtomicBoolean inMemoryFlushInProgress = new AtomicBoolean(false);
 
   // inWalReplay is true while we are synchronously replaying the edits from WAL
@@ -96,7 +102,7 @@ public class CompactingMemStore extends AbstractMemStore {
       + 7 * ClassSize.REFERENCE     // Store, RegionServicesForStores, CompactionPipeline,
                                     // MemStoreCompactor, inMemoryFlushInProgress, allowCompaction,
                                     // indexType
-      + Bytes.SIZEOF_LONG           // inmemoryFlushSize
+      + 2 * Bytes.SIZEOF_LONG       // inmemoryFlushSize and inmemoryFlushOverhead
       + 2 * Bytes.SIZEOF_BOOLEAN    // compositeSnapshot and inWalReplay
       + 2 * ClassSize.ATOMIC_BOOLEAN// inMemoryFlushInProgress and allowCompaction
       + CompactionPipeline.DEEP_OVERHEAD + MemStoreCompactor.DEEP_OVERHEAD);
@@ -145,6 +151,22 @@ public class CompactingMemStore extends AbstractMemStore {
           IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT);
 
     inmemoryFlushSize = (long) (inmemoryFlushSize * factor);
+    // Only a flattened index gets rid of the per-cell overhead
+    if (indexType != IndexType.CSLM_MAP) {
+      inmemoryFlushOverhead = (long) (inmemoryFlushSize * conf.getDouble(
+          IN_MEMORY_FLUSH_OVERHEAD_FACTOR_KEY, IN_MEMORY_FLUSH_OVERHEAD_FACTOR_DEFAULT));
+    }
+  }
+
+  /**
+   * @return the heap taken by the active segment on top of the cell data: a skip list entry and
+   *         a cell object per cell. Flattening the segment into a CellArrayMap or CellChunkMap
+   *         replaces both with a flat index entry.
+   */
+  private long getActiveOverhead() {
+    MutableSegment localActive = this.active;
+    return localActive.getHeapSize() + localActive.getOffHeapSize() - localActive.getDataSize()
+        - MutableSegment.DEEP_OVERHEAD;
   }
 
   /**
@@ -443,7 +465,9 @@ public class CompactingMemStore extends AbstractMemStore {
 
   @VisibleForTesting
   protected boolean shouldFlushInMemory() {
-    if (this.active.getDataSize() > inmemoryFlushSize) { // size above flush threshold
+    if (this.active.getDataSize() > inmemoryFlushSize // size above flush threshold
+        // or many small cells, better kept in a flat index than in the skip list
+        || (inmemoryFlushOverhead > 0 && getActiveOverhead() > inmemoryFlushOverhead)) {
       if (inWalReplay) {  // when replaying edits from WAL there is no need in in-memory flush
         return false;     // regardless the size
       }
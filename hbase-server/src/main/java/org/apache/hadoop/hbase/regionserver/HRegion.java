@@ -164,6 +164,7 @@ import org.apache.hadoop.hbase.util.NonceKey;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.ServerRegionReplicaUtil;
 import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.wal.BalancedGroupingStrategy;
 import org.apache.hadoop.hbase.wal.WAL;
 import org.apache.hadoop.hbase.wal.WALEdit;
 import org.apache.hadoop.hbase.wal.WALFactory;
@@ -320,7 +321,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   final LongAdder compactionsQueued = new LongAdder();
   final LongAdder flushesQueued = new LongAdder();
 
-  private final WAL wal;
+  // Not final: with the balanced WAL grouping strategy the region moves to the WAL of another group
+  // when it flushes all its stores, see getRehomedWAL
+  private volatile WAL wal;
+  // The WAL the region moved away from, until none of the region's edits in it are unflushed. Set
+  // before wal is switched and cleared after, so that whoever reads wal then previousWAL sees all
+  // the WALs holding unflushed edits of the region
+  private volatile WAL previousWAL;
   private final HRegionFileSystem fs;
   protected final Configuration conf;
   private final Configuration baseConf;
@@ -1292,6 +1299,18 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return memStoreSizing.getOffHeapSize();
   }
 
+  /**
+   * @return the bytes of the MSLAB chunks of the memstores which will never hold cells. The
+   *         memstore sizes do not count them, though they are only freed by a flush.
+   */
+  public long getMemStoreLABWastedBytes() {
+    long wasted = 0;
+    for (HStore store : stores.values()) {
+      wasted += store.getMemStoreLABWastedBytes();
+    }
+    return wasted;
+  }
+
   /** @return store services for this region, to access services required by store level needs */
   public RegionServicesForStores getRegionServicesForStores() {
     return regionServicesForStores;
@@ -1878,10 +1897,9 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
   RegionLoad.Builder setCompleteSequenceId(RegionLoad.Builder regionLoadBldr) {
     long lastFlushOpSeqIdLocal = this.lastFlushOpSeqId;
-    byte[] encodedRegionName = this.getRegionInfo().getEncodedNameAsBytes();
     regionLoadBldr.clearStoreCompleteSequenceId();
     for (byte[] familyName : this.stores.keySet()) {
-      long earliest = this.wal.getEarliestMemStoreSeqNum(encodedRegionName, familyName);
+      long earliest = getEarliestMemStoreSeqNum(familyName);
       // Subtract - 1 to go earlier than the current oldest, unflushed edit in memstore; this will
       // give us a sequence id that is for sure flushed. We want edit replay to start after this
       // sequence id in this region. If NO_SEQNUM, use the regions maximum flush id.
@@ -2285,8 +2303,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
    * returns true which will make a lot of flush requests.
    */
   boolean shouldFlushStore(HStore store) {
-    long earliest = this.wal.getEarliestMemStoreSeqNum(getRegionInfo().getEncodedNameAsBytes(),
-      store.getColumnFamilyDescriptor().getName()) - 1;
+    long earliest = getEarliestMemStoreSeqNum(store.getColumnFamilyDescriptor().getName()) - 1;
     if (earliest > 0 && earliest + flushPerChanges < mvcc.getReadPoint()) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Flush column family " + store.getColumnFamilyName() + " of " +
@@ -2453,6 +2470,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     // We have to take an update lock during snapshot, or else a write could end up in both snapshot
     // and memstore (makes it difficult to do atomic rows then)
     status.setStatus("Obtaining lock to block concurrent updates");
+    WAL newWAL = getRehomedWAL(wal, storesToFlush);
     // block waiting for the lock for internal flush
     this.updatesLock.writeLock().lock();
     status.setStatus("Preparing flush snapshotting stores in " + getRegionInfo().getEncodedName());
@@ -2479,6 +2497,17 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       if (wal != null) {
         Long earliestUnflushedSequenceIdForTheRegion =
             wal.startCacheFlush(encodedRegionName, flushedFamilyNamesToSeq);
+        WAL previousWAL = getPreviousWAL(wal);
+        if (earliestUnflushedSequenceIdForTheRegion != null && previousWAL != null) {
+          // A move away from previousWAL whose flush did not complete, flush what is left there
+          Long previousEarliest =
+              previousWAL.startCacheFlush(encodedRegionName, flushedFamilyNamesToSeq);
+          if (previousEarliest == null) {
+            wal.abortCacheFlush(encodedRegionName);
+          }
+          earliestUnflushedSequenceIdForTheRegion = previousEarliest == null ? null
+              : minSequenceId(earliestUnflushedSequenceIdForTheRegion, previousEarliest);
+        }
         if (earliestUnflushedSequenceIdForTheRegion == null) {
           // This should never happen. This is how startCacheFlush signals flush cannot proceed.
           String msg = this.getRegionInfo().getEncodedName() + " flush aborted; WAL closing.";
@@ -2519,6 +2548,15 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         totalSizeOfFlushableStores.incMemStoreSize(snapshotSize);
         storeFlushableSize.put(name, snapshotSize);
       });
+      if (newWAL != null) {
+        // All the edits the region has in the current WAL are in the snapshot, and the sequence id
+        // accounting of the current WAL lets go of the region when this flush completes, so the
+        // edits to come can go to the new WAL. Until then the current WAL is the only one to know
+        // the sequence ids of the snapshot.
+        LOG.info("Moving {} from WAL {} to {}", getRegionInfo().getEncodedName(), wal, newWAL);
+        this.previousWAL = wal;
+        this.wal = newWAL;
+      }
     } catch (IOException ex) {
       doAbortFlushToWAL(wal, flushOpSeqId, committedFiles);
       throw ex;
@@ -2528,7 +2566,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     String s = "Finished memstore snapshotting " + this + ", syncing WAL and waiting on mvcc, " +
         "flushsize=" + totalSizeOfFlushableStores;
     status.setStatus(s);
-    doSyncOfUnflushedWALChanges(wal, getRegionInfo());
+    doSyncOfUnflushedWALChanges(wal);
     return new PrepareFlushResult(storeFlushCtxs, committedFiles, storeFlushableSize, startTime,
         flushOpSeqId, flushedSeqId, totalSizeOfFlushableStores);
   }
@@ -2578,25 +2616,118 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       // ignore this since we will be aborting the RS with DSE.
     }
     // we have called wal.startCacheFlush(), now we have to abort it
-    wal.abortCacheFlush(this.getRegionInfo().getEncodedNameAsBytes());
+    abortCacheFlush(wal);
   }
 
   /**
    * Sync unflushed WAL changes. See HBASE-8208 for details
    */
-  private static void doSyncOfUnflushedWALChanges(final WAL wal, final RegionInfo hri)
-  throws IOException {
+  private void doSyncOfUnflushedWALChanges(final WAL wal) throws IOException {
     if (wal == null) {
       return;
     }
     try {
       wal.sync(); // ensure that flush marker is sync'ed
     } catch (IOException ioe) {
-      wal.abortCacheFlush(hri.getEncodedNameAsBytes());
+      abortCacheFlush(wal);
       throw ioe;
     }
   }
 
+  /**
+   * @return the WAL the region is moving away from and which still has unflushed edits of the
+   *         region, if not the given WAL
+   */
+  private WAL getPreviousWAL(WAL wal) {
+    WAL previousWAL = this.previousWAL;
+    return previousWAL != wal ? previousWAL : null;
+  }
+
+  /**
+   * Aborts the cache flush started on the given WAL, and on the WAL the region moved away from.
+   */
+  private void abortCacheFlush(WAL wal) {
+    byte[] encodedRegionName = getRegionInfo().getEncodedNameAsBytes();
+    wal.abortCacheFlush(encodedRegionName);
+    WAL previousWAL = getPreviousWAL(wal);
+    if (previousWAL != null) {
+      previousWAL.abortCacheFlush(encodedRegionName);
+    }
+  }
+
+  /**
+   * Completes the cache flush started on the given WAL, and on the WAL the region moved away from,
+   * which the region is done with once none of its edits there are unflushed.
+   */
+  private void completeCacheFlush(WAL wal) {
+    byte[] encodedRegionName = getRegionInfo().getEncodedNameAsBytes();
+    wal.completeCacheFlush(encodedRegionName);
+    WAL previousWAL = this.previousWAL;
+    if (previousWAL == null) {
+      return;
+    }
+    if (previousWAL != wal) {
+      previousWAL.completeCacheFlush(encodedRegionName);
+    }
+    for (byte[] familyName : stores.keySet()) {
+      if (previousWAL.getEarliestMemStoreSeqNum(encodedRegionName, familyName)
+          != HConstants.NO_SEQNUM) {
+        return;
+      }
+    }
+    this.previousWAL = null;
+  }
+
+  /**
+   * @return the lowest sequence id of the unflushed edits of the family, HConstants.NO_SEQNUM if
+   *         none. While the region moves between WALs, the lowest of those the two WALs know of.
+   */
+  private long getEarliestMemStoreSeqNum(byte[] familyName) {
+    byte[] encodedRegionName = getRegionInfo().getEncodedNameAsBytes();
+    // wal before previousWAL, see previousWAL
+    long earliest = this.wal.getEarliestMemStoreSeqNum(encodedRegionName, familyName);
+    WAL previousWAL = this.previousWAL;
+    if (previousWAL != null) {
+      earliest = minSequenceId(earliest,
+        previousWAL.getEarliestMemStoreSeqNum(encodedRegionName, familyName));
+    }
+    return earliest;
+  }
+
+  /**
+   * @return the lowest of the two sequence ids, HConstants.NO_SEQNUM if both are
+   */
+  private static long minSequenceId(long a, long b) {
+    if (a == HConstants.NO_SEQNUM) {
+      return b;
+    }
+    return b == HConstants.NO_SEQNUM ? a : Math.min(a, b);
+  }
+
+  /**
+   * @return the WAL the region should move to when flushing the given stores to the given WAL,
+   *         null if it should stay on the given WAL
+   * @see org.apache.hadoop.hbase.wal.BalancedGroupingStrategy
+   */
+  private WAL getRehomedWAL(WAL wal, Collection<HStore> storesToFlush) {
+    // Only a flush of all the stores leaves nothing of the region behind in the current WAL, and
+    // the region only moves again once done with the previous WAL
+    if (wal == null || wal != this.wal || previousWAL != null || rsServices == null
+        || writestate.readOnly
+        || getRegionInfo().isMetaRegion() || !RegionReplicaUtil.isDefaultReplica(getRegionInfo())
+        || !BalancedGroupingStrategy.isEnabled(conf) || !isAllFamilies(storesToFlush)) {
+      return null;
+    }
+    try {
+      WAL newWAL = rsServices.getWAL(getRegionInfo());
+      return newWAL != wal ? newWAL : null;
+    } catch (IOException e) {
+      LOG.warn("Failed to get the WAL for {}, staying on {}", getRegionInfo().getEncodedName(),
+        wal, e);
+      return null;
+    }
+  }
+
   /**
    * @return True if passed Set is all families in the region.
    */
@@ -2706,7 +2837,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
               + "failed writing ABORT_FLUSH marker to WAL", ex);
           // ignore this since we will be aborting the RS with DSE.
         }
-        wal.abortCacheFlush(this.getRegionInfo().getEncodedNameAsBytes());
+        abortCacheFlush(wal);
       }
       DroppedSnapshotException dse = new DroppedSnapshotException("region: " +
           Bytes.toStringBinary(getRegionInfo().getRegionName()));
@@ -2729,7 +2860,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     // If we get to here, the HStores have been written.
     if (wal != null) {
-      wal.completeCacheFlush(this.getRegionInfo().getEncodedNameAsBytes());
+      completeCacheFlush(wal);
     }
 
     // Record latest flush time
@@ -7724,11 +7855,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       walKey.setOrigLogSeqNum(origLogSeqNum);
     }
     WriteEntry writeEntry = null;
+    // Read once, the WAL may only change under the updates write lock and we hold the read lock
+    WAL wal = this.wal;
     try {
-      long txid = this.wal.append(this.getRegionInfo(), walKey, walEdit, true);
+      long txid = wal.append(this.getRegionInfo(), walKey, walEdit, true);
       // Call sync on our edit.
       if (txid != 0) {
-        sync(txid, durability);
+        sync(wal, txid, durability);
       }
       writeEntry = walKey.getWriteEntry();
     } catch (IOException ioe) {
@@ -8346,18 +8479,19 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
   /**
    * Calls sync with the given transaction ID
+   * @param wal the WAL the transaction was appended to
    * @param txid should sync up to which transaction
    * @throws IOException If anything goes wrong with DFS
    */
-  private void sync(long txid, Durability durability) throws IOException {
+  private void sync(WAL wal, long txid, Durability durability) throws IOException {
     if (this.getRegionInfo().isMetaRegion()) {
-      this.wal.sync(txid);
+      wal.sync(txid);
     } else {
       switch(durability) {
       case USE_DEFAULT:
         // do what table defaults to
         if (shouldSyncWAL()) {
-          this.wal.sync(txid);
+          wal.sync(txid);
         }
         break;
       case SKIP_WAL:
@@ -8367,10 +8501,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         // nothing do to
         break;
       case SYNC_WAL:
-          this.wal.sync(txid, false);
+          wal.sync(txid, false);
           break;
       case FSYNC_WAL:
-          this.wal.sync(txid, true);
+          wal.sync(txid, true);
           break;
       default:
         throw new RuntimeException("Unknown durability " + durability);
@@ -8422,7 +8556,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   }
 
   public long getOldestSeqIdOfStore(byte[] familyName) {
-    return wal.getEarliestMemStoreSeqNum(getRegionInfo().getEncodedNameAsBytes(), familyName);
+    return getEarliestMemStoreSeqNum(familyName);
   }
 
   @Override
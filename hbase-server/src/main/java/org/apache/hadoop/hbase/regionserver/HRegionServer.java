@@ -1555,10 +1555,12 @@ public class HRegionServer extends HasThread implements
       float initialCountPercentage = conf.getFloat(MemStoreLAB.CHUNK_POOL_INITIALSIZE_KEY,
           MemStoreLAB.POOL_INITIAL_SIZE_DEFAULT);
       int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY, MemStoreLAB.CHUNK_SIZE_DEFAULT);
+      int localChunks = conf.getInt(MemStoreLAB.CHUNK_POOL_LOCAL_CHUNKS_KEY,
+          MemStoreLAB.CHUNK_POOL_LOCAL_CHUNKS_DEFAULT);
       // init the chunkCreator
       ChunkCreator chunkCreator =
           ChunkCreator.initialize(chunkSize, offheap, globalMemStoreSize, poolSizePercentage,
-      initialCountPercentage, this.hMemManager);
+      initialCountPercentage, this.hMemManager, localChunks);
     }
   }
 
@@ -2758,9 +2760,12 @@ public class HRegionServer extends HasThread implements
             return -1 * a.compareTo(b);
           }
         });
-    // Copy over all regions. Regions are sorted by size with biggest first.
+    // Copy over all regions. Regions are sorted by size with biggest first. The space wasted in
+    // the MSLAB chunks is only freed by a flush too.
+    boolean offheapChunks = this.regionServerAccounting.isOffheap();
     for (HRegion region : this.onlineRegions.values()) {
-      sortedRegions.put(region.getMemStoreOffHeapSize(), region);
+      sortedRegions.put(region.getMemStoreOffHeapSize()
+          + (offheapChunks ? region.getMemStoreLABWastedBytes() : 0), region);
     }
     return sortedRegions;
   }
@@ -2779,9 +2784,12 @@ public class HRegionServer extends HasThread implements
             return -1 * a.compareTo(b);
           }
         });
-    // Copy over all regions. Regions are sorted by size with biggest first.
+    // Copy over all regions. Regions are sorted by size with biggest first. The space wasted in
+    // the MSLAB chunks is only freed by a flush too.
+    boolean offheapChunks = this.regionServerAccounting.isOffheap();
     for (HRegion region : this.onlineRegions.values()) {
-      sortedRegions.put(region.getMemStoreHeapSize(), region);
+      sortedRegions.put(region.getMemStoreHeapSize()
+          + (offheapChunks ? 0 : region.getMemStoreLABWastedBytes()), region);
     }
     return sortedRegions;
   }
@@ -2142,6 +2142,13 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
     return this.memstore.size();
   }
 
+  /**
+   * @return the bytes of the MSLAB chunks of the memstore which will never hold cells
+   */
+  public long getMemStoreLABWastedBytes() {
+    return this.memstore.getMemStoreLABWastedBytes();
+  }
+
   @Override
   public int getCompactPriority() {
     int priority = this.storeEngine.getStoreFileManager().getStoreCompactionPriority();
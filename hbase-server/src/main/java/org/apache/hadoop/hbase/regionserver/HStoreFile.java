@@ -33,6 +33,7 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.io.hfile.BlockCachePartitions;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
@@ -356,6 +357,10 @@ public class HStoreFile implements StoreFile {
     // Open the StoreFile.Reader
     this.reader = fileInfo.open(this.fs, this.cacheConf, false, noReadahead ? 0L : -1L,
       primaryReplica, refCount, true);
+    if (cacheConf != null && cacheConf.getPartition() != null) {
+      BlockCachePartitions.registerFile(reader.getHFileReader().getName(),
+        cacheConf.getPartition());
+    }
 
     // Load up indices and fileinfo. This also loads Bloom filter type.
     metadataMap = Collections.unmodifiableMap(this.reader.loadFileInfo());
@@ -520,6 +525,9 @@ public class HStoreFile implements StoreFile {
    */
   public synchronized void closeStoreFile(boolean evictOnClose) throws IOException {
     if (this.reader != null) {
+      if (cacheConf != null && cacheConf.getPartition() != null) {
+        BlockCachePartitions.unregisterFile(reader.getHFileReader().getName());
+      }
       this.reader.close(evictOnClose);
       this.reader = null;
     }
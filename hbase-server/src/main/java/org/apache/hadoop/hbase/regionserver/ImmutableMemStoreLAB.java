@@ -138,5 +138,14 @@ public class ImmutableMemStoreLAB implements MemStoreLAB {
     return ChunkCreator.getInstance().isOffheap();
   }
 
+  @Override
+  public long getWastedBytes() {
+    long wasted = 0;
+    for (MemStoreLAB mslab : this.mslabs) {
+      wasted += mslab.getWastedBytes();
+    }
+    return wasted;
+  }
+
 
 }
@@ -127,6 +127,15 @@ public interface MemStore {
   /* Return true if the memstore may use some extra memory space*/
   boolean isSloppy();
 
+  /**
+   * @return the bytes of the MSLAB chunks of the segments of this MemStore which will never hold
+   *         cells
+   * @see MemStoreLAB#getWastedBytes()
+   */
+  default long getMemStoreLABWastedBytes() {
+    return 0;
+  }
+
   /**
    * This message intends to inform the MemStore that next coming updates
    * are going to be part of the replaying edits from WAL
@@ -194,13 +194,13 @@ class MemStoreFlusher implements FlushRequester {
       switch(flushType) {
         case ABOVE_OFFHEAP_HIGHER_MARK:
         case ABOVE_OFFHEAP_LOWER_MARK:
-          bestAnyRegionSize = bestAnyRegion.getMemStoreOffHeapSize();
+          bestAnyRegionSize = getMemStoreOffHeapSize(bestAnyRegion);
           bestFlushableRegionSize = getMemStoreOffHeapSize(bestFlushableRegion);
           break;
 
         case ABOVE_ONHEAP_HIGHER_MARK:
         case ABOVE_ONHEAP_LOWER_MARK:
-          bestAnyRegionSize = bestAnyRegion.getMemStoreHeapSize();
+          bestAnyRegionSize = getMemStoreHeapSize(bestAnyRegion);
           bestFlushableRegionSize = getMemStoreHeapSize(bestFlushableRegion);
           break;
 
@@ -237,13 +237,13 @@ class MemStoreFlusher implements FlushRequester {
       switch(flushType) {
         case ABOVE_OFFHEAP_HIGHER_MARK:
         case ABOVE_OFFHEAP_LOWER_MARK:
-          regionToFlushSize = regionToFlush.getMemStoreOffHeapSize();
+          regionToFlushSize = getMemStoreOffHeapSize(regionToFlush);
           bestRegionReplicaSize = getMemStoreOffHeapSize(bestRegionReplica);
           break;
 
         case ABOVE_ONHEAP_HIGHER_MARK:
         case ABOVE_ONHEAP_LOWER_MARK:
-          regionToFlushSize = regionToFlush.getMemStoreHeapSize();
+          regionToFlushSize = getMemStoreHeapSize(regionToFlush);
           bestRegionReplicaSize = getMemStoreHeapSize(bestRegionReplica);
           break;
 
@@ -286,7 +286,9 @@ class MemStoreFlusher implements FlushRequester {
             TraditionalBinaryPrefix.long2String(
                 server.getRegionServerAccounting().getGlobalMemStoreOffHeapSize(), "", 1) +
             ", Region memstore size=" +
-            TraditionalBinaryPrefix.long2String(regionToFlushSize, "", 1));
+            TraditionalBinaryPrefix.long2String(regionToFlushSize, "", 1) +
+            " (MSLAB wasted=" + TraditionalBinaryPrefix.long2String(
+                regionToFlush.getMemStoreLABWastedBytes(), "", 1) + ")");
         flushedOne = flushRegion(regionToFlush, true, false, FlushLifeCycleTracker.DUMMY);
 
         if (!flushedOne) {
@@ -300,17 +302,27 @@ class MemStoreFlusher implements FlushRequester {
   }
 
   /**
-   * @return Return memstore offheap size or null if <code>r</code> is null
+   * @return Return memstore offheap size, plus the space wasted in its MSLAB chunks when off heap,
+   *         or 0 if <code>r</code> is null
    */
-  private static long getMemStoreOffHeapSize(HRegion r) {
-    return r == null? 0: r.getMemStoreOffHeapSize();
+  private long getMemStoreOffHeapSize(HRegion r) {
+    if (r == null) {
+      return 0;
+    }
+    return r.getMemStoreOffHeapSize()
+        + (server.getRegionServerAccounting().isOffheap() ? r.getMemStoreLABWastedBytes() : 0);
   }
 
   /**
-   * @return Return memstore heap size or null if <code>r</code> is null
+   * @return Return memstore heap size, plus the space wasted in its MSLAB chunks when on heap, or 0
+   *         if <code>r</code> is null
    */
-  private static long getMemStoreHeapSize(HRegion r) {
-    return r == null? 0: r.getMemStoreHeapSize();
+  private long getMemStoreHeapSize(HRegion r) {
+    if (r == null) {
+      return 0;
+    }
+    return r.getMemStoreHeapSize()
+        + (server.getRegionServerAccounting().isOffheap() ? 0 : r.getMemStoreLABWastedBytes());
   }
 
   /**
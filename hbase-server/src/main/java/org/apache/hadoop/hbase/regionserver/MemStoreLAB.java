@@ -63,6 +63,9 @@ public interface MemStoreLAB {
   String CHUNK_POOL_INITIALSIZE_KEY = "hbase.hregion.memstore.chunkpool.initialsize";
   float POOL_MAX_SIZE_DEFAULT = 1.0f;
   float POOL_INITIAL_SIZE_DEFAULT = 0.0f;
+  // Number of chunks in each of the per core caches in front of the chunk pool, 0 for no caches
+  String CHUNK_POOL_LOCAL_CHUNKS_KEY = "hbase.hregion.memstore.chunkpool.local.chunks";
+  int CHUNK_POOL_LOCAL_CHUNKS_DEFAULT = 2;
 
   /**
    * Allocates slice in this LAB and copy the passed Cell into this area. Returns new Cell instance
@@ -127,4 +130,12 @@ public interface MemStoreLAB {
   boolean isOnHeap();
 
   boolean isOffHeap();
+
+  /**
+   * @return the bytes of the chunks of this MemStoreLAB which will never hold cells, i.e. the
+   *         free space left at the end of the chunks it moved on from
+   */
+  default long getWastedBytes() {
+    return 0;
+  }
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -87,6 +88,8 @@ public class MemStoreLABImpl implements MemStoreLAB {
   private AtomicBoolean reclaimed = new AtomicBoolean(false);
   // Current count of open scanners which reading data from this MemStoreLAB
   private final AtomicInteger openScannerCount = new AtomicInteger();
+  // Free space left in the chunks retired from currChunk
+  private final AtomicLong wastedBytes = new AtomicLong();
 
   // Used in testing
   public MemStoreLABImpl() {
@@ -242,11 +245,10 @@ public class MemStoreLABImpl implements MemStoreLAB {
    * @return true if we won the race to retire the chunk
    */
   private void tryRetireChunk(Chunk c) {
-    currChunk.compareAndSet(c, null);
-    // If the CAS succeeds, that means that we won the race
-    // to retire the chunk. We could use this opportunity to
-    // update metrics on external fragmentation.
-    //
+    if (currChunk.compareAndSet(c, null)) {
+      // We won the race to retire the chunk, account for the external fragmentation
+      wastedBytes.addAndGet(c.getFreeBytes());
+    }
     // If the CAS fails, that means that someone else already
     // retired the chunk for us.
   }
@@ -332,6 +334,11 @@ public class MemStoreLABImpl implements MemStoreLAB {
     return this.chunkCreator.isOffheap();
   }
 
+  @Override
+  public long getWastedBytes() {
+    return wastedBytes.get();
+  }
+
   @VisibleForTesting
   Chunk getCurrentChunk() {
     return currChunk.get();
@@ -34,6 +34,7 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCacheStats;
 import org.apache.hadoop.hbase.mob.MobCacheConfig;
 import org.apache.hadoop.hbase.mob.MobFileCache;
 import org.apache.hadoop.hbase.regionserver.wal.MetricsWALSource;
@@ -450,6 +451,30 @@ class MetricsRegionServerWrapperImpl
     return this.l2Stats.getMissRatio();
   }
 
+  @Override
+  public long getL2CacheRecoveredBlockCount() {
+    if (!(this.l2Stats instanceof BucketCacheStats)) {
+      return 0;
+    }
+    return ((BucketCacheStats) this.l2Stats).getRecoveredBlockCount();
+  }
+
+  @Override
+  public long getL2CacheRecoveryTime() {
+    if (!(this.l2Stats instanceof BucketCacheStats)) {
+      return 0;
+    }
+    return ((BucketCacheStats) this.l2Stats).getRecoveryTime();
+  }
+
+  @Override
+  public long getL2CacheChecksumFailureCount() {
+    if (!(this.l2Stats instanceof BucketCacheStats)) {
+      return 0;
+    }
+    return ((BucketCacheStats) this.l2Stats).getChecksumFailureCount();
+  }
+
   @Override public void forceRecompute() {
     this.runnable.run();
   }
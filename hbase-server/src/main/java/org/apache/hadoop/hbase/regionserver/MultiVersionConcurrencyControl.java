@@ -21,8 +21,12 @@ package org.apache.hadoop.hbase.regionserver;
 import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.hbase.thirdparty.com.google.common.base.MoreObjects;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
@@ -35,26 +39,49 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * Manages the read/write consistency. This provides an interface for readers to determine what
  * entries to ignore, and a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * The pending writes are kept in a ring indexed by write number, with the writes that find their
+ * slot still taken by a pending write in an overflow map. Beginning a write takes no lock unless it
+ * runs an action (see {@link #begin(Runnable)}), and completing one takes none: the completing
+ * thread that wins the {@code advancing} flag moves the read point over the run of completed
+ * writes, in batches, and wakes the threads waiting on exactly those writes.
  */
 @InterfaceAudience.Private
 public class MultiVersionConcurrencyControl {
   private static final Logger LOG = LoggerFactory.getLogger(MultiVersionConcurrencyControl.class);
 
+  /**
+   * Number of slots of the ring of pending writes. About the number of handlers plus the writes in
+   * flight in the WAL; more pending writes go to the overflow map.
+   */
+  static final int RING_SIZE = 256;
+  private static final int RING_MASK = RING_SIZE - 1;
+  /** Most writes the read point is moved over before waking their waiters */
+  private static final int ADVANCE_BATCH = 64;
+  private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  /** Times a waiter yields before parking */
+  private static final int WAIT_YIELDS = 16;
+
   final AtomicLong readPoint = new AtomicLong(0);
   final AtomicLong writePoint = new AtomicLong(0);
-  private final Object readWaiters = new Object();
   /**
    * Represents no value, or not set.
    */
   public static final long NONE = -1;
 
-  // This is the pending queue of writes.
-  //
-  // TODO(eclark): Should this be an array of fixed size to
-  // reduce the number of allocations on the write path?
-  // This could be equal to the number of handlers + a small number.
-  // TODO: St.Ack 20150903 Sounds good to me.
-  private final LinkedList<WriteEntry> writeQueue = new LinkedList<>();
+  // The pending writes. The slot of a write number holds its entry unless the entry is in the
+  // overflow map; a slot is reused once the read point has moved past its entry.
+  private final AtomicReferenceArray<WriteEntry> ring = new AtomicReferenceArray<>(RING_SIZE);
+  private final ConcurrentHashMap<Long, WriteEntry> overflow = new ConcurrentHashMap<>();
+  // Orders the actions of begin(Runnable) like their write numbers.
+  private final Object beginLock = new Object();
+  // Held by the thread moving the read point.
+  private final AtomicBoolean advancing = new AtomicBoolean(false);
+  // The entries the read point was moved over, whose waiters are to be woken up. Only used by
+  // the thread holding advancing.
+  private final WriteEntry[] advanced = new WriteEntry[ADVANCE_BATCH];
+
+  private static final Runnable NO_ACTION = () -> {};
 
   public MultiVersionConcurrencyControl() {
     super();
@@ -92,7 +119,7 @@ public class MultiVersionConcurrencyControl {
    * <code>readPoint</code>
    */
   boolean tryAdvanceTo(long newStartPoint, long expected) {
-    synchronized (writeQueue) {
+    synchronized (beginLock) {
       long currentRead = this.readPoint.get();
       long currentWrite = this.writePoint.get();
       if (currentRead != currentWrite) {
@@ -107,17 +134,21 @@ public class MultiVersionConcurrencyControl {
         return false;
       }
 
+      // begin() without an action does not take beginLock, so it may have raced us
+      if (!writePoint.compareAndSet(currentWrite, newStartPoint)) {
+        throw new RuntimeException("Already used this mvcc; currentRead=" + currentRead +
+          ", currentWrite=" + writePoint.get() + "; too late to tryAdvanceTo");
+      }
       readPoint.set(newStartPoint);
-      writePoint.set(newStartPoint);
     }
     return true;
   }
 
   /**
-   * Call {@link #begin(Runnable)} with an empty {@link Runnable}.
+   * Start a write transaction with no action. Unlike {@link #begin(Runnable)}, takes no lock.
    */
   public WriteEntry begin() {
-    return begin(() -> {});
+    return begin(NO_ACTION);
   }
 
   /**
@@ -133,15 +164,43 @@ public class MultiVersionConcurrencyControl {
    * @see #completeAndWait(WriteEntry)
    */
   public WriteEntry begin(Runnable action) {
-    synchronized (writeQueue) {
-      long nextWriteNumber = writePoint.incrementAndGet();
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
+    if (action == NO_ACTION) {
+      return newWriteEntry();
+    }
+    synchronized (beginLock) {
+      WriteEntry e = newWriteEntry();
       action.run();
       return e;
     }
   }
 
+  private WriteEntry newWriteEntry() {
+    long nextWriteNumber = writePoint.incrementAndGet();
+    WriteEntry e = new WriteEntry(nextWriteNumber);
+    if (nextWriteNumber - RING_SIZE <= readPoint.get()) {
+      // The previous write of the slot is visible, we can take the slot
+      ring.set(slot(nextWriteNumber), e);
+    } else {
+      overflow.put(nextWriteNumber, e);
+    }
+    return e;
+  }
+
+  private static int slot(long writeNumber) {
+    return (int) (writeNumber & RING_MASK);
+  }
+
+  /**
+   * @return the pending entry of the write number, or null if it is not published yet
+   */
+  private WriteEntry getPending(long writeNumber) {
+    WriteEntry e = ring.get(slot(writeNumber));
+    if (e != null && e.getWriteNumber() == writeNumber) {
+      return e;
+    }
+    return overflow.isEmpty() ? null : overflow.get(writeNumber);
+  }
+
   /**
    * Wait until the read point catches up to the write point; i.e. wait on all outstanding mvccs
    * to complete.
@@ -174,45 +233,54 @@ public class MultiVersionConcurrencyControl {
    * Let S be the set of all write numbers that are completed. Set the read point to the highest
    * numbered write of S.
    *
+   * If another thread is already advancing the read point, leaves it to that thread, which
+   * checks for completed writes again once done.
+   *
    * @param writeEntry
    *
    * @return true if e is visible to MVCC readers (that is, readpoint >= e.writeNumber)
    */
   public boolean complete(WriteEntry writeEntry) {
-    synchronized (writeQueue) {
-      writeEntry.markCompleted();
-      long nextReadValue = NONE;
-      boolean ranOnce = false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce = true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue + 1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("Invariant in complete violated, nextReadValue="
-                + nextReadValue + ", writeNumber=" + queueFirst.getWriteNumber());
-          }
-        }
+    writeEntry.markCompleted();
+    advanceReadPoint();
+    return readPoint.get() >= writeEntry.getWriteNumber();
+  }
 
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
+  /**
+   * Moves the read point over the completed writes following it, unless another thread is at it.
+   */
+  private void advanceReadPoint() {
+    while (advancing.compareAndSet(false, true)) {
+      try {
+        long read = readPoint.get();
+        while (true) {
+          int count = 0;
+          WriteEntry next;
+          while (count < ADVANCE_BATCH && (next = getPending(read + 1)) != null
+              && next.isCompleted()) {
+            if (ring.get(slot(read + 1)) != next) {
+              overflow.remove(read + 1);
+            }
+            advanced[count++] = next;
+            read++;
+          }
+          if (count == 0) {
+            break;
+          }
+          readPoint.set(read);
+          for (int i = 0; i < count; i++) {
+            advanced[i].wakeUpWaiter();
+            advanced[i] = null;
+          }
         }
+      } finally {
+        advancing.set(false);
       }
-
-      if (!ranOnce) {
-        throw new RuntimeException("There is no first!");
-      }
-
-      if (nextReadValue > 0) {
-        synchronized (readWaiters) {
-          readPoint.set(nextReadValue);
-          readWaiters.notifyAll();
-        }
+      // A write completed while we held the flag may have left it to us; check again
+      WriteEntry next = getPending(readPoint.get() + 1);
+      if (next == null || !next.isCompleted()) {
+        return;
       }
-      return readPoint.get() >= writeEntry.getWriteNumber();
     }
   }
 
@@ -222,20 +290,29 @@ public class MultiVersionConcurrencyControl {
   void waitForRead(WriteEntry e) {
     boolean interrupted = false;
     int count = 0;
-    synchronized (readWaiters) {
+    // The writes we wait on are usually a few instructions from completing, so let their threads
+    // run before parking
+    for (int i = 0; i < WAIT_YIELDS && readPoint.get() < e.getWriteNumber(); i++) {
+      Thread.yield();
+    }
+    e.setWaiter(Thread.currentThread());
+    try {
       while (readPoint.get() < e.getWriteNumber()) {
         if (count % 100 == 0 && count > 0) {
           LOG.warn("STUCK: " + this);
+          // Do not rely on the completing threads alone
+          advanceReadPoint();
         }
         count++;
-        try {
-          readWaiters.wait(10);
-        } catch (InterruptedException ie) {
+        LockSupport.parkNanos(this, WAIT_NANOS);
+        if (Thread.interrupted()) {
           // We were interrupted... finish the loop -- i.e. cleanup --and then
           // on our way out, reset the interrupt flag.
           interrupted = true;
         }
       }
+    } finally {
+      e.setWaiter(null);
     }
     if (interrupted) {
       Thread.currentThread().interrupt();
@@ -266,7 +343,9 @@ public class MultiVersionConcurrencyControl {
   @InterfaceAudience.Private
   public static class WriteEntry {
     private final long writeNumber;
-    private boolean completed = false;
+    private volatile boolean completed = false;
+    // The thread waiting for the write to be visible, if any
+    private volatile Thread waiter;
 
     WriteEntry(long writeNumber) {
       this.writeNumber = writeNumber;
@@ -284,6 +363,17 @@ public class MultiVersionConcurrencyControl {
       return this.writeNumber;
     }
 
+    void setWaiter(Thread waiter) {
+      this.waiter = waiter;
+    }
+
+    void wakeUpWaiter() {
+      Thread t = this.waiter;
+      if (t != null) {
+        LockSupport.unpark(t);
+      }
+    }
+
     @Override
     public String toString() {
       return this.writeNumber + ", " + this.completed;
@@ -293,5 +383,7 @@ public class MultiVersionConcurrencyControl {
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
       2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      7 * ClassSize.REFERENCE) +
+      ClassSize.align(ClassSize.ARRAY + RING_SIZE * ClassSize.REFERENCE) + // ring
+      ClassSize.align(ClassSize.ARRAY + ADVANCE_BATCH * ClassSize.REFERENCE); // advanced
 }
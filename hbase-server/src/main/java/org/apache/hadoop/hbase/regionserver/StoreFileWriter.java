@@ -28,6 +28,7 @@ import static org.apache.hadoop.hbase.regionserver.HStoreFile.TIMERANGE_KEY;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.UUID;
+import java.util.function.BiPredicate;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
@@ -320,6 +321,14 @@ public class StoreFileWriter implements CellSink, ShipperListener {
     writer.appendFileInfo(key, value);
   }
 
+  /**
+   * @param filter decides from the first and last cell of each data block whether the block is
+   *          cached on write; see {@link HFile.Writer#setCacheOnWriteFilter(BiPredicate)}
+   */
+  public void setCacheOnWriteFilter(BiPredicate<Cell, Cell> filter) {
+    writer.setCacheOnWriteFilter(filter);
+  }
+
   /** For use in testing.
    */
   HFile.Writer getHFileWriter() {
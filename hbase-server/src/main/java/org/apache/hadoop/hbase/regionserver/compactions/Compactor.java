@@ -36,6 +36,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.PrivateCellUtil;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.regionserver.CellSink;
@@ -90,6 +91,23 @@ public abstract class Compactor<T extends CellSink> {
   private final boolean dropCacheMajor;
   private final boolean dropCacheMinor;
 
+  /**
+   * Configs that drive whether compactions cache, while writing, the blocks of the new file which
+   * hold keys that were hot in the block cache for the compacted files.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_WRITE_KEY =
+      "hbase.regionserver.compaction.cachehotblocksonwrite";
+  public static final String CACHE_HOT_BLOCKS_ON_WRITE_MAX_BLOCKS_KEY =
+      "hbase.regionserver.compaction.cachehotblocksonwrite.max.blocks";
+  public static final int DEFAULT_CACHE_HOT_BLOCKS_ON_WRITE_MAX_BLOCKS = 10000;
+  public static final String CACHE_HOT_BLOCKS_ON_WRITE_MAX_SCANNED_BLOCKS_KEY =
+      "hbase.regionserver.compaction.cachehotblocksonwrite.max.scanned.blocks";
+  public static final int DEFAULT_CACHE_HOT_BLOCKS_ON_WRITE_MAX_SCANNED_BLOCKS = 100000;
+
+  private final boolean cacheHotBlocksOnWrite;
+  private final int cacheHotBlocksOnWriteMaxBlocks;
+  private final int cacheHotBlocksOnWriteMaxScannedBlocks;
+
   //TODO: depending on Store is not good but, realistically, all compactors currently do.
   Compactor(Configuration conf, HStore store) {
     this.conf = conf;
@@ -102,6 +120,12 @@ public abstract class Compactor<T extends CellSink> {
       HConstants.MIN_KEEP_SEQID_PERIOD), HConstants.MIN_KEEP_SEQID_PERIOD);
     this.dropCacheMajor = conf.getBoolean(MAJOR_COMPACTION_DROP_CACHE, true);
     this.dropCacheMinor = conf.getBoolean(MINOR_COMPACTION_DROP_CACHE, true);
+    this.cacheHotBlocksOnWrite = conf.getBoolean(CACHE_HOT_BLOCKS_ON_WRITE_KEY, false);
+    this.cacheHotBlocksOnWriteMaxBlocks = conf.getInt(CACHE_HOT_BLOCKS_ON_WRITE_MAX_BLOCKS_KEY,
+      DEFAULT_CACHE_HOT_BLOCKS_ON_WRITE_MAX_BLOCKS);
+    this.cacheHotBlocksOnWriteMaxScannedBlocks = conf.getInt(
+      CACHE_HOT_BLOCKS_ON_WRITE_MAX_SCANNED_BLOCKS_KEY,
+      DEFAULT_CACHE_HOT_BLOCKS_ON_WRITE_MAX_SCANNED_BLOCKS);
   }
 
 
@@ -131,6 +155,8 @@ public abstract class Compactor<T extends CellSink> {
     public int maxTagsLength = 0;
     /** Min SeqId to keep during a major compaction **/
     public long minSeqIdToKeep = 0;
+    /** Key ranges which were hot in the block cache; null if not cached on write */
+    public HotBlockRanges hotRanges = null;
   }
 
   /**
@@ -259,8 +285,43 @@ public abstract class Compactor<T extends CellSink> {
       throws IOException {
     // When all MVCC readpoints are 0, don't write them.
     // See HBASE-8166, HBASE-12600, and HBASE-13389.
-    return store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
-    fd.maxMVCCReadpoint > 0, fd.maxTagsLength > 0, shouldDropBehind);
+    StoreFileWriter writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression,
+      true, fd.maxMVCCReadpoint > 0, fd.maxTagsLength > 0, shouldDropBehind);
+    if (fd.hotRanges != null) {
+      writer.setCacheOnWriteFilter(fd.hotRanges);
+    }
+    return writer;
+  }
+
+  /**
+   * Finds the key ranges of the files to compact whose blocks were read again after being cached,
+   * so the blocks of the new file holding these keys are cached while they are written.
+   * @return the ranges, or null if there are none or they could not be determined
+   */
+  private HotBlockRanges getHotBlockRanges(Collection<HStoreFile> filesToCompact) {
+    CacheConfig cacheConf = store.getCacheConfig();
+    if (cacheConf == null || !cacheConf.isBlockCacheEnabled()) {
+      return null;
+    }
+    List<HFile.Reader> readers = new ArrayList<>(filesToCompact.size());
+    for (HStoreFile file : filesToCompact) {
+      StoreFileReader r = file.getReader();
+      if (r != null) {
+        readers.add(r.getHFileReader());
+      }
+    }
+    try {
+      HotBlockRanges hotRanges = HotBlockRanges.collect(cacheConf.getBlockCache(), readers,
+        store.getComparator(), cacheHotBlocksOnWriteMaxBlocks,
+        cacheHotBlocksOnWriteMaxScannedBlocks);
+      LOG.debug("Caching blocks of compacted files of {} overlapping {} hot key ranges on write",
+        store, hotRanges.size());
+      return hotRanges.isEmpty() ? null : hotRanges;
+    } catch (IOException e) {
+      LOG.warn("Failed to find hot key ranges of the files to compact in " + store
+          + "; not caching blocks on write", e);
+      return null;
+    }
   }
 
   private ScanInfo preCompactScannerOpen(CompactionRequestImpl request, ScanType scanType,
@@ -292,6 +353,9 @@ public abstract class Compactor<T extends CellSink> {
       InternalScannerFactory scannerFactory, CellSinkFactory<T> sinkFactory,
       ThroughputController throughputController, User user) throws IOException {
     FileDetails fd = getFileDetails(request.getFiles(), request.isAllFiles());
+    if (cacheHotBlocksOnWrite) {
+      fd.hotRanges = getHotBlockRanges(request.getFiles());
+    }
     this.progress = new CompactionProgress(fd.maxKeyCount);
 
     // Find the smallest read point across all the Scanners.
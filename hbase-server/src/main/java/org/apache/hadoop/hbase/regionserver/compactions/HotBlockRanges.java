@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.collect.Iterators;
+
+/**
+ * The key ranges covered by the data blocks of a set of hfiles which are hot in the block cache,
+ * i.e. which were read again after they had been cached. A compaction uses it as the
+ * cache-on-write filter of its writers so that the blocks of the new file which hold the hot keys
+ * of the compacted files are cached while being written, without caching the whole file and
+ * without reading it back from the file system afterwards.
+ * <p>
+ * The ranges are sorted and disjoint. A range starts at the first key of a hot block and ends,
+ * exclusively, at the index key of the block following it in its file.
+ */
+@InterfaceAudience.Private
+public class HotBlockRanges implements BiPredicate<Cell, Cell> {
+
+  private final CellComparator comparator;
+  private final Cell[] starts;
+  /** Exclusive ends; null if the range runs to the end of the file */
+  private final Cell[] ends;
+
+  private HotBlockRanges(CellComparator comparator, List<Cell[]> ranges) {
+    this.comparator = comparator;
+    this.starts = new Cell[ranges.size()];
+    this.ends = new Cell[ranges.size()];
+    for (int i = 0; i < ranges.size(); i++) {
+      starts[i] = ranges.get(i)[0];
+      ends[i] = ranges.get(i)[1];
+    }
+  }
+
+  /**
+   * Collects the key ranges of the data blocks of the passed files which are cached with
+   * {@link BlockPriority#MULTI} or {@link BlockPriority#MEMORY} priority. The blocks of the files
+   * are looked up by file in the caches which index their blocks by file; the caches which do not
+   * are walked, up to <code>maxScannedBlocks</code> blocks each.
+   * @param cache the block cache the files are read through
+   * @param readers readers of the files
+   * @param comparator comparator of the files
+   * @param maxBlocks at most this many hot blocks are looked at
+   * @param maxScannedBlocks at most this many blocks of a cache not indexed by file are walked
+   * @return the hot ranges; empty if no block of the files is hot
+   */
+  public static HotBlockRanges collect(BlockCache cache, Collection<HFile.Reader> readers,
+      CellComparator comparator, int maxBlocks, int maxScannedBlocks) throws IOException {
+    Map<String, HFile.Reader> readersByName = new HashMap<>();
+    for (HFile.Reader reader : readers) {
+      readersByName.put(reader.getName(), reader);
+    }
+    BlockCache[] caches = cache.getBlockCaches();
+    if (caches == null) {
+      caches = new BlockCache[] { cache };
+    }
+    // A block may be cached in both levels of a combined cache, so dedupe offsets
+    Map<HFile.Reader, SortedSet<Long>> hotOffsets = new HashMap<>();
+    int hotBlocks = 0;
+    for (BlockCache c : caches) {
+      List<Iterator<CachedBlock>> blocksByFile = new ArrayList<>(readersByName.size());
+      for (String name : readersByName.keySet()) {
+        Iterator<CachedBlock> blocks = c.iteratorByHfileName(name);
+        if (blocks == null) {
+          blocksByFile = null;
+          break;
+        }
+        blocksByFile.add(blocks);
+      }
+      Iterator<CachedBlock> blocks = blocksByFile != null
+          ? Iterators.concat(blocksByFile.iterator())
+          : Iterators.limit(c.iterator(), maxScannedBlocks);
+      while (blocks.hasNext() && hotBlocks < maxBlocks) {
+        CachedBlock cb = blocks.next();
+        HFile.Reader reader = readersByName.get(cb.getFilename());
+        if (reader == null || !isHot(cb.getBlockPriority())) {
+          continue;
+        }
+        // Some caches do not know the type of their blocks; those are checked once read
+        if (cb.getBlockType() != null && !cb.getBlockType().isData()) {
+          continue;
+        }
+        if (hotOffsets.computeIfAbsent(reader, r -> new TreeSet<>()).add(cb.getOffset())) {
+          hotBlocks++;
+        }
+      }
+    }
+
+    List<Cell[]> ranges = new ArrayList<>(hotBlocks);
+    for (Map.Entry<HFile.Reader, SortedSet<Long>> e : hotOffsets.entrySet()) {
+      for (long offset : e.getValue()) {
+        // The block is cached, so this is served from the cache unless it was evicted meanwhile
+        Pair<Cell, Cell> range = e.getKey().getDataBlockKeyRange(offset);
+        if (range != null) {
+          ranges.add(new Cell[] { range.getFirst(), range.getSecond() });
+        }
+      }
+    }
+    return new HotBlockRanges(comparator, merge(comparator, ranges));
+  }
+
+  private static boolean isHot(BlockPriority priority) {
+    return priority == BlockPriority.MULTI || priority == BlockPriority.MEMORY;
+  }
+
+  private static List<Cell[]> merge(CellComparator comparator, List<Cell[]> ranges) {
+    ranges.sort((a, b) -> comparator.compare(a[0], b[0]));
+    List<Cell[]> merged = new ArrayList<>(ranges.size());
+    Cell[] current = null;
+    for (Cell[] range : ranges) {
+      if (current != null
+          && (current[1] == null || comparator.compare(range[0], current[1]) <= 0)) {
+        if (current[1] != null
+            && (range[1] == null || comparator.compare(range[1], current[1]) > 0)) {
+          current[1] = range[1];
+        }
+      } else {
+        current = range;
+        merged.add(current);
+      }
+    }
+    return merged;
+  }
+
+  /** @return the number of disjoint hot ranges */
+  public int size() {
+    return starts.length;
+  }
+
+  public boolean isEmpty() {
+    return starts.length == 0;
+  }
+
+  /**
+   * @param firstCell first cell of a data block
+   * @param lastCell last cell of a data block
+   * @return whether the keys from the first to the last cell overlap a hot range
+   */
+  @Override
+  public boolean test(Cell firstCell, Cell lastCell) {
+    // Find the last range starting at or before the last cell; earlier ranges end before it starts
+    int low = 0;
+    int high = starts.length - 1;
+    int candidate = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (comparator.compare(starts[mid], lastCell) <= 0) {
+        candidate = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return candidate >= 0
+        && (ends[candidate] == null || comparator.compare(firstCell, ends[candidate]) < 0);
+  }
+}
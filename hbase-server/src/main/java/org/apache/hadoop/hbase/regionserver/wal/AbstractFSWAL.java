@@ -173,6 +173,11 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
 
   protected final long slowSyncNs;
 
+  /**
+   * Sizes the window a sync may be held for so that more sync requests join it.
+   */
+  protected final GroupCommitController groupCommit;
+
   private final long walSyncTimeoutNs;
 
   // If > than this size, roll the log.
@@ -429,6 +434,7 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
         .toNanos(conf.getInt("hbase.regionserver.hlog.slowsync.ms", DEFAULT_SLOW_SYNC_TIME_MS));
     this.walSyncTimeoutNs = TimeUnit.MILLISECONDS
         .toNanos(conf.getLong("hbase.regionserver.hlog.sync.timeout", DEFAULT_WAL_SYNC_TIMEOUT_MS));
+    this.groupCommit = new GroupCommitController(conf);
     int maxHandlersCount = conf.getInt(HConstants.REGION_SERVER_HANDLER_COUNT, 200);
     // Presize our map of SyncFutures by handler objects.
     this.syncFuturesByHandler = new ConcurrentHashMap<>(maxHandlersCount);
@@ -957,6 +963,7 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
       TraceUtil.addTimelineAnnotation(msg);
       LOG.info(msg);
     }
+    groupCommit.syncCompleted(timeInNanos, handlerSyncs);
     if (!listeners.isEmpty()) {
       for (WALActionsListener listener : listeners) {
         listener.postSync(timeInNanos, handlerSyncs);
@@ -964,6 +971,14 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
     }
   }
 
+  protected final void postSyncWait(final long timeInNanos) {
+    if (!listeners.isEmpty()) {
+      for (WALActionsListener listener : listeners) {
+        listener.postSyncWait(timeInNanos);
+      }
+    }
+  }
+
   protected final long stampSequenceIdAndPublishToRingBuffer(RegionInfo hri, WALKeyImpl key,
       WALEdit edits, boolean inMemstore, RingBuffer<RingBufferTruck> ringBuffer)
       throws IOException {
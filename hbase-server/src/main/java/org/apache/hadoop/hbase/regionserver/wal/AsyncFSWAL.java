@@ -33,6 +33,7 @@ import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -155,6 +156,12 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
   // check if there is already a consumer task in the event loop's task queue
   private final Supplier<Boolean> hasConsumerTask;
 
+  // schedules the end of the group commit windows, null if they are disabled
+  private final ScheduledExecutorService syncWaitScheduler;
+
+  // whether a sync is held for a group commit window, only accessed in the consumer
+  private boolean syncWaiting;
+
   private static final int MAX_EPOCH = 0x3FFFFFFF;
   // the lowest bit is waitingRoll, which means new writer is created and we are waiting for old
   // writer to be closed.
@@ -234,6 +241,14 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     }
 
     this.hasConsumerTask = hasConsumerTask;
+    if (!groupCommit.isEnabled()) {
+      this.syncWaitScheduler = null;
+    } else if (consumeExecutor instanceof ScheduledExecutorService) {
+      this.syncWaitScheduler = (ScheduledExecutorService) consumeExecutor;
+    } else {
+      this.syncWaitScheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("AsyncFSWAL-SyncWait-%d").setDaemon(true).build());
+    }
     int preallocatedEventCount =
       conf.getInt("hbase.regionserver.wal.disruptor.event.count", 1024 * 16);
     waitingConsumePayloads =
@@ -357,6 +372,42 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     }, consumeExecutor);
   }
 
+  /**
+   * Issues a sync, or holds it for a group commit window when sync requests are coming in quicker
+   * than the filesystem syncs them, so that those published meanwhile are made durable by the same
+   * filesystem sync.
+   */
+  private void syncOrWait(AsyncWriter writer) {
+    if (syncWaiting) {
+      // the held sync will take care of it
+      return;
+    }
+    long waitNs = syncWaitScheduler != null ? groupCommit.getWaitNanos() : 0;
+    if (waitNs <= 0) {
+      sync(writer);
+      return;
+    }
+    syncWaiting = true;
+    long waitStartNs = System.nanoTime();
+    syncWaitScheduler.schedule(() -> consumeExecutor.execute(() -> syncWaited(waitStartNs)),
+      waitNs, TimeUnit.NANOSECONDS);
+  }
+
+  private void syncWaited(long waitStartNs) {
+    syncWaiting = false;
+    postSyncWait(System.nanoTime() - waitStartNs);
+    if (writerBroken(epochAndState)) {
+      return;
+    }
+    // the sync requests published while waiting have been consumed, unless the consumer is still
+    // scheduled, in which case it will issue the sync itself
+    AsyncWriter writer = this.writer;
+    if (writer.getLength() > fileLengthAtLastSync && !syncFutures.isEmpty() &&
+      syncFutures.last().getTxid() > highestProcessedAppendTxidAtLastSync) {
+      sync(writer);
+    }
+  }
+
   private void addTimeAnnotation(SyncFuture future, String annotation) {
     TraceUtil.addTimelineAnnotation(annotation);
     // TODO handle htrace API change, see HBASE-18895
@@ -531,7 +582,7 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
           if (writer.getLength() > fileLengthAtLastSync && !syncFutures.isEmpty() &&
             syncFutures.last().getTxid() > highestProcessedAppendTxidAtLastSync) {
             // no new data in the ringbuffer and we have at least one sync request
-            sync(writer);
+            syncOrWait(writer);
           }
           return;
         } else {
@@ -715,6 +766,9 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     if (!(consumeExecutor instanceof EventLoop)) {
       consumeExecutor.shutdown();
     }
+    if (syncWaitScheduler != null && syncWaitScheduler != consumeExecutor) {
+      syncWaitScheduler.shutdown();
+    }
   }
 
   @Override
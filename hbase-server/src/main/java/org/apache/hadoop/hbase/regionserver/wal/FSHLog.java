@@ -34,6 +34,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -574,6 +575,15 @@ public class FSHLog extends AbstractFSWAL<Writer> {
             }
             break;
           }
+          // Syncs are coming in quicker than the filesystem syncs them: hold this one a little
+          // so that the syncs offered meanwhile are made durable by the same filesystem sync.
+          long waitNs = groupCommit.getWaitNanos();
+          if (waitNs > 0) {
+            long waitStart = System.nanoTime();
+            LockSupport.parkNanos(this, waitNs);
+            currentSequence = this.sequence;
+            postSyncWait(System.nanoTime() - waitStart);
+          }
           // I got something. Lets run. Save off current sequence number in case it changes
           // while we run.
           //TODO handle htrace API change, see HBASE-18895
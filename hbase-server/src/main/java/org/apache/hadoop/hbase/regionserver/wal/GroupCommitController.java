@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Sizes the group commit window of a WAL, i.e. how long a sync may be held back so that the sync
+ * requests coming in meanwhile are made durable by the same filesystem sync.
+ * <p>
+ * Holding a sync only pays off when other sync requests are likely to arrive while it is held, so
+ * the window is a fraction of the observed sync latency, bounded by a maximum, and it is only
+ * opened when the observed rate of sync requests says that enough of them will arrive within it.
+ * When syncs are rare the window stays closed and syncs go out as soon as they are requested.
+ * <p>
+ * Fed by the WAL after each filesystem sync with its latency and the count of sync requests it
+ * released, and read before each filesystem sync.
+ */
+@InterfaceAudience.Private
+class GroupCommitController {
+
+  /** Maximum time a sync is held, in microseconds; 0 disables group commit windows */
+  static final String MAX_WAIT_KEY = "hbase.regionserver.wal.groupcommit.max.wait.us";
+  static final long DEFAULT_MAX_WAIT_US = 1000;
+
+  /** Fraction of the observed sync latency a sync is held */
+  static final String LATENCY_FRACTION_KEY = "hbase.regionserver.wal.groupcommit.latency.fraction";
+  static final double DEFAULT_LATENCY_FRACTION = 0.5;
+
+  /** Count of sync requests expected to join a held sync for it to be held */
+  static final String MIN_JOINERS_KEY = "hbase.regionserver.wal.groupcommit.min.joiners";
+  static final double DEFAULT_MIN_JOINERS = 2;
+
+  // Windows shorter than this are not opened: parking a thread for less overshoots by about as much
+  // as the sync it would save takes
+  private static final long MIN_WAIT_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  // Weight of the last observation in the moving averages
+  private static final double ALPHA = 0.2;
+
+  // The sync request rate is observed over intervals at least this long; a WAL which did not sync
+  // for longer, or for longer than two syncs, is idle and its observed rate stale
+  private static final long RATE_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final long maxWaitNs;
+  private final double latencyFraction;
+  private final double minJoiners;
+
+  // Moving average of the filesystem sync latency, in nanoseconds
+  private double syncLatencyNs;
+  // Moving average of the sync request rate, in requests per nanosecond
+  private double syncRate;
+  private long intervalStartNs;
+  private long intervalSyncs;
+
+  private volatile long lastSyncNs;
+  private volatile long idleNs = RATE_INTERVAL_NS;
+  private volatile long windowNs;
+  // Window held whatever the observed syncs, for tests
+  private volatile long forcedWindowNs;
+
+  GroupCommitController(Configuration conf) {
+    this.maxWaitNs = TimeUnit.MICROSECONDS.toNanos(
+      Math.max(0, conf.getLong(MAX_WAIT_KEY, DEFAULT_MAX_WAIT_US)));
+    this.latencyFraction = conf.getDouble(LATENCY_FRACTION_KEY, DEFAULT_LATENCY_FRACTION);
+    this.minJoiners = conf.getDouble(MIN_JOINERS_KEY, DEFAULT_MIN_JOINERS);
+    this.intervalStartNs = System.nanoTime();
+    this.lastSyncNs = intervalStartNs;
+  }
+
+  boolean isEnabled() {
+    return maxWaitNs > 0;
+  }
+
+  /**
+   * @return how long the sync about to be issued should be held, in nanoseconds, 0 if it should
+   *         be issued right away
+   */
+  long getWaitNanos() {
+    return getWaitNanos(System.nanoTime());
+  }
+
+  @VisibleForTesting
+  long getWaitNanos(long nowNs) {
+    long forcedWindow = forcedWindowNs;
+    if (forcedWindow > 0 && isEnabled()) {
+      return forcedWindow;
+    }
+    long window = windowNs;
+    if (window <= 0 || nowNs - lastSyncNs > idleNs) {
+      return 0;
+    }
+    return window;
+  }
+
+  /**
+   * Holds every sync for the given window, however the syncs come in, until set back to 0. Only
+   * has an effect if group commit is enabled.
+   */
+  @VisibleForTesting
+  void setForcedWindowNanos(long forcedWindowNs) {
+    this.forcedWindowNs = forcedWindowNs;
+  }
+
+  /**
+   * Observes a completed filesystem sync.
+   * @param timeInNanos how long the filesystem sync took
+   * @param handlerSyncs count of sync requests released by the filesystem sync
+   */
+  void syncCompleted(long timeInNanos, int handlerSyncs) {
+    syncCompleted(timeInNanos, handlerSyncs, System.nanoTime());
+  }
+
+  @VisibleForTesting
+  synchronized void syncCompleted(long timeInNanos, int handlerSyncs, long nowNs) {
+    if (!isEnabled()) {
+      return;
+    }
+    syncLatencyNs = syncLatencyNs == 0 ? timeInNanos
+        : syncLatencyNs + ALPHA * (timeInNanos - syncLatencyNs);
+    if (nowNs - lastSyncNs > idleNs) {
+      // Idle since the last sync, start observing the rate over again from this sync
+      syncRate = 0;
+      intervalStartNs = nowNs - timeInNanos;
+      intervalSyncs = 0;
+    }
+    intervalSyncs += handlerSyncs;
+    long elapsed = nowNs - intervalStartNs;
+    if (elapsed >= RATE_INTERVAL_NS) {
+      double rate = (double) intervalSyncs / elapsed;
+      syncRate = syncRate == 0 ? rate : syncRate + ALPHA * (rate - syncRate);
+      intervalStartNs = nowNs;
+      intervalSyncs = 0;
+    }
+    idleNs = Math.max(RATE_INTERVAL_NS, (long) (2 * syncLatencyNs));
+    long window = Math.min(maxWaitNs, (long) (latencyFraction * syncLatencyNs));
+    windowNs = window >= MIN_WAIT_NS && syncRate * window >= minJoiners ? window : 0;
+    lastSyncNs = nowNs;
+  }
+}
@@ -106,4 +106,11 @@ public interface WALActionsListener {
    * sync.
    */
   default void postSync(final long timeInNanos, final int handlerSyncs) {}
+
+  /**
+   * For notification that a writer sync was held back so that more sync handler calls join it.
+   * Used by metrics system at least.
+   * @param timeInNanos How long the sync was held in nanoseconds.
+   */
+  default void postSyncWait(final long timeInNanos) {}
 }
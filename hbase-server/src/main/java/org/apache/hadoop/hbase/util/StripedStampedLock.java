@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Allows multiple concurrent clients to lock on a numeric id with a fixed number of
+ * {@link StampedLock}s, each shared by all ids hashing to it. Unlike {@link IdReadWriteLock},
+ * getting the lock of an id allocates nothing, and readers may read optimistically:
+ *
+ * <pre>
+ * StampedLock lock = stripedLock.getLock(id);
+ * long stamp = lock.tryOptimisticRead();
+ * // User code, which must tolerate concurrent writes.
+ * if (!lock.validate(stamp)) {
+ *   stamp = lock.readLock();
+ *   try {
+ *     // User code.
+ *   } finally {
+ *     lock.unlockRead(stamp);
+ *   }
+ * }
+ * </pre>
+ *
+ * The locks are not reentrant, and two ids may share a lock, so a thread must not take the lock
+ * of an id while it holds the lock of another.
+ */
+@InterfaceAudience.Private
+public class StripedStampedLock {
+  private final StampedLock[] locks;
+  private final int mask;
+
+  /**
+   * @param stripes the number of locks, rounded up to a power of two
+   */
+  public StripedStampedLock(int stripes) {
+    int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    this.locks = new StampedLock[size];
+    for (int i = 0; i < size; i++) {
+      locks[i] = new StampedLock();
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Get the StampedLock guarding the given id
+   * @param id an arbitrary number to identify the lock
+   */
+  public StampedLock getLock(long id) {
+    // Spread the bits, as ids like offsets are often multiples of a power of two
+    long h = id * 0x9E3779B97F4A7C15L;
+    return locks[(int) (h >>> 32) & mask];
+  }
+
+  public int getStripes() {
+    return locks.length;
+  }
+}
@@ -0,0 +1,293 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ImmutableByteArray;
+import org.apache.hadoop.hbase.wal.RegionGroupingProvider.RegionGroupingStrategy;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A WAL grouping strategy that spreads the regions over "hbase.wal.regiongrouping.numgroups"
+ * groups by load, and moves regions off the groups which get more than their share of it.
+ * <p>
+ * The load of a group is the bytes its regions append to its WAL, weighted by how long the syncs
+ * of its WAL take compared to those of the other groups, so that a group on a slow pipeline counts
+ * as more loaded than one appending as much on a quick pipeline. A new region goes to the least
+ * loaded group. Every "hbase.wal.regiongrouping.balanced.period" milliseconds, if the most loaded
+ * group is over the average load by more than "hbase.wal.regiongrouping.balanced.slop", regions
+ * are moved from the most loaded group to the least loaded one for as long as that lowers the
+ * highest load.
+ * <p>
+ * A region picks up its new group the next time it flushes all its stores: it switches to the WAL
+ * of the new group while updates are blocked for the snapshot, once all its edits in the WAL of
+ * the old group are being flushed. The sequence id accounting of the old WAL lets go of the region
+ * when the flush completes, and the new WAL only sees the edits which come after.
+ */
+@InterfaceAudience.Private
+public class BalancedGroupingStrategy implements RegionGroupingStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(BalancedGroupingStrategy.class);
+
+  static final String STRATEGY_NAME = RegionGroupingProvider.Strategies.balanced.name();
+
+  static final String BALANCE_PERIOD = "hbase.wal.regiongrouping.balanced.period";
+  static final long DEFAULT_BALANCE_PERIOD = 60000;
+
+  static final String BALANCE_SLOP = "hbase.wal.regiongrouping.balanced.slop";
+  static final float DEFAULT_BALANCE_SLOP = 0.2f;
+
+  /**
+   * @return whether the regions may be moved between WAL groups, i.e. whether the WALs are grouped
+   *         by this strategy
+   */
+  public static boolean isEnabled(Configuration conf) {
+    String strategy = conf.get(RegionGroupingProvider.REGION_GROUPING_STRATEGY);
+    return STRATEGY_NAME.equals(strategy)
+        || BalancedGroupingStrategy.class.getName().equals(strategy);
+  }
+
+  /**
+   * Load of a region, and the group it belongs to.
+   */
+  private static final class RegionLoad {
+    private final LongAdder appendedBytes = new LongAdder();
+    private volatile String group;
+    // bytes appended over the last balance period
+    private long lastBytes;
+
+    RegionLoad(String group) {
+      this.group = group;
+    }
+  }
+
+  /**
+   * Load of the WAL of a group, fed by the WAL itself.
+   */
+  private final class GroupLoad implements WALActionsListener {
+    private final String group;
+    private final LongAdder syncNanos = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    // mean sync latency over the last balance period which had syncs
+    private double syncLatency;
+    // bytes the regions of the group appended over the last balance period
+    private long lastBytes;
+    // lastBytes weighted by the relative sync latency of the group
+    private double load;
+
+    GroupLoad(String group) {
+      this.group = group;
+    }
+
+    @Override
+    public void postAppend(long entryLen, long elapsedTimeMillis, WALKey logKey, WALEdit logEdit) {
+      // A region forgotten while idle is tracked again from the group whose WAL it appends to
+      regions.computeIfAbsent(ImmutableByteArray.wrap(logKey.getEncodedRegionName()),
+        k -> new RegionLoad(group)).appendedBytes.add(entryLen);
+    }
+
+    @Override
+    public void postSync(long timeInNanos, int handlerSyncs) {
+      syncNanos.add(timeInNanos);
+      syncs.increment();
+    }
+  }
+
+  private final ConcurrentMap<ImmutableByteArray, RegionLoad> regions = new ConcurrentHashMap<>();
+  private final Map<String, GroupLoad> groups = new HashMap<>();
+  private final ReentrantLock balanceLock = new ReentrantLock();
+
+  private String[] groupNames;
+  private long balancePeriod;
+  private float slop;
+  private volatile long lastBalanceTime;
+
+  @Override
+  public void init(Configuration config, String providerId) {
+    int regionGroupNumber = config.getInt(BoundedGroupingStrategy.NUM_REGION_GROUPS,
+      BoundedGroupingStrategy.DEFAULT_NUM_REGION_GROUPS);
+    groupNames = new String[regionGroupNumber];
+    for (int i = 0; i < regionGroupNumber; i++) {
+      groupNames[i] = providerId + GROUP_NAME_DELIMITER + "regiongroup-" + i;
+      groups.put(groupNames[i], new GroupLoad(groupNames[i]));
+    }
+    balancePeriod = config.getLong(BALANCE_PERIOD, DEFAULT_BALANCE_PERIOD);
+    slop = config.getFloat(BALANCE_SLOP, DEFAULT_BALANCE_SLOP);
+    lastBalanceTime = EnvironmentEdgeManager.currentTime();
+  }
+
+  @Override
+  public void groupProviderCreated(String group, WALProvider provider) {
+    GroupLoad load = groups.get(group);
+    if (load != null) {
+      provider.addWALActionsListener(load);
+    }
+  }
+
+  @Override
+  public String group(byte[] identifier, byte[] namespace) {
+    long now = EnvironmentEdgeManager.currentTime();
+    if (now - lastBalanceTime >= balancePeriod && balanceLock.tryLock()) {
+      try {
+        if (now - lastBalanceTime >= balancePeriod) {
+          balance();
+          lastBalanceTime = now;
+        }
+      } finally {
+        balanceLock.unlock();
+      }
+    }
+    ImmutableByteArray key = ImmutableByteArray.wrap(identifier);
+    RegionLoad region = regions.get(key);
+    if (region == null) {
+      balanceLock.lock();
+      try {
+        region = regions.computeIfAbsent(key, k -> new RegionLoad(leastLoadedGroup()));
+      } finally {
+        balanceLock.unlock();
+      }
+    }
+    return region.group;
+  }
+
+  /**
+   * @return the group with the lowest load over the last balance period, the one with the fewest
+   *         regions among those
+   */
+  private String leastLoadedGroup() {
+    Map<String, Integer> counts = new HashMap<>();
+    for (RegionLoad region : regions.values()) {
+      counts.merge(region.group, 1, Integer::sum);
+    }
+    String least = null;
+    for (String group : groupNames) {
+      if (least == null || groups.get(group).load < groups.get(least).load
+          || (groups.get(group).load == groups.get(least).load
+              && counts.getOrDefault(group, 0) < counts.getOrDefault(least, 0))) {
+        least = group;
+      }
+    }
+    return least;
+  }
+
+  /**
+   * Rolls the loads observed over the last period, and moves regions off the most loaded group.
+   * Called with the balance lock held.
+   */
+  @VisibleForTesting
+  void balance() {
+    for (GroupLoad group : groups.values()) {
+      long syncs = group.syncs.sumThenReset();
+      long syncNanos = group.syncNanos.sumThenReset();
+      if (syncs > 0) {
+        group.syncLatency = (double) syncNanos / syncs;
+      }
+      group.lastBytes = 0;
+    }
+    for (Iterator<RegionLoad> iter = regions.values().iterator(); iter.hasNext();) {
+      RegionLoad region = iter.next();
+      region.lastBytes = region.appendedBytes.sumThenReset();
+      if (region.lastBytes == 0) {
+        // Idle for a whole period, or gone from this server: forget about it until it appends or
+        // asks for a group again
+        iter.remove();
+        continue;
+      }
+      groups.get(region.group).lastBytes += region.lastBytes;
+    }
+    double meanLatency = 0;
+    int latencies = 0;
+    for (GroupLoad group : groups.values()) {
+      if (group.syncLatency > 0) {
+        meanLatency += group.syncLatency;
+        latencies++;
+      }
+    }
+    meanLatency = latencies == 0 ? 0 : meanLatency / latencies;
+    double totalLoad = 0;
+    for (GroupLoad group : groups.values()) {
+      group.load = group.lastBytes * weight(group, meanLatency);
+      totalLoad += group.load;
+    }
+    double maxLoad = totalLoad / groups.size() * (1 + slop);
+    for (int moves = 0; moves < regions.size(); moves++) {
+      String hot = null;
+      String cold = null;
+      for (String group : groupNames) {
+        if (hot == null || groups.get(group).load > groups.get(hot).load) {
+          hot = group;
+        }
+        if (cold == null || groups.get(group).load < groups.get(cold).load) {
+          cold = group;
+        }
+      }
+      GroupLoad hotLoad = groups.get(hot);
+      GroupLoad coldLoad = groups.get(cold);
+      if (hotLoad.load <= maxLoad) {
+        break;
+      }
+      double hotWeight = weight(hotLoad, meanLatency);
+      double coldWeight = weight(coldLoad, meanLatency);
+      // The region of the hot group which, moved to the cold group, lowers their highest load most
+      Map.Entry<ImmutableByteArray, RegionLoad> best = null;
+      double bestLoad = hotLoad.load;
+      for (Map.Entry<ImmutableByteArray, RegionLoad> e : regions.entrySet()) {
+        RegionLoad region = e.getValue();
+        if (!hot.equals(region.group)) {
+          continue;
+        }
+        double newLoad = Math.max((hotLoad.lastBytes - region.lastBytes) * hotWeight,
+          (coldLoad.lastBytes + region.lastBytes) * coldWeight);
+        if (newLoad < bestLoad) {
+          best = e;
+          bestLoad = newLoad;
+        }
+      }
+      if (best == null) {
+        break;
+      }
+      RegionLoad region = best.getValue();
+      LOG.info("Moving region {} from WAL group {} to {}, {} bytes appended over the last period",
+        best.getKey().toStringUtf8(), hot, cold, region.lastBytes);
+      region.group = cold;
+      hotLoad.lastBytes -= region.lastBytes;
+      coldLoad.lastBytes += region.lastBytes;
+      hotLoad.load = hotLoad.lastBytes * hotWeight;
+      coldLoad.load = coldLoad.lastBytes * coldWeight;
+    }
+  }
+
+  /**
+   * @return how much a byte appended to the WAL of the group weighs compared to the other groups
+   */
+  private static double weight(GroupLoad group, double meanLatency) {
+    return group.syncLatency > 0 && meanLatency > 0 ? group.syncLatency / meanLatency : 1;
+  }
+}
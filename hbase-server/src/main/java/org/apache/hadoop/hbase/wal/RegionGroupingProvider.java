@@ -52,6 +52,8 @@ import org.slf4j.LoggerFactory;
  *                                  "bounded".</li>
  *   <li><em>identity</em> : each region belongs to its own group.</li>
  *   <li><em>bounded</em> : bounded number of groups and region evenly assigned to each group.</li>
+ *   <li><em>balanced</em> : bounded number of groups and region assigned to and moved between
+ *                           groups by the load of their WALs.</li>
  * </ul>
  * Optionally, a FQCN to a custom implementation may be given.
  */
@@ -70,6 +72,12 @@ public class RegionGroupingProvider implements WALProvider {
      */
     String group(final byte[] identifier, byte[] namespace);
     void init(Configuration config, String providerId);
+
+    /**
+     * Called once the WALProvider of a group is created, before any WAL is got from it.
+     */
+    default void groupProviderCreated(String group, WALProvider provider) {
+    }
   }
 
   /**
@@ -79,6 +87,7 @@ public class RegionGroupingProvider implements WALProvider {
     defaultStrategy(BoundedGroupingStrategy.class),
     identity(IdentityGroupingStrategy.class),
     bounded(BoundedGroupingStrategy.class),
+    balanced(BalancedGroupingStrategy.class),
     namespace(NamespaceGroupingStrategy.class);
 
     final Class<? extends RegionGroupingStrategy> clazz;
@@ -177,6 +186,7 @@ public class RegionGroupingProvider implements WALProvider {
         if (provider == null) {
           provider = createProvider(group);
           listeners.forEach(provider::addWALActionsListener);
+          strategy.groupProviderCreated(group, provider);
           cached.put(group, provider);
         }
       } finally {
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestBlockCachePartitions {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBlockCachePartitions.class);
+
+  private static final String HOT_FILE = "hot";
+  private static final String BATCH_FILE = "batch";
+
+  @Before
+  public void setUp() {
+    BlockCachePartitions.clear();
+  }
+
+  @After
+  public void tearDown() {
+    BlockCachePartitions.clear();
+  }
+
+  private static BlockCachePartitions.Partition partition(String name, float minShare,
+      float maxShare) {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(BlockCachePartitions.PARTITION_KEY, name);
+    conf.setFloat(BlockCachePartitions.MIN_SHARE_KEY, minShare);
+    conf.setFloat(BlockCachePartitions.MAX_SHARE_KEY, maxShare);
+    return BlockCachePartitions.getPartition(conf);
+  }
+
+  private static int countCached(BlockCache cache, String hfileName, int blocks) {
+    int cached = 0;
+    for (int i = 0; i < blocks; i++) {
+      if (cache.getBlock(new BlockCacheKey(hfileName, i), false, false, false) != null) {
+        cached++;
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Caches the hot blocks, then several times the size of the cache of batch blocks.
+   */
+  private static void fillLruBlockCache(LruBlockCache cache, int hotBlocks, int batchBlocks) {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(1024, hotBlocks + batchBlocks);
+    for (int i = 0; i < hotBlocks; i++) {
+      cache.cacheBlock(new BlockCacheKey(HOT_FILE, i), blocks[i].getBlock());
+    }
+    for (int i = 0; i < batchBlocks; i++) {
+      cache.cacheBlock(new BlockCacheKey(BATCH_FILE, i), blocks[hotBlocks + i].getBlock());
+    }
+  }
+
+  @Test
+  public void testLruBlockCacheWithoutPartitions() {
+    LruBlockCache cache = new LruBlockCache(256 * 1024, 1024, false);
+    fillLruBlockCache(cache, 50, 1000);
+    // The hot blocks are the least recently used ones
+    assertEquals(0, countCached(cache, HOT_FILE, 50));
+  }
+
+  @Test
+  public void testLruBlockCache() {
+    BlockCachePartitions.Partition hot = partition("hot", 0.4f, 1f);
+    BlockCachePartitions.Partition batch = partition("batch", 0f, 0.3f);
+    BlockCachePartitions.registerFile(HOT_FILE, hot);
+    BlockCachePartitions.registerFile(BATCH_FILE, batch);
+
+    LruBlockCache cache = new LruBlockCache(256 * 1024, 1024, false);
+    fillLruBlockCache(cache, 50, 1000);
+    assertEquals(50, countCached(cache, HOT_FILE, 50));
+    assertTrue(countCached(cache, BATCH_FILE, 1000) > 0);
+    assertEquals(0, hot.getEvictedCount());
+    assertTrue(batch.getEvictedCount() > 0);
+  }
+
+  @Test
+  public void testMinShareProtectsFromLru() {
+    BlockCachePartitions.Partition hot = partition("hot", 0.4f, 1f);
+    BlockCachePartitions.registerFile(HOT_FILE, hot);
+
+    LruBlockCache cache = new LruBlockCache(256 * 1024, 1024, false);
+    fillLruBlockCache(cache, 50, 1000);
+    assertEquals(50, countCached(cache, HOT_FILE, 50));
+    assertEquals(0, hot.getEvictedCount());
+  }
+
+  @Test
+  public void testLruBlockCacheBytesFreed() {
+    BlockCachePartitions.Partition batch = partition("batch", 0f, 0.3f);
+    BlockCachePartitions.registerFile(BATCH_FILE, batch);
+
+    long maxSize = 16 * 1024 * 1024;
+    LruBlockCache cache = new LruBlockCache(maxSize, 1024, false);
+    Cacheable block = CacheTestUtils.generateHFileBlocks(1024, 1)[0].getBlock();
+    long overhead = cache.getCurrentSize();
+    cache.cacheBlock(new BlockCacheKey(BATCH_FILE, 0), block);
+    long blockHeapSize = cache.getCurrentSize() - overhead;
+    // The batch blocks go a little over their share, not enough to free what the eviction has to
+    int batchBlocks = (int) (maxSize * 0.32 / blockHeapSize);
+    for (int i = 1; i < batchBlocks; i++) {
+      cache.cacheBlock(new BlockCacheKey(BATCH_FILE, i), block);
+    }
+    int i = batchBlocks;
+    while (cache.getCurrentSize() + blockHeapSize <= cache.acceptableSize()) {
+      cache.cacheBlock(new BlockCacheKey(HOT_FILE, i), block);
+      i++;
+    }
+    assertEquals(0, cache.getStats().getEvictedCount());
+    long bytesToFree = cache.getCurrentSize() - (long) (maxSize * 0.95f);
+    assertTrue(batchBlocks * blockHeapSize - maxSize * 0.3 < bytesToFree);
+
+    cache.evict();
+    long freed = cache.getStats().getEvictedCount() * blockHeapSize;
+    assertTrue("freed " + freed + " of " + bytesToFree, freed >= bytesToFree);
+    assertTrue("freed " + freed + " of " + bytesToFree, freed < bytesToFree + 3 * blockHeapSize);
+    assertTrue(countCached(cache, BATCH_FILE, batchBlocks) * blockHeapSize <= maxSize * 0.3);
+    assertTrue(batch.getEvictedCount() > 0);
+  }
+
+  @Test
+  public void testBucketCache() throws Exception {
+    BlockCachePartitions.Partition hot = partition("hot", 0.4f, 1f);
+    BlockCachePartitions.Partition batch = partition("batch", 0f, 0.3f);
+    BlockCachePartitions.registerFile(HOT_FILE, hot);
+    BlockCachePartitions.registerFile(BATCH_FILE, batch);
+
+    int blockSize = 8 * 1024;
+    BucketCache cache = new BucketCache("offheap", 4 * 1024 * 1024, blockSize,
+        new int[] { blockSize + 1024 }, 1, 64, null);
+    // Do not drop the blocks the writer does not keep up with
+    cache.setWaitWhenCache(true);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(blockSize, 1);
+    HFileBlock block = (HFileBlock) blocks[0].getBlock();
+    int hotBlocks = 50;
+    for (int i = 0; i < hotBlocks; i++) {
+      cache.cacheBlock(new BlockCacheKey(HOT_FILE, i), block);
+    }
+    waitUntilWritten(cache);
+    for (int i = 0; i < 2000; i++) {
+      cache.cacheBlock(new BlockCacheKey(BATCH_FILE, i), block);
+    }
+    waitUntilWritten(cache);
+    for (int i = 0; i < hotBlocks; i++) {
+      Cacheable cached = cache.getBlock(new BlockCacheKey(HOT_FILE, i), false, false, false);
+      assertNotNull("hot block " + i + " evicted", cached);
+      cache.returnBlock(new BlockCacheKey(HOT_FILE, i), cached);
+    }
+    assertEquals(0, hot.getEvictedCount());
+    assertTrue(batch.getEvictedCount() > 0);
+    cache.shutdown();
+  }
+
+  /**
+   * Waits for the writers of the cache to write out all the blocks they were given.
+   */
+  private static void waitUntilWritten(BucketCache cache) throws InterruptedException {
+    // the heap size of the bucket cache is that of the blocks not written yet
+    while (cache.heapSize() > 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testPartitionFromConfiguration() {
+    Configuration conf = HBaseConfiguration.create();
+    assertNull(BlockCachePartitions.getPartition(conf));
+    conf.set(BlockCachePartitions.PARTITION_KEY, "ns1");
+    conf.setFloat(BlockCachePartitions.MAX_SHARE_KEY, 0.5f);
+    BlockCachePartitions.Partition partition = BlockCachePartitions.getPartition(conf);
+    assertEquals("ns1", partition.getName());
+    assertEquals(0.5f, partition.getMaxShare(), 0f);
+    // Stores naming the same partition share it
+    assertTrue(partition == BlockCachePartitions.getPartition(conf));
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestBlockCacheTracer {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBlockCacheTracer.class);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int BLOCK_SIZE = 4 * 1024;
+
+  /**
+   * Traces rounds over a working set of blocks, missing and caching each block on the first
+   * round and hitting it on the others.
+   */
+  private File trace(double sampleRate, int blocks, int rounds) throws Exception {
+    File traceFile = new File(folder.getRoot(), "blockcache.trace");
+    try (BlockCacheTracer tracer = new BlockCacheTracer(sampleRate, 1024, traceFile, 60000)) {
+      for (int round = 0; round < rounds; round++) {
+        for (int i = 0; i < blocks; i++) {
+          byte flags = round == 0 ? BlockCacheTracer.FLAG_CACHE_ON_MISS : BlockCacheTracer.FLAG_HIT;
+          tracer.record(new BlockCacheKey("file" + (i % 3), i * BLOCK_SIZE), BLOCK_SIZE,
+            BlockType.DATA, flags);
+        }
+        // Flush before the ring wraps around
+        tracer.flush();
+      }
+      assertEquals(0, tracer.getLostCount());
+    }
+    return traceFile;
+  }
+
+  @Test
+  public void testTraceRoundTrip() throws Exception {
+    File traceFile = trace(1, 100, 2);
+    BlockCacheTracer.Access access = new BlockCacheTracer.Access();
+    try (BlockCacheTracer.Reader reader = new BlockCacheTracer.Reader(traceFile)) {
+      assertEquals(1, reader.getSampleRate(), 0);
+      for (int i = 0; i < 200; i++) {
+        assertTrue(reader.next(access));
+        assertEquals((i % 100) * BLOCK_SIZE, access.getOffset());
+        assertEquals(BLOCK_SIZE, access.getSize());
+        assertEquals(BlockType.DATA, access.getBlockType());
+        assertEquals(i >= 100, access.isHit());
+        assertEquals(i < 100, access.isCacheOnMiss());
+        assertFalse(access.isInMemory());
+      }
+      assertFalse(reader.next(access));
+    }
+  }
+
+  @Test
+  public void testSampling() throws Exception {
+    File traceFile = trace(0.1, 1000, 1);
+    BlockCacheTracer.Access access = new BlockCacheTracer.Access();
+    int traced = 0;
+    try (BlockCacheTracer.Reader reader = new BlockCacheTracer.Reader(traceFile)) {
+      assertEquals(0.1, reader.getSampleRate(), 0);
+      while (reader.next(access)) {
+        traced++;
+      }
+    }
+    assertTrue("traced " + traced, traced > 50 && traced < 150);
+  }
+
+  @Test
+  public void testSimulate() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    File traceFile = trace(1, 100, 10);
+    for (BlockCacheSimulator.Policy policy : new BlockCacheSimulator.Policy[] {
+        BlockCacheSimulator.Policy.LRU, BlockCacheSimulator.Policy.TINYLFU }) {
+      BlockCacheSimulator.Result large = BlockCacheSimulator.simulate(policy, 4 * 1024 * 1024,
+        Collections.singletonList(traceFile), conf);
+      assertEquals(1000, large.getAccesses());
+      assertEquals(0.1, large.getTracedMissRatio(), 0.0001);
+      // Only the first round misses when the working set fits
+      assertEquals(policy.toString(), 100, large.getMisses());
+
+      BlockCacheSimulator.Result small = BlockCacheSimulator.simulate(policy, 200 * 1024,
+        Collections.singletonList(traceFile), conf);
+      assertTrue(policy.toString(), small.getMissRatio() > large.getMissRatio());
+    }
+  }
+}
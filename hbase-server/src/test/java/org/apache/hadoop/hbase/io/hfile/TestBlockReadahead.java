@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.HFileTestUtil;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestBlockReadahead {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBlockReadahead.class);
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int ROWS = 2000;
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create(TEST_UTIL.getConfiguration());
+    conf.setBoolean(BlockReadahead.READAHEAD_ENABLED_KEY, true);
+    conf.setInt(BlockReadahead.MIN_BLOCKS_KEY, 2);
+    conf.setInt(BlockReadahead.MAX_BLOCKS_KEY, 8);
+    fs = FileSystem.get(conf);
+  }
+
+  private static KeyValue kv(int row) {
+    return HFileTestUtil.createRowCell(row);
+  }
+
+  private Path writeHFile(String name, DataBlockEncoding encoding) throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFileTestUtil.createHFileOfRows(conf, fs, path, CacheConfig.DISABLED, encoding, ROWS, null);
+    return path;
+  }
+
+  private void scanAll(HFile.Reader reader, CacheConfig cacheConf) throws IOException {
+    HFileReaderImpl.HFileScannerImpl scanner =
+        (HFileReaderImpl.HFileScannerImpl) reader.getScanner(cacheConf.isBlockCacheEnabled(), true);
+    assertTrue(scanner.seekTo());
+    boolean readAhead = false;
+    int row = 0;
+    do {
+      assertEquals(0, CellComparatorImpl.COMPARATOR.compare(kv(row), scanner.getCell()));
+      row++;
+      readAhead |= scanner.getReadahead().getPendingCount() > 0;
+    } while (scanner.next());
+    assertEquals(ROWS, row);
+    assertTrue(readAhead);
+    scanner.close();
+    assertEquals(0, scanner.getReadahead().getPendingCount());
+  }
+
+  @Test
+  public void testSequentialScan() throws IOException {
+    for (DataBlockEncoding encoding : new DataBlockEncoding[] { DataBlockEncoding.NONE,
+        DataBlockEncoding.FAST_DIFF }) {
+      Path path = writeHFile("testSequentialScan" + encoding, encoding);
+      for (CacheConfig cacheConf : new CacheConfig[] { CacheConfig.DISABLED,
+          new CacheConfig(new LruBlockCache(16 * 1024 * 1024, 1024), true, false, false, false,
+              false, false, false, false, false) }) {
+        HFile.Reader reader = HFile.createReader(fs, path, cacheConf, true, conf);
+        reader.loadFileInfo();
+        scanAll(reader, cacheConf);
+        reader.close(true);
+      }
+    }
+  }
+
+  @Test
+  public void testMultiLevelIndex() throws IOException {
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 256);
+    Path path = writeHFile("testMultiLevelIndex", DataBlockEncoding.NONE);
+    HFile.Reader reader = HFile.createReader(fs, path, CacheConfig.DISABLED, true, conf);
+    reader.loadFileInfo();
+    assertTrue(reader.getTrailer().getNumDataIndexLevels() > 1);
+
+    // The blocks following the first one, as found in the index, are the blocks in file order
+    HFileBlockIndex.CellBasedKeyBlockIndexReader indexReader =
+        (HFileBlockIndex.CellBasedKeyBlockIndexReader) reader.getDataBlockIndexReader();
+    long[] offsets = new long[4];
+    int[] sizes = new int[4];
+    int found = indexReader.getNextDataBlocks(kv(0), offsets, sizes);
+    assertTrue(found > 0);
+    HFileBlock block = reader.readBlock(reader.getTrailer().getFirstDataBlockOffset(), -1, false,
+      true, false, false, BlockType.DATA, null);
+    for (int i = 0; i < found; i++) {
+      long next = block.getOffset() + block.getOnDiskSizeWithHeader();
+      do {
+        block = reader.readBlock(next, -1, false, true, false, false, null, null);
+        next = block.getOffset() + block.getOnDiskSizeWithHeader();
+      } while (!block.getBlockType().isData());
+      assertEquals(block.getOffset(), offsets[i]);
+      assertEquals(block.getOnDiskSizeWithHeader(), sizes[i]);
+    }
+
+    scanAll(reader, CacheConfig.DISABLED);
+    reader.close(true);
+  }
+
+  @Test
+  public void testSeekAwayDropsReadahead() throws IOException {
+    Path path = writeHFile("testSeekAwayDropsReadahead", DataBlockEncoding.NONE);
+    HFile.Reader reader = HFile.createReader(fs, path, CacheConfig.DISABLED, true, conf);
+    reader.loadFileInfo();
+    HFileReaderImpl.HFileScannerImpl scanner =
+        (HFileReaderImpl.HFileScannerImpl) reader.getScanner(false, true);
+    BlockReadahead readahead = scanner.getReadahead();
+    assertTrue(scanner.seekTo());
+    for (int i = 0; i < ROWS / 2; i++) {
+      assertTrue(scanner.next());
+    }
+    assertTrue(readahead.getPendingCount() > 0);
+
+    assertEquals(0, scanner.seekTo(kv(10)));
+    assertEquals(0, readahead.getPendingCount());
+    assertEquals(2, readahead.getWindow());
+    scanner.close();
+
+    // Compactions do not read ahead
+    assertNull(((HFileReaderImpl.HFileScannerImpl) reader.getScanner(false, true, true))
+        .getReadahead());
+    reader.close(true);
+  }
+}
@@ -343,7 +343,7 @@ public class TestCacheConfig {
     assertTrue(cc.getBlockCache() instanceof CombinedBlockCache);
     // TODO: Assert sizes allocated are right and proportions.
     CombinedBlockCache cbc = (CombinedBlockCache)cc.getBlockCache();
-    LruBlockCache lbc = cbc.onHeapCache;
+    LruBlockCache lbc = (LruBlockCache) cbc.onHeapCache;
     assertEquals(lruExpectedSize, lbc.getMaxSize());
     BlockCache bc = cbc.l2Cache;
     // getMaxSize comes back in bytes but we specified size in MB
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.function.BiPredicate;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.compactions.HotBlockRanges;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.HFileTestUtil;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests finding the key ranges of the hot blocks of an hfile and caching only the blocks of a
+ * newly written hfile which overlap them, as compactions do.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestCacheHotBlocksOnWrite {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestCacheHotBlocksOnWrite.class);
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int ROWS = 1000;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private LruBlockCache cache;
+  private CacheConfig cacheConf;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    fs = FileSystem.get(conf);
+    cache = new LruBlockCache(32 * 1024 * 1024, 1024);
+    cacheConf = new CacheConfig(cache, true, false, false, false, false, false, false, false,
+        false);
+  }
+
+  private static KeyValue kv(int row) {
+    return HFileTestUtil.createRowCell(row);
+  }
+
+  private Path writeHFile(String name, DataBlockEncoding encoding,
+      BiPredicate<Cell, Cell> cacheOnWriteFilter) throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFileTestUtil.createHFileOfRows(conf, fs, path, cacheConf, encoding, ROWS,
+      cacheOnWriteFilter);
+    return path;
+  }
+
+  private int countCachedBlocks(String name) {
+    int count = 0;
+    for (CachedBlock cb : cache) {
+      if (cb.getFilename().equals(name)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void readRows(HFile.Reader reader, int from, int to) throws IOException {
+    HFileScanner scanner = reader.getScanner(true, true);
+    for (int i = from; i < to; i++) {
+      assertEquals(0, scanner.seekTo(kv(i)));
+    }
+  }
+
+  @Test
+  public void testDataBlockKeyRange() throws IOException {
+    for (DataBlockEncoding encoding : new DataBlockEncoding[] { DataBlockEncoding.NONE,
+        DataBlockEncoding.FAST_DIFF }) {
+      Path path = writeHFile("testDataBlockKeyRange" + encoding, encoding, null);
+      HFile.Reader reader = HFile.createReader(fs, path, cacheConf, true, conf);
+      reader.loadFileInfo();
+      FixedFileTrailer trailer = reader.getTrailer();
+      Pair<Cell, Cell> first = reader.getDataBlockKeyRange(trailer.getFirstDataBlockOffset());
+      assertEquals(0, CellComparatorImpl.COMPARATOR.compare(kv(0), first.getFirst()));
+      assertNotNull(first.getSecond());
+      assertTrue(CellComparatorImpl.COMPARATOR.compare(kv(0), first.getSecond()) < 0);
+      Pair<Cell, Cell> last = reader.getDataBlockKeyRange(trailer.getLastDataBlockOffset());
+      assertTrue(CellComparatorImpl.COMPARATOR.compare(first.getSecond(), last.getFirst()) <= 0);
+      assertNull(last.getSecond());
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testCacheOnlyBlocksOverlappingHotRanges() throws IOException {
+    Path input = writeHFile("testHotInput", DataBlockEncoding.NONE, null);
+    HFile.Reader reader = HFile.createReader(fs, input, cacheConf, true, conf);
+    reader.loadFileInfo();
+    HotBlockRanges ranges = HotBlockRanges.collect(cache, Collections.singletonList(reader),
+      CellComparatorImpl.COMPARATOR, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    assertTrue(ranges.isEmpty());
+
+    // Rows read twice are hot, rows read once are not
+    readRows(reader, 400, 500);
+    readRows(reader, 400, 500);
+    readRows(reader, 900, 910);
+    ranges = HotBlockRanges.collect(cache, Collections.singletonList(reader),
+      CellComparatorImpl.COMPARATOR, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    assertFalse(ranges.isEmpty());
+    assertTrue(ranges.test(kv(450), kv(450)));
+    assertTrue(ranges.test(kv(300), kv(400)));
+    assertTrue(ranges.test(kv(499), kv(600)));
+    assertFalse(ranges.test(kv(0), kv(100)));
+    assertFalse(ranges.test(kv(900), kv(910)));
+
+    Path output = writeHFile("testHotOutput", DataBlockEncoding.NONE, ranges);
+    HFile.Reader outputReader = HFile.createReader(fs, output, cacheConf, true, conf);
+    outputReader.loadFileInfo();
+    int cached = countCachedBlocks(output.getName());
+    int dataBlocks = outputReader.getTrailer().getDataIndexCount();
+    assertTrue("Cached " + cached + " of " + dataBlocks + " blocks",
+      cached > 0 && cached < dataBlocks / 4);
+
+    // Reads of the hot rows from the new file are served from the cache
+    long missesBefore = cache.getStats().getMissCount();
+    readRows(outputReader, 400, 500);
+    assertEquals(missesBefore, cache.getStats().getMissCount());
+    outputReader.close(true);
+    reader.close(true);
+  }
+}
@@ -37,6 +37,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.testclassification.IOTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -237,4 +238,51 @@ public class TestLazyDataBlockDecompression {
       "disabledEvictedCount=" + disabledEvictedCount + ", enabledEvictedCount=" +
       enabledEvictedCount, enabledEvictedCount < disabledEvictedCount);
   }
+
+  @Test
+  public void testPromoteUnpackedDataBlocksToL1() throws Exception {
+    Path hfilePath = new Path(TEST_UTIL.getDataTestDir(), "testPromoteUnpackedDataBlocksToL1");
+    HFileContext context = new HFileContextBuilder()
+      .withCompression(Compression.Algorithm.GZ)
+      .build();
+    Configuration conf = HBaseConfiguration.create(TEST_UTIL.getConfiguration());
+    conf.setBoolean(CacheConfig.CACHE_BLOCKS_ON_WRITE_KEY, cacheOnWrite);
+    conf.setBoolean(CacheConfig.CACHE_DATA_BLOCKS_COMPRESSED_KEY, true);
+    conf.setBoolean(CacheConfig.PROMOTE_DATA_BLOCKS_UNCOMPRESSED_KEY, true);
+    LruBlockCache l1 = new LruBlockCache(HConstants.DEFAULT_BLOCKSIZE * 64,
+      HConstants.DEFAULT_BLOCKSIZE, false, conf);
+    BucketCache l2 = new BucketCache("offheap", 32 * 1024 * 1024, HConstants.DEFAULT_BLOCKSIZE,
+      null, 1, 100, null);
+    try {
+      CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE = new CombinedBlockCache(l1, l2);
+      CacheConfig cc = new CacheConfig(conf);
+      assertTrue(cc.shouldPromoteDataUncompressed());
+      writeHFile(conf, cc, fs, hfilePath, context, 2000);
+
+      if (!cacheOnWrite) {
+        // cached packed in L2 only
+        cacheBlocks(conf, cc, fs, hfilePath, context);
+        for (Map.Entry<BlockCacheKey, LruCachedBlock> e : l1.getMapForTests().entrySet()) {
+          assertFalse(e.getValue().getBuffer().getBlockType().isData());
+        }
+      }
+      // read from L2, so promoted
+      cacheBlocks(conf, cc, fs, hfilePath, context);
+      int promoted = 0;
+      for (Map.Entry<BlockCacheKey, LruCachedBlock> e : l1.getMapForTests().entrySet()) {
+        HFileBlock block = (HFileBlock) e.getValue().getBuffer();
+        if (block.getBlockType().isData()) {
+          assertTrue("found a packed block, block=" + block, block.isUnpackedCopy());
+          promoted++;
+        }
+      }
+      assertTrue("no data block promoted", promoted > 0);
+      // read from L1, not unpacked again
+      long l2Hits = l2.getStats().getHitCount();
+      cacheBlocks(conf, cc, fs, hfilePath, context);
+      assertEquals(l2Hits, l2.getStats().getHitCount());
+    } finally {
+      l2.shutdown();
+    }
+  }
 }
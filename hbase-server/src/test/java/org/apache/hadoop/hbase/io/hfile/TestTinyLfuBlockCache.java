@@ -0,0 +1,254 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the admission policy and the sizing of the TinyLfuBlockCache.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestTinyLfuBlockCache {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestTinyLfuBlockCache.class);
+
+  private static final int BLOCK_SIZE = 1000;
+  private static final int CACHE_BLOCKS = 100;
+  private static final int HOT_BLOCKS = 70;
+
+  private TinyLfuBlockCache cache;
+
+  @After
+  public void tearDown() {
+    if (cache != null) {
+      cache.shutdown();
+    }
+  }
+
+  private static TinyLfuBlockCache createCache(int numBlocks) {
+    return new TinyLfuBlockCache(numBlocks * new CachedItem(0).cacheBlockHeapSize(), BLOCK_SIZE,
+        TinyLfuBlockCache.DEFAULT_WINDOW_PERCENTAGE,
+        TinyLfuBlockCache.DEFAULT_PROTECTED_PERCENTAGE, 16 * 1024 * 1024, false);
+  }
+
+  private static void cacheAndRead(BlockCache cache, CachedItem block, int reads) {
+    cache.cacheBlock(block.cacheKey, block);
+    for (int i = 0; i < reads; i++) {
+      assertSame(block, cache.getBlock(block.cacheKey, true, false, true));
+    }
+  }
+
+  private static int countCached(BlockCache cache, int from, int to) {
+    int cached = 0;
+    for (int i = from; i < to; i++) {
+      if (cache.getBlock(new BlockCacheKey("f", i), true, false, false) != null) {
+        cached++;
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Run a random read working set followed by a scan of ten times the cache size over the cache.
+   * @return the number of working set blocks still cached after the scan
+   */
+  private static int hotBlocksAfterScan(BlockCache cache) {
+    for (int i = 0; i < HOT_BLOCKS; i++) {
+      cacheAndRead(cache, new CachedItem(i), 5);
+    }
+    assertEquals(HOT_BLOCKS, countCached(cache, 0, HOT_BLOCKS));
+    for (int i = 1000; i < 1000 + 10 * CACHE_BLOCKS; i++) {
+      cache.cacheBlock(new BlockCacheKey("f", i), new CachedItem(i));
+    }
+    return countCached(cache, 0, HOT_BLOCKS);
+  }
+
+  @Test
+  public void testScanResistance() throws Exception {
+    cache = createCache(CACHE_BLOCKS);
+    assertEquals(HOT_BLOCKS, hotBlocksAfterScan(cache));
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    CacheStats stats = cache.getStats();
+    // the free part of the cache took the first scanned blocks, most others were rejected
+    assertTrue(stats.toString(), stats.getAdmittedCount() > HOT_BLOCKS);
+    assertTrue(stats.toString(), stats.getRejectedCount() > 5 * CACHE_BLOCKS);
+    assertTrue(stats.toString(), stats.getEvictedCount() >= stats.getRejectedCount());
+
+    // the same workload flushes part of the working set out of an LruBlockCache of the same size,
+    // as its share for blocks read more than once is smaller than the working set
+    LruBlockCache lru = new LruBlockCache(cache.getMaxSize(), BLOCK_SIZE, false);
+    assertTrue(hotBlocksAfterScan(lru) < HOT_BLOCKS * 3 / 4);
+  }
+
+  @Test
+  public void testFrequentlyReadBlockAdmitted() throws Exception {
+    cache = createCache(CACHE_BLOCKS);
+    // fill the cache with blocks read once
+    for (int i = 0; i < 4 * CACHE_BLOCKS; i++) {
+      cache.cacheBlock(new BlockCacheKey("f", i), new CachedItem(i));
+    }
+    CachedItem block = new CachedItem(10000);
+    cache.cacheBlock(block.cacheKey, block);
+    // pushed out of the window, and not read more often than the blocks of the main area
+    cache.cacheBlock(new BlockCacheKey("f", 10001), new CachedItem(10001));
+    assertFalse(cache.containsBlock(block.cacheKey));
+    // read again, until more often than the blocks of the main area, which were read once, as
+    // far as the sketch can tell them apart
+    for (int i = 0; i < 3 && !cache.containsBlock(block.cacheKey); i++) {
+      cache.cacheBlock(block.cacheKey, block);
+      cache.cacheBlock(new BlockCacheKey("f", 10002 + i), new CachedItem(10002 + i));
+    }
+    assertTrue(cache.containsBlock(block.cacheKey));
+    assertEquals(BlockPriority.SINGLE, cache.getPriority(block.cacheKey));
+    assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    assertEquals(BlockPriority.MULTI, cache.getPriority(block.cacheKey));
+
+    // in-memory blocks are always admitted
+    CachedItem inMemory = new CachedItem(20000);
+    cache.cacheBlock(inMemory.cacheKey, inMemory, true);
+    cache.cacheBlock(new BlockCacheKey("f", 20001), new CachedItem(20001));
+    assertTrue(cache.containsBlock(inMemory.cacheKey));
+    assertEquals(BlockPriority.MEMORY, cache.getPriority(inMemory.cacheKey));
+  }
+
+  @Test
+  public void testSizing() throws Exception {
+    cache = createCache(CACHE_BLOCKS);
+    long blockHeapSize = new CachedItem(0).cacheBlockHeapSize();
+    for (int i = 0; i < HOT_BLOCKS; i++) {
+      cacheAndRead(cache, new CachedItem(i), 1);
+    }
+    assertEquals(HOT_BLOCKS, cache.getBlockCount());
+    assertEquals(HOT_BLOCKS, cache.getDataBlockCount());
+    assertEquals(HOT_BLOCKS * blockHeapSize, cache.getCurrentSize());
+    assertEquals(HOT_BLOCKS * blockHeapSize, cache.getCurrentDataSize());
+
+    assertTrue(cache.evictBlock(new BlockCacheKey("f", 0)));
+    assertFalse(cache.evictBlock(new BlockCacheKey("f", 0)));
+    assertNull(cache.getBlock(new BlockCacheKey("f", 0), true, false, true));
+    assertEquals((HOT_BLOCKS - 1) * blockHeapSize, cache.getCurrentSize());
+    // evicting an invalidated block is not an eviction of the policy
+    assertEquals(0, cache.getStats().getEvictedCount());
+
+    cache.setMaxSize(10 * blockHeapSize);
+    assertEquals(10, cache.getBlockCount());
+    assertEquals(10 * blockHeapSize, cache.getCurrentSize());
+    assertEquals(HOT_BLOCKS - 11, cache.getStats().getEvictedCount());
+
+    assertEquals(10, cache.evictBlocksByHfileName("f"));
+    assertEquals(0, cache.getBlockCount());
+    assertEquals(0, cache.getCurrentSize());
+  }
+
+  @Test
+  public void testFrequencySketch() throws Exception {
+    FrequencySketch sketch = new FrequencySketch(64);
+    BlockCacheKey key = new BlockCacheKey("f", 1);
+    assertEquals(0, sketch.frequency(key));
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(key);
+    }
+    // counters saturate
+    assertEquals(15, sketch.frequency(key));
+    // and age, once ten increments per key were counted
+    for (int i = 0; i < 640; i++) {
+      sketch.increment(new BlockCacheKey("g", i));
+    }
+    assertTrue(sketch.frequency(key) < 15);
+  }
+
+  @Test
+  public void testSelectedByCacheConfig() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(CacheConfig.BLOCKCACHE_POLICY_KEY, "TinyLFU");
+    CacheConfig.clearGlobalInstances();
+    try {
+      CacheConfig cc = new CacheConfig(conf);
+      assertTrue(cc.getBlockCache() instanceof TinyLfuBlockCache);
+      assertSame(cc.getBlockCache(), CacheConfig.getOnHeapCache(conf));
+      assertSame(cc.getBlockCache().getStats(), cc.getOnHeapCacheStats());
+    } finally {
+      CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE.shutdown();
+      CacheConfig.clearGlobalInstances();
+    }
+  }
+
+  private static class CachedItem implements Cacheable {
+    final BlockCacheKey cacheKey;
+
+    CachedItem(int offset) {
+      this.cacheKey = new BlockCacheKey("f", offset);
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(BLOCK_SIZE);
+    }
+
+    /** Size of the cache block holding this item */
+    long cacheBlockHeapSize() {
+      return TinyLfuBlockCache.PER_BLOCK_OVERHEAD + ClassSize.align(cacheKey.heapSize())
+          + ClassSize.align(BLOCK_SIZE);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination, boolean includeNextBlockMetadata) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.util.AbstractHBaseTool;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.CommandLine;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.Option;
+
+/**
+ * Tool to measure concurrent {@link BucketCache#getBlock} independently from the rest of a
+ * region server.
+ * <p>
+ * Fills a bucket cache over each IO engine with random blocks, then has every number of reader
+ * threads get random blocks and return them to the cache, as the readers of a region server do.
+ * For each run it reports the throughput, the p50/p99/p999 get latency and the bytes allocated per
+ * get by all threads of the process.
+ */
+public class BucketCachePerformanceEvaluation extends AbstractHBaseTool {
+
+  // Command line options and defaults.
+  public static final String DEFAULT_ENGINES = "offheap,mmap,file";
+  public static final Option ENGINES_OPTION = new Option("engines", true,
+      "Comma separated IO engines to run, out of offheap/mmap/file. Default: " + DEFAULT_ENGINES);
+  public static final String DEFAULT_THREADS = "1,8,32";
+  public static final Option THREADS_OPTION = new Option("threads", true,
+      "Comma separated numbers of reader threads. Default: " + DEFAULT_THREADS);
+  public static final int DEFAULT_NUM_BLOCKS = 4096;
+  public static final Option NUM_BLOCKS_OPTION = new Option("num_blocks", true,
+      "Number of cached blocks. Default: " + DEFAULT_NUM_BLOCKS);
+  public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+  public static final Option BLOCK_SIZE_OPTION = new Option("block_size", true,
+      "Size of the cached blocks in bytes. Default: " + DEFAULT_BLOCK_SIZE);
+  public static final int DEFAULT_NUM_GETS = 100000;
+  public static final Option NUM_GETS_OPTION = new Option("num_gets", true,
+      "Number of measured gets per reader thread. Default: " + DEFAULT_NUM_GETS);
+  public static final int DEFAULT_WARMUP_GETS = 20000;
+  public static final Option WARMUP_GETS_OPTION = new Option("warmup_gets", true,
+      "Number of gets per reader thread before measuring. Default: " + DEFAULT_WARMUP_GETS);
+
+  // the smallest capacity leaving a bucket of every default size
+  private static final long MIN_CAPACITY = 64L * 1024 * 1024;
+
+  private List<String> engines;
+  private int[] threads;
+  private int numBlocks = DEFAULT_NUM_BLOCKS;
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private int numGets = DEFAULT_NUM_GETS;
+  private int warmupGets = DEFAULT_WARMUP_GETS;
+
+  private final List<String> results = new ArrayList<>();
+
+  @Override
+  protected void addOptions() {
+    addOption(ENGINES_OPTION);
+    addOption(THREADS_OPTION);
+    addOption(NUM_BLOCKS_OPTION);
+    addOption(BLOCK_SIZE_OPTION);
+    addOption(NUM_GETS_OPTION);
+    addOption(WARMUP_GETS_OPTION);
+  }
+
+  @Override
+  protected void processOptions(CommandLine cmd) {
+    engines = Arrays.asList(
+      StringUtils.split(cmd.getOptionValue(ENGINES_OPTION.getOpt(), DEFAULT_ENGINES), ','));
+    threads = Arrays.stream(
+      StringUtils.split(cmd.getOptionValue(THREADS_OPTION.getOpt(), DEFAULT_THREADS), ','))
+        .mapToInt(Integer::parseInt).toArray();
+    numBlocks = getOptionAsInt(cmd, NUM_BLOCKS_OPTION.getOpt(), DEFAULT_NUM_BLOCKS);
+    blockSize = getOptionAsInt(cmd, BLOCK_SIZE_OPTION.getOpt(), DEFAULT_BLOCK_SIZE);
+    numGets = getOptionAsInt(cmd, NUM_GETS_OPTION.getOpt(), DEFAULT_NUM_GETS);
+    warmupGets = getOptionAsInt(cmd, WARMUP_GETS_OPTION.getOpt(), DEFAULT_WARMUP_GETS);
+  }
+
+  /**
+   * The outcome of one run.
+   */
+  static final class Result {
+    final long gets;
+    final long misses;
+    final long elapsedNanos;
+    final long[] latencies;
+    final long allocatedBytes;
+
+    Result(long elapsedNanos, long[] latencies, long misses, long allocatedBytes) {
+      this.gets = latencies.length;
+      this.misses = misses;
+      this.elapsedNanos = elapsedNanos;
+      this.latencies = latencies;
+      this.allocatedBytes = allocatedBytes;
+      Arrays.sort(latencies);
+    }
+
+    double getsPerSecond() {
+      return gets * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the latency at {@code quantile} in microseconds
+     */
+    double latencyMicros(double quantile) {
+      int idx = (int) Math.min(latencies.length - 1, Math.ceil(quantile * latencies.length) - 1);
+      return latencies[Math.max(0, idx)] / 1000.0;
+    }
+
+    /**
+     * @return bytes allocated per get, or -1 if the JVM can not tell
+     */
+    long allocatedBytesPerGet() {
+      return allocatedBytes < 0 ? -1 : allocatedBytes / gets;
+    }
+  }
+
+  /**
+   * @return the bytes allocated so far by all live threads, or -1 if the JVM can not tell
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long sum = 0;
+    for (long bytes : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())) {
+      if (bytes > 0) {
+        sum += bytes;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the number of misses
+   */
+  private static long runGets(BucketCache cache, BlockCacheKey[] keys, int gets,
+      long[] latencies, int offset) {
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    long misses = 0;
+    for (int i = 0; i < gets; i++) {
+      BlockCacheKey key = keys[rand.nextInt(keys.length)];
+      long start = System.nanoTime();
+      Cacheable block = cache.getBlock(key, true, false, false);
+      if (block != null) {
+        cache.returnBlock(key, block);
+      } else {
+        misses++;
+      }
+      if (latencies != null) {
+        latencies[offset + i] = System.nanoTime() - start;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * Runs {@code numThreads} reader threads, each issuing {@code warmupGets} unmeasured and then
+   * {@code numGets} measured gets of random blocks.
+   */
+  Result runOnce(BucketCache cache, BlockCacheKey[] keys, int numThreads) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+      Threads.newDaemonThreadFactory("BucketCachePE-reader"));
+    try {
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        futures.add(pool.submit(() -> runGets(cache, keys, warmupGets, null, 0)));
+      }
+      for (Future<Long> f : futures) {
+        f.get();
+      }
+      futures.clear();
+      long[] latencies = new long[numThreads * numGets];
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        int offset = t * numGets;
+        futures.add(pool.submit(() -> runGets(cache, keys, numGets, latencies, offset)));
+      }
+      long misses = 0;
+      for (Future<Long> f : futures) {
+        misses += f.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocatedAfter = allocatedBytes();
+      return new Result(elapsed, latencies, misses,
+          allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static String ioEngineName(String engine, File dir) {
+    switch (engine) {
+      case "offheap":
+        return "offheap";
+      case "mmap":
+        return "mmap:" + new File(dir, "bucket.cache").getPath();
+      case "file":
+        return "file:" + new File(dir, "bucket.cache").getPath();
+      default:
+        throw new IllegalArgumentException("Unknown engine " + engine);
+    }
+  }
+
+  private BlockCacheKey[] fill(BucketCache cache) throws InterruptedException {
+    cache.wait_when_cache = true;
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(blockSize, numBlocks);
+    BlockCacheKey[] keys = new BlockCacheKey[blocks.length];
+    for (int i = 0; i < blocks.length; i++) {
+      keys[i] = blocks[i].getBlockName();
+      cache.cacheBlock(keys[i], blocks[i].getBlock());
+    }
+    // read from the IO engine, not from the RAM cache in front of it
+    for (BlockCacheKey key : keys) {
+      while (!cache.backingMap.containsKey(key)) {
+        Thread.sleep(1);
+      }
+    }
+    return keys;
+  }
+
+  private void runEngine(String engine) throws Exception {
+    File dir = Files.createTempDirectory("bucket-cache-pe").toFile();
+    long capacity = Math.max(MIN_CAPACITY, 2L * numBlocks * blockSize);
+    BucketCache cache = new BucketCache(ioEngineName(engine, dir), capacity, blockSize, null,
+        BucketCache.DEFAULT_WRITER_THREADS, BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, null,
+        BucketCache.DEFAULT_ERROR_TOLERATION_DURATION, getConf());
+    try {
+      BlockCacheKey[] keys = fill(cache);
+      for (int numThreads : threads) {
+        Result r = runOnce(cache, keys, numThreads);
+        String line = String.format("RESULT [engine=%s, threads=%d, blocks=%d, block_size=%d, "
+                + "gets=%d, misses=%d, gets_per_sec=%.1f, p50_us=%.2f, p99_us=%.2f, "
+                + "p999_us=%.2f, alloc_bytes_per_get=%d]",
+          engine, numThreads, numBlocks, blockSize, r.gets, r.misses, r.getsPerSecond(),
+          r.latencyMicros(0.5), r.latencyMicros(0.99), r.latencyMicros(0.999),
+          r.allocatedBytesPerGet());
+        System.out.println(line);
+        results.add(line);
+      }
+    } finally {
+      cache.shutdown();
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Override
+  protected int doWork() throws Exception {
+    for (String engine : engines) {
+      runEngine(engine);
+    }
+    System.out.println("******************************************");
+    System.out.println("Gets per thread    : " + numGets);
+    System.out.println("Warmup per thread  : " + warmupGets);
+    System.out.println("******************************************");
+    System.out.println("Raw format for scripts");
+    for (String line : results) {
+      System.out.println(line);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    BucketCachePerformanceEvaluation tool = new BucketCachePerformanceEvaluation();
+    tool.setConf(HBaseConfiguration.create());
+    tool.run(args);
+  }
+}
@@ -27,11 +27,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseClassTestRule;
@@ -42,6 +44,7 @@ import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
 import org.apache.hadoop.hbase.io.hfile.HFileBlock;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
@@ -181,6 +184,66 @@ public class TestBucketCache {
     assertEquals(0, mAllocator.getUsedSize());
   }
 
+  @Test
+  public void testRebalanceTowardsSizesInDemand() throws Exception {
+    // 16 buckets of 4 items of 4K or 16 items of 1K
+    BucketAllocator allocator = new BucketAllocator(16 * 4 * 4096, new int[] { 1024, 4096 });
+    List<Long> allocations = new ArrayList<>();
+    try {
+      while (true) {
+        allocations.add(allocator.allocateBlock(4096));
+      }
+    } catch (CacheFullException cfe) {
+      // the 1K size keeps its one bucket
+    }
+    assertEquals(15 * 4, allocations.size());
+    // every bucket of 4K half full, so none can be reconfigured
+    for (int i = 0; i < allocations.size(); i += 2) {
+      allocator.freeBlock(allocations.get(i));
+    }
+    int failed = 0;
+    for (int i = 0; i < 90; i++) {
+      try {
+        allocator.allocateBlock(1000);
+      } catch (CacheFullException cfe) {
+        failed++;
+      }
+    }
+    assertEquals(90 - 16, failed);
+
+    // 61 blocks of 4K and 90 of 1K requested
+    int[] targets = allocator.getTargetBucketCounts();
+    assertEquals(4, targets[0]);
+    assertEquals(12, targets[1]);
+    assertEquals(0, allocator.reassignCompletelyFreeBuckets(targets));
+    int inUseBucket = allocator.getBucketIndex(allocations.get(1));
+    Set<Integer> excluded = new HashSet<>();
+    excluded.add(inUseBucket);
+    Set<Integer> defragmented = allocator.getBucketsToDefragment(targets, excluded, 8);
+    assertEquals(3, defragmented.size());
+    assertFalse(defragmented.contains(inUseBucket));
+    for (int i = 1; i < allocations.size(); i += 2) {
+      if (defragmented.contains(allocator.getBucketIndex(allocations.get(i)))) {
+        allocator.freeBlock(allocations.get(i));
+      }
+    }
+    assertEquals(3, allocator.reassignCompletelyFreeBuckets(targets));
+    BucketAllocator.SizeClassStatistics[] stats =
+        allocator.getSizeClassStatistics(new long[] { 16 * 1000, 24 * 4096 }, targets);
+    assertEquals(4, stats[0].getBucketCount());
+    assertEquals(12, stats[1].getBucketCount());
+    assertEquals(16, stats[0].getUsedCount());
+    assertEquals(48, stats[0].getFreeCount());
+    assertEquals(24, stats[1].getUsedCount());
+    assertEquals(1 - 16 * 1000f / (4 * 4 * 4096), stats[0].getFragmentation(), 0.0001);
+    assertEquals(0.5f, stats[1].getFragmentation(), 0.0001);
+    allocator.allocateBlock(1000);
+
+    // nothing failed since
+    allocator.decayRequestCounts();
+    assertTrue(allocator.getBucketsToDefragment(new int[] { 16, 1 }, excluded, 8).isEmpty());
+  }
+
   @Test
   public void testCacheSimple() throws Exception {
     CacheTestUtils.testCacheSimple(cache, BLOCK_SIZE, NUM_QUERIES);
@@ -218,8 +281,8 @@ public class TestBucketCache {
     cacheAndWaitUntilFlushedToBucket(cache, cacheKey, new CacheTestUtils.ByteArrayCacheable(
         new byte[10]));
     long lockId = cache.backingMap.get(cacheKey).offset();
-    ReentrantReadWriteLock lock = cache.offsetLock.getLock(lockId);
-    lock.writeLock().lock();
+    StampedLock lock = cache.offsetLock.getLock(lockId);
+    long stamp = lock.writeLock();
     Thread evictThread = new Thread("evict-block") {
 
       @Override
@@ -229,17 +292,40 @@ public class TestBucketCache {
 
     };
     evictThread.start();
-    cache.offsetLock.waitForWaiters(lockId, 1);
+    while (evictThread.getState() != Thread.State.WAITING) {
+      Thread.sleep(50);
+    }
     cache.blockEvicted(cacheKey, cache.backingMap.remove(cacheKey), true);
     cacheAndWaitUntilFlushedToBucket(cache, cacheKey, new CacheTestUtils.ByteArrayCacheable(
         new byte[10]));
-    lock.writeLock().unlock();
+    lock.unlockWrite(stamp);
     evictThread.join();
     assertEquals(1L, cache.getBlockCount());
     assertTrue(cache.getCurrentSize() > 0L);
     assertTrue("We should have a block!", cache.iterator().hasNext());
   }
 
+  @Test
+  public void testIteratorByHfileName() throws Exception {
+    String[] names = { "a", "ab", "b" };
+    for (String name : names) {
+      for (long offset = 0; offset < 3; offset++) {
+        cacheAndWaitUntilFlushedToBucket(cache, new BlockCacheKey(name, offset),
+          new CacheTestUtils.ByteArrayCacheable(new byte[10]));
+      }
+    }
+    cache.evictBlock(new BlockCacheKey("ab", 1));
+
+    List<Long> offsets = new ArrayList<>();
+    for (Iterator<CachedBlock> i = cache.iteratorByHfileName("ab"); i.hasNext();) {
+      CachedBlock cb = i.next();
+      assertEquals("ab", cb.getFilename());
+      offsets.add(cb.getOffset());
+    }
+    assertEquals(Arrays.asList(0L, 2L), offsets);
+    assertFalse(cache.iteratorByHfileName("c").hasNext());
+  }
+
   @Test
   public void testRetrieveFromFile() throws Exception {
     HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ IOTests.class, MediumTests.class })
+public class TestBucketCachePerformanceEvaluation {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBucketCachePerformanceEvaluation.class);
+
+  @Test
+  public void testResultQuantiles() {
+    long[] latencies = new long[1000];
+    for (int i = 0; i < latencies.length; i++) {
+      // unsorted on purpose
+      latencies[i] = (latencies.length - i) * 1000L;
+    }
+    BucketCachePerformanceEvaluation.Result r =
+        new BucketCachePerformanceEvaluation.Result(1000000000L, latencies, 0, 5000);
+    assertEquals(1000.0, r.getsPerSecond(), 0.001);
+    assertEquals(500.0, r.latencyMicros(0.5), 0.001);
+    assertEquals(990.0, r.latencyMicros(0.99), 0.001);
+    assertEquals(999.0, r.latencyMicros(0.999), 0.001);
+    assertEquals(5, r.allocatedBytesPerGet());
+  }
+
+  @Test
+  public void testAllEngines() throws Exception {
+    BucketCachePerformanceEvaluation tool = new BucketCachePerformanceEvaluation();
+    tool.setConf(HBaseConfiguration.create());
+    assertEquals(0, tool.run(new String[] { "-threads", "1,4", "-num_blocks", "64",
+      "-block_size", "4096", "-num_gets", "200", "-warmup_gets", "50" }));
+  }
+}
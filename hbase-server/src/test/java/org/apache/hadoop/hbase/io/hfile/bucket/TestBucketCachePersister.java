@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests recovering the backing map of a BucketCache persisted in snapshots and deltas, after a
+ * crash, which is simulated by starting a new cache on the files of one not shut down.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestBucketCachePersister {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBucketCachePersister.class);
+
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 8192;
+  private static final int NUM_BLOCKS = 10;
+
+  private final HBaseTestingUtility testUtil = new HBaseTestingUtility();
+  private String cachePath;
+  private String persistencePath;
+  private BucketCache crashed;
+  private BucketCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    File testDir = new File(testUtil.getDataTestDir().toString());
+    assertTrue(testDir.mkdirs() || testDir.isDirectory());
+    cachePath = new File(testDir, "bucket.cache").getPath();
+    persistencePath = new File(testDir, "bucket.persistence").getPath();
+    crashed = createCache();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    crashed.stopWriterThreads();
+    if (cache != null) {
+      cache.shutdown();
+    }
+    testUtil.cleanupTestDir();
+  }
+
+  private BucketCache createCache() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    // persisted by the tests only
+    conf.setLong(BucketCache.PERSIST_INTERVAL_CONFIG_NAME, Long.MAX_VALUE / 2);
+    BucketCache bucketCache = new BucketCache("file:" + cachePath, CAPACITY, BLOCK_SIZE, null,
+        BucketCache.DEFAULT_WRITER_THREADS, BucketCache.DEFAULT_WRITER_QUEUE_ITEMS,
+        persistencePath, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION, conf);
+    bucketCache.wait_when_cache = true;
+    return bucketCache;
+  }
+
+  /**
+   * Cache blocks, and persist them in a snapshot, the deltas after which are smaller than it.
+   */
+  private static HFileBlockPair[] cacheAndPersistBlocks(BucketCache bucketCache)
+      throws InterruptedException {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    for (HFileBlockPair block : blocks) {
+      bucketCache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    for (HFileBlockPair block : blocks) {
+      while (!bucketCache.backingMap.containsKey(block.getBlockName())) {
+        Thread.sleep(10);
+      }
+    }
+    // a delta holding the blocks, outgrowing the empty snapshot written at startup
+    bucketCache.persistChanges();
+    // so the next call replaces it by a snapshot
+    bucketCache.persistChanges();
+    return blocks;
+  }
+
+  private BucketCache crashAndRecover() throws Exception {
+    crashed.stopWriterThreads();
+    return createCache();
+  }
+
+  @Test
+  public void testRecoverSnapshotAndDeltas() throws Exception {
+    HFileBlockPair[] blocks = cacheAndPersistBlocks(crashed);
+    assertTrue(crashed.evictBlock(blocks[0].getBlockName()));
+    crashed.persistChanges();
+    long usedSize = crashed.getAllocator().getUsedSize();
+
+    cache = crashAndRecover();
+    BucketCacheStats stats = (BucketCacheStats) cache.getStats();
+    assertEquals(NUM_BLOCKS - 1, stats.getRecoveredBlockCount());
+    assertEquals(NUM_BLOCKS - 1, cache.getBlockCount());
+    assertEquals(usedSize, cache.getAllocator().getUsedSize());
+    assertNull(cache.getBlock(blocks[0].getBlockName(), true, false, true));
+    for (int i = 1; i < NUM_BLOCKS; i++) {
+      BlockCacheKey key = blocks[i].getBlockName();
+      assertFalse(cache.backingMap.get(key).isChecksumVerified());
+      assertEquals(blocks[i].getBlock(), cache.getBlock(key, true, false, true));
+      assertTrue(cache.backingMap.get(key).isChecksumVerified());
+    }
+    assertEquals(0, stats.getChecksumFailureCount());
+    assertEquals(1, cache.evictBlocksByHfileName(blocks[1].getBlockName().getHfileName()));
+
+    // the recovered cache persists its own changes
+    cache.persistChanges();
+    cache.stopWriterThreads();
+    BucketCache recoveredTwice = createCache();
+    try {
+      assertEquals(NUM_BLOCKS - 2,
+        ((BucketCacheStats) recoveredTwice.getStats()).getRecoveredBlockCount());
+    } finally {
+      recoveredTwice.stopWriterThreads();
+    }
+  }
+
+  @Test
+  public void testCorruptBlockDroppedOnRead() throws Exception {
+    HFileBlockPair[] blocks = cacheAndPersistBlocks(crashed);
+    // the space of the block was reused for other data which was not persisted yet
+    BucketCache.BucketEntry entry = crashed.backingMap.get(blocks[0].getBlockName());
+    crashed.ioEngine.write(ByteBuffer.wrap(new byte[entry.getLength()]), entry.offset());
+    crashed.ioEngine.sync();
+
+    cache = crashAndRecover();
+    BucketCacheStats stats = (BucketCacheStats) cache.getStats();
+    assertEquals(NUM_BLOCKS, stats.getRecoveredBlockCount());
+    assertNull(cache.getBlock(blocks[0].getBlockName(), true, false, true));
+    assertEquals(1, stats.getChecksumFailureCount());
+    assertEquals(1, stats.getMissCount());
+    assertFalse(cache.backingMap.containsKey(blocks[0].getBlockName()));
+    assertEquals(NUM_BLOCKS - 1, cache.getBlockCount());
+    for (int i = 1; i < NUM_BLOCKS; i++) {
+      assertEquals(blocks[i].getBlock(),
+        cache.getBlock(blocks[i].getBlockName(), true, false, true));
+    }
+    assertEquals(1, stats.getChecksumFailureCount());
+  }
+
+  @Test
+  public void testTornDeltaIgnored() throws Exception {
+    HFileBlockPair[] blocks = cacheAndPersistBlocks(crashed);
+    long persistedLength = new File(persistencePath).length();
+    assertTrue(crashed.evictBlock(blocks[0].getBlockName()));
+    crashed.persistChanges();
+    // a crash while the last delta was written
+    try (RandomAccessFile file = new RandomAccessFile(persistencePath, "rw")) {
+      assertTrue(file.length() > persistedLength);
+      file.setLength(file.length() - 1);
+    }
+
+    cache = crashAndRecover();
+    assertEquals(NUM_BLOCKS, ((BucketCacheStats) cache.getStats()).getRecoveredBlockCount());
+    assertTrue(cache.backingMap.containsKey(blocks[0].getBlockName()));
+  }
+
+  @Test
+  public void testCorruptSnapshotStartsEmpty() throws Exception {
+    cacheAndPersistBlocks(crashed);
+    try (RandomAccessFile file = new RandomAccessFile(persistencePath, "rw")) {
+      // a byte in the payload of the snapshot
+      file.seek(20);
+      int b = file.read();
+      file.seek(20);
+      file.write(b ^ 0xff);
+    }
+
+    cache = crashAndRecover();
+    assertEquals(0, ((BucketCacheStats) cache.getStats()).getRecoveredBlockCount());
+    assertEquals(0, cache.getBlockCount());
+    assertEquals(0, cache.getAllocator().getUsedSize());
+  }
+}
@@ -74,6 +74,16 @@ public class DelegatingRpcScheduler extends RpcScheduler {
     return delegate.getNumLifoModeSwitches();
   }
 
+  @Override
+  public long getNumVirtualThreadPinnedEvents() {
+    return delegate.getNumVirtualThreadPinnedEvents();
+  }
+
+  @Override
+  public long getNumExpiredCallsDropped() {
+    return delegate.getNumExpiredCallsDropped();
+  }
+
   @Override
   public int getWriteQueueLength() {
     return 0;
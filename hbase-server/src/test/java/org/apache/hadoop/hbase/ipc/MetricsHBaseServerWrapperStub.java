@@ -59,6 +59,16 @@ public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper{
     return 5;
   }
 
+  @Override
+  public long getNumVirtualThreadPinnedEvents() {
+    return 0;
+  }
+
+  @Override
+  public long getNumExpiredCallsDropped() {
+    return 0;
+  }
+
   @Override
   public int getWriteQueueLength() {
     return 50;
@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.apache.hadoop.hbase.ipc.TestProtobufRpcServiceImpl.SERVICE;
+import static org.apache.hadoop.hbase.ipc.TestProtobufRpcServiceImpl.newBlockingStub;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.AbstractHBaseTool;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.CommandLine;
+import org.apache.hbase.thirdparty.org.apache.commons.cli.Option;
+
+import org.apache.hbase.thirdparty.com.google.common.collect.Lists;
+
+import org.apache.hadoop.hbase.shaded.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.shaded.ipc.protobuf.generated.TestRpcServiceProtos.TestProtobufRpcProto.BlockingInterface;
+
+/**
+ * Tool to compare the rpc transports independently from the rest of a cluster.
+ * <p>
+ * Starts an in-process rpc server serving {@link TestProtobufRpcServiceImpl} and drives its echo
+ * method through the blocking, netty and RDMA rpc clients, for every combination of payload size
+ * and number of client threads. For each run it reports the throughput, the p50/p99/p999 call
+ * latency and the bytes allocated per call by all threads of the process, client and server side.
+ * <p>
+ * The RDMA client talks to the RDMA listener of {@link SimpleRpcServer}, which only exists on the
+ * {@link RdmaTransportFactory#RDMA_RPC_PORT_CONF_KEY} port, 16020 unless set, so the server binds
+ * that port for the RDMA runs. Unless overridden by
+ * {@link RdmaTransportFactory#RDMA_TRANSPORT_IMPL_CONF_KEY}, the RDMA runs use the
+ * {@link SharedMemoryRdmaTransport} as a loopback stand-in so they work without RDMA hardware.
+ */
+public class RpcTransportPerformanceEvaluation extends AbstractHBaseTool {
+
+  // Command line options and defaults.
+  public static final String DEFAULT_TRANSPORTS = "blocking,netty,rdma";
+  public static final Option TRANSPORTS_OPTION = new Option("transports", true,
+      "Comma separated clients to run, out of blocking/netty/rdma. Default: "
+          + DEFAULT_TRANSPORTS);
+  public static final String DEFAULT_SERVERS = "simple,netty";
+  public static final Option SERVERS_OPTION = new Option("servers", true,
+      "Comma separated servers to run, out of simple/netty. The rdma client only runs against "
+          + "the simple server. Default: " + DEFAULT_SERVERS);
+  public static final String DEFAULT_PAYLOADS = "16,1024,65536";
+  public static final Option PAYLOADS_OPTION = new Option("payloads", true,
+      "Comma separated echo payload sizes in bytes. Default: " + DEFAULT_PAYLOADS);
+  public static final String DEFAULT_THREADS = "1,8,32";
+  public static final Option THREADS_OPTION = new Option("threads", true,
+      "Comma separated numbers of client threads. Default: " + DEFAULT_THREADS);
+  public static final int DEFAULT_NUM_CALLS = 10000;
+  public static final Option NUM_CALLS_OPTION = new Option("num_calls", true,
+      "Number of measured calls per client thread. Default: " + DEFAULT_NUM_CALLS);
+  public static final int DEFAULT_WARMUP_CALLS = 2000;
+  public static final Option WARMUP_CALLS_OPTION = new Option("warmup_calls", true,
+      "Number of calls per client thread before measuring. Default: " + DEFAULT_WARMUP_CALLS);
+  public static final int DEFAULT_HANDLERS = 16;
+  public static final Option HANDLERS_OPTION = new Option("handlers", true,
+      "Number of server handler threads. Default: " + DEFAULT_HANDLERS);
+
+  private List<String> transports;
+  private List<String> servers;
+  private int[] payloads;
+  private int[] threads;
+  private int numCalls = DEFAULT_NUM_CALLS;
+  private int warmupCalls = DEFAULT_WARMUP_CALLS;
+  private int handlers = DEFAULT_HANDLERS;
+
+  private final List<String> results = new ArrayList<>();
+
+  @Override
+  protected void addOptions() {
+    addOption(TRANSPORTS_OPTION);
+    addOption(SERVERS_OPTION);
+    addOption(PAYLOADS_OPTION);
+    addOption(THREADS_OPTION);
+    addOption(NUM_CALLS_OPTION);
+    addOption(WARMUP_CALLS_OPTION);
+    addOption(HANDLERS_OPTION);
+  }
+
+  @Override
+  protected void processOptions(CommandLine cmd) {
+    transports = Arrays.asList(
+      StringUtils.split(cmd.getOptionValue(TRANSPORTS_OPTION.getOpt(), DEFAULT_TRANSPORTS), ','));
+    servers = Arrays.asList(
+      StringUtils.split(cmd.getOptionValue(SERVERS_OPTION.getOpt(), DEFAULT_SERVERS), ','));
+    payloads = toInts(cmd.getOptionValue(PAYLOADS_OPTION.getOpt(), DEFAULT_PAYLOADS));
+    threads = toInts(cmd.getOptionValue(THREADS_OPTION.getOpt(), DEFAULT_THREADS));
+    numCalls = getOptionAsInt(cmd, NUM_CALLS_OPTION.getOpt(), DEFAULT_NUM_CALLS);
+    warmupCalls = getOptionAsInt(cmd, WARMUP_CALLS_OPTION.getOpt(), DEFAULT_WARMUP_CALLS);
+    handlers = getOptionAsInt(cmd, HANDLERS_OPTION.getOpt(), DEFAULT_HANDLERS);
+  }
+
+  private static int[] toInts(String s) {
+    return Arrays.stream(StringUtils.split(s, ',')).mapToInt(Integer::parseInt).toArray();
+  }
+
+  private static String serverClass(String server) {
+    switch (server) {
+      case "simple":
+        return SimpleRpcServer.class.getName();
+      case "netty":
+        return NettyRpcServer.class.getName();
+      default:
+        throw new IllegalArgumentException("Unknown server " + server);
+    }
+  }
+
+  private static String clientClass(String transport) {
+    switch (transport) {
+      case "blocking":
+        return BlockingRpcClient.class.getName();
+      case "netty":
+        return NettyRpcClient.class.getName();
+      case "rdma":
+        return BlockingRDMARpcClient.class.getName();
+      default:
+        throw new IllegalArgumentException("Unknown transport " + transport);
+    }
+  }
+
+  /**
+   * The outcome of one run.
+   */
+  static final class Result {
+    final long calls;
+    final long elapsedNanos;
+    final long[] latencies;
+    final long allocatedBytes;
+
+    Result(long elapsedNanos, long[] latencies, long allocatedBytes) {
+      this.calls = latencies.length;
+      this.elapsedNanos = elapsedNanos;
+      this.latencies = latencies;
+      this.allocatedBytes = allocatedBytes;
+      Arrays.sort(latencies);
+    }
+
+    double callsPerSecond() {
+      return calls * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the latency at {@code quantile} in microseconds
+     */
+    double latencyMicros(double quantile) {
+      int idx = (int) Math.min(latencies.length - 1, Math.ceil(quantile * latencies.length) - 1);
+      return latencies[Math.max(0, idx)] / 1000.0;
+    }
+
+    /**
+     * @return bytes allocated per call, or -1 if the JVM can not tell
+     */
+    long allocatedBytesPerCall() {
+      return allocatedBytes < 0 ? -1 : allocatedBytes / calls;
+    }
+  }
+
+  /**
+   * @return the bytes allocated so far by all live threads, or -1 if the JVM can not tell
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long sum = 0;
+    for (long bytes : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())) {
+      if (bytes > 0) {
+        sum += bytes;
+      }
+    }
+    return sum;
+  }
+
+  private void runCalls(BlockingInterface stub, EchoRequestProto request, int calls,
+      long[] latencies, int offset) throws Exception {
+    for (int i = 0; i < calls; i++) {
+      long start = System.nanoTime();
+      stub.echo(null, request);
+      if (latencies != null) {
+        latencies[offset + i] = System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * Runs {@code numThreads} client threads, each issuing {@code warmupCalls} unmeasured and then
+   * {@code numCalls} measured echo calls of {@code payload} bytes.
+   */
+  Result runOnce(BlockingInterface stub, int payload, int numThreads) throws Exception {
+    EchoRequestProto request =
+        EchoRequestProto.newBuilder().setMessage(StringUtils.repeat('x', payload)).build();
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+      Threads.newDaemonThreadFactory("RpcTransportPE-client"));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        futures.add(pool.submit(() -> {
+          runCalls(stub, request, warmupCalls, null, 0);
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      futures.clear();
+      long[] latencies = new long[numThreads * numCalls];
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        int offset = t * numCalls;
+        futures.add(pool.submit(() -> {
+          runCalls(stub, request, numCalls, latencies, offset);
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocatedAfter = allocatedBytes();
+      return new Result(elapsed, latencies,
+          allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void runTransport(String server, String transport) throws Exception {
+    Configuration conf = new Configuration(getConf());
+    conf.set(RpcServerFactory.CUSTOM_RPC_SERVER_IMPL_CONF_KEY, serverClass(server));
+    conf.set(RpcClientFactory.CUSTOM_RPC_CLIENT_IMPL_CONF_KEY, clientClass(transport));
+    int port = 0;
+    if (transport.equals("rdma")) {
+      // the RDMA listener of SimpleRpcServer only exists on this port
+      port = RdmaTransportFactory.getRdmaRpcPort(conf);
+      if (conf.get(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY) == null) {
+        conf.set(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY,
+          SharedMemoryRdmaTransport.class.getName());
+        conf.set(SharedMemoryRdmaTransport.SHM_DIR_CONF_KEY,
+          Files.createTempDirectory("rpc-transport-pe").toString());
+      }
+    }
+    RpcServer rpcServer = RpcServerFactory.createRpcServer(null, "RpcTransportPE",
+      Lists.newArrayList(new RpcServer.BlockingServiceAndInterface(SERVICE, null)),
+      new InetSocketAddress("localhost", port), conf, new FifoRpcScheduler(conf, handlers));
+    try (RpcClient client = RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT)) {
+      rpcServer.start();
+      BlockingInterface stub = newBlockingStub(client, rpcServer.getListenerAddress());
+      for (int payload : payloads) {
+        for (int numThreads : threads) {
+          Result r = runOnce(stub, payload, numThreads);
+          String line = String.format("RESULT [server=%s, transport=%s, payload=%d, threads=%d, "
+                  + "calls=%d, calls_per_sec=%.1f, p50_us=%.1f, p99_us=%.1f, p999_us=%.1f, "
+                  + "alloc_bytes_per_call=%d]",
+            server, transport, payload, numThreads, r.calls, r.callsPerSecond(),
+            r.latencyMicros(0.5), r.latencyMicros(0.99), r.latencyMicros(0.999),
+            r.allocatedBytesPerCall());
+          System.out.println(line);
+          results.add(line);
+        }
+      }
+    } finally {
+      rpcServer.stop();
+    }
+  }
+
+  @Override
+  protected int doWork() throws Exception {
+    for (String server : servers) {
+      for (String transport : transports) {
+        if (transport.equals("rdma") && !server.equals("simple")) {
+          System.out.println("Skipping rdma against the " + server + " server, only the simple "
+              + "server has an RDMA listener.");
+          continue;
+        }
+        runTransport(server, transport);
+      }
+    }
+    System.out.println("******************************************");
+    System.out.println("Calls per thread   : " + numCalls);
+    System.out.println("Warmup per thread  : " + warmupCalls);
+    System.out.println("Handlers           : " + handlers);
+    System.out.println("******************************************");
+    System.out.println("Raw format for scripts");
+    for (String line : results) {
+      System.out.println(line);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    RpcTransportPerformanceEvaluation tool = new RpcTransportPerformanceEvaluation();
+    tool.setConf(HBaseConfiguration.create());
+    tool.run(args);
+  }
+}
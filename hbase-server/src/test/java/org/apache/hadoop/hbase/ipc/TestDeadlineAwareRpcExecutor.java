@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RPCTests.class, SmallTests.class })
+public class TestDeadlineAwareRpcExecutor {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestDeadlineAwareRpcExecutor.class);
+
+  private static final long LARGE = 1024 * 1024;
+
+  private static CallRunner task(long deadline, long size) {
+    RpcCall call = mock(RpcCall.class);
+    long now = EnvironmentEdgeManager.currentTime();
+    when(call.getReceiveTime()).thenReturn(now);
+    when(call.getDeadline()).thenReturn(deadline);
+    when(call.getSize()).thenReturn(size);
+    CallRunner task = mock(CallRunner.class);
+    when(task.getRpcCall()).thenReturn(call);
+    return task;
+  }
+
+  @Test
+  public void testEarliestDeadlineFirst() throws Exception {
+    LongAdder dropped = new LongAdder();
+    DeadlineCallQueue queue = new DeadlineCallQueue(10, LARGE, 1, 60000, dropped);
+    long now = EnvironmentEdgeManager.currentTime();
+    CallRunner late = task(now + 30000, 100);
+    CallRunner noTimeout = task(Long.MAX_VALUE, 100);
+    CallRunner early = task(now + 10000, 100);
+    CallRunner sameDeadline = task(now + 10000, 100);
+    assertTrue(queue.offer(late));
+    assertTrue(queue.offer(noTimeout));
+    assertTrue(queue.offer(early));
+    assertTrue(queue.offer(sameDeadline));
+    assertEquals(4, queue.size());
+    assertSame(early, queue.poll());
+    assertSame(sameDeadline, queue.poll());
+    assertSame(late, queue.poll());
+    // without a timeout, the default timeout makes up its deadline
+    assertSame(noTimeout, queue.poll());
+    assertNull(queue.poll());
+    assertEquals(0, dropped.sum());
+  }
+
+  @Test
+  public void testExpiredCallsDropped() throws Exception {
+    LongAdder dropped = new LongAdder();
+    DeadlineCallQueue queue = new DeadlineCallQueue(10, LARGE, 1, 60000, dropped);
+    long now = EnvironmentEdgeManager.currentTime();
+    // expired before being queued
+    CallRunner expired = task(now - 1, 100);
+    assertTrue(queue.offer(expired));
+    verify(expired).drop();
+    assertEquals(0, queue.size());
+    assertEquals(1, dropped.sum());
+
+    // expires while queued
+    CallRunner expiring = task(now + 50, 100);
+    CallRunner live = task(now + 60000, 100);
+    assertTrue(queue.offer(expiring));
+    assertTrue(queue.offer(live));
+    Thread.sleep(100);
+    assertSame(live, queue.take());
+    verify(expiring).drop();
+    verify(expiring, never()).run();
+    verify(live, never()).drop();
+    assertEquals(2, dropped.sum());
+  }
+
+  @Test
+  public void testLargeCallsLimited() throws Exception {
+    LongAdder dropped = new LongAdder();
+    DeadlineCallQueue queue = new DeadlineCallQueue(10, LARGE, 2, 60000, dropped);
+    long now = EnvironmentEdgeManager.currentTime();
+    CallRunner large1 = task(now + 1000, LARGE);
+    CallRunner large2 = task(now + 2000, LARGE);
+    CallRunner large3 = task(now + 3000, 10 * LARGE);
+    CallRunner small = task(now + 50000, 100);
+    queue.offer(large1);
+    queue.offer(large2);
+    queue.offer(large3);
+    queue.offer(small);
+    // small calls go first, even with a later deadline
+    assertSame(small, queue.poll());
+    assertSame(large1, queue.poll());
+    assertSame(large2, queue.poll());
+    // two large calls are running
+    assertNull(queue.poll());
+    assertEquals(1, queue.getLargeCallQueueLength());
+    assertFalse(queue.isLarge(small));
+    assertTrue(queue.isLarge(large1));
+    queue.largeCallDone();
+    assertSame(large3, queue.poll());
+  }
+
+  @Test
+  public void testWaitForRoom() throws Exception {
+    LongAdder dropped = new LongAdder();
+    DeadlineCallQueue queue = new DeadlineCallQueue(1, LARGE, 1, 60000, dropped);
+    long now = EnvironmentEdgeManager.currentTime();
+    CallRunner first = task(now + 60000, 100);
+    CallRunner second = task(now + 60000, 100);
+    assertTrue(queue.offer(first));
+    assertFalse(queue.offer(second));
+    long start = System.nanoTime();
+    assertFalse(queue.offer(second, 100, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+    CountDownLatch put = new CountDownLatch(1);
+    Thread putter = new Thread(() -> {
+      try {
+        queue.put(second);
+        put.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    putter.start();
+    assertFalse(put.await(100, TimeUnit.MILLISECONDS));
+    assertSame(first, queue.take());
+    assertTrue(put.await(10, TimeUnit.SECONDS));
+    putter.join();
+    assertSame(second, queue.poll());
+
+    // room made while waiting
+    assertTrue(queue.offer(first));
+    CountDownLatch offered = new CountDownLatch(1);
+    Thread offerer = new Thread(() -> {
+      try {
+        if (queue.offer(second, 10, TimeUnit.SECONDS)) {
+          offered.countDown();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    offerer.start();
+    assertSame(first, queue.take());
+    assertTrue(offered.await(10, TimeUnit.SECONDS));
+    offerer.join();
+    assertEquals(1, queue.size());
+  }
+
+  @Test
+  public void testSingleHandlerRunsLargeCalls() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(RpcExecutor.CALL_QUEUE_EDF_LARGE_CALL_SIZE, LARGE);
+    DeadlineAwareRpcExecutor executor =
+        new DeadlineAwareRpcExecutor("test", 1, 100, null, conf, null);
+    executor.start(0);
+    try {
+      CountDownLatch done = new CountDownLatch(2);
+      long now = EnvironmentEdgeManager.currentTime();
+      for (int i = 0; i < 2; i++) {
+        CallRunner large = task(now + 60000, LARGE);
+        doAnswer(invocation -> {
+          done.countDown();
+          return null;
+        }).when(large).run();
+        assertTrue(executor.dispatch(large));
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testExecutor() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(RpcExecutor.CALL_QUEUE_EDF_LARGE_CALL_SIZE, LARGE);
+    conf.setInt(RpcExecutor.CALL_QUEUE_EDF_RESERVED_HANDLERS, 1);
+    DeadlineAwareRpcExecutor executor =
+        new DeadlineAwareRpcExecutor("test", 3, 100, null, conf, null);
+    assertEquals(1, executor.getQueues().size());
+    executor.start(0);
+    try {
+      long now = EnvironmentEdgeManager.currentTime();
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch largeDone = new CountDownLatch(3);
+      // large calls which block, only 2 of the 3 handlers may run them
+      for (int i = 0; i < 3; i++) {
+        CallRunner large = task(now + 60000, LARGE);
+        doAnswer(invocation -> {
+          release.await();
+          largeDone.countDown();
+          return null;
+        }).when(large).run();
+        assertTrue(executor.dispatch(large));
+      }
+      while (executor.getActiveHandlerCount() < 2) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, executor.getLargeCallQueueLength());
+      // the reserved handler still runs small calls
+      CountDownLatch smallDone = new CountDownLatch(1);
+      CallRunner small = task(now + 60000, 100);
+      doAnswer(invocation -> {
+        smallDone.countDown();
+        return null;
+      }).when(small).run();
+      assertTrue(executor.dispatch(small));
+      assertTrue(smallDone.await(10, TimeUnit.SECONDS));
+      assertEquals(0, executor.getNumExpiredCallsDropped());
+
+      assertTrue(executor.dispatch(task(now - 1, 100)));
+      assertEquals(1, executor.getNumExpiredCallsDropped());
+
+      release.countDown();
+      assertTrue(largeDone.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.stop();
+    }
+  }
+}
@@ -133,6 +133,12 @@ public class TestRpcMetrics {
     HELPER.assertCounter("requestSize_NumOps", 1, serverSource);
     HELPER.assertCounter("responseSize_NumOps", 1, serverSource);
 
+    mrpc.rdmaReaderParked();
+    mrpc.rdmaReaderParked();
+    mrpc.rdmaReadyConnections(3);
+    HELPER.assertCounter("rdmaReaderParks", 2, serverSource);
+    HELPER.assertCounter("rdmaReadyConnections_NumOps", 1, serverSource);
+
     mrpc.exception(null);
     HELPER.assertCounter("exceptions", 1, serverSource);
 
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+@Category({ RPCTests.class, MediumTests.class })
+public class TestRpcTransportPerformanceEvaluation {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestRpcTransportPerformanceEvaluation.class);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testResultQuantiles() {
+    long[] latencies = new long[1000];
+    for (int i = 0; i < latencies.length; i++) {
+      // unsorted on purpose
+      latencies[i] = (latencies.length - i) * 1000L;
+    }
+    RpcTransportPerformanceEvaluation.Result r =
+        new RpcTransportPerformanceEvaluation.Result(1000000000L, latencies, 5000);
+    assertEquals(1000.0, r.callsPerSecond(), 0.001);
+    assertEquals(500.0, r.latencyMicros(0.5), 0.001);
+    assertEquals(990.0, r.latencyMicros(0.99), 0.001);
+    assertEquals(999.0, r.latencyMicros(0.999), 0.001);
+    assertEquals(5, r.allocatedBytesPerCall());
+  }
+
+  @Test
+  public void testAllTransports() throws Exception {
+    RpcTransportPerformanceEvaluation tool = new RpcTransportPerformanceEvaluation();
+    tool.setConf(HBaseConfiguration.create());
+    tool.getConf().set(RdmaTransportFactory.RDMA_TRANSPORT_IMPL_CONF_KEY,
+      SharedMemoryRdmaTransport.class.getName());
+    tool.getConf().set(SharedMemoryRdmaTransport.SHM_DIR_CONF_KEY,
+      folder.getRoot().getAbsolutePath());
+    tool.getConf().setInt(RdmaTransportFactory.RDMA_RPC_PORT_CONF_KEY,
+      HBaseTestingUtility.randomFreePort());
+    assertEquals(0, tool.run(new String[] { "-payloads", "16,4096", "-threads", "1,4",
+      "-num_calls", "50", "-warmup_calls", "10", "-handlers", "4" }));
+  }
+}
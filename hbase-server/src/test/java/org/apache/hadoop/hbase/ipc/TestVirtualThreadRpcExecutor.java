@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RPCTests.class, SmallTests.class })
+public class TestVirtualThreadRpcExecutor {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestVirtualThreadRpcExecutor.class);
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+  }
+
+  private static CallRunner task(CountDownLatch release, CountDownLatch done) {
+    CallRunner task = mock(CallRunner.class);
+    doAnswer(invocation -> {
+      release.await();
+      done.countDown();
+      return null;
+    }).when(task).run();
+    return task;
+  }
+
+  @Test
+  public void testConcurrencyBeyondHandlerCount() throws Exception {
+    // more calls than handlers block at once, a handler pool would not run them all
+    VirtualThreadRpcExecutor executor =
+        new VirtualThreadRpcExecutor("test", 2, 100, null, conf, null);
+    assertEquals(20, executor.getMaxConcurrency());
+    executor.start(0);
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(10);
+      for (int i = 0; i < 10; i++) {
+        assertTrue(executor.dispatch(task(release, done)));
+      }
+      while (executor.getActiveHandlerCount() < 10) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, executor.getQueueLength());
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testMaxConcurrency() throws Exception {
+    conf.setInt(VirtualThreadRpcExecutor.MAX_CONCURRENCY_CONF_KEY, 3);
+    VirtualThreadRpcExecutor executor =
+        new VirtualThreadRpcExecutor("test", 2, 5, null, conf, null);
+    executor.start(0);
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(8);
+      for (int i = 0; i < 8; i++) {
+        assertTrue(executor.dispatch(task(release, done)));
+      }
+      // the queue is full
+      assertFalse(executor.dispatch(task(release, new CountDownLatch(1))));
+      while (executor.getActiveHandlerCount() < 3) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(100);
+      assertEquals(3, executor.getActiveHandlerCount());
+      assertEquals(5, executor.getQueueLength());
+      release.countDown();
+      // the queued calls run as permits free up
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, executor.getQueueLength());
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testSchedulerUsesVirtualThreads() throws Exception {
+    conf.setBoolean(VirtualThreadRpcExecutor.VIRTUAL_THREADS_CONF_KEY, true);
+    PriorityFunction priority = mock(PriorityFunction.class);
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 2, 0, 0, priority, 0);
+    scheduler.init(new RpcScheduler.Context() {
+      @Override
+      public InetSocketAddress getListenerAddress() {
+        return InetSocketAddress.createUnresolved("127.0.0.1", 1000);
+      }
+    });
+    scheduler.start();
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(1);
+      CallRunner task = task(release, done);
+      when(task.getRpcCall()).thenReturn(mock(ServerCall.class));
+      assertTrue(scheduler.dispatch(task));
+      verify(task, timeout(10000)).run();
+      assertEquals(1, scheduler.getActiveRpcHandlerCount());
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, scheduler.getNumVirtualThreadPinnedEvents());
+    } finally {
+      scheduler.stop();
+    }
+  }
+}
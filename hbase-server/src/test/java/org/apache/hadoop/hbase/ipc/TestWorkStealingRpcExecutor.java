@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RPCTests.class, SmallTests.class })
+public class TestWorkStealingRpcExecutor {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestWorkStealingRpcExecutor.class);
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    // one queue per handler
+    conf.setFloat(RpcExecutor.CALL_QUEUE_HANDLER_FACTOR_CONF_KEY, 1.0f);
+  }
+
+  private static CallRunner task(CountDownLatch started, CountDownLatch release,
+      CountDownLatch done) {
+    CallRunner task = mock(CallRunner.class);
+    doAnswer(invocation -> {
+      if (started != null) {
+        started.countDown();
+      }
+      if (release != null) {
+        release.await();
+      }
+      done.countDown();
+      return null;
+    }).when(task).run();
+    return task;
+  }
+
+  @Test
+  public void testIdleHandlerStealsFromBlockedQueue() throws Exception {
+    WorkStealingRpcExecutor executor =
+        new WorkStealingRpcExecutor("test", 2, 100, null, conf, null);
+    assertEquals(2, executor.getQueues().size());
+    executor.start(0);
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(12);
+      // a slow call occupies a handler, the other one may have stolen it
+      CallRunner slow = task(started, release, done);
+      String[] handlerName = new String[1];
+      doAnswer(invocation -> {
+        handlerName[0] = Thread.currentThread().getName();
+        return null;
+      }).when(slow).setStatus(any());
+      assertTrue(executor.getQueues().get(0).offer(slow));
+      executor.dispatch(task(null, null, new CountDownLatch(1)));
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      int blocked = handlerName[0].contains(",queue=0,") ? 0 : 1;
+      // queue calls behind it, then wake up the other handler by a dispatch
+      for (int i = 0; i < 10; i++) {
+        assertTrue(executor.getQueues().get(blocked).offer(task(null, null, done)));
+      }
+      executor.dispatch(task(null, null, done));
+      while (done.getCount() > 1) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, executor.getQueueLength());
+      assertTrue(executor.getNumStolenCalls() >= 10);
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testManyCalls() throws Exception {
+    WorkStealingRpcExecutor executor =
+        new WorkStealingRpcExecutor("test", 4, 10000, null, conf, null);
+    executor.start(0);
+    try {
+      int numCalls = 5000;
+      CountDownLatch done = new CountDownLatch(numCalls);
+      List<Thread> readers = new ArrayList<>();
+      for (int r = 0; r < 4; r++) {
+        Thread reader = new Thread(() -> {
+          for (int i = 0; i < numCalls / 4; i++) {
+            try {
+              while (!executor.dispatch(task(null, null, done))) {
+                Thread.sleep(1);
+              }
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+        });
+        reader.start();
+        readers.add(reader);
+      }
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testQueueLimit() throws Exception {
+    WorkStealingRpcExecutor executor = new WorkStealingRpcExecutor("test", 2, 5, null, conf, null);
+    // not started, nothing takes the calls
+    int accepted = 0;
+    for (int i = 0; i < 20; i++) {
+      if (executor.dispatch(task(null, null, new CountDownLatch(1)))) {
+        accepted++;
+      }
+    }
+    assertEquals(10, accepted);
+    assertEquals(10, executor.getQueueLength());
+    assertEquals(5, executor.getQueues().get(0).size());
+    assertEquals(5, executor.getQueues().get(1).size());
+  }
+
+  @Test
+  public void testLockFreeCallQueue() throws Exception {
+    LockFreeCallQueue queue = new LockFreeCallQueue(2);
+    CallRunner a = task(null, null, new CountDownLatch(1));
+    CallRunner b = task(null, null, new CountDownLatch(1));
+    assertTrue(queue.offer(a));
+    assertTrue(queue.offer(b));
+    assertFalse(queue.offer(task(null, null, new CountDownLatch(1))));
+    assertEquals(0, queue.remainingCapacity());
+    assertTrue(queue.remove(a));
+    assertEquals(1, queue.size());
+    assertSame(b, queue.poll());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+    // a blocked consumer is woken up by an offer
+    CallRunner[] taken = new CallRunner[1];
+    Thread consumer = new Thread(() -> {
+      try {
+        taken[0] = queue.take();
+      } catch (InterruptedException e) {
+        // ignore
+      }
+    });
+    consumer.start();
+    Thread.sleep(100);
+    assertTrue(queue.offer(a));
+    consumer.join(10000);
+    assertSame(a, taken[0]);
+    assertEquals(0, queue.size());
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
+import org.apache.hadoop.hbase.io.ByteBufferPool;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RPCTests.class, SmallTests.class })
+public class TestZeroCopyCellBlockStream {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestZeroCopyCellBlockStream.class);
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  /**
+   * Lay out the KeyValue in a direct buffer, behind some other bytes, as in an off-heap block.
+   */
+  private static ByteBufferKeyValue offheapCell(int row, int valueLength) {
+    KeyValue kv = new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, row,
+        new byte[valueLength]);
+    ByteBuffer block = ByteBuffer.allocateDirect(kv.getLength() + 20);
+    block.position(10);
+    block.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+    return new ByteBufferKeyValue(block, 10, kv.getLength());
+  }
+
+  private static List<Cell> cells() {
+    List<Cell> cells = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      // small and large off-heap cells, and on-heap ones
+      cells.add(offheapCell(i, i % 2 == 0 ? 10 : 5000));
+      cells.add(new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, i, new byte[3000]));
+    }
+    return cells;
+  }
+
+  private static byte[] toBytes(List<ByteBuffer> bufs) {
+    int size = 0;
+    for (ByteBuffer b : bufs) {
+      size += b.remaining();
+    }
+    ByteBuffer all = ByteBuffer.allocate(size);
+    for (ByteBuffer b : bufs) {
+      all.put(b.duplicate());
+    }
+    return all.array();
+  }
+
+  private static void assertSameEncoding(Codec codec) throws IOException {
+    List<Cell> cells = cells();
+    ByteBuffer expected = new CellBlockBuilder(HBaseConfiguration.create()).buildCellBlock(codec,
+      null, CellUtil.createCellScanner(cells));
+    ByteBufferPool pool = new ByteBufferPool(4096, 16, true);
+    ZeroCopyCellBlockStream stream =
+        ZeroCopyCellBlockStream.build(codec, CellUtil.createCellScanner(cells), pool, 1024);
+    assertTrue(stream.hasSlices());
+    List<ByteBuffer> bufs = stream.getByteBuffers();
+    assertEquals(expected.remaining(), stream.size());
+    assertArrayEquals(Bytes.getBytes(expected), toBytes(bufs));
+    // the last cell is on-heap, so the last buffer is a pooled one with room for the header
+    ByteBuffer last = bufs.get(bufs.size() - 1);
+    assertTrue(last.capacity() > last.limit());
+    stream.releaseResources();
+  }
+
+  @Test
+  public void testSameEncodingAsCodec() throws IOException {
+    assertSameEncoding(new KeyValueCodec());
+    assertSameEncoding(new KeyValueCodecWithTags());
+  }
+
+  @Test
+  public void testSlicesReferenceCellMemory() throws IOException {
+    ByteBufferKeyValue cell = offheapCell(1, 5000);
+    ByteBufferPool pool = new ByteBufferPool(4096, 16, true);
+    ZeroCopyCellBlockStream stream = ZeroCopyCellBlockStream.build(new KeyValueCodec(),
+      CellUtil.createCellScanner(new ArrayList<>(java.util.Collections.singletonList(cell))),
+      pool, 1024);
+    List<ByteBuffer> bufs = stream.getByteBuffers();
+    // the length, then the cell itself
+    assertEquals(2, bufs.size());
+    assertEquals(Bytes.SIZEOF_INT, bufs.get(0).remaining());
+    ByteBuffer slice = bufs.get(1);
+    assertEquals(cell.getSerializedSize(false), slice.remaining());
+    // no room to write a header into the cell memory
+    assertEquals(slice.limit(), slice.capacity());
+    // not a copy
+    cell.getBuffer().put(cell.getValuePosition(), (byte) 7);
+    assertEquals(7, slice.get(slice.position() + cell.getValuePosition() - cell.getOffset()));
+    stream.releaseResources();
+    assertEquals(1, pool.getQueueSize());
+  }
+
+  @Test
+  public void testCanSlice() throws IOException {
+    assertTrue(ZeroCopyCellBlockStream.canSlice(new KeyValueCodec(), null));
+    assertFalse(ZeroCopyCellBlockStream.canSlice(new KeyValueCodec(), new DefaultCodec()));
+    assertFalse(ZeroCopyCellBlockStream.canSlice(null, null));
+    CellScanner empty = CellUtil.createCellScanner(new ArrayList<Cell>());
+    assertNull(ZeroCopyCellBlockStream.build(new KeyValueCodec(), empty,
+      new ByteBufferPool(4096, 16, true), 1024));
+  }
+}
@@ -310,6 +310,21 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 10;
   }
 
+  @Override
+  public long getL2CacheRecoveredBlockCount() {
+    return 500;
+  }
+
+  @Override
+  public long getL2CacheRecoveryTime() {
+    return 30;
+  }
+
+  @Override
+  public long getL2CacheChecksumFailureCount() {
+    return 2;
+  }
+
   @Override
   public long getUpdatesBlockedTime() {
     return 419;
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -584,6 +585,38 @@ public class TestCompactingMemStore extends TestDefaultMemStore {
     assertTrue(chunkCreator.getPoolSize() > 0);
   }
 
+  @Test
+  public void testInMemoryFlushOnCellOverhead() throws IOException {
+    String[] keys = new String[200];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "row" + i;
+    }
+    Configuration conf = HBaseConfiguration.create();
+    // in-memory flush size of about 13KB, not reached by the data of the cells
+    conf.setDouble(CompactingMemStore.IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY, 0.0001);
+
+    conf.setDouble(CompactingMemStore.IN_MEMORY_FLUSH_OVERHEAD_FACTOR_KEY, 0);
+    MyCompactingMemStore dataOnly = new MyCompactingMemStore(conf, CellComparator.getInstance(),
+        store, regionServicesForStores, MemoryCompactionPolicy.BASIC);
+    dataOnly.disableCompaction();
+    int totalCellsLen = addRowsByKeys(dataOnly, keys);
+    assertTrue(totalCellsLen < dataOnly.getInmemoryFlushSize());
+    assertFalse(dataOnly.hasImmutableSegments());
+
+    // With the default factor, the skip list entries and cell objects of small cells outweigh half
+    // of their data
+    conf.unset(CompactingMemStore.IN_MEMORY_FLUSH_OVERHEAD_FACTOR_KEY);
+    MyCompactingMemStore overhead = new MyCompactingMemStore(conf, CellComparator.getInstance(),
+        store, regionServicesForStores, MemoryCompactionPolicy.BASIC);
+    overhead.disableCompaction();
+    addRowsByKeys(overhead, keys);
+    while (overhead.isMemStoreFlushingInMemory()) {
+      Threads.sleep(10);
+    }
+    assertTrue(overhead.hasImmutableSegments());
+    assertTrue(overhead.getActive().getCellsCount() < keys.length);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Compaction tests
   //////////////////////////////////////////////////////////////////////////////
@@ -26,11 +26,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -151,7 +153,9 @@ import org.apache.hadoop.hbase.util.IncrementingEnvironmentEdge;
 import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.wal.AbstractFSWALProvider;
+import org.apache.hadoop.hbase.wal.BalancedGroupingStrategy;
 import org.apache.hadoop.hbase.wal.FaultyFSLog;
+import org.apache.hadoop.hbase.wal.RegionGroupingProvider;
 import org.apache.hadoop.hbase.wal.WAL;
 import org.apache.hadoop.hbase.wal.WALEdit;
 import org.apache.hadoop.hbase.wal.WALFactory;
@@ -180,6 +184,8 @@ import org.apache.hbase.thirdparty.com.google.common.collect.Lists;
 import org.apache.hbase.thirdparty.com.google.protobuf.ByteString;
 
 import org.apache.hadoop.hbase.shaded.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClusterStatusProtos.RegionLoad;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClusterStatusProtos.StoreSequenceId;
 import org.apache.hadoop.hbase.shaded.protobuf.generated.WALProtos.CompactionDescriptor;
 import org.apache.hadoop.hbase.shaded.protobuf.generated.WALProtos.FlushDescriptor;
 import org.apache.hadoop.hbase.shaded.protobuf.generated.WALProtos.FlushDescriptor.FlushAction;
@@ -424,6 +430,97 @@ public class TestHRegion {
     HBaseTestingUtility.closeRegionAndWAL(region);
   }
 
+  /**
+   * With the balanced WAL grouping strategy a region flushing all its stores moves to the WAL of
+   * its new group. Until the flush commits, only the old WAL knows of the edits being flushed, and
+   * the sequence ids the region reports must stay below them.
+   */
+  @Test
+  public void testMoveToAnotherWALOnFlush() throws Exception {
+    byte[] fam1 = Bytes.toBytes("fam1");
+    byte[] fam2 = Bytes.toBytes("fam2");
+    Configuration conf = new Configuration(CONF);
+    conf.set(RegionGroupingProvider.REGION_GROUPING_STRATEGY,
+      BalancedGroupingStrategy.class.getName());
+    FileSystem fs = FileSystem.get(conf);
+    Path rootDir = new Path(dir + method);
+    FSHLog oldWAL = new FSHLog(fs, rootDir, method + ".old", conf);
+    FSHLog newWAL = new FSHLog(fs, rootDir, method + ".new", conf);
+    RegionServerServices rss =
+        spy(TEST_UTIL.createMockRegionServerService(ServerName.valueOf(method, 100, 42)));
+    doReturn(newWAL).when(rss).getWAL(any());
+
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(fam1));
+    htd.addFamily(new HColumnDescriptor(fam2));
+    HRegionInfo hri = new HRegionInfo(tableName);
+    byte[] encodedName = hri.getEncodedNameAsBytes();
+    ChunkCreator.initialize(MemStoreLABImpl.CHUNK_SIZE_DEFAULT, false, 0, 0, 0, null);
+    Path tableDir = FSUtils.getTableDir(rootDir, tableName);
+    HRegionFileSystem.createRegionOnFileSystem(conf, fs, tableDir, hri);
+    List<Long> duringFlush = new ArrayList<>();
+    HRegion region = new HRegion(tableDir, oldWAL, fs, conf, hri, htd, rss) {
+      @Override
+      protected FlushResultImpl internalFlushCacheAndCommit(WAL wal, MonitoredTask status,
+          PrepareFlushResult prepareResult, Collection<HStore> storesToFlush) throws IOException {
+        // The snapshot is taken, the stores are not flushed yet
+        if (getWAL() == newWAL && duringFlush.isEmpty()) {
+          put(new Put(row2).addColumn(fam1, qual1, value2));
+          duringFlush.add(oldWAL.getEarliestMemStoreSeqNum(encodedName, fam1));
+          duringFlush.add(newWAL.getEarliestMemStoreSeqNum(encodedName, fam1));
+          duringFlush.add(getOldestSeqIdOfStore(fam1));
+          duringFlush.add(getCompleteSequenceId(this, fam1));
+        }
+        return super.internalFlushCacheAndCommit(wal, status, prepareResult, storesToFlush);
+      }
+    };
+    region.initialize();
+    try {
+      region.put(new Put(row).addColumn(fam1, qual1, value1).addColumn(fam2, qual1, value1));
+      long snapshotSeqId = oldWAL.getEarliestMemStoreSeqNum(encodedName, fam1);
+      assertTrue(snapshotSeqId > 0);
+      assertEquals(snapshotSeqId - 1, getCompleteSequenceId(region, fam1));
+
+      region.flush(true);
+      assertSame(newWAL, region.getWAL());
+      assertEquals(4, duringFlush.size());
+      // the old WAL still accounts for the edits being flushed, the new one only for those after
+      assertEquals(snapshotSeqId, duringFlush.get(0).longValue());
+      long duringFlushSeqId = duringFlush.get(1);
+      assertTrue(duringFlushSeqId > snapshotSeqId);
+      assertEquals(snapshotSeqId, duringFlush.get(2).longValue());
+      assertEquals(snapshotSeqId - 1, duringFlush.get(3).longValue());
+
+      // Once flushed, the old WAL lets go of the region
+      assertEquals(HConstants.NO_SEQNUM, oldWAL.getEarliestMemStoreSeqNum(encodedName, fam1));
+      assertEquals(HConstants.NO_SEQNUM, oldWAL.getEarliestMemStoreSeqNum(encodedName, fam2));
+      assertEquals(duringFlushSeqId, newWAL.getEarliestMemStoreSeqNum(encodedName, fam1));
+      assertEquals(duringFlushSeqId, region.getOldestSeqIdOfStore(fam1));
+      assertEquals(duringFlushSeqId - 1, getCompleteSequenceId(region, fam1));
+
+      // and stays on the new WAL
+      region.flush(true);
+      assertSame(newWAL, region.getWAL());
+      assertEquals(HConstants.NO_SEQNUM, newWAL.getEarliestMemStoreSeqNum(encodedName, fam1));
+      assertEquals(2, region.get(new Get(row)).size());
+      assertEquals(1, region.get(new Get(row2)).size());
+    } finally {
+      region.close();
+      oldWAL.close();
+      newWAL.close();
+    }
+  }
+
+  private static long getCompleteSequenceId(HRegion region, byte[] family) {
+    for (StoreSequenceId id : region.setCompleteSequenceId(RegionLoad.newBuilder())
+        .getStoreCompleteSequenceIdList()) {
+      if (Bytes.equals(family, id.getFamilyName().toByteArray())) {
+        return id.getSequenceId();
+      }
+    }
+    throw new AssertionError("No complete sequence id for " + Bytes.toString(family));
+  }
+
   /**
    * Test we do not lose data if we fail a flush and then close.
    * Part of HBase-10466.  Tests the following from the issue description:
@@ -23,8 +23,11 @@ import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.ByteBufferKeyValue;
 import org.apache.hadoop.hbase.HBaseClassTestRule;
@@ -268,4 +271,49 @@ public class TestMemStoreChunkPool {
       ChunkCreator.instance = oldCreator;
     }
   }
+
+  @Test
+  public void testLocalChunkCaches() throws Exception {
+    int chunkSize = 1024;
+    // A pool of 4 chunks, with caches of 2 chunks per core
+    ChunkCreator creator = new ChunkCreator(chunkSize, false, 4 * chunkSize, 1.0f, 0f, null, 0f, 2);
+    assertEquals(4, creator.getMaxCount());
+    Chunk[] chunks = new Chunk[4];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = creator.getChunk();
+      assertTrue(chunks[i].isFromPool());
+    }
+    Set<Integer> ids = new HashSet<>();
+    ids.add(chunks[0].getId());
+    ids.add(chunks[1].getId());
+    creator.putbackChunks(ids);
+    assertEquals(2, creator.getPoolSize());
+    assertTrue(creator.isChunkInPool(chunks[0].getId()));
+    assertTrue(creator.isChunkInPool(chunks[1].getId()));
+
+    // The chunks went to the cache of this thread, which reuses them first
+    Chunk reused = creator.getChunk();
+    assertEquals(chunks[0].getId(), reused.getId());
+    assertEquals(1, creator.getPoolSize());
+
+    // Another thread reuses the chunk left in our cache rather than creating one, all the chunks
+    // of the pool being created
+    AtomicReference<Chunk> taken = new AtomicReference<>();
+    Thread t = new Thread(() -> taken.set(creator.getChunk()));
+    t.start();
+    t.join();
+    assertEquals(chunks[1].getId(), taken.get().getId());
+    assertTrue(taken.get().isFromPool());
+    assertEquals(0, creator.getPoolSize());
+
+    // Chunks past the caches go to the shared queue
+    ids.clear();
+    for (Chunk chunk : chunks) {
+      ids.add(chunk.getId());
+    }
+    creator.putbackChunks(ids);
+    assertEquals(4, creator.getPoolSize());
+    creator.clearChunksInPool();
+    assertEquals(0, creator.getPoolSize());
+  }
 }
@@ -112,6 +112,29 @@ public class TestMemStoreLAB {
     }
   }
 
+  @Test
+  public void testLABWastedBytes() {
+    MemStoreLAB mslab = new MemStoreLABImpl();
+    ByteBuffer lastBuffer = null;
+    int lastEnd = 0;
+    long expectedWaste = 0;
+    for (int i = 0; i < 10000; i++) {
+      KeyValue kv = new KeyValue(rk, cf, q, new byte[i % 300]);
+      ByteBufferKeyValue newKv = (ByteBufferKeyValue) mslab.copyCellInto(kv);
+      if (newKv.getBuffer() != lastBuffer) {
+        if (lastBuffer != null) {
+          // The previous chunk is retired with what did not fit in it
+          expectedWaste += lastBuffer.capacity() - lastEnd;
+        }
+        lastBuffer = newKv.getBuffer();
+      }
+      lastEnd = newKv.getOffset() + KeyValueUtil.length(kv);
+      assertEquals(expectedWaste, mslab.getWastedBytes());
+    }
+    assertTrue(expectedWaste > 0);
+    mslab.close();
+  }
+
   @Test
   public void testLABLargeAllocation() {
     MemStoreLAB mslab = new MemStoreLABImpl();
@@ -114,6 +114,9 @@ public class TestMetricsRegionServer {
     HELPER.assertGauge("l2CacheMissCount", 200, serverSource);
     HELPER.assertGauge("l2CacheHitRatio", 90, serverSource);
     HELPER.assertGauge("l2CacheMissRatio", 10, serverSource);
+    HELPER.assertGauge("l2CacheRecoveredBlockCount", 500, serverSource);
+    HELPER.assertGauge("l2CacheRecoveryTime", 30, serverSource);
+    HELPER.assertGauge("l2CacheChecksumFailureCount", 2, serverSource);
     HELPER.assertCounter("updatesBlockedTime", 419, serverSource);
   }
 
@@ -18,6 +18,13 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.hadoop.hbase.HBaseClassTestRule;
 import org.apache.hadoop.hbase.testclassification.RegionServerTests;
@@ -49,4 +56,47 @@ public class TestMultiVersionConcurrencyControlBasic {
     mvcc.complete(writeEntry);
     assertEquals(readPoint + 2, mvcc.getWritePoint());
   }
+
+  @Test
+  public void testCompleteOutOfOrderPastRing() {
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl(100);
+    // More pending writes than the ring holds, so that some go to the overflow map
+    int writes = 3 * MultiVersionConcurrencyControl.RING_SIZE + 7;
+    List<MultiVersionConcurrencyControl.WriteEntry> entries = new ArrayList<>();
+    for (int i = 0; i < writes; i++) {
+      entries.add(mvcc.begin());
+    }
+    assertEquals(100 + writes, mvcc.getWritePoint());
+    MultiVersionConcurrencyControl.WriteEntry first = entries.remove(0);
+    Collections.shuffle(entries, new Random(42));
+    for (MultiVersionConcurrencyControl.WriteEntry e : entries) {
+      assertFalse(mvcc.complete(e));
+      assertEquals(100, mvcc.getReadPoint());
+    }
+    // Completing the first write makes all of them visible
+    assertTrue(mvcc.complete(first));
+    assertEquals(100 + writes, mvcc.getReadPoint());
+    // The ring slots are reused once visible
+    for (int i = 0; i < writes; i++) {
+      mvcc.completeAndWait(mvcc.begin());
+    }
+    assertEquals(100 + 2 * writes, mvcc.getReadPoint());
+  }
+
+  @Test
+  public void testWaiterWokenUp() throws Exception {
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    MultiVersionConcurrencyControl.WriteEntry first = mvcc.begin();
+    MultiVersionConcurrencyControl.WriteEntry second = mvcc.begin();
+    Thread waiter = new Thread(() -> mvcc.completeAndWait(second));
+    waiter.start();
+    while (!second.isCompleted()) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, mvcc.getReadPoint());
+    mvcc.complete(first);
+    waiter.join(10000);
+    assertFalse(waiter.isAlive());
+    assertEquals(2, mvcc.getReadPoint());
+  }
 }
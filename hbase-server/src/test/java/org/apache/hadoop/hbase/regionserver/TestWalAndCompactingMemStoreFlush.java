@@ -140,6 +140,9 @@ public class TestWalAndCompactingMemStoreFlush {
     conf.set(FlushPolicyFactory.HBASE_FLUSH_POLICY_KEY,
         FlushNonSloppyStoresFirstPolicy.class.getName());
     conf.setDouble(CompactingMemStore.IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY, 0.5);
+    // the segment and WAL accounting below expects in-memory flushes on data size only, not on the
+    // overhead of the small cells
+    conf.setDouble(CompactingMemStore.IN_MEMORY_FLUSH_OVERHEAD_FACTOR_KEY, 0);
   }
 
   @Test
@@ -33,7 +33,12 @@ import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -442,6 +447,79 @@ public abstract class AbstractTestFSWAL {
     }
   }
 
+  /**
+   * Syncs held for a group commit window must all complete, including those held while the log
+   * rolls.
+   */
+  @Test
+  public void testHeldSyncs() throws Exception {
+    String testName = currentTest.getMethodName();
+    AtomicInteger syncs = new AtomicInteger();
+    AtomicInteger syncWaits = new AtomicInteger();
+    List<WALActionsListener> listeners = new ArrayList<>();
+    listeners.add(new WALActionsListener() {
+      @Override
+      public void postSync(long timeInNanos, int handlerSyncs) {
+        syncs.incrementAndGet();
+      }
+
+      @Override
+      public void postSyncWait(long timeInNanos) {
+        syncWaits.incrementAndGet();
+      }
+    });
+    AbstractFSWAL<?> wal = newWAL(FS, CommonFSUtils.getWALRootDir(CONF), DIR.toString(), testName,
+      CONF, listeners, true, null, null);
+    wal.groupCommit.setForcedWindowNanos(TimeUnit.MILLISECONDS.toNanos(5));
+    TableDescriptor td = TableDescriptorBuilder.newBuilder(TableName.valueOf("table"))
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.of("row")).build();
+    RegionInfo ri = RegionInfoBuilder.newBuilder(td.getTableName()).build();
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    NavigableMap<byte[], Integer> scopes = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    for (byte[] fam : td.getColumnFamilyNames()) {
+      scopes.put(fam, 0);
+    }
+    byte[] row = Bytes.toBytes("row");
+    int threads = 10;
+    int syncsPerThread = 20;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < syncsPerThread; j++) {
+            long timestamp = System.currentTimeMillis();
+            WALEdit cols = new WALEdit();
+            cols.add(new KeyValue(row, row, row, timestamp, row));
+            WALKeyImpl key = new WALKeyImpl(ri.getEncodedNameAsBytes(), td.getTableName(),
+                SequenceId.NO_SEQUENCE_ID, timestamp, WALKey.EMPTY_UUIDS, HConstants.NO_NONCE,
+                HConstants.NO_NONCE, mvcc, scopes);
+            wal.sync(wal.append(ri, key, cols, true));
+          }
+          return null;
+        }));
+      }
+      // Roll while syncs are held
+      for (int i = 0; i < 3; i++) {
+        Thread.sleep(20);
+        wal.rollWriter(true);
+      }
+      for (Future<?> future : futures) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+      assertTrue(syncWaits.get() > 0);
+      // the requests of the handlers which came in while a sync was held went out with it
+      assertTrue("syncs=" + syncs.get(), syncs.get() < threads * syncsPerThread);
+
+      // Nothing is left waiting on the held syncs
+      wal.groupCommit.setForcedWindowNanos(0);
+      wal.sync();
+    } finally {
+      executor.shutdownNow();
+      wal.close();
+    }
+  }
+
   @Test
   public void testWriteEntryCanBeNull() throws IOException {
     String testName = currentTest.getMethodName();
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestGroupCommitController {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestGroupCommitController.class);
+
+  private static final long SYNC_NS = TimeUnit.MICROSECONDS.toNanos(800);
+
+  /**
+   * Feeds back to back syncs of 800us, each releasing the given count of sync requests.
+   * @return the time of the last sync
+   */
+  private static long sync(GroupCommitController controller, long nowNs, int syncs,
+      int handlerSyncs) {
+    for (int i = 0; i < syncs; i++) {
+      nowNs += SYNC_NS;
+      controller.syncCompleted(SYNC_NS, handlerSyncs, nowNs);
+    }
+    return nowNs;
+  }
+
+  @Test
+  public void testWindow() {
+    GroupCommitController controller = new GroupCommitController(HBaseConfiguration.create());
+    long nowNs = System.nanoTime();
+    // One sync request per sync: nothing would join a held sync
+    nowNs = sync(controller, nowNs, 100, 1);
+    assertEquals(0, controller.getWaitNanos(nowNs));
+
+    // 20 sync requests per 800us sync, 10 of which arrive in a 400us window
+    nowNs = sync(controller, nowNs, 100, 20);
+    assertEquals(SYNC_NS / 2, controller.getWaitNanos(nowNs));
+
+    // Idle, the window closes
+    assertEquals(0, controller.getWaitNanos(nowNs + TimeUnit.SECONDS.toNanos(1)));
+    nowNs += TimeUnit.SECONDS.toNanos(1);
+    controller.syncCompleted(SYNC_NS, 1, nowNs);
+    assertEquals(0, controller.getWaitNanos(nowNs));
+  }
+
+  @Test
+  public void testMaxWait() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(GroupCommitController.MAX_WAIT_KEY, 100);
+    GroupCommitController controller = new GroupCommitController(conf);
+    long nowNs = sync(controller, System.nanoTime(), 100, 20);
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(100), controller.getWaitNanos(nowNs));
+
+    conf.setLong(GroupCommitController.MAX_WAIT_KEY, 0);
+    controller = new GroupCommitController(conf);
+    assertFalse(controller.isEnabled());
+    nowNs = sync(controller, System.nanoTime(), 100, 20);
+    assertEquals(0, controller.getWaitNanos(nowNs));
+  }
+}
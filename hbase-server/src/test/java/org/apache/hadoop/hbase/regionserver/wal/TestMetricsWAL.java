@@ -57,6 +57,15 @@ public class TestMetricsWAL {
     MetricsWAL metricsWAL = new MetricsWAL(source);
     metricsWAL.postSync(nanos, 1);
     verify(source, times(1)).incrementSyncTime(145);
+    verify(source, times(1)).incrementSyncBatchSize(1);
+  }
+
+  @Test
+  public void testPostSyncWait() throws Exception {
+    MetricsWALSource source = mock(MetricsWALSourceImpl.class);
+    MetricsWAL metricsWAL = new MetricsWAL(source);
+    metricsWAL.postSyncWait(TimeUnit.MICROSECONDS.toNanos(400));
+    verify(source, times(1)).incrementSyncWaitTime(400);
   }
 
   @Test
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.function.BiPredicate;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -64,6 +65,8 @@ public class HFileTestUtil {
   /** Column families used by the test */
   public static final byte[][] DEFAULT_COLUMN_FAMILIES = { DEFAULT_COLUMN_FAMILY };
 
+  private static final byte[] ROW_QUALIFIER = Bytes.toBytes("q");
+
   /**
    * Create an HFile with the given number of rows between a given
    * start key and end key @ family:qualifier.  The value will be the key value.
@@ -149,6 +152,42 @@ public class HFileTestUtil {
     }
   }
 
+  /**
+   * @return the cell of the given row in the files written by {@link #createHFileOfRows}: row
+   *         "rowNNNNN" @ {@link #DEFAULT_COLUMN_FAMILY}:q, with a 100 byte value holding the row
+   *         number
+   */
+  public static KeyValue createRowCell(int row) {
+    return new KeyValue(Bytes.toBytes(String.format("row%05d", row)), DEFAULT_COLUMN_FAMILY,
+        ROW_QUALIFIER, Bytes.padTail(Bytes.toBytes(row), 96));
+  }
+
+  /**
+   * Create an HFile of the cells of the rows 0 to numRows - 1, see {@link #createRowCell(int)}.
+   * The data blocks are 1KB, so that a few hundred rows span many blocks.
+   * @param cacheOnWriteFilter the filter of the data blocks cached on write, or null
+   */
+  public static void createHFileOfRows(Configuration configuration, FileSystem fs, Path path,
+      CacheConfig cacheConf, DataBlockEncoding encoding, int numRows,
+      BiPredicate<Cell, Cell> cacheOnWriteFilter) throws IOException {
+    HFileContext meta = new HFileContextBuilder()
+        .withBlockSize(1024)
+        .withDataBlockEncoding(encoding)
+        .build();
+    HFile.Writer writer = HFile.getWriterFactory(configuration, cacheConf)
+        .withPath(fs, path)
+        .withFileContext(meta)
+        .create();
+    writer.setCacheOnWriteFilter(cacheOnWriteFilter);
+    try {
+      for (int i = 0; i < numRows; i++) {
+        writer.append(createRowCell(i));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
   /**
    * This verifies that each cell has a tag that is equal to its rowkey name.  For this to work
    * the hbase instance must have HConstants.RPC_CODEC_CONF_KEY set to
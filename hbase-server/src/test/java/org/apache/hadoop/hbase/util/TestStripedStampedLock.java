@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.testclassification.MiscTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ MiscTests.class, SmallTests.class })
+public class TestStripedStampedLock {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestStripedStampedLock.class);
+
+  @Test
+  public void testStripesRoundedUpToPowerOfTwo() {
+    assertEquals(1, new StripedStampedLock(0).getStripes());
+    assertEquals(1, new StripedStampedLock(1).getStripes());
+    assertEquals(8, new StripedStampedLock(5).getStripes());
+    assertEquals(1024, new StripedStampedLock(1024).getStripes());
+  }
+
+  @Test
+  public void testSameIdSameLock() {
+    StripedStampedLock lock = new StripedStampedLock(16);
+    assertSame(lock.getLock(12345L), lock.getLock(12345L));
+  }
+
+  @Test
+  public void testAlignedIdsSpread() {
+    StripedStampedLock lock = new StripedStampedLock(64);
+    Set<StampedLock> used = new HashSet<>();
+    // offsets of blocks in the bucket cache are multiples of the bucket sizes
+    for (long offset = 0; offset < 256 * 65536; offset += 65536) {
+      used.add(lock.getLock(offset));
+    }
+    assertTrue("Only " + used.size() + " stripes used", used.size() > 48);
+  }
+
+  @Test
+  public void testOptimisticReadInvalidatedByWrite() {
+    StampedLock lock = new StripedStampedLock(16).getLock(7L);
+    long stamp = lock.tryOptimisticRead();
+    assertTrue(lock.validate(stamp));
+    long writeStamp = lock.writeLock();
+    lock.unlockWrite(writeStamp);
+    assertFalse(lock.validate(stamp));
+  }
+}
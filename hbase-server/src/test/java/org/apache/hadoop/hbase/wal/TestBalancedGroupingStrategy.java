@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.ArgumentCaptor;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestBalancedGroupingStrategy {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+      HBaseClassTestRule.forClass(TestBalancedGroupingStrategy.class);
+
+  private static final TableName TABLE = TableName.valueOf("test");
+
+  private BalancedGroupingStrategy strategy;
+  private Map<String, WALActionsListener> listeners;
+
+  @Before
+  public void setUp() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(RegionGroupingProvider.REGION_GROUPING_STRATEGY,
+      BalancedGroupingStrategy.STRATEGY_NAME);
+    conf.setInt(BoundedGroupingStrategy.NUM_REGION_GROUPS, 2);
+    // balance only when the test says so
+    conf.setLong(BalancedGroupingStrategy.BALANCE_PERIOD, Long.MAX_VALUE);
+    assertTrue(BalancedGroupingStrategy.isEnabled(conf));
+    strategy = new BalancedGroupingStrategy();
+    strategy.init(conf, "test");
+    listeners = new HashMap<>();
+    for (int i = 0; i < 2; i++) {
+      String group = "test.regiongroup-" + i;
+      WALProvider provider = mock(WALProvider.class);
+      strategy.groupProviderCreated(group, provider);
+      ArgumentCaptor<WALActionsListener> listener =
+          ArgumentCaptor.forClass(WALActionsListener.class);
+      verify(provider).addWALActionsListener(listener.capture());
+      listeners.put(group, listener.getValue());
+    }
+  }
+
+  private String group(String region) {
+    return strategy.group(Bytes.toBytes(region), TABLE.getNamespace());
+  }
+
+  private void append(String region, long bytes) throws IOException {
+    listeners.get(group(region)).postAppend(bytes, 0,
+      new WALKeyImpl(Bytes.toBytes(region), TABLE, 0), new WALEdit());
+  }
+
+  private void sync(String group, long timeInNanos) {
+    listeners.get(group).postSync(timeInNanos, 1);
+  }
+
+  @Test
+  public void testNewRegionGoesToLeastLoadedGroup() throws IOException {
+    String a = group("a");
+    String b = group("b");
+    assertNotEquals(a, b);
+    append("a", 1000);
+    append("b", 10);
+    strategy.balance();
+    assertEquals(b, group("c"));
+    // stays where it was put
+    assertEquals(a, group("a"));
+  }
+
+  @Test
+  public void testMoveRegionOffHotGroup() throws IOException {
+    for (String region : new String[] { "a", "b", "c", "d" }) {
+      group(region);
+    }
+    String hot = group("a");
+    String cold = group("b");
+    assertEquals(hot, group("c"));
+    assertEquals(cold, group("d"));
+    append("a", 1000);
+    append("c", 1000);
+    append("b", 100);
+    append("d", 100);
+    strategy.balance();
+    // one of the hot regions moves, moving both would only make the other group hot
+    assertTrue(cold.equals(group("a")) ^ cold.equals(group("c")));
+    assertEquals(cold, group("b"));
+    assertEquals(cold, group("d"));
+  }
+
+  @Test
+  public void testMoveRegionOffSlowGroup() throws IOException {
+    for (String region : new String[] { "a", "b", "c", "d" }) {
+      group(region);
+    }
+    String slow = group("a");
+    String fast = group("b");
+    for (String region : new String[] { "a", "b", "c", "d" }) {
+      append(region, 100);
+    }
+    sync(slow, 10000000);
+    sync(fast, 1000000);
+    strategy.balance();
+    // the same bytes weigh more on the group whose WAL syncs slower
+    assertTrue(fast.equals(group("a")) ^ fast.equals(group("c")));
+    // balanced as is when the syncs take as long
+    append("a", 100);
+    append("c", 100);
+    sync(slow, 1000000);
+    sync(fast, 1000000);
+    String a = group("a");
+    strategy.balance();
+    assertEquals(a, group("a"));
+  }
+}